@@ -0,0 +1,8 @@
+#!/bin/bash
+if [ $# -ne 1 ]; then
+  echo "Create a session token for a user:"
+  echo "    $0 <id>"
+  exit -1
+fi
+
+curl -v -u $1 -X POST "http://0.0.0.0:8080/sessions" && echo
\ No newline at end of file
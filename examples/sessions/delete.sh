@@ -0,0 +1,8 @@
+#!/bin/bash
+if [ $# -ne 1 ]; then
+  echo "Revoke a session token:"
+  echo "    $0 <token>"
+  exit -1
+fi
+
+curl -v -H "Authorization: Bearer $1" -X DELETE "http://0.0.0.0:8080/sessions" && echo
\ No newline at end of file
@@ -1,14 +1,25 @@
 package com.wesabe.grendel;
 
+import java.io.File;
+import java.io.IOException;
 import java.security.SecureRandom;
 
 import org.eclipse.jetty.server.NCSARequestLog;
 import org.eclipse.jetty.server.RequestLog;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
 
 import com.codahale.shore.AbstractConfiguration;
+import com.google.common.collect.ImmutableList;
 import com.google.inject.AbstractModule;
 import com.google.inject.Stage;
+import com.wesabe.grendel.blobs.BlobStores;
+import com.wesabe.grendel.blobs.FileBlobStore;
 import com.wesabe.grendel.modules.SecureRandomProvider;
+import com.wesabe.grendel.openpgp.CryptoProviders;
+import com.wesabe.grendel.openpgp.CryptographicException;
+import com.wesabe.grendel.openpgp.RoutingProvider;
+import com.wesabe.grendel.openpgp.S2KCalibration;
 
 /**
  * The Shore configuration class.
@@ -16,8 +27,38 @@ import com.wesabe.grendel.modules.SecureRandomProvider;
  * @author coda
  */
 public class Configuration extends AbstractConfiguration {
+	private static final Logger LOGGER = LoggerFactory.getLogger(Configuration.class);
+	
+	/**
+	 * Set to {@code false} to run all cryptographic primitives on Bouncy
+	 * Castle.
+	 */
+	private static final String CRYPTO_ROUTING_PROPERTY = "grendel.crypto.routing";
+	
+	/**
+	 * A comma-separated list of the JCA providers to route primitives to, in
+	 * order of preference.
+	 */
+	private static final String CRYPTO_PROVIDERS_PROPERTY = "grendel.crypto.providers";
+	
+	/**
+	 * The time it should take to unlock a key, in milliseconds. Set to
+	 * {@code 0} to use Bouncy Castle's default S2K iteration count.
+	 */
+	private static final String S2K_TARGET_PROPERTY = "grendel.s2k.target-millis";
+	private static final int DEFAULT_S2K_TARGET = 50;
+	
+	/**
+	 * The absolute path of the directory in which to store document bodies.
+	 * If unset or empty, they're stored in the database.
+	 */
+	private static final String BLOB_STORE_PATH_PROPERTY = "grendel.blob-store.path";
+	
 	@Override
 	protected void configure() {
+		configureCryptoProviders();
+		configureS2K();
+		configureBlobStore();
 		addEntityPackage("com.wesabe.grendel.entities");
 		addResourcePackage("org.codehaus.jackson.jaxrs");
 		addResourcePackage("com.wesabe.grendel.auth");
@@ -31,13 +72,61 @@ public class Configuration extends AbstractConfiguration {
 		setStage(Stage.PRODUCTION);
 	}
 	
+	private void configureCryptoProviders() {
+		if (Boolean.parseBoolean(System.getProperty(CRYPTO_ROUTING_PROPERTY, "true"))) {
+			final String providers = System.getProperty(CRYPTO_PROVIDERS_PROPERTY);
+			if (providers == null) {
+				CryptoProviders.installRouting(RoutingProvider.DEFAULT_PREFERRED_PROVIDERS);
+			} else {
+				final ImmutableList.Builder<String> names = ImmutableList.builder();
+				for (String name : providers.split(",")) {
+					if (!name.trim().isEmpty()) {
+						names.add(name.trim());
+					}
+				}
+				CryptoProviders.installRouting(names.build());
+			}
+		}
+	}
+	
+	private void configureS2K() {
+		final int target = Integer.getInteger(S2K_TARGET_PROPERTY, DEFAULT_S2K_TARGET);
+		if (target > 0) {
+			try {
+				S2KCalibration.calibrate(target);
+			} catch (CryptographicException e) {
+				LOGGER.warn("Unable to calibrate S2K iteration count; using the default", e);
+			}
+		}
+	}
+
+	private void configureBlobStore() {
+		final String path = System.getProperty(BLOB_STORE_PATH_PROPERTY, "");
+		if (path.trim().isEmpty()) {
+			LOGGER.info("Storing document bodies in the database");
+			return;
+		}
+		
+		final File root = new File(path);
+		if (!root.isAbsolute()) {
+			throw new IllegalStateException(BLOB_STORE_PATH_PROPERTY + " must be an absolute path: " + path);
+		}
+		
+		try {
+			BlobStores.install(new FileBlobStore(root));
+			LOGGER.info("Storing document bodies in " + root);
+		} catch (IOException e) {
+			throw new IllegalStateException("Unable to open blob store in " + root, e);
+		}
+	}
+
 	@Override
 	protected void configureRequestLog(RequestLog log) {
 		final NCSARequestLog ncsaLog = (NCSARequestLog) log;
 		ncsaLog.setExtended(false);
 		ncsaLog.setLogLatency(true);
 	}
-
+	
 	@Override
 	public String getExecutableName() {
 		return "grendel";
@@ -1,5 +1,7 @@
 package com.wesabe.grendel.auth;
 
+import java.security.SecureRandom;
+
 import javax.ws.rs.WebApplicationException;
 import javax.ws.rs.core.Context;
 import javax.ws.rs.core.HttpHeaders;
@@ -9,14 +11,18 @@ import org.eclipse.jetty.http.security.B64Code;
 import org.eclipse.jetty.util.StringUtil;
 
 import com.codahale.shore.injection.AbstractInjectionProvider;
+import com.google.common.collect.ImmutableSet;
+import com.google.inject.Inject;
+import com.google.inject.Provider;
 import com.sun.jersey.api.core.HttpContext;
 
 /**
  * A Jersey injection provider for {@link Credentials} instances.
  * <p>
- * Decodes Basic authentication credentials. If none are present, or the
- * credentials are malformed, throws a {@link WebApplicationException} with an
- * appropriate authentication challenge.
+ * Decodes Basic authentication credentials, or a bearer token issued by the
+ * {@code /sessions} resource. If neither is present, or the credentials are
+ * malformed, throws a {@link WebApplicationException} with an appropriate
+ * authentication challenge.
  * <p>
  * To add a Basic authentication requirement to a method, simply annotate a
  * {@link Credentials} parameter with {@link Context}:
@@ -31,10 +37,20 @@ import com.sun.jersey.api.core.HttpContext;
 @Provider
 public class BasicAuthProvider extends AbstractInjectionProvider<Credentials> {
 	private static final String HEADER_PREFIX = "Basic ";
+	private static final String TOKEN_HEADER_PREFIX = "Bearer ";
 	private static final char CREDENTIAL_DELIMITER = ':';
+	private static final ImmutableSet<String> SAFE_METHODS = ImmutableSet.of("GET", "HEAD", "OPTIONS");
 
-	public BasicAuthProvider() {
+	private final KeySetCache cache;
+	private final SessionStore sessionStore;
+	private final Provider<SecureRandom> randomProvider;
+	
+	@Inject
+	public BasicAuthProvider(KeySetCache cache, SessionStore sessionStore, Provider<SecureRandom> randomProvider) {
 		super(Credentials.class);
+		this.cache = cache;
+		this.sessionStore = sessionStore;
+		this.randomProvider = randomProvider;
 	}
 
 	@Override
@@ -51,7 +67,16 @@ public class BasicAuthProvider extends AbstractInjectionProvider<Credentials> {
 					final String password = credentials.substring(i + 1);
 					
 					if ((username != null) && (password != null)) {
-						return new Credentials(username, password);
+						// only requests which already write re-lock outdated key sets
+						final boolean safe = SAFE_METHODS.contains(context.getRequest().getMethod());
+						return new Credentials(username, password, cache, safe ? null : randomProvider);
+					}
+				}
+				
+				if ((header != null) && header.startsWith(TOKEN_HEADER_PREFIX)) {
+					final String token = header.substring(TOKEN_HEADER_PREFIX.length()).trim();
+					if (!token.isEmpty()) {
+						return new TokenCredentials(token, sessionStore);
 					}
 				}
 			} catch (IllegalArgumentException e) {
@@ -1,13 +1,20 @@
 package com.wesabe.grendel.auth;
 
+import java.security.SecureRandom;
+
 import javax.ws.rs.WebApplicationException;
 import javax.ws.rs.core.HttpHeaders;
 import javax.ws.rs.core.Response;
 import javax.ws.rs.core.Response.Status;
 
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.google.inject.Provider;
 import com.wesabe.grendel.entities.User;
 import com.wesabe.grendel.entities.dao.UserDAO;
 import com.wesabe.grendel.openpgp.CryptographicException;
+import com.wesabe.grendel.openpgp.KeySet;
 import com.wesabe.grendel.openpgp.UnlockedKeySet;
 
 /**
@@ -18,6 +25,8 @@ import com.wesabe.grendel.openpgp.UnlockedKeySet;
  * @author coda
  */
 public class Credentials {
+	private static final Logger LOGGER = LoggerFactory.getLogger(Credentials.class);
+	
 	/**
 	 * An authentication challenge {@link Response}. Use this when a client's
 	 * provided credentials are invalid.
@@ -29,16 +38,50 @@ public class Credentials {
 	
 	private final String username;
 	private final String password;
+	private final KeySetCache cache;
+	private final Provider<SecureRandom> randomProvider;
 	
 	/**
-	 * Creates a new set of credentials.
+	 * Creates a new set of credentials for a request which only reads.
 	 * 
 	 * @param username the client's provided username
 	 * @param password the client's provided password
 	 */
 	public Credentials(String username, String password) {
+		this(username, password, null);
+	}
+	
+	/**
+	 * Creates a new set of credentials which use a {@link KeySetCache} to
+	 * avoid unlocking the same {@link User}'s key set on every request, for a
+	 * request which only reads.
+	 * 
+	 * @param username the client's provided username
+	 * @param password the client's provided password
+	 * @param cache a {@link KeySetCache}, or {@code null}
+	 */
+	public Credentials(String username, String password, KeySetCache cache) {
+		this(username, password, cache, null);
+	}
+	
+	/**
+	 * Creates a new set of credentials which use a {@link KeySetCache} to
+	 * avoid unlocking the same {@link User}'s key set on every request, and
+	 * which re-lock outdated key sets once they've been unlocked. Only
+	 * requests which already write should re-lock key sets, and only their
+	 * sessions can unlock the master key to sign with.
+	 * 
+	 * @param username the client's provided username
+	 * @param password the client's provided password
+	 * @param cache a {@link KeySetCache}, or {@code null}
+	 * @param randomProvider a provider of {@link SecureRandom} instances, or
+	 *        {@code null} for a request which only reads
+	 */
+	public Credentials(String username, String password, KeySetCache cache, Provider<SecureRandom> randomProvider) {
 		this.username = username;
 		this.password = password;
+		this.cache = cache;
+		this.randomProvider = randomProvider;
 	}
 	
 	/**
@@ -58,6 +101,17 @@ public class Credentials {
 	/**
 	 * Given a {@link UserDAO}, finds the associated {@link User} and returns a
 	 * {@link Session}.
+	 * <p>
+	 * If these credentials are for a request which writes, the key set's
+	 * master key is unlocked and cached along with the rest of the key set;
+	 * otherwise, the master key can't be unlocked during the session.
+	 * <p>
+	 * If these credentials re-lock outdated key sets and the user's key set is
+	 * locked with far fewer S2K iterations than new key sets are, it's
+	 * re-locked with the same passphrase and written to the database before
+	 * the session is returned, so the session's {@link User} already has its
+	 * new etag. If another request modifies the user first, the key set is
+	 * left as it is until the next time.
 	 * 
 	 * @param userDAO
 	 *            a {@link UserDAO}
@@ -68,17 +122,82 @@ public class Credentials {
 	public Session buildSession(UserDAO userDAO) throws WebApplicationException {
 		final User user = userDAO.findById(username);
 		if (user != null) {
-			try {
-				final UnlockedKeySet keySet = user.getKeySet().unlock(password.toCharArray());
-				return new Session(user, keySet);
-			} catch (CryptographicException e) {
-				throw new WebApplicationException(CHALLENGE);
+			UnlockedKeySet keySet = null;
+			if (cache != null) {
+				keySet = cache.get(user, username, password);
+			}
+			
+			boolean cached = (keySet != null);
+			if (!cached) {
+				try {
+					keySet = user.getKeySet().unlock(password.toCharArray());
+				} catch (CryptographicException e) {
+					throw new WebApplicationException(CHALLENGE);
+				}
 			}
+			
+			if (prepareMasterKey(keySet)) {
+				// the cached entry doesn't have the master key sealed into it
+				cached = false;
+			}
+			
+			if (relockIfOutdated(userDAO, user, keySet)) {
+				// the cached entry is bound to the user's old etag
+				cached = false;
+			}
+			
+			if ((cache != null) && !cached) {
+				cache.put(user, username, password, keySet);
+			}
+			return new Session(user, keySet);
 		}
 		
 		throw new WebApplicationException(CHALLENGE);
 	}
 	
+	/*
+	 * Requests which write usually sign, so their master key is unlocked up
+	 * front and sealed into the cached entry, sparing later writes the S2K.
+	 * Requests which only read never sign, so their copy of the passphrase is
+	 * zeroed straight away. Returns true if the master key was just unlocked.
+	 */
+	private boolean prepareMasterKey(UnlockedKeySet keySet) throws WebApplicationException {
+		if (randomProvider == null) {
+			keySet.forgetPassphrase();
+			return false;
+		}
+		
+		if (keySet.isMasterKeyUnlocked()) {
+			return false;
+		}
+		
+		try {
+			keySet.getUnlockedMasterKey();
+			return true;
+		} catch (CryptographicException e) {
+			throw new WebApplicationException(CHALLENGE);
+		}
+	}
+	
+	private boolean relockIfOutdated(UserDAO userDAO, User user, UnlockedKeySet keySet) {
+		if (randomProvider == null) {
+			return false;
+		}
+		
+		try {
+			if (user.getKeySet().isLockOutdated()) {
+				final KeySet relocked = keySet.relock(password.toCharArray(), password.toCharArray(), randomProvider.get());
+				if (userDAO.replaceKeySet(user, relocked)) {
+					return true;
+				}
+				LOGGER.debug("Not re-locking the key set for " + username + "; the user was modified by another request");
+			}
+		} catch (CryptographicException e) {
+			LOGGER.warn("Unable to re-lock the key set for " + username, e);
+		}
+		return false;
+	}
+	
 	/**
 	 * Given a {@link UserDAO} and an allowed {@link User} id, finds the
 	 * associated {@link User} and returns a {@link Session}.
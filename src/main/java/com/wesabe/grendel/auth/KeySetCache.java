@@ -0,0 +1,244 @@
+package com.wesabe.grendel.auth;
+
+import java.nio.charset.Charset;
+import java.security.SecureRandom;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import javax.crypto.SecretKey;
+
+import com.google.inject.Inject;
+import com.google.inject.Provider;
+import com.google.inject.Singleton;
+import com.wesabe.grendel.entities.User;
+import com.wesabe.grendel.openpgp.CryptographicException;
+import com.wesabe.grendel.openpgp.SealedKeySet;
+import com.wesabe.grendel.openpgp.UnlockedKeySet;
+import com.wesabe.grendel.util.MBeans;
+
+/**
+ * A bounded, in-memory cache of {@link UnlockedKeySet}s, keyed by the
+ * credentials which unlocked them.
+ * <p>
+ * Unlocking a {@link User}'s key set requires two S2K passphrase derivations,
+ * which is often the most expensive part of handling a small request. Cached
+ * key sets are stored as {@link SealedKeySet}s, encrypted with a key derived
+ * from the user's credentials, so the cache's contents are useless without
+ * the passwords which produced them. Both the lookup key and the encryption
+ * key are HMACs of the credentials, keyed with random secrets which are never
+ * persisted. Key sets cached by requests which write include their unlocked
+ * master key, so later writes can sign without an S2K derivation either.
+ * <p>
+ * Entries expire after {@code grendel.keyset-cache.ttl} seconds (default:
+ * {@value #DEFAULT_TTL}), the least-recently used entry is evicted once the
+ * cache holds {@code grendel.keyset-cache.capacity} entries (default:
+ * {@value #DEFAULT_CAPACITY}), and an entry is ignored if the {@link User}'s
+ * etag has changed since it was cached. A capacity of {@code 0} disables the
+ * cache.
+ * 
+ * @author coda
+ */
+@Singleton
+public class KeySetCache implements KeySetCacheMBean {
+	private static final String CAPACITY_PROPERTY = "grendel.keyset-cache.capacity";
+	private static final String TTL_PROPERTY = "grendel.keyset-cache.ttl";
+	private static final int DEFAULT_CAPACITY = 1000;
+	private static final int DEFAULT_TTL = 300;
+	private static final Charset UTF_8 = Charset.forName("UTF-8");
+	
+	private static class Entry {
+		private final String username;
+		private final String etag;
+		private final SealedKeySet keySet;
+		private final long expiresAt;
+		
+		public Entry(String username, String etag, SealedKeySet keySet, long expiresAt) {
+			this.username = username;
+			this.etag = etag;
+			this.keySet = keySet;
+			this.expiresAt = expiresAt;
+		}
+	}
+	
+	private final Provider<SecureRandom> randomProvider;
+	private final int capacity;
+	private final long ttl;
+	private final SecretKey lookupSecret, sealingSecret;
+	private final Map<String, Entry> entries;
+	private final AtomicLong hits = new AtomicLong();
+	private final AtomicLong misses = new AtomicLong();
+	private final AtomicLong evictions = new AtomicLong();
+	
+	@Inject
+	public KeySetCache(Provider<SecureRandom> randomProvider) {
+		this(randomProvider,
+			Integer.getInteger(CAPACITY_PROPERTY, DEFAULT_CAPACITY),
+			Integer.getInteger(TTL_PROPERTY, DEFAULT_TTL),
+			TimeUnit.SECONDS);
+		MBeans.register("KeySetCache", "unlocked", this, KeySetCacheMBean.class);
+	}
+	
+	/**
+	 * Creates a new {@link KeySetCache}.
+	 * 
+	 * @param randomProvider a provider of {@link SecureRandom} instances
+	 * @param capacity the maximum number of cached key sets
+	 * @param ttl how long a key set is cached for
+	 * @param unit the unit of {@code ttl}
+	 */
+	public KeySetCache(Provider<SecureRandom> randomProvider, int capacity, long ttl, TimeUnit unit) {
+		this.randomProvider = randomProvider;
+		this.capacity = capacity;
+		this.ttl = unit.toNanos(ttl);
+		this.lookupSecret = Secrets.generate(randomProvider.get());
+		this.sealingSecret = Secrets.generate(randomProvider.get());
+		this.entries = new LinkedHashMap<String, Entry>(16, 0.75f, true) {
+			private static final long serialVersionUID = -4217328434513536455L;
+			
+			@Override
+			protected boolean removeEldestEntry(Map.Entry<String, Entry> eldest) {
+				if (size() > KeySetCache.this.capacity) {
+					evictions.incrementAndGet();
+					return true;
+				}
+				return false;
+			}
+		};
+	}
+	
+	/**
+	 * Returns the cached {@link UnlockedKeySet} for {@code user}, or
+	 * {@code null} if no key set was cached for these credentials, if it has
+	 * expired, or if {@code user} has been modified since.
+	 */
+	public UnlockedKeySet get(User user, String username, String password) {
+		if (capacity == 0) {
+			return null;
+		}
+		
+		final byte[] credentials = encode(username, password);
+		try {
+			final String lookupKey = Secrets.lookupKey(lookupSecret, credentials);
+			Entry entry;
+			synchronized (entries) {
+				entry = entries.get(lookupKey);
+				if ((entry != null) && !isValid(entry, user)) {
+					entries.remove(lookupKey);
+					entry = null;
+				}
+			}
+			
+			if (entry != null) {
+				final UnlockedKeySet keySet = entry.keySet.unseal(Secrets.sealingKey(sealingSecret, credentials), password.toCharArray());
+				hits.incrementAndGet();
+				return keySet;
+			}
+		} catch (CryptographicException e) {
+			// treat an undecryptable entry as a miss
+		} finally {
+			Arrays.fill(credentials, (byte) 0);
+		}
+		
+		misses.incrementAndGet();
+		return null;
+	}
+	
+	/**
+	 * Caches {@code keySet}, which was unlocked with the given credentials.
+	 */
+	public void put(User user, String username, String password, UnlockedKeySet keySet) {
+		if (capacity == 0) {
+			return;
+		}
+		
+		final byte[] credentials = encode(username, password);
+		try {
+			final SealedKeySet sealed = SealedKeySet.seal(keySet, Secrets.sealingKey(sealingSecret, credentials), randomProvider.get());
+			final Entry entry = new Entry(username, user.getEtag(), sealed, System.nanoTime() + ttl);
+			synchronized (entries) {
+				entries.put(Secrets.lookupKey(lookupSecret, credentials), entry);
+			}
+		} catch (CryptographicException e) {
+			// an uncacheable key set is unlocked again next time
+		} finally {
+			Arrays.fill(credentials, (byte) 0);
+		}
+	}
+	
+	/**
+	 * Removes all cached key sets belonging to {@code username}. Call this
+	 * whenever a {@link User}'s password changes or the user is deleted.
+	 */
+	public void invalidate(String username) {
+		synchronized (entries) {
+			for (Iterator<Entry> i = entries.values().iterator(); i.hasNext();) {
+				if (i.next().username.equals(username)) {
+					i.remove();
+				}
+			}
+		}
+	}
+	
+	@Override
+	public void clear() {
+		synchronized (entries) {
+			entries.clear();
+		}
+	}
+	
+	@Override
+	public int getCapacity() {
+		return capacity;
+	}
+	
+	@Override
+	public long getTimeToLive() {
+		return TimeUnit.NANOSECONDS.toSeconds(ttl);
+	}
+	
+	@Override
+	public int getSize() {
+		synchronized (entries) {
+			return entries.size();
+		}
+	}
+	
+	@Override
+	public long getHitCount() {
+		return hits.get();
+	}
+	
+	@Override
+	public long getMissCount() {
+		return misses.get();
+	}
+	
+	@Override
+	public long getEvictionCount() {
+		return evictions.get();
+	}
+	
+	@Override
+	public double getHitRatio() {
+		final long hitCount = hits.get();
+		final long total = hitCount + misses.get();
+		if (total == 0) {
+			return 0.0;
+		}
+		return hitCount / (double) total;
+	}
+	
+	private boolean isValid(Entry entry, User user) {
+		return ((entry.expiresAt - System.nanoTime()) > 0) && entry.etag.equals(user.getEtag());
+	}
+	
+	private static byte[] encode(String username, String password) {
+		// entries are also checked against the user's etag, which contains
+		// their id, so an ambiguous split of the two is never a valid entry
+		return new StringBuilder(username).append('\0').append(password).toString().getBytes(UTF_8);
+	}
+}
@@ -0,0 +1,48 @@
+package com.wesabe.grendel.auth;
+
+/**
+ * The management interface for a {@link KeySetCache}.
+ * 
+ * @author coda
+ */
+public interface KeySetCacheMBean {
+	/**
+	 * Returns the maximum number of cached key sets.
+	 */
+	public abstract int getCapacity();
+	
+	/**
+	 * Returns the number of seconds a key set is cached for.
+	 */
+	public abstract long getTimeToLive();
+	
+	/**
+	 * Returns the number of currently cached key sets.
+	 */
+	public abstract int getSize();
+	
+	/**
+	 * Returns the number of lookups which found a cached key set.
+	 */
+	public abstract long getHitCount();
+	
+	/**
+	 * Returns the number of lookups which didn't find a cached key set.
+	 */
+	public abstract long getMissCount();
+	
+	/**
+	 * Returns the number of key sets evicted to make room for others.
+	 */
+	public abstract long getEvictionCount();
+	
+	/**
+	 * Returns the fraction of lookups which found a cached key set.
+	 */
+	public abstract double getHitRatio();
+	
+	/**
+	 * Removes all cached key sets.
+	 */
+	public abstract void clear();
+}
@@ -0,0 +1,73 @@
+package com.wesabe.grendel.auth;
+
+import java.security.GeneralSecurityException;
+import java.security.SecureRandom;
+import java.util.Arrays;
+
+import javax.crypto.Mac;
+import javax.crypto.SecretKey;
+import javax.crypto.spec.SecretKeySpec;
+
+/**
+ * Utility methods for deriving lookup and sealing keys from secrets which
+ * must not be kept in memory, like passwords and session tokens.
+ * 
+ * @author coda
+ */
+final class Secrets {
+	private static final String MAC_ALGORITHM = "HmacSHA256";
+	private static final int SECRET_LENGTH = 32;
+	private static final int SEALING_KEY_LENGTH = 16;
+	
+	private Secrets() {}
+	
+	/**
+	 * Returns a new random HMAC key.
+	 */
+	public static SecretKey generate(SecureRandom random) {
+		final byte[] secret = new byte[SECRET_LENGTH];
+		random.nextBytes(secret);
+		return new SecretKeySpec(secret, MAC_ALGORITHM);
+	}
+	
+	/**
+	 * Returns the hex-encoded HMAC of {@code data}, for use as a map key.
+	 */
+	public static String lookupKey(SecretKey secret, byte[] data) {
+		return hex(hmac(secret, data));
+	}
+	
+	/**
+	 * Returns an AES key derived from the HMAC of {@code data}.
+	 */
+	public static SecretKey sealingKey(SecretKey secret, byte[] data) {
+		final byte[] mac = hmac(secret, data);
+		try {
+			return new SecretKeySpec(mac, 0, SEALING_KEY_LENGTH, "AES");
+		} finally {
+			Arrays.fill(mac, (byte) 0);
+		}
+	}
+	
+	/**
+	 * Returns {@code bytes} as a string of lower-case hex digits.
+	 */
+	public static String hex(byte[] bytes) {
+		final StringBuilder builder = new StringBuilder(bytes.length * 2);
+		for (byte b : bytes) {
+			builder.append(Character.forDigit((b >> 4) & 0xf, 16));
+			builder.append(Character.forDigit(b & 0xf, 16));
+		}
+		return builder.toString();
+	}
+	
+	private static byte[] hmac(SecretKey secret, byte[] data) {
+		try {
+			final Mac mac = Mac.getInstance(MAC_ALGORITHM);
+			mac.init(secret);
+			return mac.doFinal(data);
+		} catch (GeneralSecurityException e) {
+			throw new IllegalStateException(e);
+		}
+	}
+}
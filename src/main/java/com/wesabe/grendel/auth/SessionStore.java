@@ -0,0 +1,234 @@
+package com.wesabe.grendel.auth;
+
+import java.nio.charset.Charset;
+import java.security.SecureRandom;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import javax.crypto.SecretKey;
+
+import org.joda.time.DateTime;
+import org.joda.time.DateTimeZone;
+
+import com.google.inject.Inject;
+import com.google.inject.Provider;
+import com.google.inject.Singleton;
+import com.wesabe.grendel.entities.User;
+import com.wesabe.grendel.entities.dao.UserDAO;
+import com.wesabe.grendel.openpgp.CryptographicException;
+import com.wesabe.grendel.openpgp.SealedKeySet;
+import com.wesabe.grendel.openpgp.UnlockedKeySet;
+
+/**
+ * An in-memory store of {@link Session}s, identified by short-lived bearer
+ * tokens.
+ * <p>
+ * A {@link Session}'s {@link UnlockedKeySet} is stored as a
+ * {@link SealedKeySet}, encrypted with a key derived from its token, and is
+ * indexed by an HMAC of the token, so neither the tokens nor the key sets
+ * can be recovered from the store alone.
+ * <p>
+ * Tokens expire {@code grendel.sessions.ttl} seconds after they are created
+ * (default: {@value #DEFAULT_TTL}), and the oldest tokens are discarded once
+ * the store holds {@code grendel.sessions.capacity} of them (default:
+ * {@value #DEFAULT_CAPACITY}). A token is also discarded if its {@link User}
+ * has been modified since it was created.
+ * 
+ * @author coda
+ */
+@Singleton
+public class SessionStore {
+	private static final String CAPACITY_PROPERTY = "grendel.sessions.capacity";
+	private static final String TTL_PROPERTY = "grendel.sessions.ttl";
+	private static final int DEFAULT_CAPACITY = 10000;
+	private static final int DEFAULT_TTL = 900;
+	private static final int TOKEN_LENGTH = 32;
+	private static final Charset US_ASCII = Charset.forName("US-ASCII");
+	
+	private static class Entry {
+		private final String userId;
+		private final String etag;
+		private final SealedKeySet keySet;
+		private final long expiresAt;
+		
+		public Entry(String userId, String etag, SealedKeySet keySet, long expiresAt) {
+			this.userId = userId;
+			this.etag = etag;
+			this.keySet = keySet;
+			this.expiresAt = expiresAt;
+		}
+		
+		public boolean isExpired() {
+			return (expiresAt - System.nanoTime()) <= 0;
+		}
+	}
+	
+	private final Provider<SecureRandom> randomProvider;
+	private final int capacity;
+	private final long ttl;
+	private final SecretKey lookupSecret, sealingSecret;
+	private final Map<String, Entry> entries;
+	
+	@Inject
+	public SessionStore(Provider<SecureRandom> randomProvider) {
+		this(randomProvider,
+			Integer.getInteger(CAPACITY_PROPERTY, DEFAULT_CAPACITY),
+			Integer.getInteger(TTL_PROPERTY, DEFAULT_TTL),
+			TimeUnit.SECONDS);
+	}
+	
+	/**
+	 * Creates a new {@link SessionStore}.
+	 * 
+	 * @param randomProvider a provider of {@link SecureRandom} instances
+	 * @param capacity the maximum number of live tokens
+	 * @param ttl how long a token is valid for
+	 * @param unit the unit of {@code ttl}
+	 */
+	public SessionStore(Provider<SecureRandom> randomProvider, int capacity, long ttl, TimeUnit unit) {
+		this.randomProvider = randomProvider;
+		this.capacity = capacity;
+		this.ttl = unit.toNanos(ttl);
+		this.lookupSecret = Secrets.generate(randomProvider.get());
+		this.sealingSecret = Secrets.generate(randomProvider.get());
+		this.entries = new LinkedHashMap<String, Entry>() {
+			private static final long serialVersionUID = 2937489302845793462L;
+			
+			@Override
+			protected boolean removeEldestEntry(Map.Entry<String, Entry> eldest) {
+				return size() > SessionStore.this.capacity;
+			}
+		};
+	}
+	
+	/**
+	 * Stores {@code session} and returns a new {@link SessionToken} for it.
+	 * 
+	 * @throws CryptographicException if the session's key set can't be sealed
+	 */
+	public SessionToken create(Session session) throws CryptographicException {
+		final SecureRandom random = randomProvider.get();
+		final byte[] tokenBytes = new byte[TOKEN_LENGTH];
+		random.nextBytes(tokenBytes);
+		final String token = Secrets.hex(tokenBytes);
+		final byte[] encoded = encode(token);
+		
+		// the passphrase isn't kept, so the master key must be sealed too
+		session.getKeySet().getUnlockedMasterKey();
+		
+		final User user = session.getUser();
+		final SealedKeySet sealed = SealedKeySet.seal(session.getKeySet(), Secrets.sealingKey(sealingSecret, encoded), random);
+		final Entry entry = new Entry(user.getId(), user.getEtag(), sealed, System.nanoTime() + ttl);
+		
+		synchronized (entries) {
+			purgeExpired();
+			entries.put(Secrets.lookupKey(lookupSecret, encoded), entry);
+		}
+		
+		return new SessionToken(token, user.getId(), new DateTime(DateTimeZone.UTC).plus(TimeUnit.NANOSECONDS.toMillis(ttl)));
+	}
+	
+	/**
+	 * Returns the {@link Session} identified by {@code token}, or {@code null}
+	 * if the token is unknown or has expired, or if its {@link User} has been
+	 * modified or deleted since it was created.
+	 * 
+	 * @param token a bearer token returned by {@link #create(Session)}
+	 * @param userDAO a {@link UserDAO}
+	 */
+	public Session resolve(String token, UserDAO userDAO) {
+		final byte[] encoded = encode(token);
+		final String lookupKey = Secrets.lookupKey(lookupSecret, encoded);
+		
+		final Entry entry;
+		synchronized (entries) {
+			entry = entries.get(lookupKey);
+		}
+		
+		if (entry == null) {
+			return null;
+		}
+		
+		if (entry.isExpired()) {
+			remove(lookupKey);
+			return null;
+		}
+		
+		final User user = userDAO.findById(entry.userId);
+		if ((user == null) || !entry.etag.equals(user.getEtag())) {
+			remove(lookupKey);
+			return null;
+		}
+		
+		try {
+			final UnlockedKeySet keySet = entry.keySet.unseal(Secrets.sealingKey(sealingSecret, encoded));
+			return new Session(user, keySet);
+		} catch (CryptographicException e) {
+			remove(lookupKey);
+			return null;
+		}
+	}
+	
+	/**
+	 * Discards the {@link Session} identified by {@code token}.
+	 */
+	public void revoke(String token) {
+		remove(Secrets.lookupKey(lookupSecret, encode(token)));
+	}
+	
+	/**
+	 * Discards all {@link Session}s belonging to the {@link User} with the
+	 * given id. Call this whenever a user's password changes or the user is
+	 * deleted.
+	 */
+	public void invalidate(String userId) {
+		synchronized (entries) {
+			for (Iterator<Entry> i = entries.values().iterator(); i.hasNext();) {
+				if (i.next().userId.equals(userId)) {
+					i.remove();
+				}
+			}
+		}
+	}
+	
+	/**
+	 * Returns the number of live tokens.
+	 */
+	public int getSize() {
+		synchronized (entries) {
+			return entries.size();
+		}
+	}
+	
+	/**
+	 * Returns the number of seconds a token is valid for.
+	 */
+	public long getTimeToLive() {
+		return TimeUnit.NANOSECONDS.toSeconds(ttl);
+	}
+	
+	private void remove(String lookupKey) {
+		synchronized (entries) {
+			entries.remove(lookupKey);
+		}
+	}
+	
+	/*
+	 * Every token has the same lifetime, so tokens expire in the order they
+	 * were created.
+	 */
+	private void purgeExpired() {
+		for (Iterator<Entry> i = entries.values().iterator(); i.hasNext();) {
+			if (!i.next().isExpired()) {
+				break;
+			}
+			i.remove();
+		}
+	}
+	
+	private static byte[] encode(String token) {
+		return token.getBytes(US_ASCII);
+	}
+}
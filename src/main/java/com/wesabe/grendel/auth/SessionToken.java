@@ -0,0 +1,42 @@
+package com.wesabe.grendel.auth;
+
+import org.joda.time.DateTime;
+
+/**
+ * A bearer token which identifies a {@link Session} held by a
+ * {@link SessionStore}.
+ * 
+ * @author coda
+ */
+public class SessionToken {
+	private final String token;
+	private final String userId;
+	private final DateTime expiresAt;
+	
+	public SessionToken(String token, String userId, DateTime expiresAt) {
+		this.token = token;
+		this.userId = userId;
+		this.expiresAt = expiresAt;
+	}
+	
+	/**
+	 * Returns the opaque token string.
+	 */
+	public String getToken() {
+		return token;
+	}
+	
+	/**
+	 * Returns the id of the user the token belongs to.
+	 */
+	public String getUserId() {
+		return userId;
+	}
+	
+	/**
+	 * Returns a UTC timestamp of when the token expires.
+	 */
+	public DateTime getExpiresAt() {
+		return expiresAt;
+	}
+}
@@ -0,0 +1,61 @@
+package com.wesabe.grendel.auth;
+
+import javax.ws.rs.WebApplicationException;
+
+import com.wesabe.grendel.entities.dao.UserDAO;
+
+/**
+ * A bearer token issued by the {@code /sessions} resource, used in place of a
+ * set of Basic authentication credentials.
+ * <p>
+ * Building a {@link Session} from a token is a lookup in a
+ * {@link SessionStore} instead of a full key set unlock. Since there is no
+ * password, a token can't be used to change a user's password or to create
+ * another token.
+ * 
+ * @see BasicAuthProvider
+ * @see SessionStore
+ * @author coda
+ */
+public class TokenCredentials extends Credentials {
+	private final String token;
+	private final SessionStore store;
+	
+	/**
+	 * Creates a new set of token credentials.
+	 * 
+	 * @param token the client's provided bearer token
+	 * @param store the {@link SessionStore} which issued the token
+	 */
+	public TokenCredentials(String token, SessionStore store) {
+		super(null, null);
+		this.token = token;
+		this.store = store;
+	}
+	
+	/**
+	 * Returns the client's provided bearer token.
+	 */
+	public String getToken() {
+		return token;
+	}
+	
+	/**
+	 * Given a {@link UserDAO}, returns the {@link Session} identified by the
+	 * token.
+	 * 
+	 * @param userDAO
+	 *            a {@link UserDAO}
+	 * @throws WebApplicationException
+	 *             if the token is unknown or has expired
+	 */
+	@Override
+	public Session buildSession(UserDAO userDAO) throws WebApplicationException {
+		final Session session = store.resolve(token, userDAO);
+		if (session != null) {
+			return session;
+		}
+		
+		throw new WebApplicationException(CHALLENGE);
+	}
+}
@@ -0,0 +1,41 @@
+package com.wesabe.grendel.blobs;
+
+import java.io.IOException;
+import java.io.OutputStream;
+
+/**
+ * An {@link OutputStream} which writes a new blob to a {@link BlobStore}.
+ * <p>
+ * Nothing is stored until {@link #commit()} is called. Closing the stream
+ * without committing it discards everything written to it, so callers should
+ * always close the stream in a {@code finally} block:
+ * <pre>
+ * final BlobOutputStream output = store.create();
+ * try {
+ *   ...
+ *   return output.commit();
+ * } finally {
+ *   output.close();
+ * }
+ * </pre>
+ * 
+ * @author coda
+ * @see BlobStore#create()
+ */
+public abstract class BlobOutputStream extends OutputStream {
+	/**
+	 * Stores everything written to the stream as a blob and returns its key.
+	 * The blob is durable by the time this returns, and the stream can't be
+	 * written to afterwards.
+	 * 
+	 * @return the blob's key
+	 * @throws IOException if the blob can't be stored
+	 */
+	public abstract String commit() throws IOException;
+	
+	/**
+	 * Closes the stream, discarding its contents if it hasn't been committed.
+	 */
+	@Override
+	public abstract void close() throws IOException;
+}
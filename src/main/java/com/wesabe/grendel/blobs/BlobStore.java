@@ -0,0 +1,62 @@
+package com.wesabe.grendel.blobs;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+
+/**
+ * A store for the encrypted bodies of documents.
+ * <p>
+ * Blobs are immutable and are identified by an opaque key, which is returned
+ * when a blob is stored and which the database keeps in place of the blob
+ * itself.
+ * 
+ * @author coda
+ * @see BlobStores
+ */
+public interface BlobStore {
+	/**
+	 * Stores {@code data} and returns its key. The blob must be durable by
+	 * the time this returns.
+	 * 
+	 * @param data the blob's contents
+	 * @return the blob's key
+	 * @throws IOException if the blob can't be stored
+	 */
+	public abstract String put(byte[] data) throws IOException;
+	
+	/**
+	 * Returns a {@link BlobOutputStream} to which a new blob can be written
+	 * without holding it in memory. The blob is stored, and its key returned,
+	 * when the stream is committed.
+	 * 
+	 * @throws IOException if the stream can't be opened
+	 */
+	public abstract BlobOutputStream create() throws IOException;
+	
+	/**
+	 * Returns a read-only buffer of the contents of the blob with the given
+	 * key.
+	 * 
+	 * @param key a key returned by {@link #put(byte[])}
+	 * @throws IOException if the blob doesn't exist or can't be read
+	 */
+	public abstract ByteBuffer get(String key) throws IOException;
+	
+	/**
+	 * Returns an {@link InputStream} of the contents of the blob with the given
+	 * key, which reads the blob a piece at a time. The stream must be closed.
+	 * 
+	 * @param key a key returned by {@link #put(byte[])}
+	 * @throws IOException if the blob doesn't exist or can't be read
+	 */
+	public abstract InputStream open(String key) throws IOException;
+	
+	/**
+	 * Deletes the blob with the given key, if it exists.
+	 * 
+	 * @param key a key returned by {@link #put(byte[])}
+	 * @throws IOException if the blob can't be deleted
+	 */
+	public abstract void delete(String key) throws IOException;
+}
@@ -0,0 +1,37 @@
+package com.wesabe.grendel.blobs;
+
+/**
+ * Selects the {@link BlobStore} used for document bodies.
+ * <p>
+ * If no store is installed, document bodies are stored in the database.
+ * 
+ * @author coda
+ */
+public final class BlobStores {
+	private static volatile BlobStore store = null;
+	
+	private BlobStores() {}
+	
+	/**
+	 * Returns the installed {@link BlobStore}, or {@code null} if document
+	 * bodies should be stored in the database.
+	 */
+	public static BlobStore get() {
+		return store;
+	}
+	
+	/**
+	 * Makes {@code blobStore} the store for new document bodies.
+	 */
+	public static void install(BlobStore blobStore) {
+		store = blobStore;
+	}
+	
+	/**
+	 * Removes the installed {@link BlobStore}, if any. New document bodies
+	 * will be stored in the database.
+	 */
+	public static void uninstall() {
+		store = null;
+	}
+}
@@ -0,0 +1,336 @@
+package com.wesabe.grendel.blobs;
+
+import java.io.File;
+import java.io.FileNotFoundException;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.FileAlreadyExistsException;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.security.DigestOutputStream;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.regex.Pattern;
+
+import com.wesabe.grendel.openpgp.Pools;
+
+/**
+ * A content-addressed {@link BlobStore} which keeps each blob in its own file
+ * on the local filesystem.
+ * <p>
+ * A blob's key is the hex-encoded SHA-256 hash of its contents, and it's
+ * stored as {@code root/ab/cd/abcd...}. New blobs are written to a temporary
+ * file in {@code root/tmp} and hashed as they're written, then flushed to
+ * disk and atomically renamed into place, so readers never see a
+ * partially-written blob. The directory holding the blob is flushed after the
+ * rename, so the blob survives a crash once it's been committed. Since every
+ * encrypted body has its own random session key, no two documents share a
+ * blob, and a blob can be deleted as soon as its document is.
+ * <p>
+ * Blobs are never memory-mapped: a mapping holds the file's address space,
+ * and its disk space once the blob is deleted, until the buffer happens to be
+ * garbage collected. {@link #open(String)} reads through a pooled buffer
+ * instead, and closing the stream releases the file straight away.
+ * 
+ * @author coda
+ */
+public class FileBlobStore implements BlobStore {
+	private static final String DIGEST_ALGORITHM = "SHA-256";
+	private static final Pattern KEY_FORMAT = Pattern.compile("^[0-9a-f]{64}$");
+	
+	private final File root;
+	private final File tmp;
+	
+	/**
+	 * Creates a new {@link FileBlobStore}, creating its directories if they
+	 * don't already exist.
+	 * 
+	 * @param root the directory in which to store blobs
+	 * @throws IOException if the directories can't be created
+	 */
+	public FileBlobStore(File root) throws IOException {
+		this.root = root;
+		this.tmp = new File(root, "tmp");
+		mkdirs(tmp);
+	}
+	
+	/**
+	 * Returns the directory blobs are stored in.
+	 */
+	public File getRoot() {
+		return root;
+	}
+	
+	@Override
+	public String put(byte[] data) throws IOException {
+		final BlobOutputStream output = create();
+		try {
+			output.write(data);
+			return output.commit();
+		} finally {
+			output.close();
+		}
+	}
+	
+	@Override
+	public BlobOutputStream create() throws IOException {
+		final File temp = File.createTempFile("blob", ".tmp", tmp);
+		try {
+			return new FileBlobOutputStream(temp);
+		} catch (IOException e) {
+			Files.deleteIfExists(temp.toPath());
+			throw e;
+		}
+	}
+	
+	@Override
+	public ByteBuffer get(String key) throws IOException {
+		final RandomAccessFile file;
+		try {
+			file = new RandomAccessFile(getFile(key), "r");
+		} catch (FileNotFoundException e) {
+			throw new IOException("blob not found: " + key, e);
+		}
+		
+		try {
+			final FileChannel channel = file.getChannel();
+			final long size = channel.size();
+			if (size > Integer.MAX_VALUE) {
+				throw new IOException("blob too large to read into memory: " + key);
+			}
+			
+			final ByteBuffer buffer = ByteBuffer.allocate((int) size);
+			while (buffer.hasRemaining()) {
+				if (channel.read(buffer) < 0) {
+					throw new IOException("blob truncated: " + key);
+				}
+			}
+			buffer.flip();
+			return buffer.asReadOnlyBuffer();
+		} finally {
+			file.close();
+		}
+	}
+	
+	@Override
+	public InputStream open(String key) throws IOException {
+		final FileChannel channel;
+		try {
+			channel = FileChannel.open(getFile(key).toPath(), StandardOpenOption.READ);
+		} catch (NoSuchFileException e) {
+			throw new IOException("blob not found: " + key, e);
+		}
+		return new FileBlobInputStream(channel);
+	}
+	
+	@Override
+	public void delete(String key) throws IOException {
+		Files.deleteIfExists(getFile(key).toPath());
+	}
+	
+	/**
+	 * Returns the file the blob with the given key is stored in.
+	 * 
+	 * @throws IllegalArgumentException if {@code key} isn't a valid key
+	 */
+	public File getFile(String key) {
+		if (!KEY_FORMAT.matcher(key).matches()) {
+			throw new IllegalArgumentException("invalid blob key: " + key);
+		}
+		
+		final File directory = new File(new File(root, key.substring(0, 2)), key.substring(2, 4));
+		return new File(directory, key);
+	}
+	
+	private static MessageDigest newDigest() {
+		try {
+			return MessageDigest.getInstance(DIGEST_ALGORITHM);
+		} catch (NoSuchAlgorithmException e) {
+			throw new RuntimeException(e);
+		}
+	}
+	
+	private static String hex(byte[] digest) {
+		final StringBuilder key = new StringBuilder(digest.length * 2);
+		for (byte b : digest) {
+			key.append(Character.forDigit((b >> 4) & 0xf, 16));
+			key.append(Character.forDigit(b & 0xf, 16));
+		}
+		return key.toString();
+	}
+	
+	/*
+	 * A rename is only durable once the directory holding the new entry has
+	 * been flushed, as is a new directory once its parent has been.
+	 */
+	private static void sync(File directory) throws IOException {
+		final FileChannel channel = FileChannel.open(directory.toPath(), StandardOpenOption.READ);
+		try {
+			channel.force(true);
+		} finally {
+			channel.close();
+		}
+	}
+	
+	private static void mkdirs(File directory) throws IOException {
+		if (!directory.isDirectory() && !directory.mkdirs() && !directory.isDirectory()) {
+			throw new IOException("unable to create " + directory);
+		}
+	}
+	
+	/**
+	 * Reads a blob's file through a buffer borrowed from
+	 * {@link Pools#READ_BUFFERS}, which is returned when the stream is closed.
+	 */
+	private static class FileBlobInputStream extends InputStream {
+		private final FileChannel channel;
+		private ByteBuffer buffer;
+		
+		public FileBlobInputStream(FileChannel channel) {
+			this.channel = channel;
+			this.buffer = ByteBuffer.wrap(Pools.READ_BUFFERS.borrow());
+			buffer.limit(0);
+		}
+		
+		@Override
+		public int read() throws IOException {
+			if (!fill()) {
+				return -1;
+			}
+			return buffer.get() & 0xff;
+		}
+		
+		@Override
+		public int read(byte[] b, int off, int len) throws IOException {
+			if (len == 0) {
+				return 0;
+			}
+			
+			if (!fill()) {
+				return -1;
+			}
+			
+			final int n = Math.min(len, buffer.remaining());
+			buffer.get(b, off, n);
+			return n;
+		}
+		
+		@Override
+		public int available() throws IOException {
+			return (buffer == null) ? 0 : buffer.remaining();
+		}
+		
+		@Override
+		public void close() throws IOException {
+			if (buffer != null) {
+				Pools.READ_BUFFERS.release(buffer.array());
+				this.buffer = null;
+				channel.close();
+			}
+		}
+		
+		private boolean fill() throws IOException {
+			if (buffer == null) {
+				throw new IOException("stream closed");
+			}
+			
+			while (!buffer.hasRemaining()) {
+				buffer.clear();
+				final int n = channel.read(buffer);
+				buffer.flip();
+				if (n < 0) {
+					return false;
+				}
+			}
+			return true;
+		}
+	}
+	
+	private class FileBlobOutputStream extends BlobOutputStream {
+		private final File temp;
+		private final FileOutputStream file;
+		private final DigestOutputStream output;
+		private boolean closed = false;
+		
+		public FileBlobOutputStream(File temp) throws IOException {
+			this.temp = temp;
+			this.file = new FileOutputStream(temp);
+			this.output = new DigestOutputStream(file, newDigest());
+		}
+		
+		@Override
+		public void write(int b) throws IOException {
+			output.write(b);
+		}
+		
+		@Override
+		public void write(byte[] b, int off, int len) throws IOException {
+			output.write(b, off, len);
+		}
+		
+		@Override
+		public String commit() throws IOException {
+			if (closed) {
+				throw new IOException("stream closed");
+			}
+			
+			this.closed = true;
+			try {
+				output.flush();
+				file.getChannel().force(true);
+				output.close();
+				
+				final String key = hex(output.getMessageDigest().digest());
+				final File blob = getFile(key);
+				if (!blob.exists()) {
+					store(blob);
+				}
+				return key;
+			} finally {
+				try {
+					file.close();
+				} finally {
+					Files.deleteIfExists(temp.toPath());
+				}
+			}
+		}
+		
+		private void store(File blob) throws IOException {
+			final File shard = blob.getParentFile();
+			final boolean created = !shard.isDirectory();
+			mkdirs(shard);
+			try {
+				Files.move(temp.toPath(), blob.toPath(), StandardCopyOption.ATOMIC_MOVE);
+			} catch (FileAlreadyExistsException e) {
+				// stored concurrently with the same contents
+			} catch (AtomicMoveNotSupportedException e) {
+				throw new IOException("blob store must be on a single filesystem: " + root, e);
+			}
+			
+			sync(shard);
+			if (created) {
+				sync(shard.getParentFile());
+				sync(root);
+			}
+		}
+		
+		@Override
+		public void close() throws IOException {
+			if (!closed) {
+				this.closed = true;
+				try {
+					output.close();
+				} finally {
+					Files.deleteIfExists(temp.toPath());
+				}
+			}
+		}
+	}
+}
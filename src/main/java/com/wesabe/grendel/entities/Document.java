@@ -2,13 +2,21 @@ package com.wesabe.grendel.entities;
 
 import static com.google.common.base.Objects.*;
 
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
 import java.io.Serializable;
 import java.security.SecureRandom;
+import java.util.List;
 import java.util.Set;
 
 import javax.persistence.*;
 import javax.ws.rs.core.MediaType;
 
+import org.hibernate.annotations.Cache;
+import org.hibernate.annotations.CacheConcurrencyStrategy;
+import org.hibernate.annotations.ForeignKey;
+import org.hibernate.annotations.Index;
 import org.hibernate.annotations.Type;
 import org.joda.time.DateTime;
 import org.joda.time.DateTimeZone;
@@ -17,13 +25,20 @@ import com.google.common.collect.Sets;
 import com.wesabe.grendel.openpgp.CryptographicException;
 import com.wesabe.grendel.openpgp.KeySet;
 import com.wesabe.grendel.openpgp.MessageReader;
+import com.wesabe.grendel.openpgp.MessageRewrapper;
 import com.wesabe.grendel.openpgp.MessageWriter;
+import com.wesabe.grendel.openpgp.RecipientKey;
 import com.wesabe.grendel.openpgp.UnlockedKeySet;
 import com.wesabe.grendel.util.HashCode;
 
 /**
  * A document with an abritrary body, stored as an encrypted+signed OpenPGP
  * message.
+ * <p>
+ * The body is stored separately, as a {@link DocumentBody}, and isn't loaded
+ * until it's encrypted, decrypted, or rewrapped. The body's data is usually
+ * kept in a {@link com.wesabe.grendel.blobs.BlobStore} rather than the
+ * database.
  * 
  * @author coda
  */
@@ -34,8 +49,25 @@ import com.wesabe.grendel.util.HashCode;
 	@NamedQuery(
 		name="com.wesabe.grendel.entities.Document.ByOwnerAndName",
 		query="SELECT d FROM Document AS d WHERE d.name = :name AND d.owner = :owner"
+	),
+	@NamedQuery(
+		name="com.wesabe.grendel.entities.Document.BodiesByOwner",
+		query="SELECT d.name, d.body.id, d.body.blobKey FROM Document AS d WHERE d.owner = :owner"
+	),
+	@NamedQuery(
+		name="com.wesabe.grendel.entities.Document.LinkedUserIdsByOwner",
+		query="SELECT DISTINCT u.id FROM Document AS d JOIN d.linkedUsers AS u WHERE d.owner = :owner"
+	),
+	@NamedQuery(
+		name="com.wesabe.grendel.entities.Document.NamesByOwner",
+		query="SELECT d.name FROM Document AS d WHERE d.owner = :owner AND d.name > :after ORDER BY d.name"
 	)
 })
+@org.hibernate.annotations.Table(
+	appliesTo="documents",
+	indexes=@Index(name="IDX_DOCUMENT_OWNER_NAME", columnNames={"owner_id", "name"})
+)
+@Cache(usage=CacheConcurrencyStrategy.READ_WRITE)
 public class Document implements Serializable {
 	private static final long serialVersionUID = 5699449595549234402L;
 
@@ -48,9 +80,10 @@ public class Document implements Serializable {
 	@Column(name="content_type", nullable=false, length=40)
 	private String contentType;
 	
-	@Column(name="body", nullable=false)
-	@Lob
-	private byte[] body;
+	@OneToOne(fetch=FetchType.LAZY, optional=false, cascade={CascadeType.ALL})
+	@JoinColumn(name="body_id", nullable=false, unique=true)
+	@ForeignKey(name="FK_DOCUMENT_TO_BODY")
+	private DocumentBody body;
 	
 	@Column(name="created_at", nullable=false)
 	@Type(type="org.joda.time.contrib.hibernate.PersistentDateTime")
@@ -61,6 +94,7 @@ public class Document implements Serializable {
 	private DateTime modifiedAt;
 	
 	@ManyToMany(fetch=FetchType.LAZY, mappedBy="linkedDocuments", cascade={CascadeType.ALL})
+	@Cache(usage=CacheConcurrencyStrategy.READ_WRITE)
 	@JoinTable(name="links")
 	private Set<User> linkedUsers = Sets.newHashSet();
 	
@@ -184,19 +218,123 @@ public class Document implements Serializable {
 	 *            the unencrypted document body
 	 * @throws CryptographicException
 	 *             if the owner's {@link KeySet} cannot be unlocked with {@code
-	 *             ownerPassphrase}
+	 *             ownerPassphrase}, or if the body can't be stored
 	 * @see MessageWriter
 	 */
 	public void encryptAndSetBody(UnlockedKeySet keySet, SecureRandom random,
 		byte[] body) throws CryptographicException {
 		
-		final Set<KeySet> recipients = Sets.newHashSetWithExpectedSize(linkedUsers.size());
-		for (User linkedUser : linkedUsers) {
-			recipients.add(linkedUser.getKeySet());
-		}
+		final MessageWriter writer = new MessageWriter(keySet, getRecipients(), random);
+		setBody(writer.write(body, contentType));
+	}
+	
+	/**
+	 * Sets the {@link Document}'s body to an encrypted+signed OpenPGP message
+	 * containing the contents of {@code body}.
+	 * <p>
+	 * Unlike {@link #encryptAndSetBody(UnlockedKeySet, SecureRandom, byte[])},
+	 * the unencrypted body is never held in memory in its entirety, and if a
+	 * {@link com.wesabe.grendel.blobs.BlobStore} is installed, neither is the
+	 * encrypted body, which is streamed directly into the store.
+	 * 
+	 * @param keySet
+	 *            the {@link UnlockedKeySet} of the {@link User} that owns this
+	 *            {@link Document}
+	 * @param random
+	 *            a {@link SecureRandom} instance
+	 * @param body
+	 *            an {@link InputStream} of the unencrypted document body
+	 * @throws CryptographicException
+	 *             if there is an error reading, encrypting, or storing
+	 *             {@code body}
+	 * @see MessageWriter#write(InputStream, java.io.OutputStream, String)
+	 */
+	public void encryptAndSetBody(UnlockedKeySet keySet, SecureRandom random,
+		final InputStream body) throws CryptographicException {
 		
-		final MessageWriter writer = new MessageWriter(keySet, recipients, random);
-		this.body = writer.write(body);
+		final MessageWriter writer = new MessageWriter(keySet, getRecipients(), random);
+		setBody(new DocumentBody.Writer() {
+			@Override
+			public void writeTo(OutputStream output) throws CryptographicException {
+				writer.write(body, output, contentType);
+			}
+		});
+	}
+	
+	/**
+	 * Re-encrypts the {@link Document}'s session key for its owner and its
+	 * current set of linked {@link User}s, leaving the encrypted body as-is.
+	 * Use this instead of decrypting and re-encrypting the body when the set of
+	 * linked users changes. The encrypted body is streamed from the old body
+	 * to the new one, so it's never held in memory.
+	 * 
+	 * @param keySet
+	 *            the {@link UnlockedKeySet} of the {@link User} that owns this
+	 *            {@link Document}
+	 * @param random
+	 *            a {@link SecureRandom} instance
+	 * @throws CryptographicException
+	 *             if the session key can't be recovered with {@code keySet},
+	 *             or if the body can't be read or stored
+	 * @see MessageRewrapper
+	 */
+	public void rewrapBody(UnlockedKeySet keySet, SecureRandom random) throws CryptographicException {
+		final MessageRewrapper rewrapper = new MessageRewrapper(keySet, getRecipients(), random);
+		setBody(new DocumentBody.Writer() {
+			@Override
+			public void writeTo(OutputStream output) throws IOException, CryptographicException {
+				final InputStream encrypted = openBody();
+				try {
+					rewrapper.rewrap(encrypted, output);
+				} finally {
+					encrypted.close();
+				}
+			}
+		});
+	}
+	
+	/**
+	 * Returns the document's {@link DocumentBody}, which may be an
+	 * uninitialized proxy.
+	 */
+	public DocumentBody getBody() {
+		return body;
+	}
+	
+	private byte[] readBody() throws CryptographicException {
+		try {
+			return body.getData();
+		} catch (IOException e) {
+			throw new CryptographicException(e);
+		}
+	}
+	
+	private void setBody(byte[] data) throws CryptographicException {
+		try {
+			if (body == null) {
+				this.body = new DocumentBody(data);
+			} else {
+				body.setData(data);
+			}
+		} catch (IOException e) {
+			throw new CryptographicException(e);
+		}
+	}
+	
+	private void setBody(DocumentBody.Writer writer) throws CryptographicException {
+		try {
+			if (body == null) {
+				this.body = new DocumentBody(writer);
+			} else {
+				body.setData(writer);
+			}
+		} catch (IOException e) {
+			throw new CryptographicException(e);
+		}
+	}
+	
+	private List<RecipientKey> getRecipients() throws CryptographicException {
+		return User.getRecipientKeys(linkedUsers);
 	}
 	
 	/**
@@ -208,23 +346,94 @@ public class Document implements Serializable {
 	 *             {@link Document}'s owner or a recipient
 	 * @return the decrypted document body
 	 * @throws CryptographicException
-	 *             if there is an error decrypting and verifying the
+	 *             if there is an error reading, decrypting, or verifying the
 	 *             encrypted+signed OpenPGP message
 	 * @see MessageReader
 	 */
 	public byte[] decryptBody(UnlockedKeySet unlockedKeySet) throws CryptographicException {
 		final MessageReader reader = new MessageReader(owner.getKeySet(), unlockedKeySet);
-		return reader.read(body);
+		return reader.read(readBody());
+	}
+	
+	/**
+	 * Decrypts the document's body using the {@link UnlockedKeySet} of the
+	 * owner or a recipient, and writes it to {@code output}. Nothing is written
+	 * to {@code output} unless the message's signature and integrity are
+	 * valid.
+	 * 
+	 * @param unlockedKeySet
+	 *             an {@link UnlockedKeySet} belonging to either the
+	 *             {@link Document}'s owner or a recipient
+	 * @param output
+	 *             the {@link OutputStream} to which the decrypted document
+	 *             body will be written
+	 * @throws CryptographicException
+	 *             if there is an error decrypting and verifying the
+	 *             encrypted+signed OpenPGP message
+	 * @throws IOException
+	 *             if there is an error reading the encrypted body or writing
+	 *             to {@code output}
+	 * @see MessageReader#read(InputStream, OutputStream)
+	 */
+	public void decryptBody(UnlockedKeySet unlockedKeySet, OutputStream output) throws CryptographicException, IOException {
+		decryptBody(unlockedKeySet, openBody(), output);
+	}
+	
+	/**
+	 * Decrypts a body returned by {@link #openBody()} using the
+	 * {@link UnlockedKeySet} of the owner or a recipient, and writes it to
+	 * {@code output}. Nothing is written to {@code output} unless the
+	 * message's signature and integrity are valid. {@code body} is closed.
+	 * 
+	 * @param unlockedKeySet
+	 *             an {@link UnlockedKeySet} belonging to either the
+	 *             {@link Document}'s owner or a recipient
+	 * @param body
+	 *             the encrypted body, as returned by {@link #openBody()}
+	 * @param output
+	 *             the {@link OutputStream} to which the decrypted document
+	 *             body will be written
+	 * @throws CryptographicException
+	 *             if there is an error decrypting and verifying the
+	 *             encrypted+signed OpenPGP message
+	 * @throws IOException
+	 *             if there is an error reading the encrypted body or writing
+	 *             to {@code output}
+	 * @see MessageReader#read(InputStream, OutputStream)
+	 */
+	public void decryptBody(UnlockedKeySet unlockedKeySet, InputStream body, OutputStream output) throws CryptographicException, IOException {
+		final MessageReader reader = new MessageReader(owner.getKeySet(), unlockedKeySet);
+		try {
+			reader.read(body, output);
+		} finally {
+			body.close();
+		}
+	}
+	
+	/**
+	 * Returns an {@link InputStream} of the encrypted body, loading the
+	 * {@link DocumentBody} if it hasn't been loaded yet. Use this to read the
+	 * body while the Hibernate session is still open, and decrypt it later
+	 * with {@link #decryptBody(UnlockedKeySet, InputStream, OutputStream)}.
+	 * 
+	 * @throws IOException if the body can't be read from the blob store
+	 */
+	public InputStream openBody() throws IOException {
+		return body.open();
 	}
 	
 	private DateTime toUTC(DateTime dateTime) {
 		return dateTime.toDateTime(DateTimeZone.UTC);
 	}
 
+	/*
+	 * The body isn't part of a document's identity, and comparing it would
+	 * load it from the database.
+	 */
 	@Override
 	public int hashCode() {
 		return HashCode.calculate(
-			getClass(), body, contentType, createdAt, modifiedAt, name, owner
+			getClass(), contentType, createdAt, modifiedAt, name, owner
 		);
 	}
 
@@ -243,7 +452,7 @@ public class Document implements Serializable {
 		
 		final Document that = (Document) obj;
 		return equal(name, that.name) && equal(owner, that.owner) &&
-				equal(body, that.body) && equal(createdAt, that.createdAt) &&
+				equal(createdAt, that.createdAt) &&
 				equal(contentType, that.contentType) &&
 				equal(modifiedAt, that.modifiedAt);
 	}
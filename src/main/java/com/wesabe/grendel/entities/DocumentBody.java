@@ -0,0 +1,258 @@
+package com.wesabe.grendel.entities;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.Serializable;
+import java.nio.ByteBuffer;
+import java.util.List;
+import java.util.Set;
+import java.util.UUID;
+
+import javax.persistence.Column;
+import javax.persistence.Entity;
+import javax.persistence.Id;
+import javax.persistence.Lob;
+import javax.persistence.NamedQueries;
+import javax.persistence.NamedQuery;
+import javax.persistence.Table;
+
+import com.google.common.collect.Lists;
+import com.google.common.collect.Sets;
+import com.wesabe.grendel.blobs.BlobOutputStream;
+import com.wesabe.grendel.blobs.BlobStore;
+import com.wesabe.grendel.blobs.BlobStores;
+import com.wesabe.grendel.openpgp.CryptographicException;
+
+/**
+ * The encrypted body of a {@link Document}.
+ * <p>
+ * Bodies are kept in their own table and loaded lazily, so that listing a
+ * user's documents or a document's links only reads the documents' metadata.
+ * Since a {@link Document} may hold an uninitialized proxy of its body, the
+ * body's data must only be accessed via {@link #getData()} or
+ * {@link #open()}.
+ * <p>
+ * If a {@link BlobStore} is installed, the data is kept there and the row only
+ * holds its key; otherwise, the data is kept in the row. Rows written before
+ * the store was installed are moved into it the next time they're written.
+ * 
+ * @author coda
+ * @see BlobStores
+ */
+@Entity
+@Table(name="document_bodies")
+@NamedQueries({
+	@NamedQuery(
+		name="com.wesabe.grendel.entities.DocumentBody.DeleteByIds",
+		query="DELETE FROM DocumentBody AS b WHERE b.id IN (:ids)"
+	)
+})
+public class DocumentBody implements Serializable {
+	private static final long serialVersionUID = -1944004931287785396L;
+	
+	/**
+	 * Something which writes an encrypted body to an {@link OutputStream}.
+	 */
+	public interface Writer {
+		/**
+		 * Writes the encrypted body to {@code output}, without closing it.
+		 */
+		public abstract void writeTo(OutputStream output) throws IOException, CryptographicException;
+	}
+	
+	@Id
+	@Column(name="id", length=36)
+	private String id;
+	
+	@Column(name="body")
+	@Lob
+	private byte[] data;
+	
+	@Column(name="blob_key", length=64)
+	private String blobKey;
+	
+	/*
+	 * The blobs written since this body was loaded, and the blob it pointed to
+	 * when it was loaded, so the unused ones can be deleted once the
+	 * transaction is over.
+	 */
+	private transient List<String> writtenBlobKeys;
+	private transient String loadedBlobKey;
+	
+	@Deprecated
+	public DocumentBody() {
+		// for Hibernate usage only
+	}
+	
+	/**
+	 * Creates a new {@link DocumentBody} with a random id.
+	 * 
+	 * @param data the encrypted body
+	 * @throws IOException if the body can't be written to the blob store
+	 */
+	public DocumentBody(byte[] data) throws IOException {
+		this.id = UUID.randomUUID().toString();
+		setData(data);
+	}
+	
+	/**
+	 * Creates a new {@link DocumentBody} with a random id.
+	 * 
+	 * @param writer a {@link Writer} of the encrypted body
+	 * @throws IOException if the body can't be written to the blob store
+	 * @throws CryptographicException if {@code writer} fails
+	 */
+	public DocumentBody(Writer writer) throws IOException, CryptographicException {
+		this.id = UUID.randomUUID().toString();
+		setData(writer);
+	}
+	
+	/**
+	 * Returns the body's id.
+	 */
+	public String getId() {
+		return id;
+	}
+	
+	/**
+	 * Returns the key of the blob holding the encrypted body, or {@code null}
+	 * if it's stored in the database.
+	 */
+	public String getBlobKey() {
+		return blobKey;
+	}
+	
+	/**
+	 * Returns the encrypted body.
+	 * 
+	 * @throws IOException if the body can't be read from the blob store
+	 */
+	public byte[] getData() throws IOException {
+		if (blobKey == null) {
+			return data;
+		}
+		
+		final ByteBuffer buffer = getBlobStore().get(blobKey);
+		final byte[] bytes = new byte[buffer.remaining()];
+		buffer.get(bytes);
+		return bytes;
+	}
+	
+	/**
+	 * Returns an {@link InputStream} of the encrypted body. Bodies in the blob
+	 * store are streamed from it rather than read all at once.
+	 * 
+	 * @throws IOException if the body can't be read from the blob store
+	 */
+	public InputStream open() throws IOException {
+		if (blobKey == null) {
+			return new ByteArrayInputStream(data);
+		}
+		
+		return getBlobStore().open(blobKey);
+	}
+	
+	/**
+	 * Replaces the encrypted body.
+	 * 
+	 * @throws IOException if the body can't be written to the blob store
+	 */
+	public void setData(byte[] data) throws IOException {
+		final BlobStore store = BlobStores.get();
+		if (store == null) {
+			setRow(data);
+		} else {
+			setBlob(store.put(data));
+		}
+	}
+	
+	/**
+	 * Replaces the encrypted body with whatever {@code writer} writes. If a
+	 * {@link BlobStore} is installed, the body is streamed into it without
+	 * being held in memory; if {@code writer} fails, the body is unchanged.
+	 * 
+	 * @throws IOException if the body can't be written to the blob store
+	 * @throws CryptographicException if {@code writer} fails
+	 */
+	public void setData(Writer writer) throws IOException, CryptographicException {
+		final BlobStore store = BlobStores.get();
+		if (store == null) {
+			final ByteArrayOutputStream output = new ByteArrayOutputStream();
+			writer.writeTo(output);
+			setRow(output.toByteArray());
+		} else {
+			final BlobOutputStream output = store.create();
+			try {
+				writer.writeTo(output);
+				setBlob(output.commit());
+			} finally {
+				output.close();
+			}
+		}
+	}
+	
+	private void setRow(byte[] data) {
+		trackWrites();
+		this.data = data;
+		this.blobKey = null;
+	}
+	
+	private void setBlob(String key) {
+		trackWrites();
+		this.blobKey = key;
+		this.data = null;
+		writtenBlobKeys.add(key);
+	}
+	
+	private void trackWrites() {
+		if (writtenBlobKeys == null) {
+			this.writtenBlobKeys = Lists.newArrayList();
+			this.loadedBlobKey = blobKey;
+		}
+	}
+	
+	/**
+	 * Returns the keys of the blobs this body no longer uses, which should be
+	 * deleted once the change is committed.
+	 */
+	public List<String> getStaleBlobKeys() {
+		final Set<String> keys = Sets.newLinkedHashSet();
+		if (writtenBlobKeys != null) {
+			if (loadedBlobKey != null) {
+				keys.add(loadedBlobKey);
+			}
+			keys.addAll(writtenBlobKeys);
+			keys.remove(blobKey);
+		}
+		return Lists.newArrayList(keys);
+	}
+	
+	/**
+	 * Returns the keys of the blobs written since this body was loaded, which
+	 * should be deleted if the change is rolled back.
+	 */
+	public List<String> getUncommittedBlobKeys() {
+		final Set<String> keys = Sets.newLinkedHashSet();
+		if (writtenBlobKeys != null) {
+			keys.addAll(writtenBlobKeys);
+			keys.remove(loadedBlobKey);
+		}
+		return Lists.newArrayList(keys);
+	}
+	
+	private BlobStore getBlobStore() {
+		final BlobStore store = BlobStores.get();
+		if (store == null) {
+			throw new IllegalStateException("no blob store installed for " + blobKey);
+		}
+		return store;
+	}
+	
+	@Override
+	public String toString() {
+		return id;
+	}
+}
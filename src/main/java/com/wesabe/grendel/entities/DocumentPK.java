@@ -33,6 +33,15 @@ public class DocumentPK implements Serializable {
 		// for Hibernate usage only
 	}
 
+	/**
+	 * Creates the primary key of the {@link Document} named {@code name} which
+	 * is owned by {@code owner}.
+	 */
+	public DocumentPK(User owner, String name) {
+		this.owner = owner;
+		this.name = name;
+	}
+
 	@Override
 	public int hashCode() {
 		return HashCode.calculate(getClass(), name, owner);
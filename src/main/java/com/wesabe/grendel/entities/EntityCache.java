@@ -0,0 +1,206 @@
+package com.wesabe.grendel.entities;
+
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.hibernate.cache.Cache;
+import org.hibernate.cache.ReadWriteCache;
+import org.hibernate.cache.Timestamper;
+
+/**
+ * A bounded, in-process, least-recently-used Hibernate cache region.
+ * <p>
+ * Entities and collections are cached with the {@code read-write} strategy,
+ * which stores a soft lock in place of an entry while it's being updated and
+ * refuses to cache a version older than the one already cached, so a
+ * {@code @Version} bump can't be overwritten by a concurrent reader. Soft
+ * locks are never evicted, since evicting one would let a stale entry back
+ * in; the least recently used entries which aren't locks are evicted
+ * instead.
+ * 
+ * @author coda
+ * @see EntityCacheProvider
+ */
+public class EntityCache implements Cache, EntityCacheMBean {
+	/**
+	 * Soft locks time out after a minute, as with Hibernate's own caches.
+	 */
+	private static final int LOCK_TIMEOUT = Timestamper.ONE_MS * 60000;
+	
+	private final String regionName;
+	private final int capacity;
+	private final LinkedHashMap<Object, Object> entries;
+	private final AtomicLong hits = new AtomicLong();
+	private final AtomicLong misses = new AtomicLong();
+	private final AtomicLong evictions = new AtomicLong();
+	
+	/**
+	 * Creates a new {@link EntityCache}.
+	 * 
+	 * @param regionName the name of the cache region
+	 * @param capacity the maximum number of cached entries
+	 */
+	public EntityCache(String regionName, final int capacity) {
+		this.regionName = regionName;
+		this.capacity = capacity;
+		this.entries = new LinkedHashMap<Object, Object>(16, 0.75f, true) {
+			private static final long serialVersionUID = 2876305542359183564L;
+			
+			@Override
+			protected boolean removeEldestEntry(Map.Entry<Object, Object> eldest) {
+				final Iterator<Map.Entry<Object, Object>> i = entrySet().iterator();
+				while ((size() > capacity) && i.hasNext()) {
+					if (!(i.next().getValue() instanceof ReadWriteCache.Lock)) {
+						i.remove();
+						evictions.incrementAndGet();
+					}
+				}
+				return false;
+			}
+		};
+	}
+	
+	@Override
+	public Object read(Object key) {
+		return get(key);
+	}
+	
+	@Override
+	public Object get(Object key) {
+		final Object value;
+		synchronized (entries) {
+			value = entries.get(key);
+		}
+		
+		if (value == null) {
+			misses.incrementAndGet();
+		} else {
+			hits.incrementAndGet();
+		}
+		return value;
+	}
+	
+	@Override
+	public void put(Object key, Object value) {
+		if (capacity > 0) {
+			synchronized (entries) {
+				entries.put(key, value);
+			}
+		}
+	}
+	
+	@Override
+	public void update(Object key, Object value) {
+		put(key, value);
+	}
+	
+	@Override
+	public void remove(Object key) {
+		synchronized (entries) {
+			entries.remove(key);
+		}
+	}
+	
+	@Override
+	public void clear() {
+		synchronized (entries) {
+			entries.clear();
+		}
+	}
+	
+	@Override
+	public void destroy() {
+		clear();
+	}
+	
+	@Override
+	public void lock(Object key) {
+		// soft locks are handled by the read-write strategy
+	}
+	
+	@Override
+	public void unlock(Object key) {
+		// soft locks are handled by the read-write strategy
+	}
+	
+	@Override
+	public long nextTimestamp() {
+		return Timestamper.next();
+	}
+	
+	@Override
+	public int getTimeout() {
+		return LOCK_TIMEOUT;
+	}
+	
+	@Override
+	public String getRegionName() {
+		return regionName;
+	}
+	
+	@Override
+	public long getSizeInMemory() {
+		return -1;
+	}
+	
+	@Override
+	public long getElementCountInMemory() {
+		return getSize();
+	}
+	
+	@Override
+	public long getElementCountOnDisk() {
+		return 0;
+	}
+	
+	@Override
+	public Map<Object, Object> toMap() {
+		synchronized (entries) {
+			return new LinkedHashMap<Object, Object>(entries);
+		}
+	}
+	
+	@Override
+	public int getCapacity() {
+		return capacity;
+	}
+	
+	@Override
+	public int getSize() {
+		synchronized (entries) {
+			return entries.size();
+		}
+	}
+	
+	@Override
+	public long getHitCount() {
+		return hits.get();
+	}
+	
+	@Override
+	public long getMissCount() {
+		return misses.get();
+	}
+	
+	@Override
+	public double getHitRatio() {
+		final long hitCount = hits.get();
+		final long total = hitCount + misses.get();
+		if (total == 0) {
+			return 0.0;
+		}
+		return hitCount / (double) total;
+	}
+	
+	@Override
+	public long getEvictionCount() {
+		return evictions.get();
+	}
+	
+	@Override
+	public String toString() {
+		return regionName;
+	}
+}
@@ -0,0 +1,48 @@
+package com.wesabe.grendel.entities;
+
+/**
+ * The management interface for an {@link EntityCache}.
+ * 
+ * @author coda
+ */
+public interface EntityCacheMBean {
+	/**
+	 * Returns the name of the Hibernate cache region.
+	 */
+	public abstract String getRegionName();
+	
+	/**
+	 * Returns the maximum number of cached entries.
+	 */
+	public abstract int getCapacity();
+	
+	/**
+	 * Returns the number of currently cached entries.
+	 */
+	public abstract int getSize();
+	
+	/**
+	 * Returns the number of lookups which found a cached entry.
+	 */
+	public abstract long getHitCount();
+	
+	/**
+	 * Returns the number of lookups which had to go to the database.
+	 */
+	public abstract long getMissCount();
+	
+	/**
+	 * Returns the fraction of lookups which found a cached entry.
+	 */
+	public abstract double getHitRatio();
+	
+	/**
+	 * Returns the number of entries evicted to stay within capacity.
+	 */
+	public abstract long getEvictionCount();
+	
+	/**
+	 * Removes all cached entries.
+	 */
+	public abstract void clear();
+}
@@ -0,0 +1,54 @@
+package com.wesabe.grendel.entities;
+
+import java.util.Properties;
+
+import org.hibernate.cache.Cache;
+import org.hibernate.cache.CacheProvider;
+import org.hibernate.cache.Timestamper;
+
+import com.wesabe.grendel.util.MBeans;
+
+/**
+ * A Hibernate {@link CacheProvider} which keeps each cache region in a
+ * bounded {@link EntityCache}.
+ * <p>
+ * Each region holds at most {@code grendel.entity-cache.capacity} entries
+ * (10,000 by default), and is exposed via JMX as
+ * {@code com.wesabe.grendel:type=EntityCache,name=<region>}.
+ * 
+ * @author coda
+ */
+public class EntityCacheProvider implements CacheProvider {
+	/**
+	 * The maximum number of entries to keep in each cache region.
+	 */
+	private static final String CAPACITY_PROPERTY = "grendel.entity-cache.capacity";
+	private static final int DEFAULT_CAPACITY = 10000;
+	
+	@Override
+	public Cache buildCache(String regionName, Properties properties) {
+		final EntityCache cache = new EntityCache(regionName, Integer.getInteger(CAPACITY_PROPERTY, DEFAULT_CAPACITY));
+		MBeans.register("EntityCache", regionName, cache, EntityCacheMBean.class);
+		return cache;
+	}
+	
+	@Override
+	public long nextTimestamp() {
+		return Timestamper.next();
+	}
+	
+	@Override
+	public void start(Properties properties) {
+		// nothing to start
+	}
+	
+	@Override
+	public void stop() {
+		// nothing to stop
+	}
+	
+	@Override
+	public boolean isMinimalPutsEnabledByDefault() {
+		return false;
+	}
+}
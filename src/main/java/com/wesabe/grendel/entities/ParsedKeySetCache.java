@@ -0,0 +1,195 @@
+package com.wesabe.grendel.entities;
+
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+
+import com.wesabe.grendel.openpgp.CryptographicException;
+import com.wesabe.grendel.openpgp.KeySet;
+
+/**
+ * A bounded, thread-safe cache of parsed {@link KeySet}s, keyed by
+ * {@link User} id and entity version.
+ * <p>
+ * Parsing a key set and verifying its self-signatures happens every time a
+ * {@link User} is loaded, which is several times per request. {@link KeySet}s
+ * are immutable, so a parsed key set can be shared by every load of the same
+ * version of a user.
+ * <p>
+ * Since a deleted user's id and version can be reused, each entry also holds
+ * a SHA-256 digest of the encoded key set, and is only used if the digest
+ * matches. The cache is split into independently-locked segments, each of
+ * which evicts its least-recently used entry when full.
+ * 
+ * @author coda
+ */
+public class ParsedKeySetCache implements ParsedKeySetCacheMBean {
+	private static final int SEGMENTS = 16;
+	
+	private static class Key {
+		private final String id;
+		private final long version;
+		
+		public Key(String id, long version) {
+			this.id = id;
+			this.version = version;
+		}
+		
+		@Override
+		public int hashCode() {
+			return (31 * id.hashCode()) + (int) (version ^ (version >>> 32));
+		}
+		
+		@Override
+		public boolean equals(Object obj) {
+			if (!(obj instanceof Key)) {
+				return false;
+			}
+			
+			final Key that = (Key) obj;
+			return (version == that.version) && id.equals(that.id);
+		}
+	}
+	
+	private static class Entry {
+		private final byte[] digest;
+		private final KeySet keySet;
+		
+		public Entry(byte[] digest, KeySet keySet) {
+			this.digest = digest;
+			this.keySet = keySet;
+		}
+	}
+	
+	private static class Segment extends LinkedHashMap<Key, Entry> {
+		private static final long serialVersionUID = 2345863413584394071L;
+		private final int capacity;
+		
+		public Segment(int capacity) {
+			super(16, 0.75f, true);
+			this.capacity = capacity;
+		}
+		
+		@Override
+		protected boolean removeEldestEntry(Map.Entry<Key, Entry> eldest) {
+			return size() > capacity;
+		}
+	}
+	
+	private final int capacity;
+	private final Segment[] segments;
+	private final AtomicLong hits = new AtomicLong();
+	private final AtomicLong misses = new AtomicLong();
+	
+	/**
+	 * Creates a new {@link ParsedKeySetCache}.
+	 * 
+	 * @param capacity the maximum number of cached key sets
+	 */
+	public ParsedKeySetCache(int capacity) {
+		this.capacity = capacity;
+		this.segments = new Segment[SEGMENTS];
+		for (int i = 0; i < SEGMENTS; i++) {
+			segments[i] = new Segment((capacity + SEGMENTS - 1) / SEGMENTS);
+		}
+	}
+	
+	/**
+	 * Returns the parsed {@link KeySet} for the given version of a
+	 * {@link User}, parsing {@code encoded} if it isn't cached.
+	 * 
+	 * @param id the user's id
+	 * @param version the user's entity version
+	 * @param encoded the user's encoded {@link KeySet}
+	 * @throws CryptographicException if {@code encoded} is malformed
+	 */
+	public KeySet get(String id, long version, byte[] encoded) throws CryptographicException {
+		if ((capacity == 0) || (id == null)) {
+			misses.incrementAndGet();
+			return KeySet.load(encoded);
+		}
+		
+		final Key key = new Key(id, version);
+		final Segment segment = segmentFor(key);
+		final byte[] digest = digest(encoded);
+		
+		final Entry entry;
+		synchronized (segment) {
+			entry = segment.get(key);
+		}
+		
+		if ((entry != null) && MessageDigest.isEqual(entry.digest, digest)) {
+			hits.incrementAndGet();
+			return entry.keySet;
+		}
+		
+		misses.incrementAndGet();
+		final KeySet keySet = KeySet.load(encoded);
+		synchronized (segment) {
+			segment.put(key, new Entry(digest, keySet));
+		}
+		return keySet;
+	}
+	
+	@Override
+	public void clear() {
+		for (Segment segment : segments) {
+			synchronized (segment) {
+				segment.clear();
+			}
+		}
+	}
+	
+	@Override
+	public int getCapacity() {
+		return capacity;
+	}
+	
+	@Override
+	public int getSize() {
+		int size = 0;
+		for (Segment segment : segments) {
+			synchronized (segment) {
+				size += segment.size();
+			}
+		}
+		return size;
+	}
+	
+	@Override
+	public long getHitCount() {
+		return hits.get();
+	}
+	
+	@Override
+	public long getMissCount() {
+		return misses.get();
+	}
+	
+	@Override
+	public double getHitRatio() {
+		final long hitCount = hits.get();
+		final long total = hitCount + misses.get();
+		if (total == 0) {
+			return 0.0;
+		}
+		return hitCount / (double) total;
+	}
+	
+	private Segment segmentFor(Key key) {
+		int h = key.hashCode();
+		h ^= (h >>> 20) ^ (h >>> 12);
+		h ^= (h >>> 7) ^ (h >>> 4);
+		return segments[h & (SEGMENTS - 1)];
+	}
+	
+	private static byte[] digest(byte[] encoded) {
+		try {
+			return MessageDigest.getInstance("SHA-256").digest(encoded);
+		} catch (NoSuchAlgorithmException e) {
+			throw new IllegalStateException(e);
+		}
+	}
+}
@@ -0,0 +1,38 @@
+package com.wesabe.grendel.entities;
+
+/**
+ * The management interface for a {@link ParsedKeySetCache}.
+ * 
+ * @author coda
+ */
+public interface ParsedKeySetCacheMBean {
+	/**
+	 * Returns the maximum number of cached key sets.
+	 */
+	public abstract int getCapacity();
+	
+	/**
+	 * Returns the number of currently cached key sets.
+	 */
+	public abstract int getSize();
+	
+	/**
+	 * Returns the number of lookups which found a cached key set.
+	 */
+	public abstract long getHitCount();
+	
+	/**
+	 * Returns the number of lookups which had to parse a key set.
+	 */
+	public abstract long getMissCount();
+	
+	/**
+	 * Returns the fraction of lookups which found a cached key set.
+	 */
+	public abstract double getHitRatio();
+	
+	/**
+	 * Removes all cached key sets.
+	 */
+	public abstract void clear();
+}
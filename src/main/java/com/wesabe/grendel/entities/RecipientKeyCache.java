@@ -0,0 +1,154 @@
+package com.wesabe.grendel.entities;
+
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+
+import com.wesabe.grendel.openpgp.CryptographicException;
+import com.wesabe.grendel.openpgp.KeySet;
+import com.wesabe.grendel.openpgp.RecipientKey;
+
+/**
+ * A bounded, thread-safe directory of {@link User}s' {@link RecipientKey}s,
+ * keyed by {@link User} id.
+ * <p>
+ * Encrypting a {@link Document} only requires the public half of each
+ * recipient's subkey, but a {@link KeySet} can only be had by parsing the
+ * recipient's secret keyring. Each {@link User} stores its
+ * {@link RecipientKey} separately from its keyring, and this cache keeps the
+ * decoded JCA public keys, so resolving a document's recipients never touches
+ * a secret keyring.
+ * <p>
+ * Each entry holds the encoded {@link RecipientKey} it was decoded from, and
+ * is only used if that matches the {@link User}'s, so changing a user's
+ * passphrase (which doesn't change the public key) doesn't invalidate it, and
+ * replacing a user's keys does. All of a document's recipients are looked up
+ * while holding the cache's lock once; recipient keys which aren't cached are
+ * decoded outside of it.
+ * 
+ * @author coda
+ */
+public class RecipientKeyCache implements RecipientKeyCacheMBean {
+	private static class Entry {
+		private final byte[] encoded;
+		private final RecipientKey key;
+		
+		public Entry(byte[] encoded, RecipientKey key) {
+			this.encoded = encoded;
+			this.key = key;
+		}
+	}
+	
+	private final int capacity;
+	private final LinkedHashMap<String, Entry> entries;
+	private final AtomicLong hits = new AtomicLong();
+	private final AtomicLong misses = new AtomicLong();
+	
+	/**
+	 * Creates a new {@link RecipientKeyCache}.
+	 * 
+	 * @param capacity the maximum number of cached recipient keys
+	 */
+	public RecipientKeyCache(final int capacity) {
+		this.capacity = capacity;
+		this.entries = new LinkedHashMap<String, Entry>(16, 0.75f, true) {
+			private static final long serialVersionUID = -3189431209880343021L;
+			
+			@Override
+			protected boolean removeEldestEntry(Map.Entry<String, Entry> eldest) {
+				return size() > capacity;
+			}
+		};
+	}
+	
+	/**
+	 * Returns the {@link RecipientKey}s of {@code users}, in iteration order.
+	 * 
+	 * @param users a collection of {@link User}s
+	 * @throws CryptographicException if a user's recipient key is malformed
+	 */
+	public List<RecipientKey> get(Collection<User> users) throws CryptographicException {
+		final User[] userArray = users.toArray(new User[users.size()]);
+		final RecipientKey[] keys = new RecipientKey[userArray.length];
+		
+		synchronized (entries) {
+			for (int i = 0; i < userArray.length; i++) {
+				final byte[] encoded = userArray[i].getEncodedRecipientKey();
+				final Entry entry = (encoded == null) ? null : entries.get(userArray[i].getId());
+				if ((entry != null) && Arrays.equals(entry.encoded, encoded)) {
+					keys[i] = entry.key;
+				}
+			}
+		}
+		
+		final Map<String, Entry> decoded = new HashMap<String, Entry>();
+		for (int i = 0; i < userArray.length; i++) {
+			if (keys[i] != null) {
+				hits.incrementAndGet();
+				continue;
+			}
+			
+			misses.incrementAndGet();
+			final byte[] encoded = userArray[i].getEncodedRecipientKey();
+			if (encoded == null) {
+				// users created before recipient keys were stored separately
+				keys[i] = userArray[i].getKeySet().getRecipientKey();
+			} else {
+				final Entry entry = new Entry(encoded, RecipientKey.decode(encoded));
+				decoded.put(userArray[i].getId(), entry);
+				keys[i] = entry.key;
+			}
+		}
+		
+		if ((capacity > 0) && !decoded.isEmpty()) {
+			synchronized (entries) {
+				entries.putAll(decoded);
+			}
+		}
+		
+		return Arrays.asList(keys);
+	}
+	
+	@Override
+	public void clear() {
+		synchronized (entries) {
+			entries.clear();
+		}
+	}
+	
+	@Override
+	public int getCapacity() {
+		return capacity;
+	}
+	
+	@Override
+	public int getSize() {
+		synchronized (entries) {
+			return entries.size();
+		}
+	}
+	
+	@Override
+	public long getHitCount() {
+		return hits.get();
+	}
+	
+	@Override
+	public long getMissCount() {
+		return misses.get();
+	}
+	
+	@Override
+	public double getHitRatio() {
+		final long hitCount = hits.get();
+		final long total = hitCount + misses.get();
+		if (total == 0) {
+			return 0.0;
+		}
+		return hitCount / (double) total;
+	}
+}
@@ -0,0 +1,38 @@
+package com.wesabe.grendel.entities;
+
+/**
+ * The management interface for a {@link RecipientKeyCache}.
+ * 
+ * @author coda
+ */
+public interface RecipientKeyCacheMBean {
+	/**
+	 * Returns the maximum number of cached recipient keys.
+	 */
+	public abstract int getCapacity();
+	
+	/**
+	 * Returns the number of currently cached recipient keys.
+	 */
+	public abstract int getSize();
+	
+	/**
+	 * Returns the number of lookups which found a cached recipient key.
+	 */
+	public abstract long getHitCount();
+	
+	/**
+	 * Returns the number of lookups which had to decode a recipient key.
+	 */
+	public abstract long getMissCount();
+	
+	/**
+	 * Returns the fraction of lookups which found a cached recipient key.
+	 */
+	public abstract double getHitRatio();
+	
+	/**
+	 * Removes all cached recipient keys.
+	 */
+	public abstract void clear();
+}
@@ -3,10 +3,14 @@ package com.wesabe.grendel.entities;
 import static com.google.common.base.Objects.*;
 
 import java.io.Serializable;
+import java.util.Collection;
+import java.util.List;
 import java.util.Set;
 
 import javax.persistence.*;
 
+import org.hibernate.annotations.Cache;
+import org.hibernate.annotations.CacheConcurrencyStrategy;
 import org.hibernate.annotations.ForeignKey;
 import org.hibernate.annotations.OnDelete;
 import org.hibernate.annotations.OnDeleteAction;
@@ -17,7 +21,9 @@ import org.joda.time.DateTimeZone;
 import com.google.common.collect.Sets;
 import com.wesabe.grendel.openpgp.CryptographicException;
 import com.wesabe.grendel.openpgp.KeySet;
+import com.wesabe.grendel.openpgp.RecipientKey;
 import com.wesabe.grendel.util.HashCode;
+import com.wesabe.grendel.util.MBeans;
 
 /**
  * A Grendel user.
@@ -32,12 +38,31 @@ import com.wesabe.grendel.util.HashCode;
 		query="SELECT u.id FROM User AS u WHERE u.id = :id"
 	),
 	@NamedQuery(
-		name="com.wesabe.grendel.entities.User.All",
-		query="SELECT u FROM User AS u ORDER BY u.id"
+		name="com.wesabe.grendel.entities.User.Ids",
+		query="SELECT u.id FROM User AS u WHERE u.id > :after ORDER BY u.id"
 	)
 })
+@Cache(usage=CacheConcurrencyStrategy.READ_WRITE)
 public class User implements Serializable {
 	private static final long serialVersionUID = -8270919660085011028L;
+	
+	/**
+	 * The maximum number of parsed {@link KeySet}s to keep in memory.
+	 */
+	private static final String KEY_SET_CACHE_CAPACITY_PROPERTY = "grendel.keyset-cache.parsed-capacity";
+	private static final ParsedKeySetCache KEY_SETS =
+		new ParsedKeySetCache(Integer.getInteger(KEY_SET_CACHE_CAPACITY_PROPERTY, 2000));
+	
+	/**
+	 * The maximum number of decoded {@link RecipientKey}s to keep in memory.
+	 */
+	private static final String RECIPIENT_KEY_CACHE_CAPACITY_PROPERTY = "grendel.keyset-cache.recipient-capacity";
+	private static final RecipientKeyCache RECIPIENT_KEYS =
+		new RecipientKeyCache(Integer.getInteger(RECIPIENT_KEY_CACHE_CAPACITY_PROPERTY, 10000));
+	static {
+		MBeans.register("KeySetCache", "parsed", KEY_SETS, ParsedKeySetCacheMBean.class);
+		MBeans.register("KeySetCache", "recipients", RECIPIENT_KEYS, RecipientKeyCacheMBean.class);
+	}
 
 	@Id
 	@Column(name="id")
@@ -50,6 +75,9 @@ public class User implements Serializable {
 	@Transient
 	private KeySet keySet = null;
 	
+	@Column(name="recipient_key", length=1024)
+	private byte[] encodedRecipientKey;
+	
 	@Column(name="created_at", nullable=false)
 	@Type(type="org.joda.time.contrib.hibernate.PersistentDateTime")
 	private DateTime createdAt;
@@ -77,6 +105,7 @@ public class User implements Serializable {
 	private Set<Document> documents = Sets.newHashSet();
 	
 	@ManyToMany(fetch=FetchType.LAZY, cascade={CascadeType.ALL})
+	@Cache(usage=CacheConcurrencyStrategy.READ_WRITE)
 	@ForeignKey(
 		name="FK_LINK_TO_USER",
 		inverseName="FK_LINK_TO_DOCUMENT"
@@ -130,11 +159,13 @@ public class User implements Serializable {
 	
 	/**
 	 * Returns the user's {@link KeySet}.
+	 * 
+	 * @see ParsedKeySetCache
 	 */
 	public KeySet getKeySet() {
 		if (keySet == null) {
 			try {
-				this.keySet = KeySet.load(encodedKeySet);
+				this.keySet = KEY_SETS.get(id, version, encodedKeySet);
 			} catch (CryptographicException e) {
 				throw new RuntimeException(e);
 			}
@@ -151,6 +182,31 @@ public class User implements Serializable {
 		this.keySet = keySet;
 		this.id = keySet.getUserID();
 		this.encodedKeySet = keySet.getEncoded();
+		try {
+			this.encodedRecipientKey = keySet.getRecipientKey().getEncoded();
+		} catch (CryptographicException e) {
+			throw new RuntimeException(e);
+		}
+	}
+	
+	/**
+	 * Returns the {@link RecipientKey}s of the given {@link User}s, in
+	 * iteration order, without loading their {@link KeySet}s.
+	 * 
+	 * @param users a collection of {@link User}s
+	 * @throws CryptographicException if a user's recipient key is malformed
+	 * @see RecipientKeyCache
+	 */
+	public static List<RecipientKey> getRecipientKeys(Collection<User> users) throws CryptographicException {
+		return RECIPIENT_KEYS.get(users);
+	}
+	
+	/**
+	 * Returns the user's encoded {@link RecipientKey}, or {@code null} if the
+	 * user was stored before recipient keys were.
+	 */
+	/* default */ byte[] getEncodedRecipientKey() {
+		return encodedRecipientKey;
 	}
 	
 	/**
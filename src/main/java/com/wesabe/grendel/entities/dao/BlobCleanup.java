@@ -0,0 +1,65 @@
+package com.wesabe.grendel.entities.dao;
+
+import java.io.IOException;
+import java.util.Collection;
+
+import javax.transaction.Status;
+import javax.transaction.Synchronization;
+
+import org.hibernate.Session;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.wesabe.grendel.blobs.BlobStore;
+import com.wesabe.grendel.blobs.BlobStores;
+
+/**
+ * Deletes unused blobs once a transaction is over: the blobs a commit leaves
+ * behind if it commits, or the blobs it wrote if it rolls back.
+ * <p>
+ * Blobs are never deleted before the transaction is over, so a rolled-back
+ * transaction never leaves a row pointing to a missing blob. If a blob can't
+ * be deleted, it's logged and left in place.
+ * 
+ * @author coda
+ */
+final class BlobCleanup implements Synchronization {
+	private static final Logger LOGGER = LoggerFactory.getLogger(BlobCleanup.class);
+	
+	/**
+	 * Deletes {@code committed} if the current transaction commits, and
+	 * {@code rolledBack} if it doesn't.
+	 */
+	static void register(Session session, Collection<String> committed, Collection<String> rolledBack) {
+		final BlobStore store = BlobStores.get();
+		if ((store != null) && !(committed.isEmpty() && rolledBack.isEmpty())) {
+			session.getTransaction().registerSynchronization(new BlobCleanup(store, committed, rolledBack));
+		}
+	}
+	
+	private final BlobStore store;
+	private final Collection<String> committed;
+	private final Collection<String> rolledBack;
+	
+	private BlobCleanup(BlobStore store, Collection<String> committed, Collection<String> rolledBack) {
+		this.store = store;
+		this.committed = committed;
+		this.rolledBack = rolledBack;
+	}
+	
+	@Override
+	public void beforeCompletion() {
+		// nothing to do until the transaction is over
+	}
+	
+	@Override
+	public void afterCompletion(int status) {
+		for (String key : (status == Status.STATUS_COMMITTED) ? committed : rolledBack) {
+			try {
+				store.delete(key);
+			} catch (IOException e) {
+				LOGGER.warn("Unable to delete blob " + key, e);
+			}
+		}
+	}
+}
@@ -1,13 +1,17 @@
 package com.wesabe.grendel.entities.dao;
 
+import java.util.List;
+
 import javax.ws.rs.core.MediaType;
 
+import org.hibernate.Hibernate;
 import org.hibernate.Session;
 
 import com.codahale.shore.dao.AbstractDAO;
 import com.google.inject.Inject;
 import com.google.inject.Provider;
 import com.wesabe.grendel.entities.Document;
+import com.wesabe.grendel.entities.DocumentBody;
 import com.wesabe.grendel.entities.User;
 
 public class DocumentDAO extends AbstractDAO<Document> {
@@ -38,20 +42,59 @@ public class DocumentDAO extends AbstractDAO<Document> {
 	}
 	
 	/**
-	 * Writes the {@link Document} to the database.
+	 * Returns the names of up to {@code limit} of {@code owner}'s
+	 * {@link Document}s, in order, starting with the first name after
+	 * {@code after}.
+	 * <p>
+	 * Only the names are selected, and the query walks the
+	 * {@code (owner_id, name)} index, so each page costs the same no matter how
+	 * far into the list it is.
+	 * 
+	 * @param owner the documents' owner
+	 * @param after the last name on the previous page, or {@code null} for the
+	 *        first page
+	 * @param limit the maximum number of names to return
+	 */
+	@SuppressWarnings("unchecked")
+	public List<String> findNamesByOwner(User owner, String after, int limit) {
+		return namedQuery("com.wesabe.grendel.entities.Document.NamesByOwner")
+					.setParameter("owner", owner)
+					.setString("after", (after == null) ? "" : after)
+					.setMaxResults(limit)
+					.list();
+	}
+	
+	/**
+	 * Writes the {@link Document} to the database. If its body was replaced,
+	 * the old body's blob is deleted once the transaction commits.
 	 * 
 	 * @see Session#saveOrUpdate(Object)
 	 */
 	public Document saveOrUpdate(Document doc) {
 		currentSession().saveOrUpdate(doc);
+		
+		final DocumentBody body = doc.getBody();
+		if ((body != null) && Hibernate.isInitialized(body)) {
+			BlobCleanup.register(currentSession(), body.getStaleBlobKeys(), body.getUncommittedBlobKeys());
+		}
 		return doc;
 	}
 
 	/**
-	 * Deletes the {@link Document} from the database.
+	 * Deletes the {@link Document} from the database, and its body's blob
+	 * once the transaction commits.
 	 */
 	public void delete(Document doc) {
 		currentSession().delete(doc);
+		
+		final DocumentBody body = doc.getBody();
+		if (body != null) {
+			final List<String> keys = body.getStaleBlobKeys();
+			if (body.getBlobKey() != null) {
+				keys.add(body.getBlobKey());
+			}
+			BlobCleanup.register(currentSession(), keys, body.getUncommittedBlobKeys());
+		}
 	}
 	
 }
@@ -0,0 +1,77 @@
+package com.wesabe.grendel.entities.dao;
+
+import java.util.Collection;
+
+import javax.transaction.Synchronization;
+
+import org.hibernate.Session;
+import org.hibernate.SessionFactory;
+
+import com.wesabe.grendel.entities.Document;
+import com.wesabe.grendel.entities.DocumentPK;
+import com.wesabe.grendel.entities.User;
+
+/**
+ * Evicts a deleted {@link User}'s cached {@link Document}s and the cached
+ * links which pointed to them or to the user once a transaction is over.
+ * <p>
+ * Deleting a {@link User} deletes their documents and links with
+ * {@code ON DELETE CASCADE} and bulk statements, neither of which Hibernate
+ * can see, so anything cached about them has to be dropped by hand. Only
+ * those entries are evicted, so deleting a user doesn't empty the cache for
+ * everyone else. Eviction waits until the transaction is over so that
+ * another transaction can't re-cache the rows before they're gone.
+ * 
+ * @author coda
+ */
+final class LinkCacheEviction implements Synchronization {
+	private static final String DOCUMENT_ENTITY = Document.class.getName();
+	private static final String LINKED_DOCUMENTS_ROLE = User.class.getName() + ".linkedDocuments";
+	private static final String LINKED_USERS_ROLE = Document.class.getName() + ".linkedUsers";
+	
+	/**
+	 * Once the current transaction is over, evicts {@code deletedDocuments}
+	 * and their links, the links of {@code linkedDocuments}, and the links of
+	 * {@code linkedUsers}.
+	 */
+	static void register(Session session, Collection<DocumentPK> deletedDocuments,
+			Collection<DocumentPK> linkedDocuments, Collection<String> linkedUsers) {
+		session.getTransaction().registerSynchronization(
+			new LinkCacheEviction(session.getSessionFactory(), deletedDocuments, linkedDocuments, linkedUsers)
+		);
+	}
+	
+	private final SessionFactory sessionFactory;
+	private final Collection<DocumentPK> deletedDocuments;
+	private final Collection<DocumentPK> linkedDocuments;
+	private final Collection<String> linkedUsers;
+	
+	private LinkCacheEviction(SessionFactory sessionFactory, Collection<DocumentPK> deletedDocuments,
+			Collection<DocumentPK> linkedDocuments, Collection<String> linkedUsers) {
+		this.sessionFactory = sessionFactory;
+		this.deletedDocuments = deletedDocuments;
+		this.linkedDocuments = linkedDocuments;
+		this.linkedUsers = linkedUsers;
+	}
+	
+	@Override
+	public void beforeCompletion() {
+		// nothing to do until the transaction is over
+	}
+	
+	@Override
+	public void afterCompletion(int status) {
+		for (DocumentPK id : deletedDocuments) {
+			sessionFactory.evictEntity(DOCUMENT_ENTITY, id);
+			sessionFactory.evictCollection(LINKED_USERS_ROLE, id);
+		}
+		
+		for (DocumentPK id : linkedDocuments) {
+			sessionFactory.evictCollection(LINKED_USERS_ROLE, id);
+		}
+		
+		for (String id : linkedUsers) {
+			sessionFactory.evictCollection(LINKED_DOCUMENTS_ROLE, id);
+		}
+	}
+}
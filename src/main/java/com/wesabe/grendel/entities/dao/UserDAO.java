@@ -1,15 +1,27 @@
 package com.wesabe.grendel.entities.dao;
 
 import java.util.List;
+import java.util.Set;
 
+import org.hibernate.LockMode;
 import org.hibernate.Session;
+import org.hibernate.StaleStateException;
 
 import com.codahale.shore.dao.AbstractDAO;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.Lists;
+import com.google.common.collect.Sets;
 import com.google.inject.Inject;
 import com.google.inject.Provider;
+import com.wesabe.grendel.entities.Document;
+import com.wesabe.grendel.entities.DocumentBody;
+import com.wesabe.grendel.entities.DocumentPK;
 import com.wesabe.grendel.entities.User;
+import com.wesabe.grendel.openpgp.KeySet;
+import com.wideplay.warp.persist.Transactional;
 
 public class UserDAO extends AbstractDAO<User> {
+	private static final int MAX_DELETE_BATCH = 1000;
 	
 	@Inject
 	public UserDAO(Provider<Session> provider) {
@@ -34,10 +46,23 @@ public class UserDAO extends AbstractDAO<User> {
 	}
 	
 	/**
-	 * Returns a list of all {@link User}s.
+	 * Returns the ids of up to {@code limit} {@link User}s, in order, starting
+	 * with the first id after {@code after}.
+	 * <p>
+	 * Only the ids are selected, so no key sets are loaded, and the query
+	 * walks the primary key, so each page costs the same no matter how far
+	 * into the list it is.
+	 * 
+	 * @param after the last id on the previous page, or {@code null} for the
+	 *        first page
+	 * @param limit the maximum number of ids to return
 	 */
-	public List<User> findAll() {
-		return list(namedQuery("com.wesabe.grendel.entities.User.All"));
+	@SuppressWarnings("unchecked")
+	public List<String> findIds(String after, int limit) {
+		return namedQuery("com.wesabe.grendel.entities.User.Ids")
+					.setString("after", (after == null) ? "" : after)
+					.setMaxResults(limit)
+					.list();
 	}
 	
 	/**
@@ -49,11 +74,103 @@ public class UserDAO extends AbstractDAO<User> {
 		currentSession().saveOrUpdate(user);
 		return user;
 	}
+	
+	/**
+	 * Writes the {@link User} to the database and flushes the session, so the
+	 * user's version (and etag) has been incremented by the time this returns.
+	 * Runs in its own transaction if called outside of one.
+	 * 
+	 * @see Session#flush()
+	 */
+	@Transactional
+	public User update(User user) {
+		currentSession().saveOrUpdate(user);
+		currentSession().flush();
+		return user;
+	}
 
 	/**
-	 * Deletes the {@link User} from the database.
+	 * Replaces the {@link User}'s key set and writes it to the database,
+	 * unless another transaction has modified the user since it was loaded.
+	 * <p>
+	 * The user's row is locked with {@code SELECT ... FOR UPDATE} before it's
+	 * changed, and stays locked until the current transaction is over, so
+	 * concurrent requests can't race on the user's version. Runs in its own
+	 * transaction if called outside of one.
+	 * 
+	 * @return {@code true} if the key set was replaced, {@code false} if the
+	 *         user has been modified since it was loaded
+	 */
+	@Transactional
+	public boolean replaceKeySet(User user, KeySet keySet) {
+		try {
+			currentSession().lock(user, LockMode.UPGRADE);
+		} catch (StaleStateException e) {
+			return false;
+		}
+		
+		user.setKeySet(keySet);
+		update(user);
+		return true;
+	}
+	
+	/**
+	 * Deletes the {@link User} from the database, along with the bodies of
+	 * their {@link Document}s.
+	 * <p>
+	 * The documents themselves are deleted by the database's {@code ON DELETE
+	 * CASCADE}, which doesn't reach the {@link DocumentBody} rows they point
+	 * to, so those are deleted once the user is gone, and their blobs once the
+	 * transaction commits. Since none of this goes through Hibernate, the
+	 * user's cached documents, and the cached links of everyone who shared a
+	 * document with them, are evicted once the transaction is over.
 	 */
 	public void delete(User user) {
+		@SuppressWarnings("unchecked")
+		final List<Object[]> documents = namedQuery("com.wesabe.grendel.entities.Document.BodiesByOwner")
+											.setParameter("owner", user)
+											.list();
+		
+		final Set<String> linkedUsers = Sets.newHashSet(user.getId());
+		if (!documents.isEmpty()) {
+			@SuppressWarnings("unchecked")
+			final List<String> readers = namedQuery("com.wesabe.grendel.entities.Document.LinkedUserIdsByOwner")
+											.setParameter("owner", user)
+											.list();
+			linkedUsers.addAll(readers);
+		}
+		
+		final List<DocumentPK> linkedDocuments = Lists.newArrayList();
+		for (Document document : user.getLinkedDocuments()) {
+			linkedDocuments.add(new DocumentPK(document.getOwner(), document.getName()));
+		}
+		
 		currentSession().delete(user);
+		
+		final List<DocumentPK> documentIds = Lists.newArrayListWithCapacity(documents.size());
+		for (Object[] document : documents) {
+			documentIds.add(new DocumentPK(user, (String) document[0]));
+		}
+		LinkCacheEviction.register(currentSession(), documentIds, linkedDocuments, linkedUsers);
+		
+		if (!documents.isEmpty()) {
+			final List<String> bodyIds = Lists.newArrayListWithCapacity(documents.size());
+			final List<String> blobKeys = Lists.newArrayList();
+			for (Object[] document : documents) {
+				bodyIds.add((String) document[1]);
+				if (document[2] != null) {
+					blobKeys.add((String) document[2]);
+				}
+			}
+			
+			currentSession().flush();
+			for (List<String> ids : Lists.partition(bodyIds, MAX_DELETE_BATCH)) {
+				namedQuery("com.wesabe.grendel.entities.DocumentBody.DeleteByIds")
+					.setParameterList("ids", ids)
+					.executeUpdate();
+			}
+			
+			BlobCleanup.register(currentSession(), blobKeys, ImmutableList.<String>of());
+		}
 	}
 }
@@ -44,7 +44,7 @@ public enum AsymmetricAlgorithm implements IntegerEquivalent {
 	RSA(		"RSA",			PublicKeyAlgorithmTags.RSA_GENERAL) {
 		@Override
 		public AlgorithmParameterSpec getAlgorithmParameterSpec() {
-			return new RSAKeyGenParameterSpec(2048, RSAKeyGenParameterSpec.F4);
+			return new ParallelRSAKeyGenParameterSpec(2048, RSAKeyGenParameterSpec.F4, PRIME_SEARCH_THREADS);
 		}},
 	
 	/**
@@ -114,6 +114,14 @@ public enum AsymmetricAlgorithm implements IntegerEquivalent {
 	 * 
 	 */
 	public static final AsymmetricAlgorithm SIGNING_DEFAULT = RSA;
+	
+	/**
+	 * The number of threads used to search for the primes of a new RSA key.
+	 * Defaults to {@code 1}, which leaves key generation to the JCA provider.
+	 * 
+	 * @see ParallelRSAKeyGenParameterSpec
+	 */
+	private static final int PRIME_SEARCH_THREADS = Integer.getInteger("grendel.keygen.prime-search-threads", 1);
 
 	private final String name;
 	private final int value;
@@ -0,0 +1,63 @@
+package com.wesabe.grendel.openpgp;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.zip.Deflater;
+
+import org.bouncycastle.bcpg.BCPGOutputStream;
+import org.bouncycastle.bcpg.PacketTags;
+
+/**
+ * An {@link OutputStream} which writes a ZLIB-compressed OpenPGP Compressed
+ * Data packet using a {@link ParallelDeflaterOutputStream}.
+ * <p>
+ * This produces the same packet as
+ * {@link org.bouncycastle.openpgp.PGPCompressedDataGenerator}, but without
+ * allocating a new {@link Deflater} (and its native zlib state) and buffer for
+ * every message, and compressing large messages on multiple cores.
+ * <p>
+ * Closing the stream finishes the packet, but does not close the underlying
+ * stream.
+ * 
+ * @author coda
+ */
+class CompressedDataOutputStream extends OutputStream {
+	private final BCPGOutputStream packetOutput;
+	private final ParallelDeflaterOutputStream deflaterOutput;
+	
+	/**
+	 * Starts a new Compressed Data packet on {@code output}.
+	 * 
+	 * @param output the {@link OutputStream} the packet will be written to
+	 * @param level the deflate level, from {@link Deflater#NO_COMPRESSION}
+	 *        to {@link Deflater#BEST_COMPRESSION}, or
+	 *        {@link Deflater#DEFAULT_COMPRESSION}
+	 * @throws IOException if there is an error writing the packet header
+	 */
+	public CompressedDataOutputStream(OutputStream output, int level) throws IOException {
+		this.packetOutput = new BCPGOutputStream(output, PacketTags.COMPRESSED_DATA);
+		packetOutput.write(CompressionAlgorithm.ZLIB.toInteger());
+		this.deflaterOutput = new ParallelDeflaterOutputStream(packetOutput, level);
+	}
+	
+	@Override
+	public void write(int b) throws IOException {
+		deflaterOutput.write(b);
+	}
+	
+	@Override
+	public void write(byte[] b, int off, int len) throws IOException {
+		deflaterOutput.write(b, off, len);
+	}
+	
+	/**
+	 * Finishes the Compressed Data packet. The underlying stream is not
+	 * closed.
+	 */
+	@Override
+	public void close() throws IOException {
+		deflaterOutput.close();
+		packetOutput.finish();
+		packetOutput.flush();
+	}
+}
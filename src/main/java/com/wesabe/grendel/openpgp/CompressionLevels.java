@@ -0,0 +1,146 @@
+package com.wesabe.grendel.openpgp;
+
+import java.util.Locale;
+import java.util.zip.Deflater;
+
+import com.google.common.collect.ImmutableSet;
+
+/**
+ * Chooses a deflate level for a message body based on its content type and a
+ * sample of its first few kilobytes.
+ * <p>
+ * Content types which are known to be compressed already (JPEG, PNG, ZIP,
+ * audio and video, etc.) are stored without compression. Textual content
+ * types are compressed at the default level. Anything else is sampled: the
+ * Shannon entropy of the sample decides between no compression, the fastest
+ * compression, and the default level.
+ * 
+ * @author coda
+ * @see MessageWriter
+ */
+public final class CompressionLevels {
+	/**
+	 * The number of bytes from the start of a body which should be sampled.
+	 */
+	public static final int SAMPLE_SIZE = 1024 * 4; // 4KB
+	
+	/**
+	 * Samples with at least this many bits of entropy per byte are considered
+	 * incompressible.
+	 */
+	private static final double INCOMPRESSIBLE_ENTROPY = 7.5;
+	
+	/**
+	 * Samples with at least this many bits of entropy per byte are considered
+	 * poorly compressible, and are compressed as quickly as possible.
+	 */
+	private static final double POORLY_COMPRESSIBLE_ENTROPY = 6.5;
+	
+	private static final ImmutableSet<String> COMPRESSED_TYPES = ImmutableSet.of(
+		"image/jpeg", "image/pjpeg", "image/png", "image/gif", "image/webp",
+		"application/zip", "application/gzip", "application/x-gzip",
+		"application/x-bzip2", "application/x-xz", "application/x-7z-compressed",
+		"application/x-rar-compressed", "application/vnd.openxmlformats-officedocument.wordprocessingml.document",
+		"application/vnd.openxmlformats-officedocument.spreadsheetml.sheet",
+		"application/vnd.openxmlformats-officedocument.presentationml.presentation"
+	);
+	
+	private static final ImmutableSet<String> COMPRESSED_TYPE_PREFIXES = ImmutableSet.of(
+		"audio/", "video/"
+	);
+	
+	private static final ImmutableSet<String> TEXTUAL_TYPES = ImmutableSet.of(
+		"application/json", "application/xml", "application/javascript",
+		"application/x-www-form-urlencoded"
+	);
+	
+	private CompressionLevels() {}
+	
+	/**
+	 * Returns the deflate level which should be used to compress a body.
+	 * 
+	 * @param contentType
+	 *            the body's content type, or {@code null} if unknown
+	 * @param sample
+	 *            a buffer containing the first bytes of the body
+	 * @param length
+	 *            the number of bytes in {@code sample}
+	 * @return a {@link Deflater} compression level
+	 */
+	public static int forContent(String contentType, byte[] sample, int length) {
+		final String type = baseType(contentType);
+		if (type != null) {
+			if (isCompressed(type)) {
+				return Deflater.NO_COMPRESSION;
+			}
+			
+			if (isTextual(type)) {
+				return Deflater.DEFAULT_COMPRESSION;
+			}
+		}
+		
+		if (length == 0) {
+			return Deflater.DEFAULT_COMPRESSION;
+		}
+		
+		final double entropy = entropy(sample, length);
+		if (entropy >= INCOMPRESSIBLE_ENTROPY) {
+			return Deflater.NO_COMPRESSION;
+		}
+		
+		if (entropy >= POORLY_COMPRESSIBLE_ENTROPY) {
+			return Deflater.BEST_SPEED;
+		}
+		
+		return Deflater.DEFAULT_COMPRESSION;
+	}
+	
+	/**
+	 * Returns the Shannon entropy of the first {@code length} bytes of
+	 * {@code sample}, in bits per byte.
+	 */
+	public static double entropy(byte[] sample, int length) {
+		final int[] counts = new int[256];
+		for (int i = 0; i < length; i++) {
+			counts[sample[i] & 0xff]++;
+		}
+		
+		double entropy = 0.0;
+		for (int count : counts) {
+			if (count > 0) {
+				final double p = (double) count / length;
+				entropy -= p * (Math.log(p) / Math.log(2));
+			}
+		}
+		return entropy;
+	}
+	
+	private static boolean isCompressed(String type) {
+		if (COMPRESSED_TYPES.contains(type)) {
+			return true;
+		}
+		
+		for (String prefix : COMPRESSED_TYPE_PREFIXES) {
+			if (type.startsWith(prefix)) {
+				return true;
+			}
+		}
+		
+		return false;
+	}
+	
+	private static boolean isTextual(String type) {
+		return type.startsWith("text/") || type.endsWith("+xml")
+				|| type.endsWith("+json") || TEXTUAL_TYPES.contains(type);
+	}
+	
+	private static String baseType(String contentType) {
+		if (contentType == null) {
+			return null;
+		}
+		
+		final int parameters = contentType.indexOf(';');
+		final String type = (parameters < 0) ? contentType : contentType.substring(0, parameters);
+		return type.trim().toLowerCase(Locale.US);
+	}
+}
@@ -0,0 +1,98 @@
+package com.wesabe.grendel.openpgp;
+
+import java.security.GeneralSecurityException;
+import java.security.KeyPairGenerator;
+import java.security.MessageDigest;
+import java.security.Security;
+import java.util.List;
+
+import javax.crypto.Cipher;
+import javax.crypto.spec.IvParameterSpec;
+import javax.crypto.spec.SecretKeySpec;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Selects the JCA provider used for all of Grendel's cryptographic
+ * operations.
+ * <p>
+ * By default, everything runs on Bouncy Castle. {@link #installRouting(List)}
+ * installs a {@link RoutingProvider}, which keeps Bouncy Castle for the
+ * OpenPGP-specific algorithms but sends AES, SHA, and RSA to faster
+ * providers.
+ * 
+ * @author coda
+ */
+public final class CryptoProviders {
+	private static final Logger LOGGER = LoggerFactory.getLogger(CryptoProviders.class);
+	
+	/**
+	 * The name of the Bouncy Castle provider.
+	 */
+	public static final String BOUNCY_CASTLE = "BC";
+	
+	private static volatile String name = BOUNCY_CASTLE;
+	
+	private CryptoProviders() {}
+	
+	/**
+	 * Returns the name of the provider which should be passed to JCA and
+	 * Bouncy Castle methods.
+	 */
+	public static String getName() {
+		return name;
+	}
+	
+	/**
+	 * Installs a {@link RoutingProvider} which prefers {@code preferredProviders}
+	 * and falls back to Bouncy Castle, and makes it the provider returned by
+	 * {@link #getName()}.
+	 * <p>
+	 * If the routed provider can't be used (e.g., because the JDK requires
+	 * cipher providers to be signed), this logs a warning and leaves Bouncy
+	 * Castle as the provider.
+	 * 
+	 * @param preferredProviders the names of the providers to route to, in
+	 *        order of preference
+	 * @return {@code true} if routing was installed
+	 */
+	public static synchronized boolean installRouting(List<String> preferredProviders) {
+		uninstallRouting();
+		
+		final RoutingProvider provider = new RoutingProvider(preferredProviders, BOUNCY_CASTLE);
+		Security.addProvider(provider);
+		try {
+			selfTest();
+		} catch (Exception e) {
+			LOGGER.warn("Unable to route cryptographic primitives; using " + BOUNCY_CASTLE, e);
+			Security.removeProvider(RoutingProvider.NAME);
+			return false;
+		}
+		
+		LOGGER.info("Routing AES to " + provider.getRoute("Cipher", "AES") +
+			", SHA-256 to " + provider.getRoute("MessageDigest", "SHA-256") +
+			", and RSA to " + provider.getRoute("Cipher", "RSA"));
+		name = RoutingProvider.NAME;
+		return true;
+	}
+	
+	/**
+	 * Removes the {@link RoutingProvider}, if installed, and reverts to Bouncy
+	 * Castle.
+	 */
+	public static synchronized void uninstallRouting() {
+		name = BOUNCY_CASTLE;
+		Security.removeProvider(RoutingProvider.NAME);
+	}
+	
+	private static void selfTest() throws GeneralSecurityException {
+		final Cipher aes = Cipher.getInstance("AES/CFB/NoPadding", RoutingProvider.NAME);
+		aes.init(Cipher.ENCRYPT_MODE, new SecretKeySpec(new byte[16], "AES"), new IvParameterSpec(new byte[16]));
+		aes.doFinal(new byte[16]);
+		
+		Cipher.getInstance("RSA/ECB/PKCS1Padding", RoutingProvider.NAME);
+		MessageDigest.getInstance("SHA-256", RoutingProvider.NAME).digest(new byte[16]);
+		KeyPairGenerator.getInstance("RSA", RoutingProvider.NAME);
+	}
+}
@@ -0,0 +1,170 @@
+package com.wesabe.grendel.openpgp;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.security.GeneralSecurityException;
+import java.security.MessageDigest;
+import java.util.Arrays;
+
+import javax.crypto.Cipher;
+
+/**
+ * An {@link InputStream} which decrypts the body of a Symmetrically Encrypted
+ * Integrity Protected Data packet with a {@link SessionKey}.
+ * <p>
+ * The last 22 bytes of decrypted data are always held back, so that the
+ * Modification Detection Code packet is never returned as data. Once the
+ * stream has been read to the end, {@link #verify()} checks the MDC.
+ * <p>
+ * OpenPGP/CFB mode's "quick check" of the random prefix is deliberately not
+ * performed, since it can be used as a chosen-ciphertext oracle.
+ * 
+ * @author coda
+ * @see IntegrityProtectedOutputStream
+ * @see <a href="http://www.ietf.org/rfc/rfc4880.txt">Section 5.13, RFC 4880</a>
+ */
+class IntegrityProtectedInputStream extends InputStream {
+	private static final int BLOCK_SIZE = 16;
+	private static final int PREFIX_LENGTH = BLOCK_SIZE + 2;
+	private static final int MDC_LENGTH = 22;
+	
+	private final InputStream input;
+	private final Cipher cipher;
+	private final MessageDigest digest;
+	private byte[] encrypted, decrypted;
+	private int start, end;
+	private boolean eof;
+	
+	/**
+	 * Starts decrypting a Symmetrically Encrypted Integrity Protected Data
+	 * packet.
+	 * 
+	 * @param input an {@link InputStream} of the packet body, after the
+	 *        version number
+	 * @param sessionKey the message's {@link SessionKey}
+	 * @throws CryptographicException if the cipher can't be initialized
+	 * @throws IOException if there is an error reading from {@code input}
+	 */
+	public IntegrityProtectedInputStream(InputStream input, SessionKey sessionKey) throws CryptographicException, IOException {
+		this.input = input;
+		try {
+			this.cipher = sessionKey.newCipher(Cipher.DECRYPT_MODE);
+			this.digest = MessageDigest.getInstance("SHA-1", CryptoProviders.getName());
+		} catch (GeneralSecurityException e) {
+			throw new CryptographicException(e);
+		}
+		
+		this.encrypted = Pools.READ_BUFFERS.borrow();
+		this.decrypted = Pools.READ_BUFFERS.borrow();
+		
+		try {
+			while (!eof && (end - start) < (PREFIX_LENGTH + MDC_LENGTH)) {
+				fill();
+			}
+		} catch (IOException e) {
+			close();
+			throw e;
+		}
+		
+		if ((end - start) < (PREFIX_LENGTH + MDC_LENGTH)) {
+			close();
+			throw new CryptographicException("encrypted data is truncated");
+		}
+		
+		digest.update(decrypted, start, PREFIX_LENGTH);
+		start += PREFIX_LENGTH;
+	}
+	
+	@Override
+	public int read() throws IOException {
+		final byte[] b = new byte[1];
+		final int n = read(b, 0, 1);
+		return (n < 0) ? -1 : (b[0] & 0xff);
+	}
+	
+	@Override
+	public int read(byte[] b, int off, int len) throws IOException {
+		if (decrypted == null) {
+			throw new IOException("stream is closed");
+		}
+		
+		if (len == 0) {
+			return 0;
+		}
+		
+		while (!eof && (end - start) <= MDC_LENGTH) {
+			fill();
+		}
+		
+		final int available = end - start - MDC_LENGTH;
+		if (available <= 0) {
+			return -1;
+		}
+		
+		final int n = Math.min(len, available);
+		System.arraycopy(decrypted, start, b, off, n);
+		digest.update(b, off, n);
+		start += n;
+		return n;
+	}
+	
+	/**
+	 * Reads any remaining data and checks the Modification Detection Code
+	 * packet.
+	 * 
+	 * @return {@code true} if the data has not been modified
+	 * @throws IOException if there is an error reading the data
+	 */
+	public boolean verify() throws IOException {
+		final byte[] b = new byte[BLOCK_SIZE];
+		while (read(b, 0, b.length) >= 0) {
+			// drain
+		}
+		
+		if ((end - start) != MDC_LENGTH
+				|| decrypted[start] != (byte) 0xD3
+				|| decrypted[start + 1] != (byte) 0x14) {
+			return false;
+		}
+		
+		digest.update(decrypted, start, 2);
+		return MessageDigest.isEqual(
+			digest.digest(),
+			Arrays.copyOfRange(decrypted, start + 2, start + MDC_LENGTH)
+		);
+	}
+	
+	/**
+	 * Returns the buffers to their pool. The underlying stream is not closed.
+	 */
+	@Override
+	public void close() {
+		if (decrypted != null) {
+			Pools.READ_BUFFERS.release(encrypted);
+			Pools.READ_BUFFERS.release(decrypted);
+			this.encrypted = null;
+			this.decrypted = null;
+		}
+	}
+	
+	private void fill() throws IOException {
+		// move the held-back bytes to the front of the buffer
+		System.arraycopy(decrypted, start, decrypted, 0, end - start);
+		this.end -= start;
+		this.start = 0;
+		
+		try {
+			// leave room for a block the cipher may be holding on to
+			final int length = Math.min(encrypted.length, decrypted.length - end - BLOCK_SIZE);
+			final int n = input.read(encrypted, 0, length);
+			if (n < 0) {
+				this.eof = true;
+				end += cipher.doFinal(decrypted, end);
+			} else {
+				end += cipher.update(encrypted, 0, n, decrypted, end);
+			}
+		} catch (GeneralSecurityException e) {
+			throw new IOException(e);
+		}
+	}
+}
@@ -0,0 +1,131 @@
+package com.wesabe.grendel.openpgp;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.security.GeneralSecurityException;
+import java.security.MessageDigest;
+import java.security.SecureRandom;
+
+import javax.crypto.Cipher;
+import javax.crypto.ShortBufferException;
+
+import org.bouncycastle.bcpg.BCPGOutputStream;
+import org.bouncycastle.bcpg.PacketTags;
+
+/**
+ * An {@link OutputStream} which writes a Symmetrically Encrypted Integrity
+ * Protected Data packet, encrypted with a {@link SessionKey}.
+ * <p>
+ * This produces the same packet as
+ * {@link org.bouncycastle.openpgp.PGPEncryptedDataGenerator}, which
+ * {@link MessageWriter} can't use because it performs the public-key
+ * encryption of the session key itself, one recipient after another.
+ * <p>
+ * Closing the stream writes the Modification Detection Code packet and
+ * finishes the packet, but does not close the underlying stream.
+ * 
+ * @author coda
+ * @see <a href="http://www.ietf.org/rfc/rfc4880.txt">Section 5.13, RFC 4880</a>
+ */
+class IntegrityProtectedOutputStream extends OutputStream {
+	private static final int VERSION = 1;
+	private static final int BLOCK_SIZE = 16;
+	private static final byte[] MDC_HEADER = { (byte) 0xD3, (byte) 0x14 };
+	
+	private final BCPGOutputStream packetOutput;
+	private final Cipher cipher;
+	private final MessageDigest digest;
+	private byte[] buffer;
+	
+	/**
+	 * Starts a new Symmetrically Encrypted Integrity Protected Data packet on
+	 * {@code output}.
+	 * 
+	 * @param output the {@link OutputStream} the packet will be written to
+	 * @param sessionKey the {@link SessionKey} to encrypt the data with
+	 * @param random a {@link SecureRandom} instance
+	 * @param packetBuffer a buffer for partial packet lengths
+	 * @throws CryptographicException if the cipher can't be initialized
+	 * @throws IOException if there is an error writing to {@code output}
+	 */
+	public IntegrityProtectedOutputStream(OutputStream output, SessionKey sessionKey,
+		SecureRandom random, byte[] packetBuffer) throws CryptographicException, IOException {
+		
+		try {
+			this.cipher = sessionKey.newCipher(Cipher.ENCRYPT_MODE);
+			this.digest = MessageDigest.getInstance("SHA-1", CryptoProviders.getName());
+		} catch (GeneralSecurityException e) {
+			throw new CryptographicException(e);
+		}
+		
+		this.buffer = Pools.WRITE_BUFFERS.borrow();
+		this.packetOutput = new BCPGOutputStream(output, PacketTags.SYM_ENC_INTEGRITY_PRO, packetBuffer);
+		packetOutput.write(VERSION);
+		
+		// a block of random data, with the last two bytes repeated
+		final byte[] prefix = new byte[BLOCK_SIZE + 2];
+		random.nextBytes(prefix);
+		prefix[BLOCK_SIZE] = prefix[BLOCK_SIZE - 2];
+		prefix[BLOCK_SIZE + 1] = prefix[BLOCK_SIZE - 1];
+		write(prefix, 0, prefix.length);
+	}
+	
+	@Override
+	public void write(int b) throws IOException {
+		write(new byte[] { (byte) b }, 0, 1);
+	}
+	
+	@Override
+	public void write(byte[] b, int off, int len) throws IOException {
+		if (buffer == null) {
+			throw new IOException("stream is closed");
+		}
+		
+		digest.update(b, off, len);
+		encrypt(b, off, len);
+	}
+	
+	/**
+	 * Writes the Modification Detection Code packet and finishes the
+	 * Symmetrically Encrypted Integrity Protected Data packet. The underlying
+	 * stream is not closed.
+	 */
+	@Override
+	public void close() throws IOException {
+		if (buffer != null) {
+			try {
+				digest.update(MDC_HEADER);
+				encrypt(MDC_HEADER, 0, MDC_HEADER.length);
+				
+				final byte[] hash = digest.digest();
+				encrypt(hash, 0, hash.length);
+				
+				packetOutput.write(cipher.doFinal());
+				packetOutput.finish();
+				packetOutput.flush();
+			} catch (GeneralSecurityException e) {
+				throw new IOException(e);
+			} finally {
+				Pools.WRITE_BUFFERS.release(buffer);
+				this.buffer = null;
+			}
+		}
+	}
+	
+	private void encrypt(byte[] b, int off, int len) throws IOException {
+		try {
+			// leave room for a block the cipher may be holding on to
+			final int chunkSize = buffer.length - BLOCK_SIZE;
+			int offset = off, remaining = len;
+			while (remaining > 0) {
+				final int n = Math.min(remaining, chunkSize);
+				final int length = cipher.update(b, offset, n, buffer, 0);
+				packetOutput.write(buffer, 0, length);
+				offset += n;
+				remaining -= n;
+			}
+		} catch (ShortBufferException e) {
+			throw new IOException(e);
+		}
+	}
+}
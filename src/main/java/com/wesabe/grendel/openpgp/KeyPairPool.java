@@ -0,0 +1,208 @@
+package com.wesabe.grendel.openpgp;
+
+import java.security.GeneralSecurityException;
+import java.security.KeyPair;
+import java.security.KeyPairGenerator;
+import java.security.SecureRandom;
+import java.security.spec.AlgorithmParameterSpec;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.wesabe.grendel.util.NamedThreadFactory;
+
+/**
+ * A bounded pool of pre-generated {@link KeyPair}s for a single
+ * {@link AsymmetricAlgorithm}.
+ * <p>
+ * Generating an RSA key pair takes long enough that doing it while a client
+ * waits makes creating users slow and bursty. Instead, key pairs are generated
+ * ahead of time by a single, minimum-priority background thread, which tops
+ * the pool up to its high watermark whenever it has fallen to its low
+ * watermark. Taking a key pair never blocks: if the pool is empty, the caller
+ * is expected to generate one itself.
+ * 
+ * @author coda
+ * @see KeySetGenerator
+ */
+public class KeyPairPool implements KeyPairPoolMBean {
+	private static final Logger LOGGER = LoggerFactory.getLogger(KeyPairPool.class);
+	
+	/**
+	 * Generates key pairs until the pool is at its high watermark.
+	 */
+	private class Refill implements Runnable {
+		@Override
+		public void run() {
+			try {
+				while ((keyPairs.size() < highWatermark) && !Thread.currentThread().isInterrupted()) {
+					if (keyPairs.offer(generate(algorithm.getAlgorithmParameterSpec()))) {
+						generated.incrementAndGet();
+					}
+				}
+			} catch (GeneralSecurityException e) {
+				LOGGER.error("Unable to pre-generate " + algorithm + " key pairs", e);
+			} finally {
+				refilling.set(false);
+			}
+		}
+	}
+	
+	private final AsymmetricAlgorithm algorithm;
+	private final SecureRandom random;
+	private final int lowWatermark, highWatermark;
+	private final BlockingQueue<KeyPair> keyPairs;
+	private final ExecutorService refiller;
+	private final AtomicBoolean refilling = new AtomicBoolean();
+	private final AtomicLong hits = new AtomicLong();
+	private final AtomicLong misses = new AtomicLong();
+	private final AtomicLong generated = new AtomicLong();
+	
+	/**
+	 * Creates a new {@link KeyPairPool} and starts filling it.
+	 * 
+	 * @param algorithm the algorithm of the pooled key pairs
+	 * @param random a {@link SecureRandom} instance
+	 * @param lowWatermark the depth at or below which the pool is refilled
+	 * @param highWatermark the maximum depth of the pool; {@code 0} disables
+	 *        pre-generation entirely
+	 */
+	public KeyPairPool(AsymmetricAlgorithm algorithm, SecureRandom random, int lowWatermark, int highWatermark) {
+		if ((lowWatermark < 0) || (highWatermark < lowWatermark)) {
+			throw new IllegalArgumentException("invalid watermarks: " + lowWatermark + "/" + highWatermark);
+		}
+		
+		this.algorithm = algorithm;
+		this.random = random;
+		this.lowWatermark = lowWatermark;
+		this.highWatermark = highWatermark;
+		this.keyPairs = new LinkedBlockingQueue<KeyPair>(Math.max(highWatermark, 1));
+		this.refiller = Executors.newSingleThreadExecutor(
+			new NamedThreadFactory("grendel-keypair-pool", Thread.MIN_PRIORITY)
+		);
+		refill();
+	}
+	
+	/**
+	 * Returns a pre-generated {@link KeyPair}, or {@code null} if the pool is
+	 * empty.
+	 */
+	public KeyPair poll() {
+		final KeyPair keyPair = keyPairs.poll();
+		if (keyPair == null) {
+			misses.incrementAndGet();
+		} else {
+			hits.incrementAndGet();
+		}
+		
+		if (keyPairs.size() <= lowWatermark) {
+			refill();
+		}
+		
+		return keyPair;
+	}
+	
+	/**
+	 * Returns an unused {@link KeyPair} to the pool. If the pool is full, the
+	 * key pair is discarded.
+	 */
+	public void offer(KeyPair keyPair) {
+		if (highWatermark > 0) {
+			keyPairs.offer(keyPair);
+		}
+	}
+	
+	/**
+	 * Generates a new {@link KeyPair}, without touching the pool.
+	 * <p>
+	 * If the algorithm's parameters are a
+	 * {@link ParallelRSAKeyGenParameterSpec} with a parallelism greater than
+	 * one, the primes are searched for on several threads at once, since
+	 * someone is presumably waiting for the key pair. Otherwise the key pair
+	 * is generated on the calling thread.
+	 * 
+	 * @throws GeneralSecurityException if the key pair can't be generated
+	 */
+	public KeyPair generate() throws GeneralSecurityException {
+		final AlgorithmParameterSpec spec = algorithm.getAlgorithmParameterSpec();
+		if ((spec instanceof ParallelRSAKeyGenParameterSpec)
+				&& (((ParallelRSAKeyGenParameterSpec) spec).getParallelism() > 1)) {
+			return ParallelRSAKeyPairGenerator.generate((ParallelRSAKeyGenParameterSpec) spec, random);
+		}
+		return generate(spec);
+	}
+	
+	/**
+	 * Stops refilling the pool.
+	 */
+	public void shutdown() {
+		refiller.shutdownNow();
+	}
+	
+	@Override
+	public int getLowWatermark() {
+		return lowWatermark;
+	}
+	
+	@Override
+	public int getHighWatermark() {
+		return highWatermark;
+	}
+	
+	@Override
+	public int getDepth() {
+		return keyPairs.size();
+	}
+	
+	@Override
+	public long getHitCount() {
+		return hits.get();
+	}
+	
+	@Override
+	public long getMissCount() {
+		return misses.get();
+	}
+	
+	@Override
+	public double getHitRatio() {
+		final long hitCount = hits.get();
+		final long total = hitCount + misses.get();
+		if (total == 0) {
+			return 0.0;
+		}
+		return hitCount / (double) total;
+	}
+	
+	@Override
+	public long getGeneratedCount() {
+		return generated.get();
+	}
+	
+	/*
+	 * Background refills always generate on their own minimum-priority thread,
+	 * rather than competing with waiting clients for the prime search pool.
+	 */
+	private KeyPair generate(AlgorithmParameterSpec spec) throws GeneralSecurityException {
+		final KeyPairGenerator generator = KeyPairGenerator.getInstance(algorithm.getName(), CryptoProviders.getName());
+		generator.initialize(spec, random);
+		return generator.generateKeyPair();
+	}
+	
+	private void refill() {
+		if ((highWatermark > 0) && refilling.compareAndSet(false, true)) {
+			try {
+				refiller.execute(new Refill());
+			} catch (RejectedExecutionException e) {
+				refilling.set(false);
+			}
+		}
+	}
+}
@@ -0,0 +1,46 @@
+package com.wesabe.grendel.openpgp;
+
+/**
+ * The management interface for a {@link KeyPairPool}.
+ * 
+ * @author coda
+ */
+public interface KeyPairPoolMBean {
+	/**
+	 * Returns the pool depth at or below which the pool is refilled.
+	 */
+	public abstract int getLowWatermark();
+	
+	/**
+	 * Returns the pool depth at which refilling stops.
+	 */
+	public abstract int getHighWatermark();
+	
+	/**
+	 * Returns the number of pre-generated key pairs in the pool.
+	 */
+	public abstract int getDepth();
+	
+	/**
+	 * Returns the number of times a pre-generated key pair was taken from the
+	 * pool.
+	 */
+	public abstract long getHitCount();
+	
+	/**
+	 * Returns the number of times the pool was empty and a key pair had to be
+	 * generated on demand.
+	 */
+	public abstract long getMissCount();
+	
+	/**
+	 * Returns the ratio of hits to takes, or {@code 0.0} if no key pairs have
+	 * been taken.
+	 */
+	public abstract double getHitRatio();
+	
+	/**
+	 * Returns the number of key pairs generated in the background.
+	 */
+	public abstract long getGeneratedCount();
+}
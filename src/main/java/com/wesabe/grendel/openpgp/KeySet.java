@@ -18,9 +18,10 @@ import com.wesabe.grendel.util.Iterators;
  * 
  * @author coda
  */
-public class KeySet {
+public class KeySet implements Recipient {
 	private final MasterKey masterKey;
 	private final SubKey subKey;
+	private volatile RecipientKey recipientKey;
 	
 	/**
 	 * Loads a {@link KeySet} from an array of bytes.
@@ -76,6 +77,32 @@ public class KeySet {
 		return subKey;
 	}
 	
+	/**
+	 * Returns the {@link RecipientKey} of the keyset's {@link SubKey}. The
+	 * public key is decoded once, the first time it's needed.
+	 */
+	@Override
+	public RecipientKey getRecipientKey() throws CryptographicException {
+		if (recipientKey == null) {
+			this.recipientKey = RecipientKey.of(subKey);
+		}
+		return recipientKey;
+	}
+	
+	/**
+	 * Returns {@code true} if either of the keyset's secret keys is locked
+	 * with far fewer S2K iterations than new keysets are, in which case it
+	 * should be re-locked the next time its passphrase is available.
+	 * 
+	 * @throws CryptographicException if the secret keys can't be parsed
+	 * @see S2KCalibration
+	 * @see UnlockedKeySet#relock(char[], char[], java.security.SecureRandom)
+	 */
+	public boolean isLockOutdated() throws CryptographicException {
+		return S2KCalibration.isOutdated(masterKey.getSecretKey())
+				|| S2KCalibration.isOutdated(subKey.getSecretKey());
+	}
+	
 	/**
 	 * Returns the keyset's user ID.
 	 */
@@ -115,14 +142,17 @@ public class KeySet {
 	/**
 	 * Given the keyset's passphrase, unlocks the secret keys and returns an
 	 * {@link UnlockedKeySet} equivalent of {@code this}.
+	 * <p>
+	 * Only the {@link SubKey} is unlocked immediately; the {@link MasterKey}
+	 * is unlocked the first time it's used to sign something.
 	 * 
 	 * @param passphrase the key's passphrase
 	 * @return a {@link UnlockedKeySet} equivalent of {@code this}
 	 * @throws CryptographicException if {@code passphrase} is incorrect
+	 * @see UnlockedKeySet#getUnlockedMasterKey()
 	 */
 	public UnlockedKeySet unlock(char[] passphrase) throws CryptographicException {
-		final UnlockedMasterKey unlockedMasterKey = masterKey.unlock(passphrase);
 		final UnlockedSubKey unlockedSubKey = subKey.unlock(passphrase);
-		return new UnlockedKeySet(unlockedMasterKey, unlockedSubKey);
+		return new UnlockedKeySet(masterKey, unlockedSubKey, passphrase);
 	}
 }
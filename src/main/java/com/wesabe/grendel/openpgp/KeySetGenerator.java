@@ -2,35 +2,72 @@ package com.wesabe.grendel.openpgp;
 
 import java.security.GeneralSecurityException;
 import java.security.KeyPair;
-import java.security.KeyPairGenerator;
 import java.security.SecureRandom;
+import java.util.List;
 import java.util.concurrent.Callable;
 import java.util.concurrent.ExecutionException;
-import java.util.concurrent.ExecutorService;
-import java.util.concurrent.Executors;
 import java.util.concurrent.Future;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.RejectedExecutionException;
 
 import org.bouncycastle.openpgp.PGPException;
 import org.bouncycastle.openpgp.PGPKeyPair;
 import org.bouncycastle.openpgp.PGPKeyRingGenerator;
+import org.bouncycastle.openpgp.PGPSecretKey;
 import org.bouncycastle.openpgp.PGPSecretKeyRing;
 import org.bouncycastle.openpgp.PGPSignatureSubpacketGenerator;
 import org.bouncycastle.openpgp.PGPSignatureSubpacketVector;
 import org.joda.time.DateTime;
 
 import com.google.inject.Inject;
+import com.google.inject.Singleton;
 import com.google.inject.internal.ImmutableList;
+import com.wesabe.grendel.util.BoundedExecutor;
+import com.wesabe.grendel.util.BoundedExecutorMBean;
 import com.wesabe.grendel.util.IntegerEquivalents;
+import com.wesabe.grendel.util.Iterators;
+import com.wesabe.grendel.util.MBeans;
 
 /**
  * A multithreaded generator for {@link KeySet}s.
  * 
  * Generates master keys using {@link AsymmetricAlgorithm#ENCRYPTION_DEFAULT},
  * and subkeys using {@link AsymmetricAlgorithm#SIGNING_DEFAULT}.
+ * <p>
+ * Key pairs are taken from a {@link KeyPairPool} which is refilled in the
+ * background, so generating a {@link KeySet} usually only requires assembling
+ * and signing the keyring. If the pool runs dry, the missing key pairs are
+ * generated in parallel while the caller waits, by a fixed number of threads
+ * with a bounded queue; once that queue is full, new requests are rejected
+ * rather than left to compete for CPU with everything else.
  * 
  * @author coda
  */
+@Singleton
 public class KeySetGenerator {
+	/**
+	 * The number of pooled key pairs at or below which the pool is refilled.
+	 */
+	private static final String LOW_WATERMARK_PROPERTY = "grendel.keypair-pool.low-watermark";
+	
+	/**
+	 * The number of key pairs the pool is refilled to.
+	 */
+	private static final String HIGH_WATERMARK_PROPERTY = "grendel.keypair-pool.high-watermark";
+	private static final int DEFAULT_LOW_WATERMARK = 8;
+	private static final int DEFAULT_HIGH_WATERMARK = 32;
+	
+	/**
+	 * The number of threads which generate key pairs on demand.
+	 */
+	private static final String THREADS_PROPERTY = "grendel.keygen.threads";
+	
+	/**
+	 * The number of on-demand key pairs which can wait for a thread before
+	 * further requests are rejected.
+	 */
+	private static final String QUEUE_CAPACITY_PROPERTY = "grendel.keygen.queue-capacity";
+	private static final int DEFAULT_QUEUE_CAPACITY = 16;
 	
 	/**
 	 * A {@link Callable} which returns a new key pair.
@@ -38,34 +75,98 @@ public class KeySetGenerator {
 	 *
 	 */
 	private static class GeneratorTask implements Callable<KeyPair> {
-		private final AsymmetricAlgorithm algorithm;
-		private final SecureRandom random;
+		private final KeyPairPool pool;
 		
-		public GeneratorTask(AsymmetricAlgorithm algorithm, SecureRandom random) {
-			this.algorithm = algorithm;
-			this.random = random;
+		public GeneratorTask(KeyPairPool pool) {
+			this.pool = pool;
 		}
 		
 		@Override
 		public KeyPair call() throws Exception {
-			final KeyPairGenerator generator = KeyPairGenerator.getInstance(algorithm.getName(), "BC");
-			generator.initialize(algorithm.getAlgorithmParameterSpec(), random);
-			return generator.generateKeyPair();
+			return pool.generate();
 		}
 	}
 	
+	private static final Runnable NO_OP = new Runnable() {
+		@Override
+		public void run() {
+			// the key pair is already available
+		}
+	};
+	
 	private final SecureRandom random;
-	private final ExecutorService executor;
+	private final KeyPairPool masterKeyPairs, subKeyPairs;
+	private final BoundedExecutor executor;
 	
 	/**
-	 * Creates a new {@link KeySetGenerator}.
+	 * Creates a new {@link KeySetGenerator}, configured by the
+	 * {@code grendel.keypair-pool.low-watermark},
+	 * {@code grendel.keypair-pool.high-watermark},
+	 * {@code grendel.keygen.threads}, and
+	 * {@code grendel.keygen.queue-capacity} system properties.
 	 * 
 	 * @param random a secure random number generator
 	 */
 	@Inject
 	public KeySetGenerator(SecureRandom random) {
+		this(random,
+			Integer.getInteger(LOW_WATERMARK_PROPERTY, DEFAULT_LOW_WATERMARK),
+			Integer.getInteger(HIGH_WATERMARK_PROPERTY, DEFAULT_HIGH_WATERMARK),
+			Integer.getInteger(THREADS_PROPERTY, Runtime.getRuntime().availableProcessors()),
+			Integer.getInteger(QUEUE_CAPACITY_PROPERTY, DEFAULT_QUEUE_CAPACITY));
+		MBeans.register("KeyPairPool", "master", masterKeyPairs, KeyPairPoolMBean.class);
+		if (subKeyPairs != masterKeyPairs) {
+			MBeans.register("KeyPairPool", "sub", subKeyPairs, KeyPairPoolMBean.class);
+		}
+		MBeans.register("Executor", "keygen", executor, BoundedExecutorMBean.class);
+	}
+	
+	/**
+	 * Creates a new {@link KeySetGenerator}.
+	 * 
+	 * @param random a secure random number generator
+	 * @param lowWatermark the number of pooled key pairs at or below which the
+	 *        pool is refilled
+	 * @param highWatermark the number of key pairs the pool is refilled to;
+	 *        {@code 0} disables pre-generation
+	 * @param threads the number of threads which generate key pairs when the
+	 *        pool is empty
+	 * @param queueCapacity the number of key pairs which can wait for one of
+	 *        those threads
+	 */
+	public KeySetGenerator(SecureRandom random, int lowWatermark, int highWatermark, int threads, int queueCapacity) {
 		this.random = random;
-		this.executor = Executors.newCachedThreadPool();
+		this.masterKeyPairs = new KeyPairPool(AsymmetricAlgorithm.SIGNING_DEFAULT, random, lowWatermark, highWatermark);
+		if (AsymmetricAlgorithm.ENCRYPTION_DEFAULT == AsymmetricAlgorithm.SIGNING_DEFAULT) {
+			this.subKeyPairs = masterKeyPairs;
+		} else {
+			this.subKeyPairs = new KeyPairPool(AsymmetricAlgorithm.ENCRYPTION_DEFAULT, random, lowWatermark, highWatermark);
+		}
+		this.executor = new BoundedExecutor("grendel-keygen", threads, queueCapacity);
+	}
+	
+	/**
+	 * Returns the {@link KeyPairPool} which master key pairs are taken from.
+	 */
+	public KeyPairPool getMasterKeyPairPool() {
+		return masterKeyPairs;
+	}
+	
+	/**
+	 * Returns the {@link KeyPairPool} which subkey pairs are taken from. This
+	 * is the same pool as {@link #getMasterKeyPairPool()} if master keys and
+	 * subkeys use the same algorithm.
+	 */
+	public KeyPairPool getSubKeyPairPool() {
+		return subKeyPairs;
+	}
+	
+	/**
+	 * Returns the {@link BoundedExecutor} which generates key pairs when the
+	 * pool is empty.
+	 */
+	public BoundedExecutor getExecutor() {
+		return executor;
 	}
 	
 	/**
@@ -75,15 +176,19 @@ public class KeySetGenerator {
 	 * @param passphrase the user's passphrase
 	 * @return a keyset for the user
 	 * @throws CryptographicException if there was an error generating the keyset
+	 * @throws RejectedExecutionException if the pool is empty and too many key
+	 *         pairs are already waiting to be generated
 	 */
 	public KeySet generate(String userId, char[] passphrase) throws CryptographicException {
 		try {
-			final Future<KeyPair> masterKeyPair = generateKeyPair(
-				AsymmetricAlgorithm.SIGNING_DEFAULT
-			);
-			final Future<KeyPair> subKeyPair = generateKeyPair(
-				AsymmetricAlgorithm.ENCRYPTION_DEFAULT
-			);
+			final Future<KeyPair> masterKeyPair = takeKeyPair(masterKeyPairs);
+			final Future<KeyPair> subKeyPair;
+			try {
+				subKeyPair = takeKeyPair(subKeyPairs);
+			} catch (RejectedExecutionException e) {
+				returnKeyPair(masterKeyPairs, masterKeyPair);
+				throw e;
+			}
 
 			final PGPKeyPair masterPGPKeyPair = new PGPKeyPair(
 				AsymmetricAlgorithm.SIGNING_DEFAULT.toInteger(),
@@ -101,7 +206,7 @@ public class KeySetGenerator {
 				generateMasterKeySettings(),
 				null, // don't store any key settings unhashed
 				random,
-				"BC"
+				CryptoProviders.getName()
 			);
 
 			final PGPKeyPair subPGPKeyPair = new PGPKeyPair(
@@ -112,7 +217,14 @@ public class KeySetGenerator {
 
 			generator.addSubKey(subPGPKeyPair, generateSubKeySettings(), null);
 
-			final PGPSecretKeyRing keyRing = generator.generateSecretKeyRing();
+			// re-lock the keys with the calibrated S2K iteration count
+			final List<PGPSecretKey> secretKeys = Iterators.toList(generator.generateSecretKeyRing().getSecretKeys());
+			final PGPSecretKeyRing keyRing = S2KCalibration.lock(
+				secretKeys.get(0), masterPGPKeyPair.getPrivateKey(),
+				secretKeys.get(1), subPGPKeyPair.getPrivateKey(),
+				passphrase,
+				random
+			);
 			return KeySet.load(keyRing);
 			
 		} catch (GeneralSecurityException e) {
@@ -155,7 +267,22 @@ public class KeySetGenerator {
 		return settings.generate();
 	}
 
-	private Future<KeyPair> generateKeyPair(final AsymmetricAlgorithm algorithm) {
-		return executor.submit(new GeneratorTask(algorithm, random));
+	private Future<KeyPair> takeKeyPair(KeyPairPool pool) {
+		final KeyPair keyPair = pool.poll();
+		if (keyPair == null) {
+			return executor.submit(new GeneratorTask(pool));
+		}
+		
+		final FutureTask<KeyPair> pooled = new FutureTask<KeyPair>(NO_OP, keyPair);
+		pooled.run();
+		return pooled;
+	}
+	
+	private void returnKeyPair(KeyPairPool pool, Future<KeyPair> keyPair) throws InterruptedException, ExecutionException {
+		if (keyPair.isDone()) {
+			pool.offer(keyPair.get());
+		} else {
+			keyPair.cancel(true);
+		}
 	}
 }
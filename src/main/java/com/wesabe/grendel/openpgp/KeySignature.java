@@ -102,7 +102,7 @@ public class KeySignature {
 	 */
 	public boolean verifyCertification(MasterKey key) {
 		try {
-			signature.initVerify(key.getPublicKey(), "BC");
+			signature.initVerify(key.getPublicKey(), CryptoProviders.getName());
 			return signature.verifyCertification(key.getUserID(), key.getPublicKey());
 		} catch (PGPException e) {
 			return false;
@@ -122,7 +122,7 @@ public class KeySignature {
 	 */
 	public boolean verifyCertification(SubKey key, MasterKey masterKey) {
 		try {
-			signature.initVerify(masterKey.getPublicKey(), "BC");
+			signature.initVerify(masterKey.getPublicKey(), CryptoProviders.getName());
 			return signature.verifyCertification(masterKey.getPublicKey(), key.getPublicKey());
 		} catch (Exception e) {
 			return false;
@@ -41,7 +41,7 @@ public class MasterKey extends AbstractKey {
 	@Override
 	public UnlockedMasterKey unlock(char[] passphrase) throws CryptographicException {
 		try {
-			final PGPPrivateKey privateKey = secretKey.extractPrivateKey(passphrase, "BC");
+			final PGPPrivateKey privateKey = secretKey.extractPrivateKey(passphrase, CryptoProviders.getName());
 			return new UnlockedMasterKey(secretKey, privateKey);
 		} catch (NoSuchProviderException e) {
 			throw new CryptographicException(e);
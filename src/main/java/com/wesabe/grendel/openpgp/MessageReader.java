@@ -1,14 +1,21 @@
 package com.wesabe.grendel.openpgp;
 
 import com.wesabe.grendel.util.IntegerEquivalents;
+import org.bouncycastle.bcpg.BCPGInputStream;
+import org.bouncycastle.bcpg.PacketTags;
+import org.bouncycastle.bcpg.PublicKeyEncSessionPacket;
+import org.bouncycastle.bcpg.SymmetricEncIntegrityPacket;
 import org.bouncycastle.openpgp.*;
 
 import java.io.ByteArrayInputStream;
 import java.io.ByteArrayOutputStream;
 import java.io.IOException;
 import java.io.InputStream;
+import java.io.OutputStream;
 import java.security.GeneralSecurityException;
-import java.security.NoSuchProviderException;
+import java.security.SecureRandom;
+import java.util.zip.Inflater;
+import java.util.zip.InflaterInputStream;
 
 /**
  * A reader class capable of decrypting OpenPGP messages created by
@@ -27,6 +34,12 @@ import java.security.NoSuchProviderException;
  * 
  * Any deviation from the format described by {@link MessageWriter} is
  * considered an unrecoverable error.
+ * <p>
+ * The recipient's session key is recovered once, with a single private-key
+ * operation, and the encrypted data is decrypted by an
+ * {@link IntegrityProtectedInputStream} rather than by Bouncy Castle's
+ * {@link PGPPublicKeyEncryptedData}, which would decrypt the session key a
+ * second time.
  * 
  * @see <a href="http://eprint.iacr.org/2005/033.pdf">An Attack on CFB Mode Encryption As Used By OpenPGP</a>
  * @see <a href="http://www.cs.umd.edu/~jkatz/papers/pgp-attack.pdf">Implementation of Chosen-Ciphertext Attacks against PGP and GnuPG</a>
@@ -36,7 +49,15 @@ import java.security.NoSuchProviderException;
  * @author coda
  */
 public class MessageReader {
-	private static final int BUFFER_SIZE = 1024 * 16; // 16KB
+	private static final int SPILL_THRESHOLD = 1024 * 1024; // 1MB
+	
+	/**
+	 * Generates the ephemeral keys for spilled bodies. Shared, rather than
+	 * created per read, since seeding a new {@link SecureRandom} is
+	 * expensive and can block.
+	 */
+	private static final SecureRandom SPILL_RANDOM = new SecureRandom();
+	
 	private final KeySet signer;
 	private final UnlockedKeySet recipient;
 	
@@ -68,20 +89,59 @@ public class MessageReader {
 	 *             pointless.
 	 */
 	public byte[] read(byte[] encrypted) throws CryptographicException {
+		final ByteArrayOutputStream output = new ByteArrayOutputStream();
+		decryptAndVerify(new ByteArrayInputStream(encrypted), output);
+		return output.toByteArray();
+	}
+	
+	/**
+	 * Decrypts the message and verifies its signature and integrity packet,
+	 * then writes the decrypted message body to {@code output}.
+	 * <p>
+	 * While the message is being decrypted, the body is held in a
+	 * {@link SpillBuffer}, which keeps small messages in memory and spills
+	 * large ones to an encrypted temporary file. Nothing is written to
+	 * {@code output} until both the signature and the integrity packet have
+	 * been verified. Neither stream is closed.
+	 * 
+	 * @param encrypted
+	 *            an {@link InputStream} of the encrypted message body
+	 * @param output
+	 *            the {@link OutputStream} to which the decrypted message body
+	 *            will be written
+	 * @throws CryptographicException
+	 *             if any error occurs while processing the message. This should
+	 *             be taken as an indicator that the message has been tampered
+	 *             with or is invalid, and that retrying the operation would be
+	 *             pointless.
+	 * @throws IOException
+	 *             if there is an error writing to {@code output}
+	 */
+	public void read(InputStream encrypted, OutputStream output) throws CryptographicException, IOException {
+		final SpillBuffer buffer = new SpillBuffer(SPILL_THRESHOLD, SPILL_RANDOM);
+		try {
+			decryptAndVerify(encrypted, buffer);
+			buffer.writeTo(output);
+		} finally {
+			buffer.close();
+		}
+	}
+	
+	private void decryptAndVerify(InputStream encrypted, OutputStream output) throws CryptographicException {
+		final Inflater inflater = Pools.INFLATERS.borrow();
+		final byte[] b = Pools.READ_BUFFERS.borrow();
+		IntegrityProtectedInputStream decryptedData = null;
 		try {
-			final PGPPublicKeyEncryptedData encryptedData = getEncryptedData(new ByteArrayInputStream(encrypted));
-			final InputStream decryptedData = encryptedData.getDataStream(recipient.getUnlockedSubKey().getPrivateKey(), "BC");
-			final InputStream decompressedData = getCompressedData(decryptedData);
+			decryptedData = getDecryptedData(encrypted);
+			final InputStream decompressedData = getCompressedData(decryptedData, inflater);
 			
 			final PGPObjectFactory factory = getFactory(decompressedData);
 			
 			final PGPOnePassSignature signature = getOnePassSignature(signer, factory);
-			signature.initVerify(signer.getMasterKey().getPublicKey(), "BC");
+			signature.initVerify(signer.getMasterKey().getPublicKey(), CryptoProviders.getName());
 			
 			final InputStream body = getLiteralData(factory);
-			final ByteArrayOutputStream output = new ByteArrayOutputStream();
 			
-			byte[] b = new byte[BUFFER_SIZE];
 			int r = 0;
 			while ((r = body.read(b)) >= 0) {
 				output.write(b, 0, r);
@@ -92,11 +152,9 @@ public class MessageReader {
                 throw new CryptographicException("Invalid signature");
             }
 			
-			if (!encryptedData.verify()) {
+			if (!decryptedData.verify()) {
                 throw new CryptographicException("Integrity check failed");
             }
-			
-			return output.toByteArray();
 		} catch (IOException e) {
 			throw new CryptographicException(e);
 		} catch (ClassCastException e) {
@@ -105,6 +163,12 @@ public class MessageReader {
 			throw new CryptographicException(e);
 		} catch (PGPException e) {
 			throw new CryptographicException(e);
+		} finally {
+			if (decryptedData != null) {
+				decryptedData.close();
+			}
+			Pools.READ_BUFFERS.release(b);
+			Pools.INFLATERS.release(inflater);
 		}
 	}
 
@@ -146,44 +210,56 @@ public class MessageReader {
 	}
 
 	@SuppressWarnings("deprecation")
-	private InputStream getCompressedData(InputStream decryptedData) throws PGPException, IOException, CryptographicException {
+	private InputStream getCompressedData(InputStream decryptedData, Inflater inflater) throws PGPException, IOException, CryptographicException {
 		final PGPObjectFactory factory = getFactory(decryptedData);
 		final PGPCompressedData compressedData = (PGPCompressedData) factory.nextObject();
 		if (compressedData.getAlgorithm() == CompressionAlgorithm.NONE.toInteger()) {
 			throw new CryptographicException("encrypted data is uncompressed");
 		}
+		
+		// MessageWriter only produces ZLIB data, which can use a pooled Inflater
+		if (compressedData.getAlgorithm() == CompressionAlgorithm.ZLIB.toInteger()) {
+			return new InflaterInputStream(compressedData.getInputStream(), inflater);
+		}
+		
 		return compressedData.getDataStream();
 	}
 
-	private PGPPublicKeyEncryptedData getEncryptedData(InputStream input) throws IOException,
-		CryptographicException, IllegalArgumentException, NoSuchProviderException, PGPException {
-		
-		final PGPObjectFactory factory = getFactory(input);
-		final PGPEncryptedDataList encryptedDataList = (PGPEncryptedDataList) factory.nextObject();
+	/*
+	 * Recovers the session key from the recipient's Public-Key Encrypted
+	 * Session Key packet -- the only RSA private-key operation per read -- and
+	 * uses it both to check the symmetric algorithm and to decrypt the data.
+	 */
+	private IntegrityProtectedInputStream getDecryptedData(InputStream input) throws IOException, CryptographicException {
+		final BCPGInputStream packets = new BCPGInputStream(PGPUtil.getDecoderStream(input));
 		
-		for (int i = 0, size = encryptedDataList.size(); i < size; i++) {
-			final PGPEncryptedData encryptedData = (PGPEncryptedData) encryptedDataList.get(i);
-			if (encryptedData instanceof PGPPublicKeyEncryptedData) {
-				final PGPPublicKeyEncryptedData pkEncryptedData = (PGPPublicKeyEncryptedData) encryptedData;
-				if (pkEncryptedData.getKeyID() == recipient.getSubKey().getKeyID()) {
-					final SymmetricAlgorithm symmetricAlgorithm = IntegerEquivalents.fromInt(
-						SymmetricAlgorithm.class,
-						pkEncryptedData.getSymmetricAlgorithm(recipient.getUnlockedSubKey().getPrivateKey(), "BC")
-					);
-					
-					if (!SymmetricAlgorithm.ACCEPTABLE_ALGORITHMS.contains(symmetricAlgorithm)) {
-						throw new CryptographicException("data is encrypted with " + symmetricAlgorithm + " which is unacceptable");
-					}
-					
-					if (!pkEncryptedData.isIntegrityProtected()) {
-						throw new CryptographicException("missing integrity packet");
-					}
-					return pkEncryptedData;
-				}
+		PublicKeyEncSessionPacket recipientPacket = null;
+		while (packets.nextPacketTag() == PacketTags.PUBLIC_KEY_ENC_SESSION) {
+			final PublicKeyEncSessionPacket packet = (PublicKeyEncSessionPacket) packets.readPacket();
+			if (packet.getKeyID() == recipient.getSubKey().getKeyID()) {
+				recipientPacket = packet;
 			}
 		}
 		
-		throw new CryptographicException("no encrypted data for " + recipient + " found");
+		if (recipientPacket == null) {
+			throw new CryptographicException("no encrypted data for " + recipient + " found");
+		}
+		
+		if (packets.nextPacketTag() != PacketTags.SYM_ENC_INTEGRITY_PRO) {
+			throw new CryptographicException("missing integrity packet");
+		}
+		
+		final SymmetricEncIntegrityPacket dataPacket = (SymmetricEncIntegrityPacket) packets.readPacket();
+		final SessionKey sessionKey = SessionKey.decrypt(recipientPacket, recipient.getUnlockedSubKey());
+		try {
+			if (!SymmetricAlgorithm.ACCEPTABLE_ALGORITHMS.contains(sessionKey.getAlgorithm())) {
+				throw new CryptographicException("data is encrypted with " + sessionKey.getAlgorithm() + " which is unacceptable");
+			}
+			
+			return new IntegrityProtectedInputStream(dataPacket.getInputStream(), sessionKey);
+		} finally {
+			sessionKey.destroy();
+		}
 	}
 	
 	private PGPObjectFactory getFactory(InputStream input) throws IOException {
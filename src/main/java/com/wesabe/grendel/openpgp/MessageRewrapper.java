@@ -0,0 +1,175 @@
+package com.wesabe.grendel.openpgp;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.security.SecureRandom;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+
+import org.bouncycastle.bcpg.BCPGInputStream;
+import org.bouncycastle.bcpg.BCPGOutputStream;
+import org.bouncycastle.bcpg.PacketTags;
+import org.bouncycastle.bcpg.PublicKeyEncSessionPacket;
+
+/**
+ * Changes the recipients of an encrypted+signed OpenPGP message produced by
+ * {@link MessageWriter} without re-encrypting the message itself.
+ * <p>
+ * The owner's session key packet is decrypted to recover the session key, and
+ * the Public-Key Encrypted Session Key packets are rebuilt for the new set of
+ * recipients. The Symmetrically Encrypted Integrity Protected Data packet is
+ * copied byte-for-byte, so the cost of rewrapping a message is a handful of
+ * public-key operations, regardless of the message's size.
+ * <p>
+ * <strong>N.B.:</strong> The session key is not changed, so a recipient who
+ * is removed from a message and who has kept its session key can still
+ * decrypt that particular message. They could already read its contents, of
+ * course; any new message gets a fresh session key.
+ *
+ * @author coda
+ * @see MessageWriter
+ */
+public class MessageRewrapper {
+	private static final double RECIPIENT_OVERHEAD = 300;
+	private final UnlockedKeySet owner;
+	private final Collection<? extends Recipient> recipients;
+	private final SecureRandom random;
+
+	/**
+	 * Creates a new rewrapper for an encrypted+signed message.
+	 *
+	 * @param owner
+	 *            the {@link UnlockedKeySet} belonging to the message owner
+	 * @param recipients
+	 *            the new {@link Recipient}s of the message, usually
+	 *            {@link KeySet}s or {@link RecipientKey}s
+	 * @param random
+	 *            a {@link SecureRandom} instance
+	 */
+	public MessageRewrapper(UnlockedKeySet owner, Collection<? extends Recipient> recipients, SecureRandom random) {
+		this.owner = owner;
+		this.recipients = recipients;
+		this.random = random;
+	}
+
+	/**
+	 * Re-encrypts the message's session key for the owner and the new set of
+	 * recipients.
+	 *
+	 * @param encrypted
+	 *            a message produced by {@link MessageWriter}
+	 * @return the same message, encrypted for the new set of recipients
+	 * @throws CryptographicException
+	 *             if the message is malformed, or if the session key can't be
+	 *             recovered with the owner's subkey
+	 */
+	public byte[] rewrap(byte[] encrypted) throws CryptographicException {
+		final ByteArrayOutputStream output = new ByteArrayOutputStream(estimateRewrappedSize(encrypted.length));
+		try {
+			rewrap(new ByteArrayInputStream(encrypted), output);
+		} catch (IOException e) {
+			throw new CryptographicException(e);
+		}
+		return output.toByteArray();
+	}
+
+	/**
+	 * Re-encrypts the message's session key for the owner and the new set of
+	 * recipients, and writes the rewrapped message to {@code output}.
+	 * <p>
+	 * Only the session key packets are held in memory; the integrity-protected
+	 * data packet is copied from {@code encrypted} to {@code output} as it's
+	 * read. Neither stream is closed.
+	 *
+	 * @param encrypted
+	 *            an {@link InputStream} of a message produced by
+	 *            {@link MessageWriter}
+	 * @param output
+	 *            the {@link OutputStream} to which the rewrapped message will
+	 *            be written
+	 * @throws CryptographicException
+	 *             if the message is malformed, or if the session key can't be
+	 *             recovered with the owner's subkey
+	 * @throws IOException
+	 *             if there is an error copying the message to {@code output}
+	 */
+	public void rewrap(InputStream encrypted, OutputStream output) throws CryptographicException, IOException {
+		final BCPGInputStream packets = new BCPGInputStream(encrypted);
+		final SessionKey sessionKey = readSessionKey(packets);
+		try {
+			final BCPGOutputStream packetOutput = new BCPGOutputStream(output);
+			for (PublicKeyEncSessionPacket packet : sessionKey.encrypt(getRecipientKeys(), random)) {
+				packetOutput.writePacket(packet);
+			}
+			packetOutput.flush();
+		} finally {
+			sessionKey.destroy();
+		}
+
+		// BCPGInputStream has read the first byte of the integrity-protected
+		// packet's header to determine its tag, and returns it first
+		final byte[] b = Pools.READ_BUFFERS.borrow();
+		try {
+			int r = 0;
+			while ((r = packets.read(b)) >= 0) {
+				output.write(b, 0, r);
+			}
+		} finally {
+			Pools.READ_BUFFERS.release(b);
+		}
+	}
+
+	private SessionKey readSessionKey(BCPGInputStream packets) throws CryptographicException {
+		try {
+			PublicKeyEncSessionPacket ownerPacket = null;
+			while (packets.nextPacketTag() == PacketTags.PUBLIC_KEY_ENC_SESSION) {
+				final PublicKeyEncSessionPacket packet = (PublicKeyEncSessionPacket) packets.readPacket();
+				if (packet.getKeyID() == owner.getSubKey().getKeyID()) {
+					ownerPacket = packet;
+				}
+			}
+
+			if (packets.nextPacketTag() != PacketTags.SYM_ENC_INTEGRITY_PRO) {
+				throw new CryptographicException("missing integrity packet");
+			}
+
+			if (ownerPacket == null) {
+				throw new CryptographicException("no encrypted data for " + owner + " found");
+			}
+
+			final SessionKey sessionKey = SessionKey.decrypt(ownerPacket, owner.getUnlockedSubKey());
+			if (!SymmetricAlgorithm.ACCEPTABLE_ALGORITHMS.contains(sessionKey.getAlgorithm())) {
+				sessionKey.destroy();
+				throw new CryptographicException("data is encrypted with " + sessionKey.getAlgorithm() + " which is unacceptable");
+			}
+			return sessionKey;
+		} catch (IOException e) {
+			throw new CryptographicException(e);
+		} catch (ClassCastException e) {
+			throw new CryptographicException(e);
+		}
+	}
+
+	private List<RecipientKey> getRecipientKeys() throws CryptographicException {
+		final long ownerKeyID = owner.getSubKey().getKeyID();
+		final List<RecipientKey> keys = new ArrayList<RecipientKey>(recipients.size() + 1);
+		for (Recipient recipient : recipients) {
+			final RecipientKey key = recipient.getRecipientKey();
+			if (key.getKeyID() != ownerKeyID) {
+				keys.add(key);
+			}
+		}
+		keys.add(owner.getRecipientKey());
+		return keys;
+	}
+
+	private int estimateRewrappedSize(int dataSize) {
+		return (int) Math.round(Math.ceil(
+			dataSize + ((recipients.size() + 1) * RECIPIENT_OVERHEAD)
+		));
+	}
+}
@@ -1,12 +1,18 @@
 package com.wesabe.grendel.openpgp;
 
+import java.io.ByteArrayInputStream;
 import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
 import java.io.OutputStream;
+import java.io.PushbackInputStream;
 import java.security.SecureRandom;
+import java.util.ArrayList;
 import java.util.Collection;
+import java.util.List;
 
-import org.bouncycastle.openpgp.PGPCompressedDataGenerator;
-import org.bouncycastle.openpgp.PGPEncryptedDataGenerator;
+import org.bouncycastle.bcpg.BCPGOutputStream;
+import org.bouncycastle.bcpg.PublicKeyEncSessionPacket;
 import org.bouncycastle.openpgp.PGPLiteralData;
 import org.bouncycastle.openpgp.PGPLiteralDataGenerator;
 import org.bouncycastle.openpgp.PGPSignature;
@@ -62,7 +68,8 @@ import org.joda.time.DateTimeZone;
  * key. The body and signature are then compressed and encrypted using a random
  * symmetric session key and stored in a integrity-protected data packet with a
  * matching modification detection code packet. The session key is then
- * encrypted with the owner and receipients' public keys.
+ * encrypted with the owner and receipients' public keys; for widely-shared
+ * messages, those public-key operations run in parallel.
  * <p>
  * To prevent adaptive chosen-plaintext attacks, this class enforces two
  * constraints:
@@ -72,6 +79,22 @@ import org.joda.time.DateTimeZone;
  *       packet.
  * </ul>
  * 
+ * The deflate level is chosen per message by {@link CompressionLevels}, and
+ * may be zero for data which is already compressed (e.g., JPEG images). The
+ * data is still wrapped in a ZLIB compressed data packet, but in that case
+ * the protection comes from the modification detection code packet, which
+ * {@link MessageReader} verifies before releasing any plaintext.
+ * 
+ * Packet and copy buffers, as well as the ZLIB {@link java.util.zip.Deflater},
+ * are borrowed from {@link Pools} for the duration of each message rather than
+ * allocated anew.
+ * <p>
+ * For large messages, signing, compression, and encryption run as a pipeline:
+ * once a stage has processed more than the pipeline threshold, its output is
+ * handed to the next stage on a worker thread via a
+ * {@link PipelinedOutputStream}, so the time taken to write a message
+ * approaches that of the slowest stage rather than the sum of all three.
+ * 
  * @author coda
  * @see <a href="http://eprint.iacr.org/2005/033.pdf">An Attack on CFB Mode Encryption As Used By OpenPGP</a>
  * @see <a href="http://www.cs.umd.edu/~jkatz/papers/pgp-attack.pdf">Implementation of Chosen-Ciphertext Attacks against PGP and GnuPG</a>
@@ -82,12 +105,32 @@ import org.joda.time.DateTimeZone;
  * @see CompressionAlgorithm#DEFAULT
  */
 public class MessageWriter {
-	private static final int BUFFER_SIZE = 1 << 16;
+	/**
+	 * The default number of bytes a stage of the writer processes on the
+	 * calling thread before handing off to a worker thread.
+	 */
+	public static final long DEFAULT_PIPELINE_THRESHOLD = 1024 * 1024 * 4; // 4MB
 	private static final double ENVELOPE_OVERHEAD = 1.2;
 	private static final double RECIPIENT_OVERHEAD = 300;
 	private final UnlockedKeySet owner;
-	private final Collection<KeySet> recipients;
+	private final Collection<? extends Recipient> recipients;
 	private final SecureRandom random;
+	private final long pipelineThreshold;
+	
+	/**
+	 * Creates a new writer for an encrypted+signed message.
+	 * 
+	 * @param owner
+	 *            the {@link UnlockedKeySet} belonging to the message owner
+	 * @param recipients
+	 *            the {@link Recipient}s of the message, usually {@link KeySet}s
+	 *            or {@link RecipientKey}s
+	 * @param random
+	 *            a {@link SecureRandom} instance
+	 */
+	public MessageWriter(UnlockedKeySet owner, Collection<? extends Recipient> recipients, SecureRandom random) {
+		this(owner, recipients, random, DEFAULT_PIPELINE_THRESHOLD);
+	}
 	
 	/**
 	 * Creates a new writer for an encrypted+signed message.
@@ -95,14 +138,20 @@ public class MessageWriter {
 	 * @param owner
 	 *            the {@link UnlockedKeySet} belonging to the message owner
 	 * @param recipients
-	 *            the {@link KeySet}s belonging to the recipients
+	 *            the {@link Recipient}s of the message, usually {@link KeySet}s
+	 *            or {@link RecipientKey}s
 	 * @param random
 	 *            a {@link SecureRandom} instance
+	 * @param pipelineThreshold
+	 *            the number of bytes the compression and encryption stages
+	 *            process on the calling thread before switching to worker
+	 *            threads; {@link Long#MAX_VALUE} disables pipelining
 	 */
-	public MessageWriter(UnlockedKeySet owner, Collection<KeySet> recipients, SecureRandom random) {
+	public MessageWriter(UnlockedKeySet owner, Collection<? extends Recipient> recipients, SecureRandom random, long pipelineThreshold) {
 		this.owner = owner;
 		this.recipients = recipients;
 		this.random = random;
+		this.pipelineThreshold = pipelineThreshold;
 	}
 	
 	/**
@@ -115,10 +164,72 @@ public class MessageWriter {
 	 *             if any error occurs while processing the message
 	 */
 	public byte[] write(byte[] body) throws CryptographicException {
+		return write(body, null);
+	}
+	
+	/**
+	 * Signs, compresses, and encrypts a message, choosing a compression level
+	 * appropriate for {@code contentType}.
+	 * 
+	 * @param body
+	 *            the message body
+	 * @param contentType
+	 *            the body's content type, or {@code null} if unknown
+	 * @return the message, in an encrypted+signed OpenPGP envelope
+	 * @throws CryptographicException
+	 *             if any error occurs while processing the message
+	 * @see CompressionLevels
+	 */
+	public byte[] write(byte[] body, String contentType) throws CryptographicException {
+		final ByteArrayOutputStream output = new ByteArrayOutputStream(estimateEncryptedSize(body.length));
+		write(new ByteArrayInputStream(body), output, contentType);
+		return output.toByteArray();
+	}
+	
+	/**
+	 * Signs, compresses, and encrypts a message, reading the message body from
+	 * {@code body} and writing the encrypted+signed OpenPGP envelope to
+	 * {@code output}.
+	 * <p>
+	 * The body is processed in fixed-size chunks, so the amount of memory used
+	 * is independent of the size of the message. Neither stream is closed.
+	 * 
+	 * @param body
+	 *            an {@link InputStream} of the message body
+	 * @param output
+	 *            the {@link OutputStream} to which the message will be written
+	 * @throws CryptographicException
+	 *             if any error occurs while processing the message
+	 */
+	public void write(InputStream body, OutputStream output) throws CryptographicException {
+		write(body, output, null);
+	}
+	
+	/**
+	 * Signs, compresses, and encrypts a message, reading the message body from
+	 * {@code body} and writing the encrypted+signed OpenPGP envelope to
+	 * {@code output}.
+	 * <p>
+	 * The compression level is chosen from {@code contentType} and a sample of
+	 * the start of {@code body}. Bodies which are already compressed are
+	 * stored in the compressed data packet without further compression.
+	 * Neither stream is closed.
+	 * 
+	 * @param body
+	 *            an {@link InputStream} of the message body
+	 * @param output
+	 *            the {@link OutputStream} to which the message will be written
+	 * @param contentType
+	 *            the body's content type, or {@code null} if unknown
+	 * @throws CryptographicException
+	 *             if any error occurs while processing the message
+	 * @see CompressionLevels
+	 */
+	public void write(InputStream body, OutputStream output, String contentType) throws CryptographicException {
 		try {
-			final ByteArrayOutputStream output = new ByteArrayOutputStream(estimateEncryptedSize(body.length));
-			signAndCompressAndEncrypt(body, output);
-			return output.toByteArray();
+			final PushbackInputStream sampledBody = new PushbackInputStream(body, CompressionLevels.SAMPLE_SIZE);
+			final int level = sampleCompressionLevel(sampledBody, contentType);
+			signAndCompressAndEncrypt(sampledBody, output, level);
 		} catch (Exception e) {
 			throw new CryptographicException(e);
 		}
@@ -137,47 +248,95 @@ public class MessageWriter {
 		));
 	}
 
-	private void signAndCompressAndEncrypt(byte[] body, OutputStream output) throws Exception {
-		final OutputStream encryptedOutput = getEncryptionWrapper(output);
-		signAndCompress(body, encryptedOutput);
-		encryptedOutput.close();
+	private int sampleCompressionLevel(PushbackInputStream body, String contentType) throws IOException {
+		final byte[] sample = new byte[CompressionLevels.SAMPLE_SIZE];
+		int length = 0, read = 0;
+		while ((length < sample.length) && ((read = body.read(sample, length, sample.length - length)) >= 0)) {
+			length += read;
+		}
+		body.unread(sample, 0, length);
+		return CompressionLevels.forContent(contentType, sample, length);
 	}
 
-	private void signAndCompress(byte[] body, OutputStream encryptedOutput) throws Exception {
-		final OutputStream compressedOutput = getCompressionWrapper(encryptedOutput);
-		sign(body, compressedOutput);
+	private void signAndCompressAndEncrypt(InputStream body, OutputStream output, int level) throws Exception {
+		final byte[] encryptionBuffer = Pools.WRITE_BUFFERS.borrow();
+		try {
+			final OutputStream encryptedOutput = getEncryptionWrapper(output, encryptionBuffer);
+			final PipelinedOutputStream encryptionStage = new PipelinedOutputStream(encryptedOutput, pipelineThreshold);
+			try {
+				signAndCompress(body, encryptionStage, level);
+				encryptionStage.close();
+			} finally {
+				// stops the worker before the buffer goes back to the pool
+				encryptionStage.abort();
+			}
+			encryptedOutput.close();
+		} finally {
+			Pools.WRITE_BUFFERS.release(encryptionBuffer);
+		}
+	}
+
+	private void signAndCompress(InputStream body, OutputStream encryptedOutput, int level) throws Exception {
+		final OutputStream compressedOutput = getCompressionWrapper(encryptedOutput, level);
+		final PipelinedOutputStream compressionStage = new PipelinedOutputStream(compressedOutput, pipelineThreshold);
+		try {
+			sign(body, compressionStage);
+			compressionStage.close();
+		} finally {
+			compressionStage.abort();
+		}
 		compressedOutput.close();
 	}
 
-	private void sign(byte[] body, OutputStream compressedOutput) throws Exception {
+	private void sign(InputStream body, OutputStream compressedOutput) throws Exception {
 		final PGPSignatureGenerator signatureGenerator = getSignatureGenerator(owner.getUnlockedMasterKey());
 		signatureGenerator.generateOnePassVersion(false).encode(compressedOutput);
-		final OutputStream literalOutput = getLiteralWrapper(compressedOutput);
-		literalOutput.write(body);
-		signatureGenerator.update(body);
-		literalOutput.close();
+		final byte[] literalBuffer = Pools.WRITE_BUFFERS.borrow();
+		final byte[] buffer = Pools.WRITE_BUFFERS.borrow();
+		try {
+			final OutputStream literalOutput = getLiteralWrapper(compressedOutput, literalBuffer);
+			int read = 0;
+			while ((read = body.read(buffer)) >= 0) {
+				literalOutput.write(buffer, 0, read);
+				signatureGenerator.update(buffer, 0, read);
+			}
+			literalOutput.close();
+		} finally {
+			Pools.WRITE_BUFFERS.release(buffer);
+			Pools.WRITE_BUFFERS.release(literalBuffer);
+		}
 		signatureGenerator.generate().encode(compressedOutput);
 	}
 
-	private OutputStream getEncryptionWrapper(OutputStream out) throws Exception {
-
-		final PGPEncryptedDataGenerator encryptedDataGenerator = new PGPEncryptedDataGenerator(
-			SymmetricAlgorithm.DEFAULT.toInteger(), true, random,
-			"BC");
-
-		for (KeySet recipient : recipients) {
-			if (recipient.getSubKey().getKeyID() != owner.getSubKey().getKeyID()) {
-				encryptedDataGenerator.addMethod(recipient.getSubKey().getPublicKey());
+	private OutputStream getEncryptionWrapper(OutputStream out, byte[] buffer) throws Exception {
+		final SessionKey sessionKey = SessionKey.generate(SymmetricAlgorithm.DEFAULT, random);
+		try {
+			final BCPGOutputStream packetOutput = new BCPGOutputStream(out);
+			for (PublicKeyEncSessionPacket packet : sessionKey.encrypt(getRecipientKeys(), random)) {
+				packetOutput.writePacket(packet);
 			}
+			
+			return new IntegrityProtectedOutputStream(out, sessionKey, random, buffer);
+		} finally {
+			sessionKey.destroy();
 		}
-
-		encryptedDataGenerator.addMethod(owner.getSubKey().getPublicKey());
-
-		return encryptedDataGenerator.open(out, new byte[BUFFER_SIZE]);
 	}
 	
-	private OutputStream getCompressionWrapper(OutputStream out) throws Exception {
-		return new PGPCompressedDataGenerator(CompressionAlgorithm.DEFAULT.toInteger()).open(out);
+	private List<RecipientKey> getRecipientKeys() throws CryptographicException {
+		final long ownerKeyID = owner.getSubKey().getKeyID();
+		final List<RecipientKey> keys = new ArrayList<RecipientKey>(recipients.size() + 1);
+		for (Recipient recipient : recipients) {
+			final RecipientKey key = recipient.getRecipientKey();
+			if (key.getKeyID() != ownerKeyID) {
+				keys.add(key);
+			}
+		}
+		keys.add(owner.getRecipientKey());
+		return keys;
+	}
+	
+	private OutputStream getCompressionWrapper(OutputStream out, int level) throws Exception {
+		return new CompressedDataOutputStream(out, level);
 	}
 	
 	private PGPSignatureGenerator getSignatureGenerator(UnlockedMasterKey owner) throws Exception {
@@ -185,7 +344,7 @@ public class MessageWriter {
 		final PGPSignatureGenerator signatureGenerator = new PGPSignatureGenerator(
 			owner.getPublicKey().getAlgorithm(),
 			HashAlgorithm.DEFAULT.toInteger(),
-			"BC");
+			CryptoProviders.getName());
 		signatureGenerator.initSign(PGPSignature.BINARY_DOCUMENT, owner.getPrivateKey());
 
 		final PGPSignatureSubpacketGenerator signatureMetaData = new PGPSignatureSubpacketGenerator();
@@ -194,12 +353,12 @@ public class MessageWriter {
 		return signatureGenerator;
 	}
 	
-	private OutputStream getLiteralWrapper(OutputStream output) throws Exception {
+	private OutputStream getLiteralWrapper(OutputStream output, byte[] buffer) throws Exception {
 		return new PGPLiteralDataGenerator().open(output,
 			PGPLiteralData.BINARY,
 			PGPLiteralData.CONSOLE,
 			new DateTime(DateTimeZone.UTC).toDate(),
-			new byte[BUFFER_SIZE]
+			buffer
 		);
 	}
 }
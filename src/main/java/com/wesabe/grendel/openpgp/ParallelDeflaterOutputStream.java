@@ -0,0 +1,363 @@
+package com.wesabe.grendel.openpgp;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.io.OutputStream;
+import java.util.ArrayDeque;
+import java.util.Arrays;
+import java.util.Deque;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.zip.Adler32;
+import java.util.zip.Deflater;
+
+import com.wesabe.grendel.util.BoundedExecutor;
+import com.wesabe.grendel.util.BoundedExecutorMBean;
+import com.wesabe.grendel.util.MBeans;
+
+/**
+ * An {@link OutputStream} which writes a ZLIB stream, compressing large
+ * inputs on multiple cores.
+ * <p>
+ * Like <a href="http://zlib.net/pigz/">pigz</a>, input is split into
+ * fixed-size blocks. The first {@link #DEFAULT_PARALLEL_THRESHOLD} bytes are
+ * deflated inline on the calling thread; after that, each block is deflated
+ * independently on a shared pool of worker threads, primed with the last 32KB
+ * of the previous block as a preset dictionary and ended with a sync flush so
+ * that it ends on a byte boundary. The compressed blocks are written in order,
+ * followed by the Adler-32 checksum of the input, which is computed on the
+ * calling thread. The result is a single, standard ZLIB stream which any
+ * {@link java.util.zip.Inflater} can read.
+ * <p>
+ * Small inputs, and inputs which are stored without compression, are never
+ * parallelized. The number of worker threads defaults to the number of
+ * available processors, and can be set with the
+ * {@code grendel.deflate.threads} system property. The workers are shared by
+ * every stream and queue at most one block per thread; if they're saturated,
+ * the block is deflated on the calling thread instead.
+ * <p>
+ * Closing the stream finishes the ZLIB stream, but does not close the
+ * underlying stream.
+ * 
+ * @author coda
+ * @see Pools#DEFLATERS
+ */
+public class ParallelDeflaterOutputStream extends OutputStream {
+	/**
+	 * The number of bytes which are deflated inline before switching to
+	 * parallel compression.
+	 */
+	public static final int DEFAULT_PARALLEL_THRESHOLD = 1024 * 1024 * 4; // 4MB
+	
+	private static final int DICTIONARY_SIZE = 1024 * 32; // 32KB
+	private static final int PARALLELISM = Integer.getInteger(
+		"grendel.deflate.threads", Runtime.getRuntime().availableProcessors()
+	);
+	private static final int MAX_PENDING_BLOCKS = PARALLELISM * 2;
+	
+	private static class WorkerPool {
+		private static final BoundedExecutor EXECUTOR = new BoundedExecutor(
+			"grendel-deflate", PARALLELISM, PARALLELISM
+		);
+		
+		static {
+			MBeans.register("Executor", "deflate", EXECUTOR, BoundedExecutorMBean.class);
+		}
+	}
+	
+	private final OutputStream output;
+	private final int level;
+	private final int parallelThreshold;
+	private final Adler32 checksum = new Adler32();
+	private final Deque<PendingBlock> pending = new ArrayDeque<PendingBlock>();
+	private Deflater deflater;
+	private byte[] block, buffer, dictionary;
+	private int count;
+	private long total;
+	private boolean parallel, closed;
+	
+	/**
+	 * Starts a new ZLIB stream on {@code output}.
+	 * 
+	 * @param output the {@link OutputStream} the stream will be written to
+	 * @param level the deflate level, from {@link Deflater#NO_COMPRESSION}
+	 *        to {@link Deflater#BEST_COMPRESSION}, or
+	 *        {@link Deflater#DEFAULT_COMPRESSION}
+	 * @throws IOException if there is an error writing the ZLIB header
+	 */
+	public ParallelDeflaterOutputStream(OutputStream output, int level) throws IOException {
+		this(output, level, DEFAULT_PARALLEL_THRESHOLD);
+	}
+	
+	/**
+	 * Starts a new ZLIB stream on {@code output}.
+	 * 
+	 * @param output the {@link OutputStream} the stream will be written to
+	 * @param level the deflate level, from {@link Deflater#NO_COMPRESSION}
+	 *        to {@link Deflater#BEST_COMPRESSION}, or
+	 *        {@link Deflater#DEFAULT_COMPRESSION}
+	 * @param parallelThreshold the number of bytes to deflate inline before
+	 *        switching to parallel compression
+	 * @throws IOException if there is an error writing the ZLIB header
+	 */
+	public ParallelDeflaterOutputStream(OutputStream output, int level, int parallelThreshold) throws IOException {
+		this.output = output;
+		this.level = level;
+		this.parallelThreshold = parallelThreshold;
+		this.deflater = Pools.DEFLATERS.borrow();
+		deflater.setLevel(level);
+		this.block = Pools.WRITE_BUFFERS.borrow();
+		this.buffer = Pools.WRITE_BUFFERS.borrow();
+		writeHeader();
+	}
+	
+	@Override
+	public void write(int b) throws IOException {
+		write(new byte[] { (byte) b }, 0, 1);
+	}
+	
+	@Override
+	public void write(byte[] b, int off, int len) throws IOException {
+		if (closed) {
+			throw new IOException("stream is closed");
+		}
+		
+		checksum.update(b, off, len);
+		total += len;
+		
+		int offset = off, remaining = len;
+		while (remaining > 0) {
+			final int n = Math.min(remaining, block.length - count);
+			System.arraycopy(b, offset, block, count, n);
+			count += n;
+			offset += n;
+			remaining -= n;
+			
+			if (count == block.length) {
+				writeBlock(false);
+			}
+		}
+	}
+	
+	/**
+	 * Returns {@code true} if the stream has switched to parallel compression.
+	 */
+	public boolean isParallel() {
+		return parallel;
+	}
+	
+	/**
+	 * Finishes the ZLIB stream and returns all borrowed objects to their
+	 * pools. The underlying stream is not closed.
+	 */
+	@Override
+	public void close() throws IOException {
+		if (!closed) {
+			this.closed = true;
+			try {
+				writeBlock(true);
+				while (!pending.isEmpty()) {
+					writeCompressedBlock(pending.removeFirst());
+				}
+				writeTrailer();
+			} finally {
+				for (PendingBlock pendingBlock : pending) {
+					pendingBlock.discard();
+				}
+				pending.clear();
+				Pools.DEFLATERS.release(deflater);
+				Pools.WRITE_BUFFERS.release(block);
+				Pools.WRITE_BUFFERS.release(buffer);
+				this.deflater = null;
+				this.block = null;
+				this.buffer = null;
+				this.dictionary = null;
+			}
+		}
+	}
+	
+	private void writeBlock(boolean last) throws IOException {
+		if (parallel) {
+			final byte[] nextDictionary = last ? null : tail(block, count);
+			final PendingBlock pendingBlock = new PendingBlock(new BlockTask(level, block, count, dictionary, last));
+			pending.addLast(pendingBlock);
+			try {
+				WorkerPool.EXECUTOR.execute(pendingBlock);
+			} catch (RejectedExecutionException e) {
+				// every worker is busy, so deflate the block here
+				pendingBlock.run();
+			}
+			this.dictionary = nextDictionary;
+			this.block = last ? null : Pools.WRITE_BUFFERS.borrow();
+			
+			while (!pending.isEmpty() && (pending.size() > MAX_PENDING_BLOCKS || pending.peekFirst().isDone())) {
+				writeCompressedBlock(pending.removeFirst());
+			}
+		} else if (last) {
+			deflater.setInput(block, 0, count);
+			deflater.finish();
+			while (!deflater.finished()) {
+				deflateInline(Deflater.NO_FLUSH);
+			}
+		} else if (shouldParallelize()) {
+			// end the inline portion of the stream on a byte boundary, so the
+			// blocks deflated by the workers can simply be appended to it
+			deflater.setInput(block, 0, count);
+			while ((deflateInline(Deflater.SYNC_FLUSH) == buffer.length) || !deflater.needsInput()) {
+				// keep flushing
+			}
+			this.dictionary = tail(block, count);
+			this.parallel = true;
+		} else {
+			deflater.setInput(block, 0, count);
+			while (!deflater.needsInput()) {
+				deflateInline(Deflater.NO_FLUSH);
+			}
+		}
+		
+		this.count = 0;
+	}
+	
+	private boolean shouldParallelize() {
+		return (PARALLELISM > 1) && (level != Deflater.NO_COMPRESSION) && (total >= parallelThreshold);
+	}
+	
+	private int deflateInline(int flush) throws IOException {
+		final int length = deflater.deflate(buffer, 0, buffer.length, flush);
+		if (length > 0) {
+			output.write(buffer, 0, length);
+		}
+		return length;
+	}
+	
+	private void writeCompressedBlock(PendingBlock pendingBlock) throws IOException {
+		try {
+			output.write(pendingBlock.get());
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new InterruptedIOException("interrupted while compressing");
+		} catch (ExecutionException e) {
+			throw new IOException(e.getCause());
+		}
+	}
+	
+	/*
+	 * CMF is always 0x78 (deflate, 32KB window); FLG records the compression
+	 * level and makes (CMF * 256 + FLG) a multiple of 31, just as zlib does.
+	 */
+	private void writeHeader() throws IOException {
+		final int flags;
+		if (level == Deflater.DEFAULT_COMPRESSION || level == 6) {
+			flags = 0x9c;
+		} else if (level < 2) {
+			flags = 0x01;
+		} else if (level < 6) {
+			flags = 0x5e;
+		} else {
+			flags = 0xda;
+		}
+		output.write(0x78);
+		output.write(flags);
+	}
+	
+	private void writeTrailer() throws IOException {
+		final long value = checksum.getValue();
+		output.write((int) (value >>> 24) & 0xff);
+		output.write((int) (value >>> 16) & 0xff);
+		output.write((int) (value >>> 8) & 0xff);
+		output.write((int) value & 0xff);
+	}
+	
+	private static byte[] tail(byte[] b, int length) {
+		return Arrays.copyOfRange(b, Math.max(0, length - DICTIONARY_SIZE), length);
+	}
+	
+	/**
+	 * A block which has been handed to a worker, or deflated inline.
+	 */
+	private static class PendingBlock extends FutureTask<byte[]> {
+		private final BlockTask task;
+		
+		public PendingBlock(BlockTask task) {
+			super(task);
+			this.task = task;
+		}
+		
+		/**
+		 * Cancels the block, returning its buffer to the pool if no worker has
+		 * started on it.
+		 */
+		public void discard() {
+			cancel(true);
+			task.discard();
+		}
+	}
+	
+	private static class BlockTask implements Callable<byte[]> {
+		/*
+		 * Whoever claims the task -- a worker, or a stream discarding it --
+		 * releases the block.
+		 */
+		private final AtomicBoolean claimed = new AtomicBoolean();
+		private final int level;
+		private final byte[] block;
+		private final int length;
+		private final byte[] dictionary;
+		private final boolean last;
+		
+		public BlockTask(int level, byte[] block, int length, byte[] dictionary, boolean last) {
+			this.level = level;
+			this.block = block;
+			this.length = length;
+			this.dictionary = dictionary;
+			this.last = last;
+		}
+		
+		public void discard() {
+			if (claimed.compareAndSet(false, true)) {
+				Pools.WRITE_BUFFERS.release(block);
+			}
+		}
+		
+		@Override
+		public byte[] call() throws Exception {
+			if (!claimed.compareAndSet(false, true)) {
+				return null;
+			}
+			
+			final Deflater deflater = Pools.DEFLATERS.borrow();
+			final byte[] buffer = Pools.WRITE_BUFFERS.borrow();
+			try {
+				final ByteArrayOutputStream output = new ByteArrayOutputStream((length / 2) + 64);
+				deflater.setLevel(level);
+				if (dictionary != null) {
+					deflater.setDictionary(dictionary);
+				}
+				deflater.setInput(block, 0, length);
+				
+				if (last) {
+					deflater.finish();
+					while (!deflater.finished()) {
+						output.write(buffer, 0, deflater.deflate(buffer));
+					}
+				} else {
+					int n;
+					do {
+						n = deflater.deflate(buffer, 0, buffer.length, Deflater.SYNC_FLUSH);
+						output.write(buffer, 0, n);
+					} while ((n == buffer.length) || !deflater.needsInput());
+				}
+				
+				return output.toByteArray();
+			} finally {
+				Pools.DEFLATERS.release(deflater);
+				Pools.WRITE_BUFFERS.release(buffer);
+				Pools.WRITE_BUFFERS.release(block);
+			}
+		}
+	}
+}
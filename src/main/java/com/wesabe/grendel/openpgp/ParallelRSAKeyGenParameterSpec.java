@@ -0,0 +1,43 @@
+package com.wesabe.grendel.openpgp;
+
+import java.math.BigInteger;
+import java.security.spec.RSAKeyGenParameterSpec;
+
+/**
+ * An {@link RSAKeyGenParameterSpec} which asks for the prime search to be
+ * split across several threads.
+ * <p>
+ * Finding an RSA prime is a matter of testing random candidates until one
+ * passes, so the time it takes varies widely from key to key. Searching with
+ * several threads at once and taking the first primes found cuts both the
+ * average and, more importantly, the worst-case time to generate a key pair,
+ * at the cost of some wasted work. JCA providers treat this spec like any
+ * other {@link RSAKeyGenParameterSpec}.
+ * 
+ * @author coda
+ * @see KeyPairPool#generate()
+ */
+public final class ParallelRSAKeyGenParameterSpec extends RSAKeyGenParameterSpec {
+	private final int parallelism;
+	
+	/**
+	 * Creates a new {@link ParallelRSAKeyGenParameterSpec}.
+	 * 
+	 * @param keysize the modulus size, in bits
+	 * @param publicExponent the public exponent
+	 * @param parallelism the most threads to search for primes with,
+	 *        including the calling thread
+	 */
+	public ParallelRSAKeyGenParameterSpec(int keysize, BigInteger publicExponent, int parallelism) {
+		super(keysize, publicExponent);
+		this.parallelism = parallelism;
+	}
+	
+	/**
+	 * Returns the most threads to search for primes with, including the
+	 * calling thread.
+	 */
+	public int getParallelism() {
+		return parallelism;
+	}
+}
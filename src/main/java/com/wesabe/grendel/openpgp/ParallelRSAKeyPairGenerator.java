@@ -0,0 +1,205 @@
+package com.wesabe.grendel.openpgp;
+
+import java.math.BigInteger;
+import java.security.GeneralSecurityException;
+import java.security.KeyFactory;
+import java.security.KeyPair;
+import java.security.SecureRandom;
+import java.security.spec.RSAPrivateCrtKeySpec;
+import java.security.spec.RSAPublicKeySpec;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.Future;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import com.wesabe.grendel.util.BoundedExecutor;
+import com.wesabe.grendel.util.BoundedExecutorMBean;
+import com.wesabe.grendel.util.MBeans;
+
+/**
+ * Generates RSA key pairs by searching for primes on several threads at once.
+ * <p>
+ * The calling thread and up to {@code parallelism - 1} helpers test random
+ * candidates until a key is found, and the first two primes which make a
+ * valid key are used. The helpers run on a shared pool of one thread per CPU
+ * with no queue, so a busy machine simply gets fewer helpers, down to none;
+ * the calling thread always searches. Candidates and key pairs are
+ * checked against the requirements of FIPS 186-4, Appendix B.3.3:
+ * <ul>
+ *   <li>{@code p} and {@code q} are at least {@code sqrt(2) * 2^(nlen/2 - 1)},
+ *       so the modulus is exactly {@code nlen} bits.
+ *   <li>{@code p - 1} and {@code q - 1} are relatively prime to {@code e}.
+ *   <li>{@code |p - q| > 2^(nlen/2 - 100)}.
+ *   <li>{@code d > 2^(nlen/2)}.
+ * </ul>
+ * 
+ * @author coda
+ * @see ParallelRSAKeyGenParameterSpec
+ * @see <a href="http://nvlpubs.nist.gov/nistpubs/FIPS/NIST.FIPS.186-4.pdf">FIPS 186-4</a>
+ */
+public final class ParallelRSAKeyPairGenerator {
+	private static class WorkerPool {
+		private static final int THREADS = Runtime.getRuntime().availableProcessors();
+		private static final BoundedExecutor EXECUTOR = new BoundedExecutor(
+			"grendel-prime-search", THREADS, 0
+		);
+		
+		static {
+			MBeans.register("Executor", "prime-search", EXECUTOR, BoundedExecutorMBean.class);
+		}
+	}
+	
+	/**
+	 * Tests random candidates, adding any primes it finds to a queue, until
+	 * told to stop.
+	 */
+	private static class PrimeSearch implements Runnable {
+		private final int bits;
+		private final BigInteger e;
+		private final SecureRandom random;
+		private final BlockingQueue<BigInteger> primes;
+		private final AtomicBoolean done;
+		
+		public PrimeSearch(int bits, BigInteger e, SecureRandom random,
+			BlockingQueue<BigInteger> primes, AtomicBoolean done) {
+			this.bits = bits;
+			this.e = e;
+			this.random = random;
+			this.primes = primes;
+			this.done = done;
+		}
+		
+		@Override
+		public void run() {
+			while (!done.get() && !Thread.currentThread().isInterrupted()) {
+				final BigInteger prime = next();
+				if (prime != null) {
+					primes.offer(prime);
+				}
+			}
+		}
+		
+		/**
+		 * Tests a single random candidate, returning it if it's a suitable
+		 * prime, or {@code null} if it isn't.
+		 */
+		public BigInteger next() {
+			// setting the top two bits puts the start above sqrt(2) * 2^(bits - 1)
+			final BigInteger start = new BigInteger(bits, random).setBit(bits - 1).setBit(bits - 2);
+			
+			/*
+			 * nextProbablePrime sieves out small factors and then runs the same
+			 * Miller-Rabin and Lucas tests as isProbablePrime, to a certainty
+			 * of 100, so its result needs no further testing.
+			 */
+			final BigInteger candidate = start.nextProbablePrime();
+			if ((candidate.bitLength() == bits)
+					&& candidate.subtract(BigInteger.ONE).gcd(e).equals(BigInteger.ONE)) {
+				return candidate;
+			}
+			return null;
+		}
+	}
+	
+	private ParallelRSAKeyPairGenerator() {}
+	
+	/**
+	 * Generates a new RSA {@link KeyPair}.
+	 * 
+	 * @param spec the key size, public exponent, and parallelism
+	 * @param random a {@link SecureRandom} instance
+	 * @throws GeneralSecurityException if the key pair can't be generated
+	 */
+	public static KeyPair generate(ParallelRSAKeyGenParameterSpec spec, SecureRandom random) throws GeneralSecurityException {
+		final int bits = spec.getKeysize() / 2;
+		final BigInteger e = spec.getPublicExponent();
+		final BigInteger minDistance = BigInteger.ONE.shiftLeft(bits - 100);
+		final BigInteger minD = BigInteger.ONE.shiftLeft(bits);
+		
+		final BlockingQueue<BigInteger> primes = new LinkedBlockingQueue<BigInteger>();
+		final AtomicBoolean done = new AtomicBoolean();
+		final PrimeSearch search = new PrimeSearch(bits, e, random, primes, done);
+		final List<Future<?>> helpers = new ArrayList<Future<?>>(spec.getParallelism() - 1);
+		try {
+			try {
+				for (int i = 1; i < spec.getParallelism(); i++) {
+					helpers.add(WorkerPool.EXECUTOR.submit(search));
+				}
+			} catch (RejectedExecutionException ex) {
+				// every worker is busy, so search with the helpers we've got
+			}
+			
+			BigInteger p = take(primes, search);
+			while (true) {
+				BigInteger q = take(primes, search);
+				if (p.subtract(q).abs().compareTo(minDistance) <= 0) {
+					continue;
+				}
+				
+				if (p.compareTo(q) < 0) {
+					final BigInteger swap = p;
+					p = q;
+					q = swap;
+				}
+				
+				final BigInteger pMinusOne = p.subtract(BigInteger.ONE);
+				final BigInteger qMinusOne = q.subtract(BigInteger.ONE);
+				final BigInteger lcm = pMinusOne.multiply(qMinusOne).divide(pMinusOne.gcd(qMinusOne));
+				final BigInteger d = e.modInverse(lcm);
+				if (d.compareTo(minD) <= 0) {
+					// vanishingly unlikely, but start over with q
+					p = q;
+					continue;
+				}
+				
+				return toKeyPair(p.multiply(q), e, d, p, q);
+			}
+		} catch (InterruptedException ex) {
+			Thread.currentThread().interrupt();
+			throw new GeneralSecurityException(ex);
+		} finally {
+			done.set(true);
+			for (Future<?> helper : helpers) {
+				helper.cancel(true);
+			}
+		}
+	}
+	
+	/**
+	 * Returns the next prime found by a helper, or, if there isn't one yet,
+	 * tests candidates on the calling thread until either finds one.
+	 */
+	private static BigInteger take(BlockingQueue<BigInteger> primes, PrimeSearch search) throws InterruptedException {
+		while (true) {
+			final BigInteger prime = primes.poll();
+			if (prime != null) {
+				return prime;
+			}
+			
+			if (Thread.interrupted()) {
+				throw new InterruptedException();
+			}
+			
+			final BigInteger candidate = search.next();
+			if (candidate != null) {
+				return candidate;
+			}
+		}
+	}
+	
+	private static KeyPair toKeyPair(BigInteger n, BigInteger e, BigInteger d, BigInteger p, BigInteger q) throws GeneralSecurityException {
+		final KeyFactory factory = KeyFactory.getInstance("RSA", CryptoProviders.getName());
+		return new KeyPair(
+			factory.generatePublic(new RSAPublicKeySpec(n, e)),
+			factory.generatePrivate(new RSAPrivateCrtKeySpec(
+				n, e, d, p, q,
+				d.mod(p.subtract(BigInteger.ONE)),
+				d.mod(q.subtract(BigInteger.ONE)),
+				q.modInverse(p)
+			))
+		);
+	}
+}
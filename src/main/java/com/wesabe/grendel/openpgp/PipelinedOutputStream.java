@@ -0,0 +1,274 @@
+package com.wesabe.grendel.openpgp;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.io.OutputStream;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.RejectedExecutionException;
+
+import com.wesabe.grendel.util.BoundedExecutor;
+import com.wesabe.grendel.util.BoundedExecutorMBean;
+import com.wesabe.grendel.util.MBeans;
+
+/**
+ * An {@link OutputStream} which hands data off to another thread, so that the
+ * work done by the stream it wraps overlaps with the work done by its writer.
+ * <p>
+ * Writes are passed straight through until more than {@code threshold} bytes
+ * have been written. After that, data is copied into pooled 64KB chunks and
+ * passed over a bounded queue to a worker thread which writes them to the
+ * underlying stream. If the worker falls behind, the writer blocks, so at
+ * most a few chunks are ever in flight.
+ * <p>
+ * Workers come from a shared pool of {@code grendel.pipeline.threads} threads
+ * (default: two per CPU). If they're all busy, the stream keeps writing
+ * straight through on the calling thread instead of waiting for one.
+ * <p>
+ * Closing the stream waits for all queued data to be written, but does not
+ * close the underlying stream. If the underlying stream throws an exception,
+ * it's re-thrown by the next call to {@link #write(byte[], int, int)} or
+ * {@link #close()}.
+ * 
+ * @author coda
+ * @see MessageWriter
+ */
+public class PipelinedOutputStream extends OutputStream {
+	private static final int QUEUE_SIZE = 8;
+	private static final Chunk END = new Chunk(null, 0);
+	
+	/**
+	 * The number of threads which run pipeline stages.
+	 */
+	private static final String THREADS_PROPERTY = "grendel.pipeline.threads";
+	
+	private static class Workers {
+		/*
+		 * Tasks are never queued: a stage which can't start right away would
+		 * leave its writer blocked on a full queue.
+		 */
+		private static final BoundedExecutor EXECUTOR = new BoundedExecutor(
+			"grendel-pipeline",
+			Integer.getInteger(THREADS_PROPERTY, Runtime.getRuntime().availableProcessors() * 2),
+			0
+		);
+		
+		static {
+			MBeans.register("Executor", "pipeline", EXECUTOR, BoundedExecutorMBean.class);
+		}
+	}
+	
+	private static class Chunk {
+		private final byte[] buffer;
+		private final int length;
+		
+		public Chunk(byte[] buffer, int length) {
+			this.buffer = buffer;
+			this.length = length;
+		}
+	}
+	
+	private class Consumer implements Runnable {
+		@Override
+		public void run() {
+			try {
+				Chunk chunk;
+				while ((chunk = queue.take()) != END) {
+					try {
+						if ((failure == null) && !aborted) {
+							output.write(chunk.buffer, 0, chunk.length);
+						}
+					} catch (Throwable e) {
+						failure = e;
+					} finally {
+						Pools.WRITE_BUFFERS.release(chunk.buffer);
+					}
+				}
+			} catch (InterruptedException e) {
+				failure = e;
+			}
+		}
+	}
+	
+	private final OutputStream output;
+	private final long threshold;
+	private final BlockingQueue<Chunk> queue = new ArrayBlockingQueue<Chunk>(QUEUE_SIZE);
+	private volatile Throwable failure;
+	private volatile boolean aborted;
+	private Future<?> consumer;
+	private boolean saturated;
+	private byte[] buffer;
+	private int count;
+	private long written;
+	private boolean closed;
+	
+	/**
+	 * Creates a new {@link PipelinedOutputStream}.
+	 * 
+	 * @param output the {@link OutputStream} to write to
+	 * @param threshold the number of bytes to pass straight through before
+	 *        handing data off to a worker thread
+	 */
+	public PipelinedOutputStream(OutputStream output, long threshold) {
+		this.output = output;
+		this.threshold = threshold;
+	}
+	
+	@Override
+	public void write(int b) throws IOException {
+		write(new byte[] { (byte) b }, 0, 1);
+	}
+	
+	@Override
+	public void write(byte[] b, int off, int len) throws IOException {
+		if (closed) {
+			throw new IOException("stream is closed");
+		}
+		checkFailure();
+		
+		if (consumer == null) {
+			if (((written + len) <= threshold) || !startConsumer()) {
+				output.write(b, off, len);
+				written += len;
+				return;
+			}
+		}
+		
+		written += len;
+		int offset = off, remaining = len;
+		while (remaining > 0) {
+			if (buffer == null) {
+				this.buffer = Pools.WRITE_BUFFERS.borrow();
+			}
+			
+			final int n = Math.min(remaining, buffer.length - count);
+			System.arraycopy(b, offset, buffer, count, n);
+			count += n;
+			offset += n;
+			remaining -= n;
+			
+			if (count == buffer.length) {
+				enqueueBuffer();
+			}
+		}
+	}
+	
+	/**
+	 * Returns {@code true} if data is being handed off to a worker thread.
+	 */
+	public boolean isPipelined() {
+		return consumer != null;
+	}
+	
+	/**
+	 * Waits for all data to be written to the underlying stream. The
+	 * underlying stream is not closed.
+	 */
+	@Override
+	public void close() throws IOException {
+		if (!closed) {
+			this.closed = true;
+			if (consumer != null) {
+				enqueueBuffer();
+				enqueue(END);
+				try {
+					consumer.get();
+				} catch (InterruptedException e) {
+					Thread.currentThread().interrupt();
+					throw new InterruptedIOException("interrupted while waiting for pipeline");
+				} catch (ExecutionException e) {
+					this.failure = e.getCause();
+				}
+				checkFailure();
+			}
+		}
+	}
+	
+	/**
+	 * Discards any queued data and waits for the worker thread to stop, so the
+	 * underlying stream and any buffers it uses can be safely released. Does
+	 * nothing if the stream has already been closed.
+	 */
+	public void abort() {
+		if (!closed) {
+			this.closed = true;
+			this.aborted = true;
+			Pools.WRITE_BUFFERS.release(buffer);
+			this.buffer = null;
+			if (consumer != null) {
+				// the worker discards chunks once aborted, so this won't block
+				// for long, and it mustn't be cut short by an interrupt
+				boolean interrupted = false;
+				while (true) {
+					try {
+						queue.put(END);
+						break;
+					} catch (InterruptedException e) {
+						interrupted = true;
+					}
+				}
+				
+				while (true) {
+					try {
+						consumer.get();
+						break;
+					} catch (InterruptedException e) {
+						interrupted = true;
+					} catch (ExecutionException e) {
+						break;
+					}
+				}
+				
+				if (interrupted) {
+					Thread.currentThread().interrupt();
+				}
+			}
+		}
+	}
+	
+	private boolean startConsumer() {
+		if (!saturated) {
+			try {
+				this.consumer = Workers.EXECUTOR.submit(new Consumer());
+				return true;
+			} catch (RejectedExecutionException e) {
+				// every worker is busy, so write on this thread from now on
+				this.saturated = true;
+			}
+		}
+		return false;
+	}
+	
+	private void enqueueBuffer() throws IOException {
+		if (buffer != null) {
+			if (count > 0) {
+				enqueue(new Chunk(buffer, count));
+			} else {
+				Pools.WRITE_BUFFERS.release(buffer);
+			}
+			this.buffer = null;
+			this.count = 0;
+		}
+	}
+	
+	private void enqueue(Chunk chunk) throws IOException {
+		try {
+			queue.put(chunk);
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new InterruptedIOException("interrupted while writing to pipeline");
+		}
+	}
+	
+	private void checkFailure() throws IOException {
+		final Throwable e = failure;
+		if (e != null) {
+			if (e instanceof IOException) {
+				throw (IOException) e;
+			}
+			throw new IOException(e);
+		}
+	}
+}
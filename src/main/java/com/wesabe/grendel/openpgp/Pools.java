@@ -0,0 +1,49 @@
+package com.wesabe.grendel.openpgp;
+
+import com.wesabe.grendel.util.BufferPool;
+import com.wesabe.grendel.util.DeflaterPool;
+import com.wesabe.grendel.util.InflaterPool;
+import com.wesabe.grendel.util.MBeans;
+import com.wesabe.grendel.util.ObjectPool;
+import com.wesabe.grendel.util.ObjectPoolMBean;
+
+/**
+ * The shared buffer and zlib pools used by {@link MessageWriter} and
+ * {@link MessageReader}.
+ * <p>
+ * Each pool is registered as a {@code com.wesabe.grendel:type=ObjectPool}
+ * MBean, so its hit rate can be monitored via JMX.
+ * 
+ * @author coda
+ */
+public final class Pools {
+	/**
+	 * 64KB buffers, used for packet and copy buffers when writing messages.
+	 */
+	public static final BufferPool WRITE_BUFFERS = register("write-buffers", new BufferPool(1 << 16, 96));
+	
+	/**
+	 * 16KB buffers, used for copy buffers when reading messages.
+	 */
+	public static final BufferPool READ_BUFFERS = register("read-buffers", new BufferPool(1024 * 16, 32));
+	
+	/**
+	 * Raw {@link java.util.zip.Deflater}s, which produce deflate data without
+	 * a ZLIB header or checksum.
+	 * 
+	 * @see ParallelDeflaterOutputStream
+	 */
+	public static final DeflaterPool DEFLATERS = register("deflaters", new DeflaterPool(32, true));
+	
+	/**
+	 * ZLIB-format {@link java.util.zip.Inflater}s.
+	 */
+	public static final InflaterPool INFLATERS = register("inflaters", new InflaterPool(32));
+	
+	private Pools() {}
+	
+	private static <T extends ObjectPool<?>> T register(String name, T pool) {
+		MBeans.register("ObjectPool", name, pool, ObjectPoolMBean.class);
+		return pool;
+	}
+}
@@ -0,0 +1,19 @@
+package com.wesabe.grendel.openpgp;
+
+/**
+ * Something which can be the recipient of an encrypted message.
+ *
+ * @author coda
+ * @see MessageWriter
+ * @see MessageRewrapper
+ */
+public interface Recipient {
+	/**
+	 * Returns the {@link RecipientKey} which messages should be encrypted
+	 * with.
+	 *
+	 * @throws CryptographicException if the recipient's public key can't be
+	 *         used for encryption
+	 */
+	public abstract RecipientKey getRecipientKey() throws CryptographicException;
+}
@@ -0,0 +1,168 @@
+package com.wesabe.grendel.openpgp;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.security.GeneralSecurityException;
+import java.security.KeyFactory;
+import java.security.NoSuchProviderException;
+import java.security.PublicKey;
+import java.security.spec.X509EncodedKeySpec;
+
+import org.bouncycastle.bcpg.PublicKeyAlgorithmTags;
+import org.bouncycastle.openpgp.PGPException;
+import org.bouncycastle.openpgp.PGPPublicKey;
+
+/**
+ * The public half of a {@link SubKey}, decoded into a JCA {@link PublicKey}
+ * and ready to encrypt session keys with.
+ * <p>
+ * A {@link RecipientKey} has a compact encoding of its own -- the key ID, the
+ * OpenPGP algorithm, and the X.509-encoded public key -- so that it can be
+ * stored and loaded without the secret keyring it came from.
+ *
+ * @author coda
+ * @see SessionKey#encrypt(RecipientKey, java.security.SecureRandom)
+ */
+public final class RecipientKey implements Recipient {
+	private static final String KEY_ALGORITHM = "RSA";
+	private static final int MAX_ENCODED_LENGTH = 4096;
+	
+	private final long keyID;
+	private final int algorithm;
+	private final PublicKey publicKey;
+	
+	/**
+	 * Returns the {@link RecipientKey} for {@code subKey}.
+	 *
+	 * @param subKey an encryption {@link SubKey}
+	 * @throws CryptographicException if {@code subKey} isn't an RSA key
+	 */
+	public static RecipientKey of(SubKey subKey) throws CryptographicException {
+		final PGPPublicKey key = subKey.getPublicKey();
+		checkAlgorithm(key.getAlgorithm());
+		try {
+			return new RecipientKey(key.getKeyID(), key.getAlgorithm(), key.getKey(CryptoProviders.getName()));
+		} catch (NoSuchProviderException e) {
+			throw new CryptographicException(e);
+		} catch (PGPException e) {
+			throw new CryptographicException(e);
+		}
+	}
+	
+	/**
+	 * Decodes a {@link RecipientKey} produced by {@link #getEncoded()}.
+	 *
+	 * @param encoded an encoded {@link RecipientKey}
+	 * @throws CryptographicException if {@code encoded} is malformed
+	 */
+	public static RecipientKey decode(byte[] encoded) throws CryptographicException {
+		try {
+			final DataInputStream input = new DataInputStream(new ByteArrayInputStream(encoded));
+			final long keyID = input.readLong();
+			final int algorithm = input.readUnsignedByte();
+			checkAlgorithm(algorithm);
+			
+			final int length = input.readUnsignedShort();
+			if ((length > MAX_ENCODED_LENGTH) || (length != input.available())) {
+				throw new CryptographicException("malformed recipient key");
+			}
+			
+			final byte[] x509 = new byte[length];
+			input.readFully(x509);
+			
+			final KeyFactory factory = KeyFactory.getInstance(KEY_ALGORITHM, CryptoProviders.getName());
+			return new RecipientKey(keyID, algorithm, factory.generatePublic(new X509EncodedKeySpec(x509)));
+		} catch (IOException e) {
+			throw new CryptographicException(e);
+		} catch (GeneralSecurityException e) {
+			throw new CryptographicException(e);
+		}
+	}
+	
+	private static void checkAlgorithm(int algorithm) throws CryptographicException {
+		if ((algorithm != PublicKeyAlgorithmTags.RSA_GENERAL) && (algorithm != PublicKeyAlgorithmTags.RSA_ENCRYPT)) {
+			throw new CryptographicException("unsupported recipient key algorithm: " + algorithm);
+		}
+	}
+	
+	private RecipientKey(long keyID, int algorithm, PublicKey publicKey) {
+		this.keyID = keyID;
+		this.algorithm = algorithm;
+		this.publicKey = publicKey;
+	}
+	
+	/**
+	 * Returns the ID of the {@link SubKey} this key belongs to.
+	 */
+	public long getKeyID() {
+		return keyID;
+	}
+	
+	/**
+	 * Returns the OpenPGP public-key algorithm tag of this key.
+	 */
+	/* default */ int getAlgorithm() {
+		return algorithm;
+	}
+	
+	/**
+	 * Returns the JCA {@link PublicKey}.
+	 */
+	/* default */ PublicKey getPublicKey() {
+		return publicKey;
+	}
+	
+	/**
+	 * Returns {@code this}.
+	 */
+	@Override
+	public RecipientKey getRecipientKey() {
+		return this;
+	}
+	
+	/**
+	 * Returns the key in encoded form.
+	 */
+	public byte[] getEncoded() {
+		final byte[] x509 = publicKey.getEncoded();
+		final ByteArrayOutputStream output = new ByteArrayOutputStream(x509.length + 11);
+		final DataOutputStream data = new DataOutputStream(output);
+		try {
+			data.writeLong(keyID);
+			data.writeByte(algorithm);
+			data.writeShort(x509.length);
+			data.write(x509);
+			data.close();
+		} catch (IOException e) {
+			throw new RuntimeException(e);
+		}
+		return output.toByteArray();
+	}
+	
+	@Override
+	public int hashCode() {
+		return (int) (keyID ^ (keyID >>> 32));
+	}
+	
+	@Override
+	public boolean equals(Object obj) {
+		if (this == obj) {
+			return true;
+		}
+		
+		if (!(obj instanceof RecipientKey)) {
+			return false;
+		}
+		
+		final RecipientKey that = (RecipientKey) obj;
+		return (keyID == that.keyID) && publicKey.equals(that.publicKey);
+	}
+	
+	@Override
+	public String toString() {
+		return String.format("%08X", (int) keyID);
+	}
+}
@@ -0,0 +1,141 @@
+package com.wesabe.grendel.openpgp;
+
+import java.security.NoSuchAlgorithmException;
+import java.security.Provider;
+import java.security.Security;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableSet;
+
+/**
+ * A JCA {@link Provider} which routes requests for ciphers, digests,
+ * signatures, and RSA keys to the fastest available provider, and everything
+ * else to Bouncy Castle.
+ * <p>
+ * Bouncy Castle's OpenPGP classes take a single provider name for all the
+ * primitives they use, so passing them the name of this provider lets Bouncy
+ * Castle handle the OpenPGP framing while, for example, AES and SHA-2 run on
+ * the JDK's intrinsified implementations. Algorithms which the preferred
+ * providers don't implement (e.g., {@code OpenPGPCFB}) are always served by
+ * Bouncy Castle.
+ * 
+ * @author coda
+ * @see CryptoProviders
+ */
+public class RoutingProvider extends Provider {
+	private static final long serialVersionUID = -3094542925838245409L;
+	
+	/**
+	 * The name of the provider.
+	 */
+	public static final String NAME = "GrendelRouting";
+	
+	/**
+	 * The default preferred providers, in order.
+	 */
+	public static final List<String> DEFAULT_PREFERRED_PROVIDERS =
+		ImmutableList.of("SunJCE", "SUN", "SunRsaSign");
+	
+	/**
+	 * The types of service which are routed to the preferred providers.
+	 */
+	private static final ImmutableSet<String> ROUTED_TYPES = ImmutableSet.of(
+		"Cipher", "MessageDigest", "Signature", "KeyFactory", "KeyPairGenerator", "Mac"
+	);
+	
+	private static final String[] ATTRIBUTES = {
+		"SupportedModes", "SupportedPaddings", "SupportedKeyClasses",
+		"SupportedKeyFormats", "KeySize", "ImplementedIn"
+	};
+	
+	/**
+	 * A {@link Provider.Service} which hands out instances of another
+	 * provider's implementation.
+	 */
+	private static class DelegatingService extends Provider.Service {
+		private final Provider.Service delegate;
+		
+		public DelegatingService(Provider provider, Provider.Service delegate) {
+			super(provider, delegate.getType(), delegate.getAlgorithm(),
+				delegate.getClassName(), null, getAttributes(delegate));
+			this.delegate = delegate;
+		}
+		
+		private static Map<String, String> getAttributes(Provider.Service service) {
+			final Map<String, String> attributes = new HashMap<String, String>();
+			for (String attribute : ATTRIBUTES) {
+				final String value = service.getAttribute(attribute);
+				if (value != null) {
+					attributes.put(attribute, value);
+				}
+			}
+			return attributes;
+		}
+		
+		@Override
+		public Object newInstance(Object constructorParameter) throws NoSuchAlgorithmException {
+			return delegate.newInstance(constructorParameter);
+		}
+		
+		@Override
+		public boolean supportsParameter(Object parameter) {
+			return delegate.supportsParameter(parameter);
+		}
+	}
+	
+	private final List<String> preferredProviders;
+	private final String fallbackProvider;
+	
+	/**
+	 * Creates a new {@link RoutingProvider}.
+	 * 
+	 * @param preferredProviders the names of the providers to route to, in
+	 *        order of preference
+	 * @param fallbackProvider the name of the provider to use for everything
+	 *        else
+	 */
+	public RoutingProvider(List<String> preferredProviders, String fallbackProvider) {
+		super(NAME, 1.0, "Routes primitives to " + preferredProviders + ", and everything else to " + fallbackProvider);
+		this.preferredProviders = ImmutableList.copyOf(preferredProviders);
+		this.fallbackProvider = fallbackProvider;
+	}
+	
+	@Override
+	public synchronized Service getService(String type, String algorithm) {
+		Service service = null;
+		if (ROUTED_TYPES.contains(type)) {
+			for (String name : preferredProviders) {
+				service = getService(name, type, algorithm);
+				if (service != null) {
+					break;
+				}
+			}
+		}
+		
+		if (service == null) {
+			service = getService(fallbackProvider, type, algorithm);
+		}
+		
+		return (service == null) ? null : new DelegatingService(this, service);
+	}
+	
+	/**
+	 * Returns the name of the provider which handles {@code algorithm}, or
+	 * {@code null} if no provider does.
+	 */
+	public String getRoute(String type, String algorithm) {
+		final Service service = getService(type, algorithm);
+		return (service == null) ? null : ((DelegatingService) service).delegate.getProvider().getName();
+	}
+	
+	private static Service getService(String providerName, String type, String algorithm) {
+		final Provider provider = Security.getProvider(providerName);
+		if (provider == null) {
+			return null;
+		}
+		return provider.getService(type, algorithm);
+	}
+}
@@ -0,0 +1,258 @@
+package com.wesabe.grendel.openpgp;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.security.GeneralSecurityException;
+import java.security.MessageDigest;
+import java.security.SecureRandom;
+import java.security.interfaces.RSAPrivateCrtKey;
+import java.util.Arrays;
+
+import javax.crypto.Cipher;
+import javax.crypto.SecretKey;
+import javax.crypto.spec.IvParameterSpec;
+
+import org.bouncycastle.bcpg.BCPGInputStream;
+import org.bouncycastle.bcpg.HashAlgorithmTags;
+import org.bouncycastle.bcpg.PublicKeyPacket;
+import org.bouncycastle.bcpg.RSASecretBCPGKey;
+import org.bouncycastle.bcpg.S2K;
+import org.bouncycastle.bcpg.SecretKeyPacket;
+import org.bouncycastle.bcpg.SecretSubkeyPacket;
+import org.bouncycastle.openpgp.PGPException;
+import org.bouncycastle.openpgp.PGPPrivateKey;
+import org.bouncycastle.openpgp.PGPSecretKey;
+import org.bouncycastle.openpgp.PGPSecretKeyRing;
+import org.bouncycastle.openpgp.PGPUtil;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Selects the iteration count of the S2K (string-to-key) function used to
+ * derive key-encryption keys from passphrases.
+ * <p>
+ * Bouncy Castle always uses an iteration count of {@code 0x60} (65,536
+ * bytes), which costs well under a millisecond on current hardware.
+ * {@link #calibrate(long)} times the S2K function on the current machine and
+ * picks the smallest count which takes at least the given number of
+ * milliseconds; new and re-locked key sets use the calibrated count, and key
+ * sets locked with a much lower count are reported by
+ * {@link KeySet#isLockOutdated()} so they can be re-locked.
+ *
+ * @author coda
+ * @see <a href="http://www.ietf.org/rfc/rfc4880.txt">Section 3.7.1.3, RFC 4880</a>
+ */
+public final class S2KCalibration {
+	private static final Logger LOGGER = LoggerFactory.getLogger(S2KCalibration.class);
+	
+	/**
+	 * Bouncy Castle's iteration count, which is also the minimum.
+	 */
+	public static final int DEFAULT_ITERATION_COUNT = 0x60;
+	private static final int MAX_ITERATION_COUNT = 0xFF;
+	
+	/**
+	 * The iteration count which is timed during calibration -- large enough
+	 * to take a measurable amount of time, small enough to not slow startup.
+	 */
+	private static final int SAMPLE_ITERATION_COUNT = 0xA0;
+	private static final int SAMPLES = 3;
+	
+	/**
+	 * How many times more iterations new keys get than a key can have before
+	 * it's considered outdated. Calibration is re-run on every startup and
+	 * varies from run to run and machine to machine; a key locked on a
+	 * slightly faster or slower node isn't worth re-locking (and bumping its
+	 * owner's etag) over.
+	 */
+	private static final int RELOCK_MARGIN = 4;
+	
+	private static final String CIPHER = "AES/CFB/NoPadding";
+	private static final int SALT_LENGTH = 8;
+	private static final int IV_LENGTH = 16;
+	
+	private static volatile int iterationCount = DEFAULT_ITERATION_COUNT;
+	
+	private S2KCalibration() {}
+	
+	/**
+	 * Returns the encoded iteration count new keys should be locked with.
+	 */
+	public static int getIterationCount() {
+		return iterationCount;
+	}
+	
+	/**
+	 * Sets the encoded iteration count new keys should be locked with.
+	 *
+	 * @param count an encoded iteration count
+	 * @throws IllegalArgumentException if {@code count} is less than
+	 *         {@link #DEFAULT_ITERATION_COUNT} or greater than {@code 0xFF}
+	 */
+	public static void setIterationCount(int count) {
+		if ((count < DEFAULT_ITERATION_COUNT) || (count > MAX_ITERATION_COUNT)) {
+			throw new IllegalArgumentException("invalid S2K iteration count: " + count);
+		}
+		iterationCount = count;
+	}
+	
+	/**
+	 * Returns the number of bytes hashed by an encoded iteration count.
+	 */
+	public static long decode(int count) {
+		return (16L + (count & 15)) << ((count >> 4) + 6);
+	}
+	
+	/**
+	 * Times the S2K function and sets the iteration count to the smallest
+	 * count which takes at least {@code targetMillis} to derive a key.
+	 *
+	 * @param targetMillis the desired time to unlock a key, in milliseconds
+	 * @return the new encoded iteration count
+	 * @throws CryptographicException if the S2K function can't be run
+	 */
+	public static synchronized int calibrate(long targetMillis) throws CryptographicException {
+		final char[] passphrase = "calibration".toCharArray();
+		final byte[] salt = new byte[SALT_LENGTH];
+		
+		long fastest = Long.MAX_VALUE;
+		try {
+			for (int i = 0; i < SAMPLES; i++) {
+				final long start = System.nanoTime();
+				PGPUtil.makeKeyFromPassPhrase(
+					SymmetricAlgorithm.DEFAULT.toInteger(),
+					new S2K(HashAlgorithmTags.SHA1, salt, SAMPLE_ITERATION_COUNT),
+					passphrase,
+					CryptoProviders.getName()
+				);
+				fastest = Math.min(fastest, System.nanoTime() - start);
+			}
+		} catch (GeneralSecurityException e) {
+			throw new CryptographicException(e);
+		} catch (PGPException e) {
+			throw new CryptographicException(e);
+		}
+		
+		final double bytesPerNano = decode(SAMPLE_ITERATION_COUNT) / (double) Math.max(fastest, 1);
+		final double targetBytes = bytesPerNano * targetMillis * 1000000;
+		
+		int count = DEFAULT_ITERATION_COUNT;
+		while ((count < MAX_ITERATION_COUNT) && (decode(count) < targetBytes)) {
+			count++;
+		}
+		
+		LOGGER.info(String.format("Using an S2K iteration count of 0x%02X (%d bytes) for a %dms unlock target",
+			count, decode(count), targetMillis));
+		setIterationCount(count);
+		return count;
+	}
+	
+	/**
+	 * Returns {@code true} if {@code key} is locked with less than a quarter
+	 * of the current iteration count's S2K iterations.
+	 *
+	 * @throws CryptographicException if {@code key} can't be parsed
+	 */
+	static boolean isOutdated(PGPSecretKey key) throws CryptographicException {
+		try {
+			final SecretKeyPacket packet = (SecretKeyPacket) new BCPGInputStream(
+				new ByteArrayInputStream(key.getEncoded())
+			).readPacket();
+			final S2K s2k = packet.getS2K();
+			return (s2k == null) || ((s2k.getIterationCount() * RELOCK_MARGIN) < decode(iterationCount));
+		} catch (IOException e) {
+			throw new CryptographicException(e);
+		} catch (ClassCastException e) {
+			throw new CryptographicException(e);
+		}
+	}
+	
+	/**
+	 * Encrypts a master key and subkey with {@code passphrase}, using the
+	 * current iteration count, and returns them as a new key ring.
+	 *
+	 * @param masterKey the master key's {@link PGPSecretKey}
+	 * @param masterPrivateKey the master key's {@link PGPPrivateKey}
+	 * @param subKey the subkey's {@link PGPSecretKey}
+	 * @param subPrivateKey the subkey's {@link PGPPrivateKey}
+	 * @param passphrase the new passphrase
+	 * @param random a {@link SecureRandom} instance
+	 * @throws CryptographicException if the keys can't be encrypted
+	 */
+	static PGPSecretKeyRing lock(PGPSecretKey masterKey, PGPPrivateKey masterPrivateKey,
+		PGPSecretKey subKey, PGPPrivateKey subPrivateKey,
+		char[] passphrase, SecureRandom random) throws CryptographicException {
+		try {
+			final ByteArrayOutputStream output = new ByteArrayOutputStream();
+			lock(masterKey, masterPrivateKey, passphrase, random, output);
+			lock(subKey, subPrivateKey, passphrase, random, output);
+			return new PGPSecretKeyRing(output.toByteArray());
+		} catch (IOException e) {
+			throw new CryptographicException(e);
+		} catch (GeneralSecurityException e) {
+			throw new CryptographicException(e);
+		} catch (PGPException e) {
+			throw new CryptographicException(e);
+		}
+	}
+	
+	/*
+	 * Writes a secret key packet, encrypted as Bouncy Castle would but with
+	 * the current iteration count, followed by the rest of the public key's
+	 * packets (user IDs and signatures).
+	 */
+	private static void lock(PGPSecretKey key, PGPPrivateKey privateKey, char[] passphrase,
+		SecureRandom random, ByteArrayOutputStream output) throws IOException, GeneralSecurityException, PGPException, CryptographicException {
+		if (!(privateKey.getKey() instanceof RSAPrivateCrtKey)) {
+			throw new CryptographicException("unsupported key algorithm: " + privateKey.getKey().getAlgorithm());
+		}
+		
+		final RSAPrivateCrtKey rsaKey = (RSAPrivateCrtKey) privateKey.getKey();
+		final byte[] secretData = new RSASecretBCPGKey(
+			rsaKey.getPrivateExponent(), rsaKey.getPrimeP(), rsaKey.getPrimeQ()
+		).getEncoded();
+		final byte[] keyData = new byte[secretData.length + 20];
+		final byte[] encryptedData;
+		final byte[] iv = new byte[IV_LENGTH];
+		final S2K s2k;
+		try {
+			final MessageDigest sha1 = MessageDigest.getInstance("SHA-1", CryptoProviders.getName());
+			sha1.update(secretData);
+			System.arraycopy(secretData, 0, keyData, 0, secretData.length);
+			sha1.digest(keyData, secretData.length, 20);
+			
+			final byte[] salt = new byte[SALT_LENGTH];
+			random.nextBytes(salt);
+			s2k = new S2K(HashAlgorithmTags.SHA1, salt, iterationCount);
+			final SecretKey encryptionKey = PGPUtil.makeKeyFromPassPhrase(
+				SymmetricAlgorithm.DEFAULT.toInteger(), s2k, passphrase, CryptoProviders.getName()
+			);
+			
+			random.nextBytes(iv);
+			final Cipher cipher = Cipher.getInstance(CIPHER, CryptoProviders.getName());
+			cipher.init(Cipher.ENCRYPT_MODE, encryptionKey, new IvParameterSpec(iv));
+			encryptedData = cipher.doFinal(keyData);
+		} finally {
+			Arrays.fill(secretData, (byte) 0);
+			Arrays.fill(keyData, (byte) 0);
+		}
+		
+		final ByteArrayInputStream publicKey = new ByteArrayInputStream(key.getPublicKey().getEncoded());
+		final PublicKeyPacket publicKeyPacket = (PublicKeyPacket) new BCPGInputStream(publicKey).readPacket();
+		
+		final SecretKeyPacket packet;
+		if (key.isMasterKey()) {
+			packet = new SecretKeyPacket(publicKeyPacket, SymmetricAlgorithm.DEFAULT.toInteger(),
+				SecretKeyPacket.USAGE_SHA1, s2k, iv, encryptedData);
+		} else {
+			packet = new SecretSubkeyPacket(publicKeyPacket, SymmetricAlgorithm.DEFAULT.toInteger(),
+				SecretKeyPacket.USAGE_SHA1, s2k, iv, encryptedData);
+		}
+		output.write(packet.getEncoded());
+		
+		final byte[] b = new byte[publicKey.available()];
+		publicKey.read(b);
+		output.write(b);
+	}
+}
@@ -0,0 +1,187 @@
+package com.wesabe.grendel.openpgp;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.security.GeneralSecurityException;
+import java.security.KeyFactory;
+import java.security.PrivateKey;
+import java.security.SecureRandom;
+import java.security.spec.PKCS8EncodedKeySpec;
+import java.util.Arrays;
+
+import javax.crypto.Cipher;
+import javax.crypto.SecretKey;
+import javax.crypto.spec.IvParameterSpec;
+
+import org.bouncycastle.openpgp.PGPPrivateKey;
+import org.bouncycastle.openpgp.PGPSecretKey;
+
+/**
+ * An {@link UnlockedKeySet} whose private keys have been encrypted with a
+ * symmetric key, for keeping in memory between requests.
+ * <p>
+ * Unsealing a key set costs a single AES decryption and a private key decode
+ * per key, instead of the S2K passphrase derivations required by
+ * {@link KeySet#unlock(char[])}. If the key set's {@link MasterKey} hadn't
+ * been unlocked when it was sealed, only the {@link SubKey} is sealed, and the
+ * master key is unlocked with the passphrase when it's first used.
+ *
+ * @author coda
+ */
+public class SealedKeySet {
+	private static final String CIPHER = "AES/CBC/PKCS5Padding";
+	private static final int IV_LENGTH = 16;
+	
+	private final PGPSecretKey masterSecretKey, subSecretKey;
+	private final byte[] iv, sealedKeys;
+	
+	/**
+	 * Encrypts the private keys of {@code keySet} with {@code key}.
+	 *
+	 * @param keySet an {@link UnlockedKeySet}
+	 * @param key an AES key
+	 * @param random a {@link SecureRandom} instance
+	 * @return {@code keySet}, sealed with {@code key}
+	 * @throws CryptographicException if {@code keySet} cannot be encrypted
+	 */
+	public static SealedKeySet seal(UnlockedKeySet keySet, SecretKey key, SecureRandom random) throws CryptographicException {
+		final byte[] iv = new byte[IV_LENGTH];
+		random.nextBytes(iv);
+		
+		byte[] encodedKeys = null;
+		try {
+			final ByteArrayOutputStream output = new ByteArrayOutputStream();
+			final DataOutputStream data = new DataOutputStream(output);
+			writeKey(data, keySet.getUnlockedSubKey().getPrivateKey().getKey());
+			data.writeBoolean(keySet.isMasterKeyUnlocked());
+			if (keySet.isMasterKeyUnlocked()) {
+				writeKey(data, keySet.getUnlockedMasterKey().getPrivateKey().getKey());
+			}
+			data.close();
+			encodedKeys = output.toByteArray();
+			
+			final Cipher cipher = Cipher.getInstance(CIPHER, CryptoProviders.getName());
+			cipher.init(Cipher.ENCRYPT_MODE, key, new IvParameterSpec(iv));
+			return new SealedKeySet(
+				keySet.getMasterKey().getSecretKey(),
+				keySet.getSubKey().getSecretKey(),
+				iv,
+				cipher.doFinal(encodedKeys)
+			);
+		} catch (IOException e) {
+			throw new CryptographicException(e);
+		} catch (GeneralSecurityException e) {
+			throw new CryptographicException(e);
+		} finally {
+			if (encodedKeys != null) {
+				Arrays.fill(encodedKeys, (byte) 0);
+			}
+		}
+	}
+	
+	private static void writeKey(DataOutputStream output, PrivateKey key) throws IOException {
+		final byte[] encoded = key.getEncoded();
+		try {
+			output.writeUTF(key.getAlgorithm());
+			output.writeInt(encoded.length);
+			output.write(encoded);
+		} finally {
+			Arrays.fill(encoded, (byte) 0);
+		}
+	}
+	
+	private static PrivateKey readKey(DataInputStream input) throws IOException, GeneralSecurityException {
+		final String algorithm = input.readUTF();
+		final int length = input.readInt();
+		if ((length < 0) || (length > input.available())) {
+			throw new IOException("malformed sealed key");
+		}
+		
+		final byte[] encoded = new byte[length];
+		try {
+			input.readFully(encoded);
+			final KeyFactory factory = KeyFactory.getInstance(algorithm, CryptoProviders.getName());
+			return factory.generatePrivate(new PKCS8EncodedKeySpec(encoded));
+		} finally {
+			Arrays.fill(encoded, (byte) 0);
+		}
+	}
+	
+	private UnlockedSubKey unlockedSubKey(MasterKey masterKey, PrivateKey privateKey) {
+		return new UnlockedSubKey(
+			subSecretKey,
+			masterKey,
+			new PGPPrivateKey(privateKey, subSecretKey.getKeyID())
+		);
+	}
+	
+	private SealedKeySet(PGPSecretKey masterSecretKey, PGPSecretKey subSecretKey, byte[] iv, byte[] sealedKeys) {
+		this.masterSecretKey = masterSecretKey;
+		this.subSecretKey = subSecretKey;
+		this.iv = iv;
+		this.sealedKeys = sealedKeys;
+	}
+	
+	/**
+	 * Decrypts the private keys with {@code key} and returns them as an
+	 * {@link UnlockedKeySet}.
+	 *
+	 * @param key the AES key this key set was sealed with
+	 * @return the original {@link UnlockedKeySet}
+	 * @throws CryptographicException if {@code key} is incorrect, or if the
+	 *         master key wasn't sealed
+	 */
+	public UnlockedKeySet unseal(SecretKey key) throws CryptographicException {
+		return unseal(key, null);
+	}
+	
+	/**
+	 * Decrypts the private keys with {@code key} and returns them as an
+	 * {@link UnlockedKeySet}. If the master key wasn't sealed, it will be
+	 * unlocked with {@code passphrase} when it's first used.
+	 *
+	 * @param key the AES key this key set was sealed with
+	 * @param passphrase the key set's passphrase, or {@code null}
+	 * @return the original {@link UnlockedKeySet}
+	 * @throws CryptographicException if {@code key} is incorrect, or if the
+	 *         master key wasn't sealed and {@code passphrase} is {@code null}
+	 */
+	public UnlockedKeySet unseal(SecretKey key, char[] passphrase) throws CryptographicException {
+		byte[] encodedKeys = null;
+		try {
+			final Cipher cipher = Cipher.getInstance(CIPHER, CryptoProviders.getName());
+			cipher.init(Cipher.DECRYPT_MODE, key, new IvParameterSpec(iv));
+			encodedKeys = cipher.doFinal(sealedKeys);
+			
+			final DataInputStream input = new DataInputStream(new ByteArrayInputStream(encodedKeys));
+			final PrivateKey subPrivateKey = readKey(input);
+			final boolean masterKeySealed = input.readBoolean();
+			
+			if (masterKeySealed) {
+				final UnlockedMasterKey masterKey = new UnlockedMasterKey(
+					masterSecretKey,
+					new PGPPrivateKey(readKey(input), masterSecretKey.getKeyID())
+				);
+				return new UnlockedKeySet(masterKey, unlockedSubKey(masterKey, subPrivateKey));
+			}
+			
+			if (passphrase == null) {
+				throw new CryptographicException("master key was not sealed");
+			}
+			
+			final MasterKey masterKey = new MasterKey(masterSecretKey);
+			return new UnlockedKeySet(masterKey, unlockedSubKey(masterKey, subPrivateKey), passphrase);
+		} catch (IOException e) {
+			throw new CryptographicException("incorrect key");
+		} catch (GeneralSecurityException e) {
+			throw new CryptographicException("incorrect key");
+		} finally {
+			if (encodedKeys != null) {
+				Arrays.fill(encodedKeys, (byte) 0);
+			}
+		}
+	}
+}
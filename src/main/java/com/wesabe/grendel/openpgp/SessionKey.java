@@ -0,0 +1,305 @@
+package com.wesabe.grendel.openpgp;
+
+import java.math.BigInteger;
+import java.security.GeneralSecurityException;
+import java.security.NoSuchAlgorithmException;
+import java.security.SecureRandom;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.RejectedExecutionException;
+
+import javax.crypto.Cipher;
+import javax.crypto.spec.IvParameterSpec;
+import javax.crypto.spec.SecretKeySpec;
+
+import org.bouncycastle.bcpg.PublicKeyAlgorithmTags;
+import org.bouncycastle.bcpg.PublicKeyEncSessionPacket;
+
+import com.wesabe.grendel.util.BoundedExecutor;
+import com.wesabe.grendel.util.BoundedExecutorMBean;
+import com.wesabe.grendel.util.IntegerEquivalents;
+import com.wesabe.grendel.util.MBeans;
+
+/**
+ * A symmetric session key, as carried in a Public-Key Encrypted Session Key
+ * packet.
+ * <p>
+ * Only RSA-encrypted session keys are supported, which matches the keys
+ * produced by {@link KeySetGenerator}.
+ *
+ * @author coda
+ * @see <a href="http://www.ietf.org/rfc/rfc4880.txt">Section 5.1, RFC 4880</a>
+ */
+final class SessionKey {
+	private static final String RSA_TRANSFORMATION = "RSA/ECB/PKCS1Padding";
+	private static final String CFB_MODE = "/CFB/NoPadding";
+	
+	/**
+	 * Session keys for at least this many recipients are encrypted in
+	 * parallel.
+	 */
+	private static final int PARALLEL_RECIPIENTS = 4;
+	
+	private static class Workers {
+		private static final int THREADS = Runtime.getRuntime().availableProcessors();
+		private static final BoundedExecutor EXECUTOR = new BoundedExecutor(
+			"grendel-crypto", THREADS, THREADS
+		);
+		
+		static {
+			MBeans.register("Executor", "crypto", EXECUTOR, BoundedExecutorMBean.class);
+		}
+	}
+	
+	/**
+	 * Generates a new, random session key.
+	 *
+	 * @param algorithm the {@link SymmetricAlgorithm} the key is for
+	 * @param random a {@link SecureRandom} instance
+	 * @return a new session key
+	 * @throws CryptographicException if {@code algorithm} isn't an AES variant
+	 */
+	static SessionKey generate(SymmetricAlgorithm algorithm, SecureRandom random) throws CryptographicException {
+		final byte[] key = new byte[getKeySize(algorithm)];
+		random.nextBytes(key);
+		return new SessionKey(algorithm, key);
+	}
+
+	/**
+	 * Recovers a session key from a Public-Key Encrypted Session Key packet
+	 * using the recipient's unlocked subkey.
+	 *
+	 * @param packet the encrypted session key packet
+	 * @param subKey the {@link UnlockedSubKey} the packet is encrypted to
+	 * @return the decrypted session key
+	 * @throws CryptographicException if the session key cannot be decrypted
+	 *         or its checksum is invalid
+	 */
+	static SessionKey decrypt(PublicKeyEncSessionPacket packet, UnlockedSubKey subKey) throws CryptographicException {
+		if (packet.getKeyID() != subKey.getKeyID()) {
+			throw new CryptographicException("session key is not encrypted for " + subKey);
+		}
+
+		checkAlgorithm(packet.getAlgorithm());
+
+		try {
+			final Cipher cipher = Cipher.getInstance(RSA_TRANSFORMATION, CryptoProviders.getName());
+			cipher.init(Cipher.DECRYPT_MODE, subKey.getPrivateKey().getKey());
+
+			final byte[] encrypted = packet.getEncSessionKey()[0].toByteArray();
+			if (encrypted[0] == 0) {
+				cipher.update(encrypted, 1, encrypted.length - 1);
+			} else {
+				cipher.update(encrypted);
+			}
+
+			final byte[] plaintext = cipher.doFinal();
+			try {
+				return parse(plaintext);
+			} finally {
+				Arrays.fill(plaintext, (byte) 0);
+			}
+		} catch (GeneralSecurityException e) {
+			throw new CryptographicException(e);
+		}
+	}
+
+	private static SessionKey parse(byte[] plaintext) throws CryptographicException {
+		if (plaintext.length < 4) {
+			throw new CryptographicException("malformed session key");
+		}
+
+		final byte[] key = Arrays.copyOfRange(plaintext, 1, plaintext.length - 2);
+		final int checksum = ((plaintext[plaintext.length - 2] & 0xff) << 8) | (plaintext[plaintext.length - 1] & 0xff);
+		if (checksum != checksum(key)) {
+			Arrays.fill(key, (byte) 0);
+			throw new CryptographicException("session key checksum failed");
+		}
+
+		final SymmetricAlgorithm algorithm;
+		try {
+			algorithm = IntegerEquivalents.fromInt(SymmetricAlgorithm.class, plaintext[0] & 0xff);
+		} catch (IllegalArgumentException e) {
+			Arrays.fill(key, (byte) 0);
+			throw new CryptographicException(e);
+		}
+		
+		if (key.length != getKeySize(algorithm)) {
+			Arrays.fill(key, (byte) 0);
+			throw new CryptographicException("session key is the wrong length for " + algorithm);
+		}
+		return new SessionKey(algorithm, key);
+	}
+
+	private static int getKeySize(SymmetricAlgorithm algorithm) throws CryptographicException {
+		switch (algorithm) {
+			case AES_128:
+				return 16;
+			case AES_192:
+				return 24;
+			case AES_256:
+				return 32;
+			default:
+				throw new CryptographicException("unsupported session key algorithm: " + algorithm);
+		}
+	}
+	
+	private static String getCipherName(SymmetricAlgorithm algorithm) throws NoSuchAlgorithmException {
+		switch (algorithm) {
+			case AES_128:
+			case AES_192:
+			case AES_256:
+				return "AES";
+			default:
+				throw new NoSuchAlgorithmException("unsupported session key algorithm: " + algorithm);
+		}
+	}
+	
+	private static void checkAlgorithm(int algorithm) throws CryptographicException {
+		if ((algorithm != PublicKeyAlgorithmTags.RSA_GENERAL) && (algorithm != PublicKeyAlgorithmTags.RSA_ENCRYPT)) {
+			throw new CryptographicException("unsupported session key algorithm: " + algorithm);
+		}
+	}
+
+	private static int checksum(byte[] key) {
+		int sum = 0;
+		for (byte b : key) {
+			sum += b & 0xff;
+		}
+		return sum & 0xffff;
+	}
+
+	private final SymmetricAlgorithm algorithm;
+	private final byte[] key;
+
+	private SessionKey(SymmetricAlgorithm algorithm, byte[] key) {
+		this.algorithm = algorithm;
+		this.key = key;
+	}
+
+	/**
+	 * Returns the session key's {@link SymmetricAlgorithm}.
+	 */
+	SymmetricAlgorithm getAlgorithm() {
+		return algorithm;
+	}
+
+	/**
+	 * Encrypts the session key with a recipient's public subkey.
+	 *
+	 * @param recipient the recipient's {@link RecipientKey}
+	 * @param random a {@link SecureRandom} instance
+	 * @return a Public-Key Encrypted Session Key packet for {@code recipient}
+	 * @throws CryptographicException if the session key cannot be encrypted
+	 */
+	PublicKeyEncSessionPacket encrypt(RecipientKey recipient, SecureRandom random) throws CryptographicException {
+		checkAlgorithm(recipient.getAlgorithm());
+
+		final byte[] plaintext = new byte[key.length + 3];
+		plaintext[0] = (byte) algorithm.toInteger();
+		System.arraycopy(key, 0, plaintext, 1, key.length);
+		final int checksum = checksum(key);
+		plaintext[plaintext.length - 2] = (byte) (checksum >> 8);
+		plaintext[plaintext.length - 1] = (byte) checksum;
+
+		try {
+			final Cipher cipher = Cipher.getInstance(RSA_TRANSFORMATION, CryptoProviders.getName());
+			cipher.init(Cipher.ENCRYPT_MODE, recipient.getPublicKey(), random);
+			final byte[] encrypted = cipher.doFinal(plaintext);
+			return new PublicKeyEncSessionPacket(
+				recipient.getKeyID(),
+				recipient.getAlgorithm(),
+				new BigInteger[] { new BigInteger(1, encrypted) }
+			);
+		} catch (GeneralSecurityException e) {
+			throw new CryptographicException(e);
+		} finally {
+			Arrays.fill(plaintext, (byte) 0);
+		}
+	}
+
+	/**
+	 * Encrypts the session key with each recipient's public subkey. If there
+	 * are more than a few recipients, the public-key operations are run in
+	 * parallel on a shared, bounded pool of worker threads; any which the pool
+	 * can't take are run on the calling thread.
+	 *
+	 * @param recipients the recipients' {@link RecipientKey}s
+	 * @param random a {@link SecureRandom} instance
+	 * @return a Public-Key Encrypted Session Key packet for each recipient, in
+	 *         the same order as {@code recipients}
+	 * @throws CryptographicException if the session key cannot be encrypted
+	 */
+	List<PublicKeyEncSessionPacket> encrypt(List<RecipientKey> recipients, final SecureRandom random) throws CryptographicException {
+		final List<PublicKeyEncSessionPacket> packets = new ArrayList<PublicKeyEncSessionPacket>(recipients.size());
+		if (recipients.size() < PARALLEL_RECIPIENTS) {
+			for (RecipientKey recipient : recipients) {
+				packets.add(encrypt(recipient, random));
+			}
+			return packets;
+		}
+		
+		final List<Future<PublicKeyEncSessionPacket>> futures = new ArrayList<Future<PublicKeyEncSessionPacket>>(recipients.size());
+		try {
+			for (final RecipientKey recipient : recipients) {
+				final FutureTask<PublicKeyEncSessionPacket> future = new FutureTask<PublicKeyEncSessionPacket>(new Callable<PublicKeyEncSessionPacket>() {
+					@Override
+					public PublicKeyEncSessionPacket call() throws Exception {
+						return encrypt(recipient, random);
+					}
+				});
+				futures.add(future);
+				try {
+					Workers.EXECUTOR.execute(future);
+				} catch (RejectedExecutionException e) {
+					// every worker is busy, so encrypt it here
+					future.run();
+				}
+			}
+			
+			for (Future<PublicKeyEncSessionPacket> future : futures) {
+				packets.add(future.get());
+			}
+			return packets;
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new CryptographicException(e);
+		} catch (ExecutionException e) {
+			if (e.getCause() instanceof CryptographicException) {
+				throw (CryptographicException) e.getCause();
+			}
+			throw new CryptographicException(e.getCause());
+		} finally {
+			for (Future<PublicKeyEncSessionPacket> future : futures) {
+				future.cancel(false);
+			}
+		}
+	}
+	
+	/**
+	 * Returns a {@link Cipher} for the session key's algorithm in CFB mode with
+	 * an all-zero IV, as used by Symmetrically Encrypted Integrity Protected
+	 * Data packets. Every supported algorithm has a 16-byte block.
+	 *
+	 * @param mode {@link Cipher#ENCRYPT_MODE} or {@link Cipher#DECRYPT_MODE}
+	 * @throws GeneralSecurityException if the cipher can't be initialized
+	 */
+	Cipher newCipher(int mode) throws GeneralSecurityException {
+		final String name = getCipherName(algorithm);
+		final Cipher cipher = Cipher.getInstance(name + CFB_MODE, CryptoProviders.getName());
+		cipher.init(mode, new SecretKeySpec(key, name), new IvParameterSpec(new byte[cipher.getBlockSize()]));
+		return cipher;
+	}
+	
+	/**
+	 * Zeroes the key material.
+	 */
+	void destroy() {
+		Arrays.fill(key, (byte) 0);
+	}
+}
@@ -0,0 +1,212 @@
+package com.wesabe.grendel.openpgp;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.security.GeneralSecurityException;
+import java.security.SecureRandom;
+import java.util.Arrays;
+
+import javax.crypto.Cipher;
+import javax.crypto.CipherInputStream;
+import javax.crypto.CipherOutputStream;
+import javax.crypto.SecretKey;
+import javax.crypto.spec.IvParameterSpec;
+import javax.crypto.spec.SecretKeySpec;
+
+/**
+ * An {@link OutputStream} which buffers data in memory up to a threshold, and
+ * then spills it to a temporary file.
+ * <p>
+ * Because the buffered data is usually decrypted plaintext, the temporary file
+ * is encrypted with a random, ephemeral AES key which only ever exists in
+ * memory. The file is deleted when the buffer is closed, and the in-memory
+ * buffer is zeroed. Buffers must always be closed: the file isn't registered
+ * with {@link File#deleteOnExit()}, since that holds on to every path until
+ * the JVM exits.
+ *
+ * @author coda
+ */
+public class SpillBuffer extends OutputStream {
+	private static final String CIPHER_ALGORITHM = "AES";
+	private static final String CIPHER_TRANSFORMATION = "AES/CTR/NoPadding";
+	private static final int CIPHER_KEY_SIZE = 16; // 128 bits
+	private static final int CIPHER_BLOCK_SIZE = 16;
+	private static final int FILE_BUFFER_SIZE = 1024 * 16; // 16KB
+
+	private final int threshold;
+	private final SecureRandom random;
+	private byte[] memory;
+	private int count;
+	private long size;
+
+	private File file;
+	private OutputStream fileOutput;
+	private SecretKey fileKey;
+	private byte[] fileIV;
+
+	/**
+	 * Creates a new {@link SpillBuffer}.
+	 *
+	 * @param threshold
+	 *            the maximum number of bytes to hold in memory before spilling
+	 *            to a temporary file
+	 * @param random
+	 *            a {@link SecureRandom} for the temporary file's key
+	 */
+	public SpillBuffer(int threshold, SecureRandom random) {
+		this.threshold = threshold;
+		this.random = random;
+		this.memory = new byte[Math.min(threshold, FILE_BUFFER_SIZE)];
+		this.count = 0;
+		this.size = 0;
+	}
+
+	@Override
+	public void write(int b) throws IOException {
+		write(new byte[] { (byte) b }, 0, 1);
+	}
+
+	@Override
+	public void write(byte[] b, int off, int len) throws IOException {
+		if ((fileOutput == null) && ((count + len) > threshold)) {
+			spill();
+		}
+
+		if (fileOutput == null) {
+			ensureCapacity(count + len);
+			System.arraycopy(b, off, memory, count, len);
+			count += len;
+		} else {
+			fileOutput.write(b, off, len);
+		}
+
+		size += len;
+	}
+
+	@Override
+	public void flush() throws IOException {
+		if (fileOutput != null) {
+			fileOutput.flush();
+		}
+	}
+
+	/**
+	 * Returns the number of bytes written to the buffer.
+	 */
+	public long size() {
+		return size;
+	}
+
+	/**
+	 * Returns {@code true} if the buffer has spilled to a temporary file.
+	 */
+	public boolean isSpilled() {
+		return file != null;
+	}
+
+	/**
+	 * Writes the entire contents of the buffer to {@code output}.
+	 *
+	 * @param output an {@link OutputStream}
+	 * @throws IOException if there is an error reading the temporary file or
+	 *         writing to {@code output}
+	 */
+	public void writeTo(OutputStream output) throws IOException {
+		if (fileOutput == null) {
+			output.write(memory, 0, count);
+		} else {
+			fileOutput.flush();
+			final InputStream input = openFile();
+			try {
+				final byte[] b = new byte[FILE_BUFFER_SIZE];
+				int r = 0;
+				while ((r = input.read(b)) >= 0) {
+					output.write(b, 0, r);
+				}
+			} finally {
+				input.close();
+			}
+		}
+	}
+
+	/**
+	 * Discards the contents of the buffer, zeroing the in-memory buffer and
+	 * deleting the temporary file, if any.
+	 */
+	@Override
+	public void close() {
+		Arrays.fill(memory, (byte) 0);
+		this.count = 0;
+		this.fileKey = null;
+
+		if (fileOutput != null) {
+			try {
+				fileOutput.close();
+			} catch (IOException e) {
+				// the file is about to be deleted anyway
+			}
+			this.fileOutput = null;
+		}
+
+		if (file != null) {
+			file.delete();
+			this.file = null;
+		}
+	}
+
+	private void ensureCapacity(int capacity) {
+		if (capacity > memory.length) {
+			final int newLength = Math.min(threshold, Math.max(capacity, memory.length << 1));
+			final byte[] newMemory = Arrays.copyOf(memory, newLength);
+			Arrays.fill(memory, (byte) 0);
+			this.memory = newMemory;
+		}
+	}
+
+	private void spill() throws IOException {
+		this.file = File.createTempFile("grendel-", ".spill");
+
+		try {
+			final byte[] key = new byte[CIPHER_KEY_SIZE];
+			random.nextBytes(key);
+			this.fileKey = new SecretKeySpec(key, CIPHER_ALGORITHM);
+			Arrays.fill(key, (byte) 0);
+			this.fileIV = new byte[CIPHER_BLOCK_SIZE];
+			random.nextBytes(fileIV);
+
+			final Cipher cipher = Cipher.getInstance(CIPHER_TRANSFORMATION, CryptoProviders.getName());
+			cipher.init(Cipher.ENCRYPT_MODE, fileKey, new IvParameterSpec(fileIV));
+			this.fileOutput = new BufferedOutputStream(
+				new CipherOutputStream(new FileOutputStream(file), cipher),
+				FILE_BUFFER_SIZE
+			);
+		} catch (GeneralSecurityException e) {
+			file.delete();
+			throw new IOException(e);
+		}
+
+		fileOutput.write(memory, 0, count);
+		Arrays.fill(memory, (byte) 0);
+		this.memory = new byte[0];
+		this.count = 0;
+	}
+
+	private InputStream openFile() throws IOException {
+		try {
+			final Cipher cipher = Cipher.getInstance(CIPHER_TRANSFORMATION, CryptoProviders.getName());
+			cipher.init(Cipher.DECRYPT_MODE, fileKey, new IvParameterSpec(fileIV));
+			return new BufferedInputStream(
+				new CipherInputStream(new FileInputStream(file), cipher),
+				FILE_BUFFER_SIZE
+			);
+		} catch (GeneralSecurityException e) {
+			throw new IOException(e);
+		}
+	}
+}
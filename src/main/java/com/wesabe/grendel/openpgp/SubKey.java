@@ -78,7 +78,7 @@ public class SubKey extends AbstractKey {
 	@Override
 	public UnlockedSubKey unlock(char[] passphrase) throws CryptographicException {
 		try {
-			final PGPPrivateKey privateKey = secretKey.extractPrivateKey(passphrase, "BC");
+			final PGPPrivateKey privateKey = secretKey.extractPrivateKey(passphrase, CryptoProviders.getName());
 			return new UnlockedSubKey(secretKey, masterKey, privateKey);
 		} catch (NoSuchProviderException e) {
 			throw new CryptographicException(e);
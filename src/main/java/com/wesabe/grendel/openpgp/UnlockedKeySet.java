@@ -1,27 +1,69 @@
 package com.wesabe.grendel.openpgp;
 
-import java.security.NoSuchProviderException;
 import java.security.SecureRandom;
-
-import org.bouncycastle.openpgp.PGPException;
-import org.bouncycastle.openpgp.PGPSecretKey;
+import java.util.Arrays;
 
 /**
  * An unlocked {@link KeySet}.
+ * <p>
+ * The {@link SubKey} is always unlocked up front, which also verifies the
+ * passphrase. The {@link MasterKey} is only needed to sign data, so it isn't
+ * unlocked until {@link #getUnlockedMasterKey()} is first called; until then,
+ * a copy of the passphrase is kept. The copy is zeroed as soon as the master
+ * key is unlocked, or when {@link #forgetPassphrase()} is called by a caller
+ * which knows it won't be needed.
  * 
  * @author coda
  */
 public class UnlockedKeySet extends KeySet {
+	private UnlockedMasterKey unlockedMasterKey;
+	private char[] passphrase;
 	
 	protected UnlockedKeySet(UnlockedMasterKey masterKey, UnlockedSubKey subKey) {
 		super(masterKey, subKey);
+		this.unlockedMasterKey = masterKey;
+	}
+	
+	protected UnlockedKeySet(MasterKey masterKey, UnlockedSubKey subKey, char[] passphrase) {
+		super(masterKey, subKey);
+		this.passphrase = passphrase.clone();
+	}
+	
+	/**
+	 * Returns the {@link UnlockedMasterKey}, unlocking it if necessary.
+	 * 
+	 * @throws CryptographicException if the master key can't be unlocked, or
+	 *         if the passphrase has been forgotten
+	 */
+	public synchronized UnlockedMasterKey getUnlockedMasterKey() throws CryptographicException {
+		if (unlockedMasterKey == null) {
+			if (passphrase == null) {
+				throw new CryptographicException("master key is locked and the passphrase has been forgotten");
+			}
+			
+			this.unlockedMasterKey = getMasterKey().unlock(passphrase);
+			Arrays.fill(passphrase, '\0');
+			this.passphrase = null;
+		}
+		return unlockedMasterKey;
+	}
+	
+	/**
+	 * Zeroes the copy of the passphrase. If the {@link MasterKey} hasn't been
+	 * unlocked yet, it can't be unlocked afterwards.
+	 */
+	public synchronized void forgetPassphrase() {
+		if (passphrase != null) {
+			Arrays.fill(passphrase, '\0');
+			this.passphrase = null;
+		}
 	}
 	
 	/**
-	 * Returns the {@link UnlockedMasterKey}.
+	 * Returns {@code true} if the {@link MasterKey} has been unlocked.
 	 */
-	public UnlockedMasterKey getUnlockedMasterKey() {
-		return (UnlockedMasterKey) getMasterKey();
+	public synchronized boolean isMasterKeyUnlocked() {
+		return unlockedMasterKey != null;
 	}
 	
 	/**
@@ -33,7 +75,8 @@ public class UnlockedKeySet extends KeySet {
 	
 	/**
 	 * Re-encrypts the key set with a new passphrase and returns it in locked
-	 * form.
+	 * form. The keys are locked with the current S2K iteration count, so
+	 * re-locking a key set with its own passphrase upgrades its lock.
 	 * 
 	 * @param oldPassphrase
 	 *            the old passphrase
@@ -44,34 +87,19 @@ public class UnlockedKeySet extends KeySet {
 	 * @return {@code this}, re-encrypted with {@code newPassphrase}
 	 * @throws CryptographicException
 	 *             if {@code oldPassphrase} is incorrect
+	 * @see S2KCalibration
 	 */
 	public KeySet relock(char[] oldPassphrase, char[] newPassphrase, SecureRandom random) throws CryptographicException {
-		try {
-			final PGPSecretKey masterSecretKey = PGPSecretKey.copyWithNewPassword(
-				getUnlockedMasterKey().getSecretKey(),
-				oldPassphrase,
-				newPassphrase,
-				SymmetricAlgorithm.DEFAULT.toInteger(),
-				random,
-				"BC"
-			);
-			final PGPSecretKey subSecretKey = PGPSecretKey.copyWithNewPassword(
-				getUnlockedSubKey().getSecretKey(),
-				oldPassphrase,
+		final UnlockedMasterKey masterKey = getMasterKey().unlock(oldPassphrase);
+		return KeySet.load(
+			S2KCalibration.lock(
+				masterKey.getSecretKey(),
+				masterKey.getPrivateKey(),
+				getSubKey().getSecretKey(),
+				getUnlockedSubKey().getPrivateKey(),
 				newPassphrase,
-				SymmetricAlgorithm.DEFAULT.toInteger(),
-				random,
-				"BC"
-			);
-			
-			final MasterKey newMasterKey = new MasterKey(masterSecretKey);
-			final SubKey newSubKey = new SubKey(subSecretKey, newMasterKey);
-			
-			return new KeySet(newMasterKey, newSubKey);
-		} catch (NoSuchProviderException e) {
-			throw new CryptographicException(e);
-		} catch (PGPException e) {
-			throw new CryptographicException(e);
-		}
+				random
+			)
+		);
 	}
 }
@@ -0,0 +1,71 @@
+package com.wesabe.grendel.representations;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+
+import javax.ws.rs.WebApplicationException;
+import javax.ws.rs.core.StreamingOutput;
+
+import com.wesabe.grendel.entities.Document;
+import com.wesabe.grendel.openpgp.CryptographicException;
+import com.wesabe.grendel.openpgp.UnlockedKeySet;
+
+/**
+ * The decrypted body of a {@link Document}, streamed to the client as it is
+ * written.
+ * <p>
+ * The body is decrypted and verified before any of it is written, so a
+ * tampered-with document results in an error response instead of a partial
+ * body.
+ * <p>
+ * Since this is only written once the resource method has returned, and the
+ * Hibernate session with it, the encrypted body must be opened beforehand,
+ * usually via {@link #open(Document, UnlockedKeySet)}.
+ *
+ * @author coda
+ * @see Document#decryptBody(UnlockedKeySet, InputStream, OutputStream)
+ */
+public class DocumentBodyRepresentation implements StreamingOutput {
+	private final Document document;
+	private final UnlockedKeySet keySet;
+	private final InputStream body;
+
+	/**
+	 * Creates a new {@link DocumentBodyRepresentation}.
+	 * 
+	 * @param document the {@link Document}
+	 * @param keySet the {@link UnlockedKeySet} to decrypt the body with
+	 * @param body the encrypted body, as returned by
+	 *        {@link Document#openBody()}
+	 */
+	public DocumentBodyRepresentation(Document document, UnlockedKeySet keySet, InputStream body) {
+		this.document = document;
+		this.keySet = keySet;
+		this.body = body;
+	}
+
+	/**
+	 * Opens the encrypted body of {@code document}, loading it if it hasn't
+	 * been loaded yet, and returns a {@link DocumentBodyRepresentation} of it.
+	 * Call this from the resource method.
+	 * 
+	 * @throws WebApplicationException if the body can't be read
+	 */
+	public static DocumentBodyRepresentation open(Document document, UnlockedKeySet keySet) throws WebApplicationException {
+		try {
+			return new DocumentBodyRepresentation(document, keySet, document.openBody());
+		} catch (IOException e) {
+			throw new WebApplicationException(e);
+		}
+	}
+
+	@Override
+	public void write(OutputStream output) throws IOException, WebApplicationException {
+		try {
+			document.decryptBody(keySet, body, output);
+		} catch (CryptographicException e) {
+			throw new WebApplicationException(e);
+		}
+	}
+}
@@ -1,61 +1,90 @@
 package com.wesabe.grendel.representations;
 
 import java.util.List;
-import java.util.Set;
 
 import javax.ws.rs.core.UriInfo;
 
 import org.codehaus.jackson.annotate.JsonGetter;
 import org.codehaus.jackson.annotate.JsonIgnore;
+import org.codehaus.jackson.annotate.JsonWriteNullProperties;
 
 import com.google.common.collect.Lists;
-import com.wesabe.grendel.entities.Document;
+import com.wesabe.grendel.entities.User;
 import com.wesabe.grendel.resources.DocumentResource;
+import com.wesabe.grendel.resources.DocumentsResource;
 
+@JsonWriteNullProperties(false)
 public class DocumentListRepresentation {
 	public static class DocumentListItem {
 		private final UriInfo uriInfo;
-		private final Document document;
+		private final User owner;
+		private final String name;
 		
-		public DocumentListItem(UriInfo uriInfo, Document document) {
+		public DocumentListItem(UriInfo uriInfo, User owner, String name) {
 			this.uriInfo = uriInfo;
-			this.document = document;
+			this.owner = owner;
+			this.name = name;
 		}
 		
 		@JsonGetter("name")
 		public String getName() {
-			return document.getName();
+			return name;
 		}
 		
 		@JsonGetter("uri")
 		public String getURI() {
 			return uriInfo.getBaseUriBuilder()
 							.path(DocumentResource.class)
-							.build(document.getOwner(), document)
+							.build(owner, name)
 							.toASCIIString();
 		}
 	}
 	
 	private UriInfo uriInfo;
-	private Set<Document> documents;
+	private User owner;
+	private List<String> names;
+	private int limit;
+	private String next;
 	
-	public DocumentListRepresentation(UriInfo uriInfo, Set<Document> documents) {
+	public DocumentListRepresentation(UriInfo uriInfo, User owner, List<String> names, int limit, String next) {
 		this.uriInfo = uriInfo;
-		this.documents = documents;
+		this.owner = owner;
+		this.names = names;
+		this.limit = limit;
+		this.next = next;
 	}
 	
 	@JsonGetter("documents")
 	public List<DocumentListItem> listDocuments() {
-		final List<DocumentListItem> items = Lists.newArrayListWithCapacity(documents.size());
-		for (Document doc : documents) {
-			items.add(new DocumentListItem(uriInfo, doc));
+		final List<DocumentListItem> items = Lists.newArrayListWithCapacity(names.size());
+		for (String name : names) {
+			items.add(new DocumentListItem(uriInfo, owner, name));
 		}
 		return items;
 	}
 	
+	@JsonGetter("next")
+	public String getNextURI() {
+		if (next == null) {
+			return null;
+		}
+		
+		return uriInfo.getBaseUriBuilder()
+						.path(DocumentsResource.class)
+						.queryParam("limit", limit)
+						.queryParam("after", next)
+						.build(owner)
+						.toASCIIString();
+	}
+	
+	@JsonIgnore
+	public List<String> getNames() {
+		return names;
+	}
+	
 	@JsonIgnore
-	public Set<Document> getDocuments() {
-		return documents;
+	public String getNextCursor() {
+		return next;
 	}
 	
 	@JsonIgnore
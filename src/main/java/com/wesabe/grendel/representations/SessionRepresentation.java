@@ -0,0 +1,82 @@
+package com.wesabe.grendel.representations;
+
+import javax.ws.rs.core.UriInfo;
+
+import org.codehaus.jackson.annotate.JsonGetter;
+import org.codehaus.jackson.annotate.JsonIgnore;
+import org.joda.time.format.DateTimeFormatter;
+import org.joda.time.format.ISODateTimeFormat;
+
+import com.wesabe.grendel.auth.SessionToken;
+import com.wesabe.grendel.resources.UserResource;
+
+/**
+ * A representation of a response containing a newly-issued session token.
+ * <p>
+ * Example JSON:
+ * <pre>
+ * {
+ *   "token":"5c1f0a3d...",
+ *   "expires-at":"20091228T235841Z",
+ *   "user":{
+ *     "id":"codahale",
+ *     "uri":"http://example.com/users/codahale"
+ *   }
+ * }
+ * </pre>
+ * 
+ * @author coda
+ */
+public class SessionRepresentation {
+	private static final DateTimeFormatter ISO_DATETIME = ISODateTimeFormat.basicDateTimeNoMillis();
+	
+	public static class UserLink {
+		private final UriInfo uriInfo;
+		private final String id;
+		
+		public UserLink(UriInfo uriInfo, String id) {
+			this.uriInfo = uriInfo;
+			this.id = id;
+		}
+		
+		@JsonGetter("id")
+		public String getId() {
+			return id;
+		}
+		
+		@JsonGetter("uri")
+		public String getUri() {
+			return uriInfo.getBaseUriBuilder()
+							.path(UserResource.class)
+							.build(id).toASCIIString();
+		}
+	}
+	
+	private final UriInfo uriInfo;
+	private final SessionToken token;
+	
+	public SessionRepresentation(UriInfo uriInfo, SessionToken token) {
+		this.uriInfo = uriInfo;
+		this.token = token;
+	}
+	
+	@JsonGetter("token")
+	public String getToken() {
+		return token.getToken();
+	}
+	
+	@JsonGetter("expires-at")
+	public String getExpiresAt() {
+		return ISO_DATETIME.print(token.getExpiresAt());
+	}
+	
+	@JsonGetter("user")
+	public UserLink getUser() {
+		return new UserLink(uriInfo, token.getUserId());
+	}
+	
+	@JsonIgnore
+	public SessionToken getSessionToken() {
+		return token;
+	}
+}
@@ -5,13 +5,16 @@ import java.util.List;
 import javax.ws.rs.core.UriInfo;
 
 import org.codehaus.jackson.annotate.JsonGetter;
+import org.codehaus.jackson.annotate.JsonIgnore;
+import org.codehaus.jackson.annotate.JsonWriteNullProperties;
 
 import com.google.common.collect.Lists;
-import com.wesabe.grendel.entities.User;
 import com.wesabe.grendel.resources.UserResource;
+import com.wesabe.grendel.resources.UsersResource;
 
 /**
- * A representation of a response containing information about a list of users.
+ * A representation of a response containing information about a page of
+ * users. If there are more users, {@code next} is the URI of the next page.
  * <p>
  * Example JSON:
  * <pre>
@@ -21,50 +24,74 @@ import com.wesabe.grendel.resources.UserResource;
  *       "uri":"http://example.com/users/codahale",
  *       "id":"codahale"
  *     }
- *   ]
+ *   ],
+ *   "next":"http://example.com/users/?limit=1&amp;after=636f646168616c65"
  * }
  * </pre>
  * 
  * @author coda
  */
+@JsonWriteNullProperties(false)
 public class UserListRepresentation {
 	public static class UserListItem {
 		private final UriInfo uriInfo;
-		private final User user;
+		private final String id;
 		
-		public UserListItem(UriInfo uriInfo, User user) {
+		public UserListItem(UriInfo uriInfo, String id) {
 			this.uriInfo = uriInfo;
-			this.user = user;
+			this.id = id;
 		}
 		
 		@JsonGetter("id")
 		public String getId() {
-			return user.getId();
+			return id;
 		}
 		
 		@JsonGetter("uri")
 		public String getUri() {
 			return uriInfo.getBaseUriBuilder()
 							.path(UserResource.class)
-							.build(user).toASCIIString();
+							.build(id).toASCIIString();
 		}
 	}
 	
 	private final UriInfo uriInfo;
-	private final List<User> users;
+	private final List<String> ids;
+	private final int limit;
+	private final String next;
 	
-	public UserListRepresentation(UriInfo uriInfo, List<User> users) {
+	public UserListRepresentation(UriInfo uriInfo, List<String> ids, int limit, String next) {
 		this.uriInfo = uriInfo;
-		this.users = users;
+		this.ids = ids;
+		this.limit = limit;
+		this.next = next;
 	}
 	
 	@JsonGetter("users")
 	public List<UserListItem> getUsers() {
-		final List<UserListItem> items = Lists.newArrayListWithExpectedSize(users.size());
-		for (User user : users) {
-			items.add(new UserListItem(uriInfo, user));
+		final List<UserListItem> items = Lists.newArrayListWithExpectedSize(ids.size());
+		for (String id : ids) {
+			items.add(new UserListItem(uriInfo, id));
 		}
 		return items;
 	}
+	
+	@JsonGetter("next")
+	public String getNextUri() {
+		if (next == null) {
+			return null;
+		}
+		
+		return uriInfo.getBaseUriBuilder()
+						.path(UsersResource.class)
+						.queryParam("limit", limit)
+						.queryParam("after", next)
+						.build().toASCIIString();
+	}
+	
+	@JsonIgnore
+	public String getNextCursor() {
+		return next;
+	}
 
 }
@@ -1,5 +1,6 @@
 package com.wesabe.grendel.resources;
 
+import java.io.InputStream;
 import java.security.SecureRandom;
 
 import javax.ws.rs.Consumes;
@@ -31,6 +32,7 @@ import com.wesabe.grendel.entities.Document;
 import com.wesabe.grendel.entities.dao.DocumentDAO;
 import com.wesabe.grendel.entities.dao.UserDAO;
 import com.wesabe.grendel.openpgp.CryptographicException;
+import com.wesabe.grendel.representations.DocumentBodyRepresentation;
 import com.wideplay.warp.persist.Transactional;
 
 /**
@@ -67,11 +69,12 @@ public class DocumentResource {
 	 * and returning it.
 	 * <p>
 	 * <strong>N.B.:</strong> Requires Basic authentication.
-	 * @throws CryptographicException
+	 * 
+	 * @see DocumentBodyRepresentation
 	 */
 	@GET
 	public Response show(@Context Request request, @Context Credentials credentials,
-		@PathParam("user_id") String userId, @PathParam("name") String name) throws CryptographicException {
+		@PathParam("user_id") String userId, @PathParam("name") String name) {
 		
 		final Session session = credentials.buildSession(userDAO, userId);
 		
@@ -83,9 +86,8 @@ public class DocumentResource {
 		
 		checkPreconditions(request, doc);
 		
-		final byte[] body = doc.decryptBody(session.getKeySet());
 		return Response.ok()
-				.entity(body)
+				.entity(DocumentBodyRepresentation.open(doc, session.getKeySet()))
 				.type(doc.getContentType())
 				.cacheControl(CACHE_SETTINGS)
 				.lastModified(doc.getModifiedAt().toDate())
@@ -117,7 +119,8 @@ public class DocumentResource {
 	
 	/**
 	 * Responds to a {@link PUT} request by replacing the specified
-	 * {@link Document} with the request entity.
+	 * {@link Document} with the request entity. The entity is encrypted as it
+	 * is read, so the unencrypted body is never buffered in memory.
 	 * <p>
 	 * <strong>N.B.:</strong> Requires Basic authentication.
 	 * @throws CryptographicException
@@ -126,7 +129,7 @@ public class DocumentResource {
 	@Transactional
 	public Response store(@Context Request request, @Context HttpHeaders headers,
 		@Context Credentials credentials, @PathParam("user_id") String userId,
-		@PathParam("name") String name, byte[] body) throws CryptographicException {
+		@PathParam("name") String name, InputStream body) throws CryptographicException {
 		
 		final Session session = credentials.buildSession(userDAO, userId);
 		Document doc = documentDAO.findByOwnerAndName(session.getUser(), name);
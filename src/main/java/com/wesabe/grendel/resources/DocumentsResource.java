@@ -1,41 +1,87 @@
 package com.wesabe.grendel.resources;
 
+import java.util.List;
+
+import javax.ws.rs.DefaultValue;
 import javax.ws.rs.GET;
 import javax.ws.rs.Path;
 import javax.ws.rs.PathParam;
 import javax.ws.rs.Produces;
+import javax.ws.rs.QueryParam;
+import javax.ws.rs.WebApplicationException;
 import javax.ws.rs.core.Context;
 import javax.ws.rs.core.MediaType;
 import javax.ws.rs.core.UriInfo;
+import javax.ws.rs.core.Response.Status;
 
 import com.google.inject.Inject;
 import com.wesabe.grendel.auth.Credentials;
 import com.wesabe.grendel.auth.Session;
 import com.wesabe.grendel.entities.Document;
+import com.wesabe.grendel.entities.User;
+import com.wesabe.grendel.entities.dao.DocumentDAO;
 import com.wesabe.grendel.entities.dao.UserDAO;
 import com.wesabe.grendel.representations.DocumentListRepresentation;
+import com.wesabe.grendel.util.Cursors;
 
 /**
  * A class which exposes a list of {@link Document}s as a resource.
+ * <p>
+ * The list is paged by document name: each page has at most {@code limit}
+ * documents, and includes a cursor for the next page if there is one.
  * 
  * @author coda
  */
 @Path("/users/{id}/documents")
 @Produces(MediaType.APPLICATION_JSON)
 public class DocumentsResource {
+	private static final int MAX_LIMIT = 1000;
+	
 	final UserDAO userDAO;
+	final DocumentDAO documentDAO;
 	
 	@Inject
-	public DocumentsResource(UserDAO userDAO) {
+	public DocumentsResource(UserDAO userDAO, DocumentDAO documentDAO) {
 		this.userDAO = userDAO;
+		this.documentDAO = documentDAO;
 	}
 	
 	@GET
 	public DocumentListRepresentation listDocuments(@Context UriInfo uriInfo,
-		@Context Credentials credentials, @PathParam("id") String id) {
+		@Context Credentials credentials, @PathParam("id") String id,
+		@QueryParam("limit") @DefaultValue("100") int limit,
+		@QueryParam("after") String after) {
+		
+		if ((limit < 1) || (limit > MAX_LIMIT)) {
+			throw new WebApplicationException(Status.BAD_REQUEST);
+		}
 		
 		final Session session = credentials.buildSession(userDAO, id);
+		final User user = session.getUser();
+		
+		List<String> names = documentDAO.findNamesByOwner(user, decodeCursor(user, after), limit + 1);
+		String next = null;
+		if (names.size() > limit) {
+			names = names.subList(0, limit);
+			next = Cursors.encode(user.getId(), names.get(limit - 1));
+		}
+		
+		return new DocumentListRepresentation(uriInfo, user, names, limit, next);
+	}
+	
+	private String decodeCursor(User user, String cursor) {
+		if (cursor == null) {
+			return null;
+		}
 		
-		return new DocumentListRepresentation(uriInfo, session.getUser().getDocuments());
+		try {
+			final List<String> key = Cursors.decode(cursor, 2);
+			if (!key.get(0).equals(user.getId())) {
+				throw new WebApplicationException(Status.BAD_REQUEST);
+			}
+			return key.get(1);
+		} catch (IllegalArgumentException e) {
+			throw new WebApplicationException(Status.BAD_REQUEST);
+		}
 	}
 }
@@ -74,12 +74,7 @@ public class LinkResource {
 
 	private void reEncrypt(Document doc, UnlockedKeySet ownerKeySet) {
 		try {
-			final byte[] body = doc.decryptBody(ownerKeySet);
-			doc.encryptAndSetBody(
-				ownerKeySet,
-				randomProvider.get(),
-				body
-			);
+			doc.rewrapBody(ownerKeySet, randomProvider.get());
 		} catch (CryptographicException e) {
 			throw new RuntimeException(e);
 		}
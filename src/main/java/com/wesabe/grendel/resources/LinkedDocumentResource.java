@@ -20,7 +20,7 @@ import com.wesabe.grendel.entities.Document;
 import com.wesabe.grendel.entities.User;
 import com.wesabe.grendel.entities.dao.DocumentDAO;
 import com.wesabe.grendel.entities.dao.UserDAO;
-import com.wesabe.grendel.openpgp.CryptographicException;
+import com.wesabe.grendel.representations.DocumentBodyRepresentation;
 import com.wideplay.warp.persist.Transactional;
 
 /**
@@ -54,6 +54,8 @@ public class LinkedDocumentResource {
 	 * and returning it.
 	 * <p>
 	 * <strong>N.B.:</strong> Requires Basic authentication.
+	 * 
+	 * @see DocumentBodyRepresentation
 	 */
 	@GET
 	public Response show(@Context Credentials credentials,
@@ -66,17 +68,12 @@ public class LinkedDocumentResource {
 		
 		checkLinkage(doc, session.getUser());
 		
-		try {
-			final byte[] body = doc.decryptBody(session.getKeySet());
-			return Response.ok()
-					.entity(body)
-					.type(doc.getContentType())
-					.cacheControl(CACHE_SETTINGS)
-					.lastModified(doc.getModifiedAt().toDate())
-					.build();
-		} catch (CryptographicException e) {
-			throw new RuntimeException(e);
-		}
+		return Response.ok()
+				.entity(DocumentBodyRepresentation.open(doc, session.getKeySet()))
+				.type(doc.getContentType())
+				.cacheControl(CACHE_SETTINGS)
+				.lastModified(doc.getModifiedAt().toDate())
+				.build();
 	}
 
 	/**
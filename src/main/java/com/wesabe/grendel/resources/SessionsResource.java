@@ -0,0 +1,92 @@
+package com.wesabe.grendel.resources;
+
+import javax.ws.rs.DELETE;
+import javax.ws.rs.POST;
+import javax.ws.rs.Path;
+import javax.ws.rs.Produces;
+import javax.ws.rs.WebApplicationException;
+import javax.ws.rs.core.CacheControl;
+import javax.ws.rs.core.Context;
+import javax.ws.rs.core.MediaType;
+import javax.ws.rs.core.Response;
+import javax.ws.rs.core.UriInfo;
+import javax.ws.rs.core.Response.Status;
+
+import com.google.inject.Inject;
+import com.wesabe.grendel.auth.Credentials;
+import com.wesabe.grendel.auth.Session;
+import com.wesabe.grendel.auth.SessionStore;
+import com.wesabe.grendel.auth.SessionToken;
+import com.wesabe.grendel.auth.TokenCredentials;
+import com.wesabe.grendel.entities.dao.UserDAO;
+import com.wesabe.grendel.openpgp.CryptographicException;
+import com.wesabe.grendel.representations.SessionRepresentation;
+import com.wideplay.warp.persist.Transactional;
+
+/**
+ * A resource for exchanging Basic authentication credentials for a
+ * short-lived bearer token.
+ * <p>
+ * Each request authenticated with Basic credentials unlocks the user's key
+ * set; a request authenticated with a token uses the key set which was
+ * unlocked when the token was issued.
+ * 
+ * @author coda
+ * @see SessionStore
+ */
+@Path("/sessions")
+@Produces(MediaType.APPLICATION_JSON)
+public class SessionsResource {
+	private final UserDAO userDAO;
+	private final SessionStore sessionStore;
+	
+	@Inject
+	public SessionsResource(UserDAO userDAO, SessionStore sessionStore) {
+		this.userDAO = userDAO;
+		this.sessionStore = sessionStore;
+	}
+	
+	/**
+	 * Responds to a {@link POST} request by issuing a new bearer token.
+	 * <p>
+	 * <strong>N.B.:</strong> Requires Basic authentication.
+	 * <p>
+	 * An outdated key set is re-locked by {@link Credentials#buildSession(UserDAO)}
+	 * before the token is created, so the token is bound to the user's
+	 * etag as of the re-lock.
+	 * 
+	 * @throws CryptographicException
+	 *             if the user's key set can't be stored
+	 */
+	@POST
+	@Transactional
+	public Response create(@Context UriInfo uriInfo, @Context Credentials credentials) throws CryptographicException {
+		if (credentials instanceof TokenCredentials) {
+			throw new WebApplicationException(Credentials.CHALLENGE);
+		}
+		
+		final Session session = credentials.buildSession(userDAO);
+		final SessionToken token = sessionStore.create(session);
+		
+		final CacheControl cacheControl = new CacheControl();
+		cacheControl.setNoStore(true);
+		
+		return Response.ok(new SessionRepresentation(uriInfo, token))
+						.cacheControl(cacheControl)
+						.build();
+	}
+	
+	/**
+	 * Responds to a {@link DELETE} request by revoking the bearer token used
+	 * to authenticate the request.
+	 */
+	@DELETE
+	public Response delete(@Context Credentials credentials) {
+		if (!(credentials instanceof TokenCredentials)) {
+			throw new WebApplicationException(Status.BAD_REQUEST);
+		}
+		
+		sessionStore.revoke(((TokenCredentials) credentials).getToken());
+		return Response.noContent().build();
+	}
+}
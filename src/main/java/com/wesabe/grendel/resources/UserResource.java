@@ -24,7 +24,10 @@ import org.joda.time.DateTime;
 import com.google.inject.Inject;
 import com.google.inject.Provider;
 import com.wesabe.grendel.auth.Credentials;
+import com.wesabe.grendel.auth.KeySetCache;
 import com.wesabe.grendel.auth.Session;
+import com.wesabe.grendel.auth.SessionStore;
+import com.wesabe.grendel.auth.TokenCredentials;
 import com.wesabe.grendel.entities.Document;
 import com.wesabe.grendel.entities.User;
 import com.wesabe.grendel.entities.dao.UserDAO;
@@ -43,11 +46,16 @@ import com.wideplay.warp.persist.Transactional;
 public class UserResource {
 	private final UserDAO userDAO;
 	private final Provider<SecureRandom> randomProvider;
+	private final KeySetCache keySetCache;
+	private final SessionStore sessionStore;
 
 	@Inject
-	public UserResource(UserDAO userDAO, Provider<SecureRandom> randomProvider) {
+	public UserResource(UserDAO userDAO, Provider<SecureRandom> randomProvider,
+		KeySetCache keySetCache, SessionStore sessionStore) {
 		this.userDAO = userDAO;
 		this.randomProvider = randomProvider;
+		this.keySetCache = keySetCache;
+		this.sessionStore = sessionStore;
 	}
 	
 	/**
@@ -75,7 +83,8 @@ public class UserResource {
 	/**
 	 * Responds to a {@link PUT} request by changing the user's password.
 	 * <p>
-	 * <strong>N.B.:</strong> Requires Basic authentication.
+	 * <strong>N.B.:</strong> Requires Basic authentication; session tokens
+	 * are not accepted.
 	 * @throws CryptographicException
 	 */
 	@PUT
@@ -86,6 +95,11 @@ public class UserResource {
 		
 		entity.validate();
 		
+		if (credentials instanceof TokenCredentials) {
+			// the old password is required to re-encrypt the key set
+			throw new WebApplicationException(Credentials.CHALLENGE);
+		}
+		
 		final Session session = credentials.buildSession(userDAO, id);
 		
 		checkPreconditions(request, session.getUser());
@@ -103,6 +117,8 @@ public class UserResource {
 		
 		user.setModifiedAt(new DateTime());
 		userDAO.saveOrUpdate(user);
+		keySetCache.invalidate(user.getId());
+		sessionStore.invalidate(user.getId());
 		
 		return Response.noContent().build();
 	}
@@ -119,6 +135,8 @@ public class UserResource {
 		checkPreconditions(request, user);
 		
 		userDAO.delete(user);
+		keySetCache.invalidate(user.getId());
+		sessionStore.invalidate(user.getId());
 		return Response.noContent().build();
 	}
 	
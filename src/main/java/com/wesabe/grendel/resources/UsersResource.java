@@ -1,15 +1,20 @@
 package com.wesabe.grendel.resources;
 
 import java.util.List;
+import java.util.concurrent.RejectedExecutionException;
 
 import javax.ws.rs.Consumes;
+import javax.ws.rs.DefaultValue;
 import javax.ws.rs.GET;
 import javax.ws.rs.POST;
 import javax.ws.rs.Path;
 import javax.ws.rs.Produces;
+import javax.ws.rs.QueryParam;
+import javax.ws.rs.WebApplicationException;
 import javax.ws.rs.core.Context;
 import javax.ws.rs.core.MediaType;
 import javax.ws.rs.core.Response;
+import javax.ws.rs.core.Response.Status;
 import javax.ws.rs.core.UriInfo;
 
 import com.google.inject.Inject;
@@ -21,6 +26,7 @@ import com.wesabe.grendel.openpgp.KeySetGenerator;
 import com.wesabe.grendel.representations.CreateUserRepresentation;
 import com.wesabe.grendel.representations.UserListRepresentation;
 import com.wesabe.grendel.representations.ValidationException;
+import com.wesabe.grendel.util.Cursors;
 import com.wideplay.warp.persist.Transactional;
 
 /**
@@ -32,6 +38,14 @@ import com.wideplay.warp.persist.Transactional;
 @Consumes(MediaType.APPLICATION_JSON)
 @Produces(MediaType.APPLICATION_JSON)
 public class UsersResource {
+	/**
+	 * How long a client should wait before retrying a request which was
+	 * rejected because Grendel is busy generating keys.
+	 */
+	private static final String RETRY_AFTER_SECONDS = "5";
+	private static final String RETRY_AFTER = "Retry-After";
+	private static final int MAX_LIMIT = 1000;
+	
 	private final KeySetGenerator generator;
 	private final UserDAO userDAO;
 	
@@ -42,21 +56,42 @@ public class UsersResource {
 	}
 	
 	/**
-	 * Responds to a {@link GET} request with a list of all the registered
-	 * users.
+	 * Responds to a {@link GET} request with a page of the registered users,
+	 * in order of id.
+	 * <p>
+	 * Each page has at most {@code limit} users, and includes a cursor for
+	 * the next page if there is one. Responds with {@code 400 Bad Request} if
+	 * {@code limit} is out of range or {@code after} is malformed.
 	 * 
 	 * @see UserListRepresentation
 	 */
 	@GET
-	public UserListRepresentation list(@Context UriInfo uriInfo) {
-		final List<User> users = userDAO.findAll();
-		return new UserListRepresentation(uriInfo, users);
+	public UserListRepresentation list(@Context UriInfo uriInfo,
+		@QueryParam("limit") @DefaultValue("100") int limit,
+		@QueryParam("after") String after) {
+		
+		if ((limit < 1) || (limit > MAX_LIMIT)) {
+			throw new WebApplicationException(Status.BAD_REQUEST);
+		}
+		
+		List<String> ids = userDAO.findIds(decodeCursor(after), limit + 1);
+		String next = null;
+		if (ids.size() > limit) {
+			ids = ids.subList(0, limit);
+			next = Cursors.encode(ids.get(limit - 1));
+		}
+		
+		return new UserListRepresentation(uriInfo, ids, limit, next);
 	}
 	
 	/**
 	 * Responds to a {@link POST} request by generating a new {@link KeySet},
 	 * creating a new {@link User}, and returning the user's info URI.
 	 * 
+	 * If too many key pairs are already being generated, responds with
+	 * {@code 503 Service Unavailable} and a {@code Retry-After} header
+	 * instead.
+	 * 
 	 * @throws CryptographicException
 	 *             if there is an error generating the {@link KeySet}
 	 * @see UserResource
@@ -72,7 +107,17 @@ public class UsersResource {
 			throw e;
 		}
 
-		final KeySet keySet = generator.generate(request.getId(), request.getPassword());
+		final KeySet keySet;
+		try {
+			keySet = generator.generate(request.getId(), request.getPassword());
+		} catch (RejectedExecutionException e) {
+			request.sanitize();
+			throw new WebApplicationException(
+				Response.status(Status.SERVICE_UNAVAILABLE)
+					.header(RETRY_AFTER, RETRY_AFTER_SECONDS)
+					.build()
+			);
+		}
 		final User user = userDAO.saveOrUpdate(new User(keySet));
 		
 		request.sanitize();
@@ -83,4 +128,16 @@ public class UsersResource {
 						.build(user)
 		).build();
 	}
+	
+	private String decodeCursor(String cursor) {
+		if (cursor == null) {
+			return null;
+		}
+		
+		try {
+			return Cursors.decode(cursor, 1).get(0);
+		} catch (IllegalArgumentException e) {
+			throw new WebApplicationException(Status.BAD_REQUEST);
+		}
+	}
 }
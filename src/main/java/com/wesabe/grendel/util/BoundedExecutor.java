@@ -0,0 +1,147 @@
+package com.wesabe.grendel.util;
+
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.RejectedExecutionHandler;
+import java.util.concurrent.SynchronousQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * A fixed-size pool of named worker threads with a bounded queue.
+ * <p>
+ * When every worker is busy and the queue is full, new tasks are rejected
+ * immediately with a {@link RejectedExecutionException}, instead of queueing
+ * without limit or spawning more threads, so callers can shed load while it
+ * is still cheap to do so. The time between a task being submitted and it
+ * finishing is recorded for every task.
+ * 
+ * @author coda
+ */
+public class BoundedExecutor extends ThreadPoolExecutor implements BoundedExecutorMBean {
+	private static final double NANOS_PER_MILLI = 1000000.0;
+	
+	/**
+	 * Rejects tasks, keeping count.
+	 */
+	private static class CountingAbortPolicy implements RejectedExecutionHandler {
+		private final AtomicLong rejected = new AtomicLong();
+		
+		@Override
+		public void rejectedExecution(Runnable task, ThreadPoolExecutor executor) {
+			rejected.incrementAndGet();
+			throw new RejectedExecutionException("executor is saturated");
+		}
+	}
+	
+	/**
+	 * Records the latency of a task once it's finished.
+	 */
+	private class TimedTask implements Runnable {
+		private final Runnable task;
+		private final long submittedAt = System.nanoTime();
+		
+		public TimedTask(Runnable task) {
+			this.task = task;
+		}
+		
+		@Override
+		public void run() {
+			try {
+				task.run();
+			} finally {
+				record(System.nanoTime() - submittedAt);
+			}
+		}
+	}
+	
+	private final int queueCapacity;
+	private final CountingAbortPolicy rejections;
+	private final AtomicLong completed = new AtomicLong();
+	private final AtomicLong totalLatency = new AtomicLong();
+	private final AtomicLong maxLatency = new AtomicLong();
+	
+	/**
+	 * Creates a new {@link BoundedExecutor}.
+	 * 
+	 * @param name the prefix of the worker threads' names
+	 * @param threads the number of worker threads
+	 * @param queueCapacity the maximum number of tasks waiting for a worker
+	 *        thread
+	 */
+	public BoundedExecutor(String name, int threads, int queueCapacity) {
+		this(name, threads, queueCapacity, new CountingAbortPolicy());
+	}
+	
+	private BoundedExecutor(String name, int threads, int queueCapacity, CountingAbortPolicy rejections) {
+		super(threads, threads, 60, TimeUnit.SECONDS,
+			newQueue(queueCapacity),
+			new NamedThreadFactory(name), rejections);
+		this.queueCapacity = queueCapacity;
+		this.rejections = rejections;
+		allowCoreThreadTimeOut(true);
+	}
+	
+	private static BlockingQueue<Runnable> newQueue(int capacity) {
+		if (capacity == 0) {
+			return new SynchronousQueue<Runnable>();
+		}
+		return new LinkedBlockingQueue<Runnable>(capacity);
+	}
+	
+	@Override
+	public void execute(Runnable command) {
+		super.execute(new TimedTask(command));
+	}
+	
+	@Override
+	public int getThreadCount() {
+		return getMaximumPoolSize();
+	}
+	
+	@Override
+	public int getQueueCapacity() {
+		return queueCapacity;
+	}
+	
+	@Override
+	public int getQueueDepth() {
+		return getQueue().size();
+	}
+	
+	@Override
+	public long getCompletedCount() {
+		return completed.get();
+	}
+	
+	@Override
+	public long getRejectedCount() {
+		return rejections.rejected.get();
+	}
+	
+	@Override
+	public double getMeanLatency() {
+		final long count = completed.get();
+		if (count == 0) {
+			return 0.0;
+		}
+		return (totalLatency.get() / (double) count) / NANOS_PER_MILLI;
+	}
+	
+	@Override
+	public double getMaxLatency() {
+		return maxLatency.get() / NANOS_PER_MILLI;
+	}
+	
+	private void record(long latency) {
+		totalLatency.addAndGet(latency);
+		completed.incrementAndGet();
+		
+		long max = maxLatency.get();
+		while ((latency > max) && !maxLatency.compareAndSet(max, latency)) {
+			max = maxLatency.get();
+		}
+	}
+}
@@ -0,0 +1,51 @@
+package com.wesabe.grendel.util;
+
+/**
+ * The management interface for a {@link BoundedExecutor}.
+ * 
+ * @author coda
+ */
+public interface BoundedExecutorMBean {
+	/**
+	 * Returns the number of worker threads.
+	 */
+	public abstract int getThreadCount();
+	
+	/**
+	 * Returns the number of worker threads which are running tasks.
+	 */
+	public abstract int getActiveCount();
+	
+	/**
+	 * Returns the maximum number of tasks which can wait for a worker thread.
+	 */
+	public abstract int getQueueCapacity();
+	
+	/**
+	 * Returns the number of tasks waiting for a worker thread.
+	 */
+	public abstract int getQueueDepth();
+	
+	/**
+	 * Returns the number of tasks which have finished running.
+	 */
+	public abstract long getCompletedCount();
+	
+	/**
+	 * Returns the number of tasks which were rejected because the queue was
+	 * full.
+	 */
+	public abstract long getRejectedCount();
+	
+	/**
+	 * Returns the mean time, in milliseconds, between a task being submitted
+	 * and it finishing, or {@code 0.0} if no tasks have finished.
+	 */
+	public abstract double getMeanLatency();
+	
+	/**
+	 * Returns the longest time, in milliseconds, between a task being
+	 * submitted and it finishing.
+	 */
+	public abstract double getMaxLatency();
+}
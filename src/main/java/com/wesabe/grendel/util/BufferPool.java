@@ -0,0 +1,41 @@
+package com.wesabe.grendel.util;
+
+import java.util.Arrays;
+
+/**
+ * An {@link ObjectPool} of fixed-size byte arrays. Buffers are zeroed when
+ * they are released.
+ * 
+ * @author coda
+ */
+public class BufferPool extends ObjectPool<byte[]> {
+	private final int bufferSize;
+	
+	/**
+	 * Creates a new {@link BufferPool}.
+	 * 
+	 * @param bufferSize the size of each buffer, in bytes
+	 * @param capacity the maximum number of idle buffers to keep
+	 */
+	public BufferPool(int bufferSize, int capacity) {
+		super(capacity);
+		this.bufferSize = bufferSize;
+	}
+	
+	/**
+	 * Returns the size of each buffer, in bytes.
+	 */
+	public int getBufferSize() {
+		return bufferSize;
+	}
+	
+	@Override
+	protected byte[] create() {
+		return new byte[bufferSize];
+	}
+	
+	@Override
+	protected void reset(byte[] buffer) {
+		Arrays.fill(buffer, (byte) 0);
+	}
+}
@@ -0,0 +1,71 @@
+package com.wesabe.grendel.util;
+
+import java.nio.charset.Charset;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Encodes and decodes the opaque cursors used to page through listings.
+ * <p>
+ * A cursor is the key of the last item on a page -- one or more strings --
+ * hex-encoded so that it can be passed around as a query parameter. It isn't
+ * encrypted or signed; it only records where the next page starts.
+ * 
+ * @author coda
+ */
+public final class Cursors {
+	private static final Charset UTF_8 = Charset.forName("UTF-8");
+	private static final String SEPARATOR = "\0";
+	
+	private Cursors() {}
+	
+	/**
+	 * Returns a cursor for the key consisting of {@code parts}.
+	 */
+	public static String encode(String... parts) {
+		final StringBuilder key = new StringBuilder();
+		for (int i = 0; i < parts.length; i++) {
+			if (i > 0) {
+				key.append(SEPARATOR);
+			}
+			key.append(parts[i]);
+		}
+		
+		final byte[] bytes = key.toString().getBytes(UTF_8);
+		final StringBuilder cursor = new StringBuilder(bytes.length * 2);
+		for (byte b : bytes) {
+			cursor.append(Character.forDigit((b >> 4) & 0xf, 16));
+			cursor.append(Character.forDigit(b & 0xf, 16));
+		}
+		return cursor.toString();
+	}
+	
+	/**
+	 * Returns the parts of the key encoded in {@code cursor}.
+	 * 
+	 * @param cursor a cursor returned by {@link #encode(String...)}
+	 * @param parts the number of parts the key should have
+	 * @throws IllegalArgumentException if {@code cursor} is malformed
+	 */
+	public static List<String> decode(String cursor, int parts) throws IllegalArgumentException {
+		if ((cursor.length() % 2) != 0) {
+			throw new IllegalArgumentException("malformed cursor");
+		}
+		
+		final byte[] bytes = new byte[cursor.length() / 2];
+		for (int i = 0; i < bytes.length; i++) {
+			final int high = Character.digit(cursor.charAt(i * 2), 16);
+			final int low = Character.digit(cursor.charAt(i * 2 + 1), 16);
+			if ((high < 0) || (low < 0)) {
+				throw new IllegalArgumentException("malformed cursor");
+			}
+			bytes[i] = (byte) ((high << 4) | low);
+		}
+		
+		final List<String> key = Arrays.asList(new String(bytes, UTF_8).split(SEPARATOR, -1));
+		if (key.size() != parts) {
+			throw new IllegalArgumentException("malformed cursor");
+		}
+		return key;
+	}
+}
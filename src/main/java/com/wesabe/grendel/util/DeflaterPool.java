@@ -0,0 +1,55 @@
+package com.wesabe.grendel.util;
+
+import java.util.zip.Deflater;
+
+/**
+ * An {@link ObjectPool} of {@link Deflater}s.
+ * <p>
+ * Reusing {@link Deflater}s avoids repeatedly allocating and freeing zlib's
+ * native state. Borrowed deflaters are reset to the default compression level
+ * and strategy.
+ * 
+ * @author coda
+ */
+public class DeflaterPool extends ObjectPool<Deflater> {
+	private final boolean nowrap;
+	
+	/**
+	 * Creates a new {@link DeflaterPool} of ZLIB-format deflaters.
+	 * 
+	 * @param capacity the maximum number of idle deflaters to keep
+	 */
+	public DeflaterPool(int capacity) {
+		this(capacity, false);
+	}
+	
+	/**
+	 * Creates a new {@link DeflaterPool}.
+	 * 
+	 * @param capacity the maximum number of idle deflaters to keep
+	 * @param nowrap if {@code true}, the deflaters produce raw deflate data
+	 *        without the ZLIB header and checksum
+	 * @see Deflater#Deflater(int, boolean)
+	 */
+	public DeflaterPool(int capacity, boolean nowrap) {
+		super(capacity);
+		this.nowrap = nowrap;
+	}
+	
+	@Override
+	protected Deflater create() {
+		return new Deflater(Deflater.DEFAULT_COMPRESSION, nowrap);
+	}
+	
+	@Override
+	protected void reset(Deflater deflater) {
+		deflater.reset();
+		deflater.setLevel(Deflater.DEFAULT_COMPRESSION);
+		deflater.setStrategy(Deflater.DEFAULT_STRATEGY);
+	}
+	
+	@Override
+	protected void destroy(Deflater deflater) {
+		deflater.end();
+	}
+}
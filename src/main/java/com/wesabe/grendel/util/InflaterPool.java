@@ -0,0 +1,36 @@
+package com.wesabe.grendel.util;
+
+import java.util.zip.Inflater;
+
+/**
+ * An {@link ObjectPool} of ZLIB-format {@link Inflater}s.
+ * 
+ * @author coda
+ * @see DeflaterPool
+ */
+public class InflaterPool extends ObjectPool<Inflater> {
+	
+	/**
+	 * Creates a new {@link InflaterPool}.
+	 * 
+	 * @param capacity the maximum number of idle inflaters to keep
+	 */
+	public InflaterPool(int capacity) {
+		super(capacity);
+	}
+	
+	@Override
+	protected Inflater create() {
+		return new Inflater();
+	}
+	
+	@Override
+	protected void reset(Inflater inflater) {
+		inflater.reset();
+	}
+	
+	@Override
+	protected void destroy(Inflater inflater) {
+		inflater.end();
+	}
+}
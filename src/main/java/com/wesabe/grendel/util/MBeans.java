@@ -0,0 +1,40 @@
+package com.wesabe.grendel.util;
+
+import java.lang.management.ManagementFactory;
+
+import javax.management.JMException;
+import javax.management.ObjectName;
+import javax.management.StandardMBean;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Utility methods for exposing objects via JMX.
+ * 
+ * @author coda
+ */
+public final class MBeans {
+	private static final Logger LOGGER = LoggerFactory.getLogger(MBeans.class);
+	private static final String DOMAIN = "com.wesabe.grendel";
+	
+	private MBeans() {}
+	
+	/**
+	 * Registers {@code object} with the platform MBean server as an MBean of
+	 * {@code type}, named {@code com.wesabe.grendel:type=...,name=...}.
+	 * Registration failures are logged and otherwise ignored, since they
+	 * should never prevent Grendel from running.
+	 */
+	public static <T> void register(String type, String name, T object, Class<T> mbeanInterface) {
+		try {
+			final ObjectName objectName = new ObjectName(DOMAIN + ":type=" + type + ",name=" + name);
+			ManagementFactory.getPlatformMBeanServer().registerMBean(
+				new StandardMBean(object, mbeanInterface),
+				objectName
+			);
+		} catch (JMException e) {
+			LOGGER.warn("Unable to register " + type + " MBean " + name, e);
+		}
+	}
+}
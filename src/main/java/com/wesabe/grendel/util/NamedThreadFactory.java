@@ -0,0 +1,44 @@
+package com.wesabe.grendel.util;
+
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * A {@link ThreadFactory} which creates daemon threads named
+ * {@code <prefix>-<n>}.
+ * 
+ * @author coda
+ */
+public class NamedThreadFactory implements ThreadFactory {
+	private final String prefix;
+	private final int priority;
+	private final AtomicInteger count = new AtomicInteger();
+	
+	/**
+	 * Creates a new {@link NamedThreadFactory} for normal-priority threads.
+	 * 
+	 * @param prefix the prefix for thread names
+	 */
+	public NamedThreadFactory(String prefix) {
+		this(prefix, Thread.NORM_PRIORITY);
+	}
+	
+	/**
+	 * Creates a new {@link NamedThreadFactory}.
+	 * 
+	 * @param prefix the prefix for thread names
+	 * @param priority the priority of created threads
+	 */
+	public NamedThreadFactory(String prefix, int priority) {
+		this.prefix = prefix;
+		this.priority = priority;
+	}
+	
+	@Override
+	public Thread newThread(Runnable runnable) {
+		final Thread thread = new Thread(runnable, prefix + "-" + count.incrementAndGet());
+		thread.setDaemon(true);
+		thread.setPriority(priority);
+		return thread;
+	}
+}
@@ -0,0 +1,117 @@
+package com.wesabe.grendel.util;
+
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * A bounded, thread-safe pool of reusable objects.
+ * <p>
+ * Borrowing from an empty pool creates a new object instead of blocking, and
+ * releasing an object into a full pool discards it, so the pool only bounds
+ * the number of <em>idle</em> objects kept around between uses.
+ * 
+ * @author coda
+ * @param <T> the type of pooled object
+ */
+public abstract class ObjectPool<T> implements ObjectPoolMBean {
+	private final int capacity;
+	private final BlockingQueue<T> idle;
+	private final AtomicLong hits = new AtomicLong();
+	private final AtomicLong misses = new AtomicLong();
+	private final AtomicLong discards = new AtomicLong();
+	
+	/**
+	 * Creates a new {@link ObjectPool}.
+	 * 
+	 * @param capacity the maximum number of idle objects to keep
+	 */
+	protected ObjectPool(int capacity) {
+		this.capacity = capacity;
+		this.idle = new ArrayBlockingQueue<T>(capacity);
+	}
+	
+	/**
+	 * Returns an idle object from the pool, or a new object if the pool is
+	 * empty.
+	 */
+	public T borrow() {
+		final T object = idle.poll();
+		if (object == null) {
+			misses.incrementAndGet();
+			return create();
+		}
+		
+		hits.incrementAndGet();
+		return object;
+	}
+	
+	/**
+	 * Resets {@code object} and returns it to the pool. If the pool is full,
+	 * the object is destroyed instead. {@code object} must not be used by the
+	 * caller afterwards.
+	 */
+	public void release(T object) {
+		if (object != null) {
+			reset(object);
+			if (!idle.offer(object)) {
+				discards.incrementAndGet();
+				destroy(object);
+			}
+		}
+	}
+	
+	/**
+	 * Creates a new object.
+	 */
+	protected abstract T create();
+	
+	/**
+	 * Resets a released object to its initial state.
+	 */
+	protected void reset(T object) {
+		// nothing to reset by default
+	}
+	
+	/**
+	 * Frees any resources held by an object which won't be reused.
+	 */
+	protected void destroy(T object) {
+		// nothing to free by default
+	}
+	
+	@Override
+	public int getCapacity() {
+		return capacity;
+	}
+	
+	@Override
+	public int getIdleCount() {
+		return idle.size();
+	}
+	
+	@Override
+	public long getHitCount() {
+		return hits.get();
+	}
+	
+	@Override
+	public long getMissCount() {
+		return misses.get();
+	}
+	
+	@Override
+	public long getDiscardCount() {
+		return discards.get();
+	}
+	
+	@Override
+	public double getHitRatio() {
+		final long hitCount = hits.get();
+		final long total = hitCount + misses.get();
+		if (total == 0) {
+			return 0.0;
+		}
+		return (double) hitCount / total;
+	}
+}
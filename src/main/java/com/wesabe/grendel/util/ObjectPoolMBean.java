@@ -0,0 +1,41 @@
+package com.wesabe.grendel.util;
+
+/**
+ * The management interface for an {@link ObjectPool}.
+ * 
+ * @author coda
+ */
+public interface ObjectPoolMBean {
+	/**
+	 * Returns the maximum number of idle objects the pool will hold.
+	 */
+	public abstract int getCapacity();
+	
+	/**
+	 * Returns the number of idle objects currently in the pool.
+	 */
+	public abstract int getIdleCount();
+	
+	/**
+	 * Returns the number of times an idle object was borrowed from the pool.
+	 */
+	public abstract long getHitCount();
+	
+	/**
+	 * Returns the number of times the pool was empty and a new object was
+	 * created.
+	 */
+	public abstract long getMissCount();
+	
+	/**
+	 * Returns the number of released objects which were discarded because the
+	 * pool was full.
+	 */
+	public abstract long getDiscardCount();
+	
+	/**
+	 * Returns the ratio of hits to borrows, or {@code 0.0} if no objects have
+	 * been borrowed.
+	 */
+	public abstract double getHitRatio();
+}
@@ -4,6 +4,8 @@ import static org.fest.assertions.Assertions.*;
 import static org.junit.Assert.*;
 import static org.mockito.Mockito.*;
 
+import java.security.SecureRandom;
+
 import javax.ws.rs.WebApplicationException;
 import javax.ws.rs.core.HttpHeaders;
 
@@ -12,18 +14,30 @@ import org.junit.Test;
 import org.junit.experimental.runners.Enclosed;
 import org.junit.runner.RunWith;
 
+import com.google.inject.Provider;
 import com.sun.jersey.api.core.HttpContext;
 import com.sun.jersey.api.core.HttpRequestContext;
 import com.wesabe.grendel.auth.BasicAuthProvider;
 import com.wesabe.grendel.auth.Credentials;
+import com.wesabe.grendel.auth.KeySetCache;
+import com.wesabe.grendel.auth.SessionStore;
+import com.wesabe.grendel.auth.TokenCredentials;
+import com.wesabe.grendel.entities.User;
+import com.wesabe.grendel.entities.dao.UserDAO;
+import com.wesabe.grendel.openpgp.KeySet;
+import com.wesabe.grendel.openpgp.UnlockedKeySet;
 
 @RunWith(Enclosed.class)
 public class BasicAuthProviderTest {
 	private static abstract class Context {
 		protected HttpContext context;
 		protected HttpRequestContext request;
+		protected KeySetCache cache;
+		protected SessionStore sessionStore;
+		protected Provider<SecureRandom> randomProvider;
 		protected BasicAuthProvider provider;
 		
+		@SuppressWarnings("unchecked")
 		public void setup() throws Exception {
 			this.request = mock(HttpRequestContext.class);
 			when(request.getHeaderValue(HttpHeaders.AUTHORIZATION)).thenReturn(header());
@@ -31,7 +45,13 @@ public class BasicAuthProviderTest {
 			this.context = mock(HttpContext.class);
 			when(context.getRequest()).thenReturn(request);
 			
-			this.provider = new BasicAuthProvider();
+			this.cache = mock(KeySetCache.class);
+			
+			this.sessionStore = mock(SessionStore.class);
+			
+			this.randomProvider = mock(Provider.class);
+			
+			this.provider = new BasicAuthProvider(cache, sessionStore, randomProvider);
 		}
 		
 		protected abstract String header();
@@ -58,6 +78,67 @@ public class BasicAuthProviderTest {
 		}
 	}
 	
+	private static abstract class Outdated_Key_Set_Context extends Context {
+		protected UserDAO userDAO;
+		protected UnlockedKeySet unlockedKeySet;
+		
+		@Override
+		public void setup() throws Exception {
+			super.setup();
+			
+			this.unlockedKeySet = mock(UnlockedKeySet.class);
+			
+			final KeySet keySet = mock(KeySet.class);
+			when(keySet.unlock(any(char[].class))).thenReturn(unlockedKeySet);
+			when(keySet.isLockOutdated()).thenReturn(true);
+			
+			final User user = mock(User.class);
+			when(user.getKeySet()).thenReturn(keySet);
+			
+			this.userDAO = mock(UserDAO.class);
+			when(userDAO.findById("mrpeepers")).thenReturn(user);
+		}
+		
+		@Override
+		protected String header() {
+			return "Basic bXJwZWVwZXJzOmhhcHB5";
+		}
+	}
+	
+	public static class Decoding_Basic_Credentials_For_A_Read extends Outdated_Key_Set_Context {
+		@Before
+		@Override
+		public void setup() throws Exception {
+			super.setup();
+			
+			when(request.getMethod()).thenReturn("GET");
+		}
+		
+		@Test
+		public void itDoesNotRelockAnOutdatedKeySet() throws Exception {
+			provider.getValue(context).buildSession(userDAO);
+			
+			verify(unlockedKeySet, never()).relock(any(char[].class), any(char[].class), any(SecureRandom.class));
+		}
+	}
+	
+	public static class Decoding_Basic_Credentials_For_A_Write extends Outdated_Key_Set_Context {
+		@Before
+		@Override
+		public void setup() throws Exception {
+			super.setup();
+			
+			when(request.getMethod()).thenReturn("PUT");
+		}
+		
+		@Test
+		public void itRelocksAnOutdatedKeySet() throws Exception {
+			provider.getValue(context).buildSession(userDAO);
+			
+			verify(unlockedKeySet).relock(aryEq("happy".toCharArray()), aryEq("happy".toCharArray()), any(SecureRandom.class));
+		}
+	}
+	
 	public static class Decoding_An_Invalid_Auth_Header extends Context {
 		@Before
 		@Override
@@ -80,4 +161,48 @@ public class BasicAuthProviderTest {
 			}
 		}
 	}
+	
+	public static class Decoding_A_Bearer_Token extends Context {
+		@Before
+		@Override
+		public void setup() throws Exception {
+			super.setup();
+		}
+		
+		@Override
+		protected String header() {
+			return "Bearer 0123456789abcdef";
+		}
+		
+		@Test
+		public void itReturnsTokenCredentials() throws Exception {
+			final Credentials creds = provider.getValue(context);
+			
+			assertThat(creds).isInstanceOf(TokenCredentials.class);
+			assertThat(((TokenCredentials) creds).getToken()).isEqualTo("0123456789abcdef");
+		}
+	}
+	
+	public static class Decoding_An_Empty_Bearer_Token extends Context {
+		@Before
+		@Override
+		public void setup() throws Exception {
+			super.setup();
+		}
+		
+		@Override
+		protected String header() {
+			return "Bearer ";
+		}
+		
+		@Test
+		public void itThrowsAnAuthChallenge() throws Exception {
+			try {
+				provider.getValue(context);
+				fail("should have thrown a WebApplicationException but didn't");
+			} catch (WebApplicationException e) {
+				assertThat(e.getResponse()).isEqualTo(Credentials.CHALLENGE);
+			}
+		}
+	}
 }
@@ -4,6 +4,8 @@ import static org.fest.assertions.Assertions.*;
 import static org.junit.Assert.*;
 import static org.mockito.Mockito.*;
 
+import java.security.SecureRandom;
+
 import javax.ws.rs.WebApplicationException;
 import javax.ws.rs.core.HttpHeaders;
 import javax.ws.rs.core.Response.Status;
@@ -12,8 +14,11 @@ import org.junit.Before;
 import org.junit.Test;
 import org.junit.experimental.runners.Enclosed;
 import org.junit.runner.RunWith;
+import org.mockito.InOrder;
 
+import com.google.inject.Provider;
 import com.wesabe.grendel.auth.Credentials;
+import com.wesabe.grendel.auth.KeySetCache;
 import com.wesabe.grendel.auth.Session;
 import com.wesabe.grendel.entities.User;
 import com.wesabe.grendel.entities.dao.UserDAO;
@@ -175,6 +180,304 @@ public class CredentialsTest {
 		}
 	}
 	
+	public static class Building_A_Session_With_A_Cached_Key_Set extends Session_Context {
+		private KeySetCache cache;
+		private UnlockedKeySet cachedKeySet;
+		
+		@Before
+		@Override
+		public void setup() throws Exception {
+			super.setup();
+			
+			this.cachedKeySet = mock(UnlockedKeySet.class);
+			
+			this.cache = mock(KeySetCache.class);
+			when(cache.get(user, "woo", "hah")).thenReturn(cachedKeySet);
+			
+			this.creds = new Credentials("woo", "hah", cache);
+		}
+		
+		@Test
+		public void itDoesNotUnlockTheKeySet() throws Exception {
+			creds.buildSession(userDAO);
+			
+			verify(keySet, never()).unlock(any(char[].class));
+		}
+		
+		@Test
+		public void itReturnsASessionWithTheUserAndCachedKeySet() throws Exception {
+			final Session session = creds.buildSession(userDAO);
+			
+			assertThat(session.getUser()).isEqualTo(user);
+			assertThat(session.getKeySet()).isEqualTo(cachedKeySet);
+		}
+	}
+	
+	public static class Building_A_Session_Without_A_Cached_Key_Set extends Session_Context {
+		private KeySetCache cache;
+		
+		@Before
+		@Override
+		public void setup() throws Exception {
+			super.setup();
+			
+			this.cache = mock(KeySetCache.class);
+			
+			this.creds = new Credentials("woo", "hah", cache);
+		}
+		
+		@Test
+		public void itUnlocksAndCachesTheKeySet() throws Exception {
+			final Session session = creds.buildSession(userDAO);
+			
+			assertThat(session.getKeySet()).isEqualTo(unlockedKeySet);
+			verify(keySet).unlock("hah".toCharArray());
+			verify(cache).put(user, "woo", "hah", unlockedKeySet);
+		}
+	}
+	
+	private static abstract class Outdated_Key_Set_Context extends Session_Context {
+		protected KeySetCache cache;
+		protected SecureRandom random;
+		protected KeySet relockedKeySet;
+		
+		@Override
+		public void setup() throws Exception {
+			super.setup();
+			
+			when(keySet.isLockOutdated()).thenReturn(true);
+			
+			this.relockedKeySet = mock(KeySet.class);
+			when(unlockedKeySet.relock(any(char[].class), any(char[].class), any(SecureRandom.class))).thenReturn(relockedKeySet);
+			
+			this.random = mock(SecureRandom.class);
+			this.cache = mock(KeySetCache.class);
+			
+			this.creds = new Credentials("woo", "hah", cache, new Provider<SecureRandom>() {
+				@Override
+				public SecureRandom get() {
+					return random;
+				}
+			});
+		}
+	}
+	
+	public static class Building_A_Session_For_An_Outdated_Key_Set extends Outdated_Key_Set_Context {
+		@Before
+		@Override
+		public void setup() throws Exception {
+			super.setup();
+			
+			when(userDAO.replaceKeySet(user, relockedKeySet)).thenReturn(true);
+		}
+		
+		@Test
+		public void itRelocksAndWritesTheKeySetBeforeCachingIt() throws Exception {
+			creds.buildSession(userDAO);
+			
+			final InOrder inOrder = inOrder(unlockedKeySet, userDAO, cache);
+			inOrder.verify(unlockedKeySet).relock(aryEq("hah".toCharArray()), aryEq("hah".toCharArray()), eq(random));
+			inOrder.verify(userDAO).replaceKeySet(user, relockedKeySet);
+			inOrder.verify(cache).put(user, "woo", "hah", unlockedKeySet);
+		}
+		
+		@Test
+		public void itRecachesACachedKeySetUnderTheNewEtag() throws Exception {
+			final UnlockedKeySet cachedKeySet = mock(UnlockedKeySet.class);
+			when(cachedKeySet.relock(any(char[].class), any(char[].class), any(SecureRandom.class))).thenReturn(relockedKeySet);
+			when(cache.get(user, "woo", "hah")).thenReturn(cachedKeySet);
+			
+			creds.buildSession(userDAO);
+			
+			verify(keySet, never()).unlock(any(char[].class));
+			verify(userDAO).replaceKeySet(user, relockedKeySet);
+			verify(cache).put(user, "woo", "hah", cachedKeySet);
+		}
+		
+		@Test
+		public void itReturnsASessionWithTheUserAndKeySet() throws Exception {
+			final Session session = creds.buildSession(userDAO);
+			
+			assertThat(session.getUser()).isEqualTo(user);
+			assertThat(session.getKeySet()).isEqualTo(unlockedKeySet);
+		}
+	}
+	
+	public static class Building_A_Session_For_An_Outdated_Key_Set_Modified_By_Another_Request extends Outdated_Key_Set_Context {
+		@Before
+		@Override
+		public void setup() throws Exception {
+			super.setup();
+			
+			when(userDAO.replaceKeySet(user, relockedKeySet)).thenReturn(false);
+		}
+		
+		@Test
+		public void itReturnsASessionWithTheUserAndKeySet() throws Exception {
+			final Session session = creds.buildSession(userDAO);
+			
+			assertThat(session.getUser()).isEqualTo(user);
+			assertThat(session.getKeySet()).isEqualTo(unlockedKeySet);
+		}
+		
+		@Test
+		public void itCachesTheKeySet() throws Exception {
+			creds.buildSession(userDAO);
+			
+			verify(cache).put(user, "woo", "hah", unlockedKeySet);
+		}
+	}
+	
+	public static class Building_A_Session_For_An_Outdated_Key_Set_Which_Cannot_Be_Relocked extends Outdated_Key_Set_Context {
+		@Before
+		@Override
+		public void setup() throws Exception {
+			super.setup();
+			
+			when(unlockedKeySet.relock(any(char[].class), any(char[].class), any(SecureRandom.class))).thenThrow(new CryptographicException("augh"));
+		}
+		
+		@Test
+		public void itReturnsASessionWithTheUserAndKeySet() throws Exception {
+			final Session session = creds.buildSession(userDAO);
+			
+			assertThat(session.getKeySet()).isEqualTo(unlockedKeySet);
+			verify(userDAO, never()).replaceKeySet(any(User.class), any(KeySet.class));
+		}
+	}
+	
+	public static class Building_A_Session_For_A_Read extends Session_Context {
+		@Before
+		@Override
+		public void setup() throws Exception {
+			super.setup();
+			
+			when(keySet.isLockOutdated()).thenReturn(true);
+			
+			this.creds = new Credentials("woo", "hah", null, null);
+		}
+		
+		@Test
+		public void itDoesNotRelockAnOutdatedKeySet() throws Exception {
+			creds.buildSession(userDAO);
+			
+			verify(unlockedKeySet, never()).relock(any(char[].class), any(char[].class), any(SecureRandom.class));
+			verify(userDAO, never()).replaceKeySet(any(User.class), any(KeySet.class));
+		}
+		
+		@Test
+		public void itForgetsThePassphraseInsteadOfUnlockingTheMasterKey() throws Exception {
+			creds.buildSession(userDAO);
+			
+			verify(unlockedKeySet).forgetPassphrase();
+			verify(unlockedKeySet, never()).getUnlockedMasterKey();
+		}
+	}
+	
+	private static abstract class Write_Context extends Session_Context {
+		protected KeySetCache cache;
+		
+		@Override
+		public void setup() throws Exception {
+			super.setup();
+			
+			this.cache = mock(KeySetCache.class);
+			
+			this.creds = new Credentials("woo", "hah", cache, new Provider<SecureRandom>() {
+				@Override
+				public SecureRandom get() {
+					return new SecureRandom();
+				}
+			});
+		}
+	}
+	
+	public static class Building_A_Session_For_A_Write extends Write_Context {
+		@Before
+		@Override
+		public void setup() throws Exception {
+			super.setup();
+		}
+		
+		@Test
+		public void itUnlocksTheMasterKeyBeforeCachingTheKeySet() throws Exception {
+			creds.buildSession(userDAO);
+			
+			final InOrder inOrder = inOrder(unlockedKeySet, cache);
+			inOrder.verify(unlockedKeySet).getUnlockedMasterKey();
+			inOrder.verify(cache).put(user, "woo", "hah", unlockedKeySet);
+		}
+		
+		@Test
+		public void itRecachesACachedKeySetWithoutItsMasterKey() throws Exception {
+			final UnlockedKeySet cachedKeySet = mock(UnlockedKeySet.class);
+			when(cachedKeySet.isMasterKeyUnlocked()).thenReturn(false);
+			when(cache.get(user, "woo", "hah")).thenReturn(cachedKeySet);
+			
+			creds.buildSession(userDAO);
+			
+			verify(cachedKeySet).getUnlockedMasterKey();
+			verify(cache).put(user, "woo", "hah", cachedKeySet);
+		}
+		
+		@Test
+		public void itDoesNotRecacheACachedKeySetWithItsMasterKey() throws Exception {
+			final UnlockedKeySet cachedKeySet = mock(UnlockedKeySet.class);
+			when(cachedKeySet.isMasterKeyUnlocked()).thenReturn(true);
+			when(cache.get(user, "woo", "hah")).thenReturn(cachedKeySet);
+			
+			creds.buildSession(userDAO);
+			
+			verify(cachedKeySet, never()).getUnlockedMasterKey();
+			verify(cache, never()).put(any(User.class), anyString(), anyString(), any(UnlockedKeySet.class));
+		}
+	}
+	
+	public static class Building_A_Session_For_A_Write_With_A_Master_Key_Which_Cannot_Be_Unlocked extends Write_Context {
+		@Before
+		@Override
+		public void setup() throws Exception {
+			super.setup();
+			
+			when(unlockedKeySet.getUnlockedMasterKey()).thenThrow(new CryptographicException("augh"));
+		}
+		
+		@Test
+		public void itThrowsAnAuthenticationChallenge() throws Exception {
+			try {
+				creds.buildSession(userDAO);
+				fail("should have thrown a WebApplicationException but didn't");
+			} catch (WebApplicationException e) {
+				assertThat(e.getResponse()).isEqualTo(Credentials.CHALLENGE);
+			}
+			
+			verify(cache, never()).put(any(User.class), anyString(), anyString(), any(UnlockedKeySet.class));
+		}
+	}
+	
+	public static class Building_A_Session_For_An_Up_To_Date_Key_Set extends Session_Context {
+		@Before
+		@Override
+		public void setup() throws Exception {
+			super.setup();
+			
+			this.creds = new Credentials("woo", "hah", null, new Provider<SecureRandom>() {
+				@Override
+				public SecureRandom get() {
+					return new SecureRandom();
+				}
+			});
+		}
+		
+		@Test
+		public void itDoesNotRelockTheKeySet() throws Exception {
+			creds.buildSession(userDAO);
+			
+			verify(unlockedKeySet, never()).relock(any(char[].class), any(char[].class), any(SecureRandom.class));
+			verify(userDAO, never()).replaceKeySet(any(User.class), any(KeySet.class));
+		}
+	}
+	
 	public static class An_Authentication_Challenge {
 		@Test
 		public void itReturnsA401() throws Exception {
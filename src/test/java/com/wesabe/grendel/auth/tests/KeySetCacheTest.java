@@ -0,0 +1,177 @@
+package com.wesabe.grendel.auth.tests;
+
+import static org.fest.assertions.Assertions.*;
+import static org.mockito.Mockito.*;
+
+import java.io.FileInputStream;
+import java.security.SecureRandom;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.experimental.runners.Enclosed;
+import org.junit.runner.RunWith;
+
+import com.google.inject.Provider;
+import com.wesabe.grendel.auth.KeySetCache;
+import com.wesabe.grendel.entities.User;
+import com.wesabe.grendel.openpgp.KeySet;
+import com.wesabe.grendel.openpgp.UnlockedKeySet;
+
+@RunWith(Enclosed.class)
+public class KeySetCacheTest {
+	private static abstract class Context {
+		protected UnlockedKeySet keySet;
+		protected User user;
+		protected KeySetCache cache;
+		
+		public void setup() throws Exception {
+			final FileInputStream keyRingFile = new FileInputStream("src/test/resources/secret-keyring.gpg");
+			this.keySet = KeySet.load(keyRingFile).unlock("test".toCharArray());
+			
+			this.user = mock(User.class);
+			when(user.getId()).thenReturn("bob");
+			when(user.getEtag()).thenReturn("user-bob-1");
+			
+			this.cache = new KeySetCache(new Provider<SecureRandom>() {
+				private final SecureRandom random = new SecureRandom();
+				
+				@Override
+				public SecureRandom get() {
+					return random;
+				}
+			}, capacity(), ttl(), TimeUnit.MILLISECONDS);
+		}
+		
+		protected int capacity() {
+			return 2;
+		}
+		
+		protected long ttl() {
+			return 60000;
+		}
+	}
+	
+	public static class An_Empty_Cache extends Context {
+		@Before
+		@Override
+		public void setup() throws Exception {
+			super.setup();
+		}
+		
+		@Test
+		public void itHasACapacity() throws Exception {
+			assertThat(cache.getCapacity()).isEqualTo(2);
+		}
+		
+		@Test
+		public void itHasATimeToLive() throws Exception {
+			assertThat(cache.getTimeToLive()).isEqualTo(60);
+		}
+		
+		@Test
+		public void itMisses() throws Exception {
+			assertThat(cache.get(user, "bob", "test")).isNull();
+			assertThat(cache.getMissCount()).isEqualTo(1);
+			assertThat(cache.getHitRatio()).isEqualTo(0.0);
+		}
+	}
+	
+	public static class A_Cache_With_A_Key_Set extends Context {
+		@Before
+		@Override
+		public void setup() throws Exception {
+			super.setup();
+			
+			cache.put(user, "bob", "test", keySet);
+		}
+		
+		@Test
+		public void itHasOneEntry() throws Exception {
+			assertThat(cache.getSize()).isEqualTo(1);
+		}
+		
+		@Test
+		public void itReturnsTheKeySetForTheSameCredentials() throws Exception {
+			final UnlockedKeySet cached = cache.get(user, "bob", "test");
+			
+			assertThat(cached).isNotNull();
+			assertThat(cached.getSubKey().getKeyID()).isEqualTo(keySet.getSubKey().getKeyID());
+			assertThat(cache.getHitCount()).isEqualTo(1);
+		}
+		
+		@Test
+		public void itMissesForADifferentPassword() throws Exception {
+			assertThat(cache.get(user, "bob", "test2")).isNull();
+		}
+		
+		@Test
+		public void itMissesIfTheUserHasBeenModified() throws Exception {
+			when(user.getEtag()).thenReturn("user-bob-2");
+			
+			assertThat(cache.get(user, "bob", "test")).isNull();
+			assertThat(cache.getSize()).isEqualTo(0);
+		}
+		
+		@Test
+		public void itMissesOnceInvalidated() throws Exception {
+			cache.invalidate("bob");
+			
+			assertThat(cache.get(user, "bob", "test")).isNull();
+		}
+		
+		@Test
+		public void itEvictsTheLeastRecentlyUsedEntry() throws Exception {
+			cache.put(user, "bob", "one", keySet);
+			cache.get(user, "bob", "test");
+			cache.put(user, "bob", "two", keySet);
+			
+			assertThat(cache.getSize()).isEqualTo(2);
+			assertThat(cache.getEvictionCount()).isEqualTo(1);
+			assertThat(cache.get(user, "bob", "one")).isNull();
+			assertThat(cache.get(user, "bob", "test")).isNotNull();
+		}
+	}
+	
+	public static class A_Cache_With_An_Expired_Key_Set extends Context {
+		@Before
+		@Override
+		public void setup() throws Exception {
+			super.setup();
+			
+			cache.put(user, "bob", "test", keySet);
+			Thread.sleep(5);
+		}
+		
+		@Override
+		protected long ttl() {
+			return 1;
+		}
+		
+		@Test
+		public void itMisses() throws Exception {
+			assertThat(cache.get(user, "bob", "test")).isNull();
+		}
+	}
+	
+	public static class A_Disabled_Cache extends Context {
+		@Before
+		@Override
+		public void setup() throws Exception {
+			super.setup();
+			
+			cache.put(user, "bob", "test", keySet);
+		}
+		
+		@Override
+		protected int capacity() {
+			return 0;
+		}
+		
+		@Test
+		public void itNeverCachesAnything() throws Exception {
+			assertThat(cache.getSize()).isEqualTo(0);
+			assertThat(cache.get(user, "bob", "test")).isNull();
+		}
+	}
+}
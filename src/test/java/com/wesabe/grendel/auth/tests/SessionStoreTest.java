@@ -0,0 +1,164 @@
+package com.wesabe.grendel.auth.tests;
+
+import static org.fest.assertions.Assertions.*;
+import static org.mockito.Mockito.*;
+
+import java.io.FileInputStream;
+import java.security.SecureRandom;
+import java.util.concurrent.TimeUnit;
+
+import org.joda.time.DateTime;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.experimental.runners.Enclosed;
+import org.junit.runner.RunWith;
+
+import com.google.inject.Provider;
+import com.wesabe.grendel.auth.Session;
+import com.wesabe.grendel.auth.SessionStore;
+import com.wesabe.grendel.auth.SessionToken;
+import com.wesabe.grendel.entities.User;
+import com.wesabe.grendel.entities.dao.UserDAO;
+import com.wesabe.grendel.openpgp.KeySet;
+import com.wesabe.grendel.openpgp.UnlockedKeySet;
+
+@RunWith(Enclosed.class)
+public class SessionStoreTest {
+	private static abstract class Context {
+		protected UnlockedKeySet keySet;
+		protected User user;
+		protected UserDAO userDAO;
+		protected SessionStore store;
+		protected SessionToken token;
+		
+		public void setup() throws Exception {
+			final FileInputStream keyRingFile = new FileInputStream("src/test/resources/secret-keyring.gpg");
+			this.keySet = KeySet.load(keyRingFile).unlock("test".toCharArray());
+			
+			this.user = mock(User.class);
+			when(user.getId()).thenReturn("bob");
+			when(user.getEtag()).thenReturn("user-bob-1");
+			
+			this.userDAO = mock(UserDAO.class);
+			when(userDAO.findById("bob")).thenReturn(user);
+			
+			this.store = new SessionStore(new Provider<SecureRandom>() {
+				private final SecureRandom random = new SecureRandom();
+				
+				@Override
+				public SecureRandom get() {
+					return random;
+				}
+			}, 2, ttl(), TimeUnit.MILLISECONDS);
+			
+			this.token = store.create(new Session(user, keySet));
+		}
+		
+		protected long ttl() {
+			return 60000;
+		}
+	}
+	
+	public static class Creating_A_Token extends Context {
+		@Before
+		@Override
+		public void setup() throws Exception {
+			super.setup();
+		}
+		
+		@Test
+		public void itReturnsARandomToken() throws Exception {
+			assertThat(token.getToken()).hasSize(64);
+			assertThat(store.create(new Session(user, keySet)).getToken()).isNotEqualTo(token.getToken());
+		}
+		
+		@Test
+		public void itRecordsTheUser() throws Exception {
+			assertThat(token.getUserId()).isEqualTo("bob");
+		}
+		
+		@Test
+		public void itExpiresInTheFuture() throws Exception {
+			assertThat(token.getExpiresAt().isAfter(new DateTime())).isTrue();
+		}
+		
+		@Test
+		public void itDiscardsTheOldestTokenWhenFull() throws Exception {
+			store.create(new Session(user, keySet));
+			store.create(new Session(user, keySet));
+			
+			assertThat(store.getSize()).isEqualTo(2);
+			assertThat(store.resolve(token.getToken(), userDAO)).isNull();
+		}
+	}
+	
+	public static class Resolving_A_Token extends Context {
+		@Before
+		@Override
+		public void setup() throws Exception {
+			super.setup();
+		}
+		
+		@Test
+		public void itReturnsTheSession() throws Exception {
+			final Session session = store.resolve(token.getToken(), userDAO);
+			
+			assertThat(session.getUser()).isEqualTo(user);
+			assertThat(session.getKeySet().getSubKey().getKeyID()).isEqualTo(keySet.getSubKey().getKeyID());
+		}
+		
+		@Test
+		public void itReturnsNullForAnUnknownToken() throws Exception {
+			assertThat(store.resolve("0123456789abcdef", userDAO)).isNull();
+		}
+		
+		@Test
+		public void itReturnsNullIfTheUserHasBeenModified() throws Exception {
+			when(user.getEtag()).thenReturn("user-bob-2");
+			
+			assertThat(store.resolve(token.getToken(), userDAO)).isNull();
+			assertThat(store.getSize()).isEqualTo(0);
+		}
+		
+		@Test
+		public void itReturnsNullIfTheUserHasBeenDeleted() throws Exception {
+			when(userDAO.findById("bob")).thenReturn(null);
+			
+			assertThat(store.resolve(token.getToken(), userDAO)).isNull();
+		}
+		
+		@Test
+		public void itReturnsNullOnceRevoked() throws Exception {
+			store.revoke(token.getToken());
+			
+			assertThat(store.resolve(token.getToken(), userDAO)).isNull();
+		}
+		
+		@Test
+		public void itReturnsNullOnceTheUserIsInvalidated() throws Exception {
+			store.invalidate("bob");
+			
+			assertThat(store.resolve(token.getToken(), userDAO)).isNull();
+		}
+	}
+	
+	public static class Resolving_An_Expired_Token extends Context {
+		@Before
+		@Override
+		public void setup() throws Exception {
+			super.setup();
+			Thread.sleep(5);
+		}
+		
+		@Override
+		protected long ttl() {
+			return 1;
+		}
+		
+		@Test
+		public void itReturnsNull() throws Exception {
+			assertThat(store.resolve(token.getToken(), userDAO)).isNull();
+			assertThat(store.getSize()).isEqualTo(0);
+		}
+	}
+}
@@ -0,0 +1,100 @@
+package com.wesabe.grendel.auth.tests;
+
+import static org.fest.assertions.Assertions.*;
+import static org.junit.Assert.*;
+import static org.mockito.Mockito.*;
+
+import javax.ws.rs.WebApplicationException;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.experimental.runners.Enclosed;
+import org.junit.runner.RunWith;
+
+import com.wesabe.grendel.auth.Credentials;
+import com.wesabe.grendel.auth.Session;
+import com.wesabe.grendel.auth.SessionStore;
+import com.wesabe.grendel.auth.TokenCredentials;
+import com.wesabe.grendel.entities.User;
+import com.wesabe.grendel.entities.dao.UserDAO;
+
+@RunWith(Enclosed.class)
+public class TokenCredentialsTest {
+	private static abstract class Context {
+		protected SessionStore store;
+		protected UserDAO userDAO;
+		protected Session session;
+		protected User user;
+		protected TokenCredentials creds;
+		
+		public void setup() throws Exception {
+			this.user = mock(User.class);
+			when(user.getId()).thenReturn("woo");
+			
+			this.session = mock(Session.class);
+			when(session.getUser()).thenReturn(user);
+			
+			this.userDAO = mock(UserDAO.class);
+			
+			this.store = mock(SessionStore.class);
+			
+			this.creds = new TokenCredentials("abcdef", store);
+		}
+	}
+	
+	public static class A_Token extends Context {
+		@Before
+		@Override
+		public void setup() throws Exception {
+			super.setup();
+		}
+		
+		@Test
+		public void itHasAToken() throws Exception {
+			assertThat(creds.getToken()).isEqualTo("abcdef");
+		}
+		
+		@Test
+		public void itHasNoPassword() throws Exception {
+			assertThat(creds.getPassword()).isNull();
+		}
+	}
+	
+	public static class Building_A_Session_For_A_Valid_Token extends Context {
+		@Before
+		@Override
+		public void setup() throws Exception {
+			super.setup();
+			
+			when(store.resolve("abcdef", userDAO)).thenReturn(session);
+		}
+		
+		@Test
+		public void itReturnsTheStoredSession() throws Exception {
+			assertThat(creds.buildSession(userDAO)).isEqualTo(session);
+		}
+		
+		@Test
+		public void itChecksTheAllowedId() throws Exception {
+			assertThat(creds.buildSession(userDAO, "woo")).isEqualTo(session);
+		}
+	}
+	
+	public static class Building_A_Session_For_An_Invalid_Token extends Context {
+		@Before
+		@Override
+		public void setup() throws Exception {
+			super.setup();
+		}
+		
+		@Test
+		public void itThrowsAnAuthChallenge() throws Exception {
+			try {
+				creds.buildSession(userDAO);
+				fail("should have thrown an auth challenge, but didn't");
+			} catch (WebApplicationException e) {
+				assertThat(e.getResponse()).isEqualTo(Credentials.CHALLENGE);
+			}
+		}
+	}
+}
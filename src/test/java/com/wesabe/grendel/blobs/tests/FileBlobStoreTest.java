@@ -0,0 +1,294 @@
+package com.wesabe.grendel.blobs.tests;
+
+import static org.fest.assertions.Assertions.*;
+import static org.junit.Assert.*;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.file.Files;
+import java.util.Arrays;
+import java.util.Random;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.experimental.runners.Enclosed;
+import org.junit.runner.RunWith;
+
+import com.wesabe.grendel.blobs.BlobOutputStream;
+import com.wesabe.grendel.blobs.FileBlobStore;
+
+@RunWith(Enclosed.class)
+public class FileBlobStoreTest {
+	private static abstract class Context {
+		protected File root;
+		protected FileBlobStore store;
+		
+		public void setup() throws Exception {
+			this.root = Files.createTempDirectory("grendel-blobs").toFile();
+			this.store = new FileBlobStore(root);
+		}
+		
+		@After
+		public void teardown() throws Exception {
+			delete(root);
+		}
+		
+		private void delete(File file) throws IOException {
+			final File[] children = file.listFiles();
+			if (children != null) {
+				for (File child : children) {
+					delete(child);
+				}
+			}
+			Files.deleteIfExists(file.toPath());
+		}
+		
+		protected byte[] toArray(ByteBuffer buffer) {
+			final byte[] bytes = new byte[buffer.remaining()];
+			buffer.get(bytes);
+			return bytes;
+		}
+	}
+	
+	public static class Storing_A_Blob extends Context {
+		private String key;
+		
+		@Before
+		@Override
+		public void setup() throws Exception {
+			super.setup();
+			
+			this.key = store.put("encrypted".getBytes());
+		}
+		
+		@Test
+		public void itReturnsTheSHA256HashOfTheBlobAsItsKey() throws Exception {
+			assertThat(key).isEqualTo("954d1bb83d80bb6f6e746b28f0de3ec4c4ed980cfe67ed23a9159cd464ff339a");
+		}
+		
+		@Test
+		public void itStoresTheBlobInAFileNamedForItsKey() throws Exception {
+			final File file = new File(new File(new File(root, key.substring(0, 2)), key.substring(2, 4)), key);
+			
+			assertThat(store.getFile(key)).isEqualTo(file);
+			assertThat(Files.readAllBytes(file.toPath())).isEqualTo("encrypted".getBytes());
+		}
+		
+		@Test
+		public void itDoesNotLeaveTemporaryFilesBehind() throws Exception {
+			assertThat(new File(root, "tmp").list()).isEmpty();
+		}
+		
+		@Test
+		public void itReturnsTheSameKeyForTheSameContents() throws Exception {
+			assertThat(store.put("encrypted".getBytes())).isEqualTo(key);
+			assertThat(store.put("re-encrypted".getBytes())).isNotEqualTo(key);
+		}
+	}
+	
+	public static class Streaming_A_Blob extends Context {
+		@Before
+		@Override
+		public void setup() throws Exception {
+			super.setup();
+		}
+		
+		@Test
+		public void itHashesTheBlobAsItsWritten() throws Exception {
+			final BlobOutputStream output = store.create();
+			try {
+				output.write("encry".getBytes());
+				output.write("pted".getBytes());
+				
+				assertThat(output.commit()).isEqualTo("954d1bb83d80bb6f6e746b28f0de3ec4c4ed980cfe67ed23a9159cd464ff339a");
+			} finally {
+				output.close();
+			}
+		}
+		
+		@Test
+		public void itStoresTheBlobOnceCommitted() throws Exception {
+			final BlobOutputStream output = store.create();
+			final String key;
+			try {
+				output.write("encrypted".getBytes());
+				key = output.commit();
+			} finally {
+				output.close();
+			}
+			
+			assertThat(toArray(store.get(key))).isEqualTo("encrypted".getBytes());
+			assertThat(new File(root, "tmp").list()).isEmpty();
+		}
+		
+		@Test
+		public void itDiscardsTheBlobIfClosedWithoutBeingCommitted() throws Exception {
+			final BlobOutputStream output = store.create();
+			output.write("encrypted".getBytes());
+			output.close();
+			
+			assertThat(store.getFile("954d1bb83d80bb6f6e746b28f0de3ec4c4ed980cfe67ed23a9159cd464ff339a").exists()).isFalse();
+			assertThat(new File(root, "tmp").list()).isEmpty();
+		}
+		
+		@Test
+		public void itStoresAnExistingBlobOnlyOnce() throws Exception {
+			final String key = store.put("encrypted".getBytes());
+			
+			final BlobOutputStream output = store.create();
+			try {
+				output.write("encrypted".getBytes());
+				assertThat(output.commit()).isEqualTo(key);
+			} finally {
+				output.close();
+			}
+			
+			assertThat(new File(root, "tmp").list()).isEmpty();
+		}
+	}
+	
+	public static class Reading_A_Blob extends Context {
+		@Before
+		@Override
+		public void setup() throws Exception {
+			super.setup();
+		}
+		
+		@Test
+		public void itReturnsTheBlobsContents() throws Exception {
+			final String key = store.put("encrypted".getBytes());
+			
+			assertThat(toArray(store.get(key))).isEqualTo("encrypted".getBytes());
+		}
+		
+		@Test
+		public void itReturnsAReadOnlyBuffer() throws Exception {
+			final String key = store.put("encrypted".getBytes());
+			
+			assertThat(store.get(key).isReadOnly()).isTrue();
+		}
+		
+		@Test
+		public void itDoesNotMemoryMapLargeBlobs() throws Exception {
+			final byte[] data = new byte[128 * 1024];
+			Arrays.fill(data, (byte) 0x2a);
+			final String key = store.put(data);
+			
+			final ByteBuffer buffer = store.get(key);
+			assertThat(buffer instanceof MappedByteBuffer).isFalse();
+			assertThat(toArray(buffer)).isEqualTo(data);
+		}
+		
+		@Test
+		public void itThrowsAnExceptionIfTheBlobDoesNotExist() throws Exception {
+			try {
+				store.get("0000000000000000000000000000000000000000000000000000000000000000");
+				fail("should have thrown an IOException but didn't");
+			} catch (IOException e) {
+				assertThat(e.getMessage()).startsWith("blob not found");
+			}
+		}
+		
+		@Test
+		public void itRejectsMalformedKeys() throws Exception {
+			try {
+				store.get("../../etc/passwd");
+				fail("should have thrown an IllegalArgumentException but didn't");
+			} catch (IllegalArgumentException e) {
+				assertThat(e.getMessage()).isEqualTo("invalid blob key: ../../etc/passwd");
+			}
+		}
+	}
+	
+	public static class Opening_A_Blob extends Context {
+		@Before
+		@Override
+		public void setup() throws Exception {
+			super.setup();
+		}
+		
+		private byte[] read(InputStream input) throws IOException {
+			final ByteArrayOutputStream output = new ByteArrayOutputStream();
+			final byte[] b = new byte[1000];
+			int r = 0;
+			while ((r = input.read(b)) >= 0) {
+				output.write(b, 0, r);
+			}
+			return output.toByteArray();
+		}
+		
+		@Test
+		public void itStreamsTheBlobsContents() throws Exception {
+			final byte[] data = new byte[(128 * 1024) + 7];
+			new Random(1).nextBytes(data);
+			final String key = store.put(data);
+			
+			final InputStream input = store.open(key);
+			try {
+				assertThat(read(input)).isEqualTo(data);
+				assertThat(input.read()).isEqualTo(-1);
+			} finally {
+				input.close();
+			}
+		}
+		
+		@Test
+		public void itReadsSingleBytes() throws Exception {
+			final String key = store.put("encrypted".getBytes());
+			
+			final InputStream input = store.open(key);
+			try {
+				assertThat(input.read()).isEqualTo('e');
+				assertThat(read(input)).isEqualTo("ncrypted".getBytes());
+			} finally {
+				input.close();
+			}
+		}
+		
+		@Test
+		public void itStreamsAnEmptyBlob() throws Exception {
+			final InputStream input = store.open(store.put(new byte[0]));
+			try {
+				assertThat(input.read()).isEqualTo(-1);
+			} finally {
+				input.close();
+			}
+		}
+		
+		@Test
+		public void itThrowsAnExceptionIfTheBlobDoesNotExist() throws Exception {
+			try {
+				store.open("0000000000000000000000000000000000000000000000000000000000000000");
+				fail("should have thrown an IOException but didn't");
+			} catch (IOException e) {
+				assertThat(e.getMessage()).startsWith("blob not found");
+			}
+		}
+	}
+	
+	public static class Deleting_A_Blob extends Context {
+		@Before
+		@Override
+		public void setup() throws Exception {
+			super.setup();
+		}
+		
+		@Test
+		public void itDeletesTheBlobsFile() throws Exception {
+			final String key = store.put("encrypted".getBytes());
+			store.delete(key);
+			
+			assertThat(store.getFile(key).exists()).isFalse();
+		}
+		
+		@Test
+		public void itIgnoresMissingBlobs() throws Exception {
+			store.delete("0000000000000000000000000000000000000000000000000000000000000000");
+		}
+	}
+}
@@ -4,19 +4,31 @@ import static org.fest.assertions.Assertions.*;
 import static org.mockito.Matchers.*;
 import static org.mockito.Mockito.*;
 
+import java.util.List;
+
+import javax.transaction.Status;
+import javax.transaction.Synchronization;
 import javax.ws.rs.core.MediaType;
 
 import org.hibernate.Query;
 import org.hibernate.Session;
+import org.hibernate.Transaction;
+import org.junit.After;
 import org.junit.Before;
 import org.junit.Test;
 import org.junit.experimental.runners.Enclosed;
 import org.junit.runner.RunWith;
+import org.mockito.ArgumentCaptor;
 import org.mockito.InOrder;
 import org.mockito.Mockito;
 
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.Lists;
 import com.google.inject.Provider;
+import com.wesabe.grendel.blobs.BlobStore;
+import com.wesabe.grendel.blobs.BlobStores;
 import com.wesabe.grendel.entities.Document;
+import com.wesabe.grendel.entities.DocumentBody;
 import com.wesabe.grendel.entities.User;
 import com.wesabe.grendel.entities.dao.DocumentDAO;
 
@@ -76,6 +88,52 @@ public class DocumentDAOTest {
 		}
 	}
 	
+	public static class Finding_Document_Names_By_Owner extends Context {
+		private Query query;
+		private User owner;
+		private List<String> names;
+		
+		@Before
+		@Override
+		public void setup() throws Exception {
+			super.setup();
+			
+			this.owner = mock(User.class);
+			this.names = ImmutableList.of("a.txt", "b.txt");
+			
+			this.query = mock(Query.class);
+			when(query.setString(Mockito.anyString(), Mockito.anyString())).thenReturn(query);
+			when(query.setParameter(Mockito.anyString(), Mockito.anyObject())).thenReturn(query);
+			when(query.setMaxResults(Mockito.anyInt())).thenReturn(query);
+			when(query.list()).thenReturn(names);
+			
+			when(session.getNamedQuery(anyString())).thenReturn(query);
+		}
+		
+		@Test
+		public void itCreatesANamedQueryAndParameterizesIt() throws Exception {
+			dao.findNamesByOwner(owner, "a.txt", 10);
+			
+			final InOrder inOrder = inOrder(session, query);
+			inOrder.verify(session).getNamedQuery("com.wesabe.grendel.entities.Document.NamesByOwner");
+			inOrder.verify(query).setParameter("owner", owner);
+			inOrder.verify(query).setString("after", "a.txt");
+			inOrder.verify(query).setMaxResults(10);
+		}
+		
+		@Test
+		public void itStartsAtTheBeginningWithoutACursor() throws Exception {
+			dao.findNamesByOwner(owner, null, 10);
+			
+			verify(query).setString("after", "");
+		}
+		
+		@Test
+		public void itReturnsTheNames() throws Exception {
+			assertThat(dao.findNamesByOwner(owner, null, 10)).isEqualTo(names);
+		}
+	}
+	
 	public static class Deleting_A_Document extends Context {
 		private Document doc;
 		
@@ -95,6 +153,119 @@ public class DocumentDAOTest {
 		}
 	}
 	
+	public static class Deleting_A_Document_With_A_Blob extends Context {
+		private Document doc;
+		private DocumentBody body;
+		private Transaction transaction;
+		private BlobStore blobStore;
+		private ArgumentCaptor<Synchronization> sync;
+		
+		@Before
+		@Override
+		public void setup() throws Exception {
+			super.setup();
+			
+			this.body = mock(DocumentBody.class);
+			when(body.getBlobKey()).thenReturn("blob2");
+			when(body.getStaleBlobKeys()).thenReturn(Lists.newArrayList("blob1"));
+			when(body.getUncommittedBlobKeys()).thenReturn(Lists.newArrayList("blob2"));
+			
+			this.doc = mock(Document.class);
+			when(doc.getBody()).thenReturn(body);
+			
+			this.transaction = mock(Transaction.class);
+			when(session.getTransaction()).thenReturn(transaction);
+			
+			this.blobStore = mock(BlobStore.class);
+			BlobStores.install(blobStore);
+			
+			dao.delete(doc);
+			
+			this.sync = ArgumentCaptor.forClass(Synchronization.class);
+			verify(transaction).registerSynchronization(sync.capture());
+		}
+		
+		@After
+		public void teardown() throws Exception {
+			BlobStores.uninstall();
+		}
+		
+		@Test
+		public void itDoesNotDeleteAnyBlobsBeforeTheTransactionIsOver() throws Exception {
+			verifyZeroInteractions(blobStore);
+		}
+		
+		@Test
+		public void itDeletesAllOfTheBodysBlobsIfTheTransactionCommits() throws Exception {
+			sync.getValue().afterCompletion(Status.STATUS_COMMITTED);
+			
+			verify(blobStore).delete("blob1");
+			verify(blobStore).delete("blob2");
+		}
+		
+		@Test
+		public void itDeletesOnlyUncommittedBlobsIfTheTransactionRollsBack() throws Exception {
+			sync.getValue().afterCompletion(Status.STATUS_ROLLEDBACK);
+			
+			verify(blobStore).delete("blob2");
+			verifyNoMoreInteractions(blobStore);
+		}
+	}
+	
+	public static class Saving_A_Document_With_A_Replaced_Body extends Context {
+		private Document doc;
+		private DocumentBody body;
+		private Transaction transaction;
+		private BlobStore blobStore;
+		private ArgumentCaptor<Synchronization> sync;
+		
+		@Before
+		@Override
+		public void setup() throws Exception {
+			super.setup();
+			
+			this.body = mock(DocumentBody.class);
+			when(body.getBlobKey()).thenReturn("blob2");
+			when(body.getStaleBlobKeys()).thenReturn(Lists.newArrayList("blob1"));
+			when(body.getUncommittedBlobKeys()).thenReturn(Lists.newArrayList("blob2"));
+			
+			this.doc = mock(Document.class);
+			when(doc.getBody()).thenReturn(body);
+			
+			this.transaction = mock(Transaction.class);
+			when(session.getTransaction()).thenReturn(transaction);
+			
+			this.blobStore = mock(BlobStore.class);
+			BlobStores.install(blobStore);
+			
+			dao.saveOrUpdate(doc);
+			
+			this.sync = ArgumentCaptor.forClass(Synchronization.class);
+			verify(transaction).registerSynchronization(sync.capture());
+		}
+		
+		@After
+		public void teardown() throws Exception {
+			BlobStores.uninstall();
+		}
+		
+		@Test
+		public void itDeletesTheOldBlobIfTheTransactionCommits() throws Exception {
+			sync.getValue().afterCompletion(Status.STATUS_COMMITTED);
+			
+			verify(blobStore).delete("blob1");
+			verifyNoMoreInteractions(blobStore);
+		}
+		
+		@Test
+		public void itDeletesTheNewBlobIfTheTransactionRollsBack() throws Exception {
+			sync.getValue().afterCompletion(Status.STATUS_ROLLEDBACK);
+			
+			verify(blobStore).delete("blob2");
+			verifyNoMoreInteractions(blobStore);
+		}
+	}
+	
 	public static class Saving_Or_Creating_A_Document extends Context {
 		private Document doc;
 		
@@ -5,17 +5,29 @@ import static org.mockito.Mockito.*;
 
 import java.io.Serializable;
 
+import javax.transaction.Status;
+import javax.transaction.Synchronization;
+
 import org.hibernate.Query;
 import org.hibernate.Session;
+import org.hibernate.SessionFactory;
+import org.hibernate.Transaction;
+import org.junit.After;
 import org.junit.Before;
 import org.junit.Test;
 import org.junit.experimental.runners.Enclosed;
 import org.junit.runner.RunWith;
+import org.mockito.ArgumentCaptor;
 import org.mockito.InOrder;
 import org.mockito.Mockito;
 
 import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableSet;
 import com.google.inject.Provider;
+import com.wesabe.grendel.blobs.BlobStore;
+import com.wesabe.grendel.blobs.BlobStores;
+import com.wesabe.grendel.entities.Document;
+import com.wesabe.grendel.entities.DocumentPK;
 import com.wesabe.grendel.entities.User;
 import com.wesabe.grendel.entities.dao.UserDAO;
 
@@ -100,8 +112,7 @@ public class UserDAOTest {
 		}
 	}
 	
-	public static class Finding_All_Users extends Context {
-		private User user;
+	public static class Finding_User_Ids extends Context {
 		private Query query;
 		
 		@Before
@@ -109,24 +120,35 @@ public class UserDAOTest {
 		public void setup() throws Exception {
 			super.setup();
 			
-			this.user = mock(User.class);
 			this.query = mock(Query.class);
+			when(query.setString(Mockito.anyString(), Mockito.anyString())).thenReturn(query);
+			when(query.setMaxResults(Mockito.anyInt())).thenReturn(query);
 			
 			when(session.getNamedQuery(Mockito.anyString())).thenReturn(query);
 		}
 		
 		@Test
 		public void itCreatesANamedQueryAndParameterizesIt() throws Exception {
-			dao.findAll();
+			dao.findIds("alice", 10);
 			
-			verify(session).getNamedQuery("com.wesabe.grendel.entities.User.All");
+			final InOrder inOrder = inOrder(session, query);
+			inOrder.verify(session).getNamedQuery("com.wesabe.grendel.entities.User.Ids");
+			inOrder.verify(query).setString("after", "alice");
+			inOrder.verify(query).setMaxResults(10);
 		}
 		
 		@Test
-		public void itReturnsTheUsers() throws Exception {
-			when(query.list()).thenReturn(ImmutableList.of(user));
+		public void itStartsAtTheBeginningWithoutACursor() throws Exception {
+			dao.findIds(null, 10);
+			
+			verify(query).setString("after", "");
+		}
+		
+		@Test
+		public void itReturnsTheIds() throws Exception {
+			when(query.list()).thenReturn(ImmutableList.of("alice", "bob"));
 
-			assertThat(dao.findAll()).containsOnly(user);
+			assertThat(dao.findIds(null, 10)).containsOnly("alice", "bob");
 		}
 	}
 	
@@ -156,13 +178,66 @@ public class UserDAOTest {
 	
 	public static class Deleting_A_User extends Context {
 		private User user;
+		private Document sharedDocument;
+		private User sharedDocumentOwner;
+		private Query bodyIdsQuery, linkedUserIdsQuery, deleteBodiesQuery;
+		private Transaction transaction;
+		private SessionFactory sessionFactory;
+		private BlobStore blobStore;
 		
 		@Before
 		@Override
 		public void setup() throws Exception {
 			super.setup();
 			
+			this.sharedDocumentOwner = mock(User.class);
+			
+			this.sharedDocument = mock(Document.class);
+			when(sharedDocument.getOwner()).thenReturn(sharedDocumentOwner);
+			when(sharedDocument.getName()).thenReturn("shared");
+			
 			this.user = mock(User.class);
+			when(user.getId()).thenReturn("bob");
+			when(user.getLinkedDocuments()).thenReturn(ImmutableSet.of(sharedDocument));
+			
+			this.bodyIdsQuery = mock(Query.class);
+			when(bodyIdsQuery.setParameter(anyString(), any())).thenReturn(bodyIdsQuery);
+			when(bodyIdsQuery.list()).thenReturn(ImmutableList.of(
+				new Object[] { "doc1", "body1", "blob1" },
+				new Object[] { "doc2", "body2", null }
+			));
+			when(session.getNamedQuery("com.wesabe.grendel.entities.Document.BodiesByOwner")).thenReturn(bodyIdsQuery);
+			
+			this.linkedUserIdsQuery = mock(Query.class);
+			when(linkedUserIdsQuery.setParameter(anyString(), any())).thenReturn(linkedUserIdsQuery);
+			when(linkedUserIdsQuery.list()).thenReturn(ImmutableList.of("alice"));
+			when(session.getNamedQuery("com.wesabe.grendel.entities.Document.LinkedUserIdsByOwner")).thenReturn(linkedUserIdsQuery);
+			
+			this.deleteBodiesQuery = mock(Query.class);
+			when(deleteBodiesQuery.setParameterList(anyString(), anyCollection())).thenReturn(deleteBodiesQuery);
+			when(session.getNamedQuery("com.wesabe.grendel.entities.DocumentBody.DeleteByIds")).thenReturn(deleteBodiesQuery);
+			
+			this.transaction = mock(Transaction.class);
+			when(session.getTransaction()).thenReturn(transaction);
+			
+			this.sessionFactory = mock(SessionFactory.class);
+			when(session.getSessionFactory()).thenReturn(sessionFactory);
+			
+			this.blobStore = mock(BlobStore.class);
+			BlobStores.install(blobStore);
+		}
+		
+		@After
+		public void teardown() throws Exception {
+			BlobStores.uninstall();
+		}
+		
+		private void completeTransaction(int status) {
+			final ArgumentCaptor<Synchronization> sync = ArgumentCaptor.forClass(Synchronization.class);
+			verify(transaction, atLeastOnce()).registerSynchronization(sync.capture());
+			for (Synchronization synchronization : sync.getAllValues()) {
+				synchronization.afterCompletion(status);
+			}
 		}
 		
 		@Test
@@ -171,5 +246,78 @@ public class UserDAOTest {
 			
 			verify(session).delete(user);
 		}
+		
+		@Test
+		public void itDeletesTheBodiesOfTheUsersDocumentsAfterTheUser() throws Exception {
+			dao.delete(user);
+			
+			final InOrder inOrder = inOrder(bodyIdsQuery, session, deleteBodiesQuery);
+			inOrder.verify(bodyIdsQuery).setParameter("owner", user);
+			inOrder.verify(bodyIdsQuery).list();
+			inOrder.verify(session).delete(user);
+			inOrder.verify(session).flush();
+			inOrder.verify(deleteBodiesQuery).setParameterList("ids", ImmutableList.of("body1", "body2"));
+			inOrder.verify(deleteBodiesQuery).executeUpdate();
+		}
+		
+		@Test
+		public void itDeletesTheBlobsOfTheUsersDocumentsIfTheTransactionCommits() throws Exception {
+			dao.delete(user);
+			
+			verify(blobStore, never()).delete(anyString());
+			
+			completeTransaction(Status.STATUS_COMMITTED);
+			
+			verify(blobStore).delete("blob1");
+			verifyNoMoreInteractions(blobStore);
+		}
+		
+		@Test
+		public void itDoesNotDeleteTheBlobsIfTheTransactionRollsBack() throws Exception {
+			dao.delete(user);
+			
+			completeTransaction(Status.STATUS_ROLLEDBACK);
+			
+			verifyZeroInteractions(blobStore);
+		}
+		
+		@Test
+		public void itEvictsTheUsersCachedDocumentsAndLinksOnceTheTransactionIsOver() throws Exception {
+			dao.delete(user);
+			
+			verifyZeroInteractions(sessionFactory);
+			
+			completeTransaction(Status.STATUS_COMMITTED);
+			
+			verify(sessionFactory).evictEntity("com.wesabe.grendel.entities.Document", new DocumentPK(user, "doc1"));
+			verify(sessionFactory).evictEntity("com.wesabe.grendel.entities.Document", new DocumentPK(user, "doc2"));
+			verify(sessionFactory).evictCollection("com.wesabe.grendel.entities.Document.linkedUsers", new DocumentPK(user, "doc1"));
+			verify(sessionFactory).evictCollection("com.wesabe.grendel.entities.Document.linkedUsers", new DocumentPK(user, "doc2"));
+			verify(sessionFactory).evictCollection("com.wesabe.grendel.entities.Document.linkedUsers", new DocumentPK(sharedDocumentOwner, "shared"));
+			verify(sessionFactory).evictCollection("com.wesabe.grendel.entities.User.linkedDocuments", "bob");
+			verify(sessionFactory).evictCollection("com.wesabe.grendel.entities.User.linkedDocuments", "alice");
+			verifyNoMoreInteractions(sessionFactory);
+		}
+		
+		@Test
+		public void itDoesNotLookUpLinkedUsersIfTheUserHasNoDocuments() throws Exception {
+			when(bodyIdsQuery.list()).thenReturn(ImmutableList.of());
+			
+			dao.delete(user);
+			completeTransaction(Status.STATUS_COMMITTED);
+			
+			verify(session, never()).getNamedQuery("com.wesabe.grendel.entities.Document.LinkedUserIdsByOwner");
+			verify(sessionFactory).evictCollection("com.wesabe.grendel.entities.User.linkedDocuments", "bob");
+			verify(sessionFactory, never()).evictEntity(anyString(), any(Serializable.class));
+		}
+		
+		@Test
+		public void itDoesNotDeleteAnyBodiesIfTheUserHasNoDocuments() throws Exception {
+			when(bodyIdsQuery.list()).thenReturn(ImmutableList.of());
+			
+			dao.delete(user);
+			
+			verify(session, never()).getNamedQuery("com.wesabe.grendel.entities.DocumentBody.DeleteByIds");
+		}
 	}
 }
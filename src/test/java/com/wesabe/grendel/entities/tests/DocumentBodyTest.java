@@ -0,0 +1,219 @@
+package com.wesabe.grendel.entities.tests;
+
+import static org.fest.assertions.Assertions.*;
+import static org.junit.Assert.*;
+import static org.mockito.Mockito.*;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.experimental.runners.Enclosed;
+import org.junit.runner.RunWith;
+import org.mockito.InOrder;
+
+import com.wesabe.grendel.blobs.BlobOutputStream;
+import com.wesabe.grendel.blobs.BlobStore;
+import com.wesabe.grendel.blobs.BlobStores;
+import com.wesabe.grendel.entities.DocumentBody;
+import com.wesabe.grendel.openpgp.CryptographicException;
+
+@RunWith(Enclosed.class)
+public class DocumentBodyTest {
+	private static byte[] read(InputStream input) throws IOException {
+		final ByteArrayOutputStream output = new ByteArrayOutputStream();
+		final byte[] b = new byte[16];
+		int n;
+		while ((n = input.read(b)) >= 0) {
+			output.write(b, 0, n);
+		}
+		return output.toByteArray();
+	}
+	
+	public static class A_New_Document_Body {
+		private DocumentBody body;
+		
+		@Before
+		public void setup() throws Exception {
+			this.body = new DocumentBody("encrypted".getBytes());
+		}
+		
+		@Test
+		public void itHasARandomId() throws Exception {
+			assertThat(body.getId()).hasSize(36);
+			assertThat(body.getId()).isNotEqualTo(new DocumentBody("encrypted".getBytes()).getId());
+		}
+		
+		@Test
+		public void itHasData() throws Exception {
+			assertThat(body.getData()).isEqualTo("encrypted".getBytes());
+		}
+		
+		@Test
+		public void itsDataCanBeReplaced() throws Exception {
+			body.setData("re-encrypted".getBytes());
+			
+			assertThat(body.getData()).isEqualTo("re-encrypted".getBytes());
+		}
+		
+		@Test
+		public void itIsHumanReadable() throws Exception {
+			assertThat(body.toString()).isEqualTo(body.getId());
+		}
+		
+		@Test
+		public void itIsStoredInTheDatabaseWithoutABlobStore() throws Exception {
+			assertThat(body.getBlobKey()).isNull();
+			assertThat(read(body.open())).isEqualTo("encrypted".getBytes());
+		}
+	}
+	
+	public static class A_Document_Body_In_A_Blob_Store {
+		private BlobStore blobStore;
+		private DocumentBody body;
+		
+		@Before
+		public void setup() throws Exception {
+			this.blobStore = mock(BlobStore.class);
+			when(blobStore.put("encrypted".getBytes())).thenReturn("blob1");
+			when(blobStore.put("re-encrypted".getBytes())).thenReturn("blob2");
+			when(blobStore.get("blob1")).thenReturn(ByteBuffer.wrap("encrypted".getBytes()));
+			when(blobStore.get("blob2")).thenReturn(ByteBuffer.wrap("re-encrypted".getBytes()));
+			when(blobStore.open("blob1")).thenReturn(new ByteArrayInputStream("encrypted".getBytes()));
+			BlobStores.install(blobStore);
+			
+			this.body = new DocumentBody("encrypted".getBytes());
+		}
+		
+		@After
+		public void teardown() throws Exception {
+			BlobStores.uninstall();
+		}
+		
+		@Test
+		public void itStoresTheDataInTheBlobStore() throws Exception {
+			verify(blobStore).put("encrypted".getBytes());
+			assertThat(body.getBlobKey()).isEqualTo("blob1");
+		}
+		
+		@Test
+		public void itReadsTheDataFromTheBlobStore() throws Exception {
+			assertThat(body.getData()).isEqualTo("encrypted".getBytes());
+		}
+		
+		@Test
+		public void itStreamsTheDataFromTheBlobStore() throws Exception {
+			assertThat(read(body.open())).isEqualTo("encrypted".getBytes());
+		}
+		
+		@Test
+		public void itWritesReplacedDataToANewBlob() throws Exception {
+			body.setData("re-encrypted".getBytes());
+			
+			assertThat(body.getBlobKey()).isEqualTo("blob2");
+			assertThat(body.getData()).isEqualTo("re-encrypted".getBytes());
+		}
+		
+		@Test
+		public void itReportsReplacedBlobsAsStale() throws Exception {
+			assertThat(body.getStaleBlobKeys()).isEmpty();
+			
+			body.setData("re-encrypted".getBytes());
+			
+			assertThat(body.getStaleBlobKeys()).containsOnly("blob1");
+		}
+		
+		@Test
+		public void itReportsWrittenBlobsAsUncommitted() throws Exception {
+			body.setData("re-encrypted".getBytes());
+			
+			assertThat(body.getUncommittedBlobKeys()).containsOnly("blob1", "blob2");
+		}
+	}
+	
+	public static class Streaming_A_Document_Body_Into_A_Blob_Store {
+		private BlobStore blobStore;
+		private BlobOutputStream output;
+		private DocumentBody body;
+		
+		@Before
+		public void setup() throws Exception {
+			this.output = mock(BlobOutputStream.class);
+			when(output.commit()).thenReturn("blob1");
+			
+			this.blobStore = mock(BlobStore.class);
+			when(blobStore.create()).thenReturn(output);
+			BlobStores.install(blobStore);
+			
+			this.body = new DocumentBody(new DocumentBody.Writer() {
+				@Override
+				public void writeTo(OutputStream out) throws IOException {
+					out.write("encrypted".getBytes());
+				}
+			});
+		}
+		
+		@After
+		public void teardown() throws Exception {
+			BlobStores.uninstall();
+		}
+		
+		@Test
+		public void itWritesTheDataToABlobStream() throws Exception {
+			final InOrder inOrder = inOrder(output);
+			inOrder.verify(output).write("encrypted".getBytes());
+			inOrder.verify(output).commit();
+			inOrder.verify(output).close();
+			verify(blobStore, never()).put(any(byte[].class));
+		}
+		
+		@Test
+		public void itUsesTheCommittedBlob() throws Exception {
+			assertThat(body.getBlobKey()).isEqualTo("blob1");
+			assertThat(body.getUncommittedBlobKeys()).containsOnly("blob1");
+		}
+		
+		@Test
+		public void itDiscardsTheBlobIfTheWriterFails() throws Exception {
+			final BlobOutputStream failed = mock(BlobOutputStream.class);
+			when(blobStore.create()).thenReturn(failed);
+			
+			try {
+				body.setData(new DocumentBody.Writer() {
+					@Override
+					public void writeTo(OutputStream out) throws CryptographicException {
+						throw new CryptographicException("augh");
+					}
+				});
+				fail("should have thrown a CryptographicException but didn't");
+			} catch (CryptographicException e) {
+				assertThat(e.getMessage()).isEqualTo("augh");
+			}
+			
+			verify(failed, never()).commit();
+			verify(failed).close();
+			assertThat(body.getBlobKey()).isEqualTo("blob1");
+		}
+	}
+	
+	public static class Streaming_A_Document_Body_Without_A_Blob_Store {
+		@Test
+		public void itStoresTheDataInTheDatabase() throws Exception {
+			final DocumentBody body = new DocumentBody(new DocumentBody.Writer() {
+				@Override
+				public void writeTo(OutputStream out) throws IOException {
+					out.write("encrypted".getBytes());
+				}
+			});
+			
+			assertThat(body.getBlobKey()).isNull();
+			assertThat(body.getData()).isEqualTo("encrypted".getBytes());
+		}
+	}
+}
@@ -3,8 +3,12 @@ package com.wesabe.grendel.entities.tests;
 import static org.fest.assertions.Assertions.*;
 import static org.mockito.Mockito.*;
 
+import java.io.ByteArrayInputStream;
+import java.io.File;
 import java.io.FileInputStream;
+import java.io.IOException;
 import java.lang.reflect.Field;
+import java.nio.file.Files;
 import java.security.SecureRandom;
 
 import javax.ws.rs.core.MediaType;
@@ -19,7 +23,10 @@ import org.junit.experimental.runners.Enclosed;
 import org.junit.runner.RunWith;
 
 import com.google.common.collect.ImmutableList;
+import com.wesabe.grendel.blobs.BlobStores;
+import com.wesabe.grendel.blobs.FileBlobStore;
 import com.wesabe.grendel.entities.Document;
+import com.wesabe.grendel.entities.DocumentBody;
 import com.wesabe.grendel.entities.User;
 import com.wesabe.grendel.openpgp.KeySet;
 import com.wesabe.grendel.openpgp.MessageReader;
@@ -126,14 +133,79 @@ public class DocumentTest {
 			final Field bodyField = doc.getClass().getDeclaredField("body");
 			bodyField.setAccessible(true);
 
-			final byte[] encryptedBody = (byte[]) bodyField.get(doc);
+			final byte[] encryptedBody = ((DocumentBody) bodyField.get(doc)).getData();
 			final MessageReader reader = new MessageReader(ownerKeySet, recipientKeySet.unlock("test2".toCharArray()));
 
 			final byte[] decryptedBody = reader.read(encryptedBody);
 			assertThat(decryptedBody).isEqualTo(originalBody);
 		}
+		
+		@Test
+		public void itStoresAStreamedBodyAsAnEncryptedOpenPGPMessage() throws Exception {
+			final byte[] originalBody = "I am a secret document".getBytes();
+			
+			doc.linkUser(reader);
+			doc.encryptAndSetBody(ownerKeySet.unlock("test".toCharArray()), new SecureRandom(), new ByteArrayInputStream(originalBody));
+			
+			final Field bodyField = doc.getClass().getDeclaredField("body");
+			bodyField.setAccessible(true);
+			
+			final byte[] encryptedBody = ((DocumentBody) bodyField.get(doc)).getData();
+			final MessageReader reader = new MessageReader(ownerKeySet, recipientKeySet.unlock("test2".toCharArray()));
+			
+			final byte[] decryptedBody = reader.read(encryptedBody);
+			assertThat(decryptedBody).isEqualTo(originalBody);
+		}
 	}
 
+	public static class Encrypting_A_Streamed_Document_Body_Into_A_Blob_Store {
+		private KeySet ownerKeySet;
+		private File root;
+		private FileBlobStore blobStore;
+		private Document doc;
+		
+		@Before
+		public void setup() throws Exception {
+			final FileInputStream ownerKeyring = new FileInputStream("src/test/resources/secret-keyring.gpg");
+			this.ownerKeySet = KeySet.load(ownerKeyring);
+			ownerKeyring.close();
+			
+			this.root = Files.createTempDirectory("grendel-blobs").toFile();
+			this.blobStore = spy(new FileBlobStore(root));
+			BlobStores.install(blobStore);
+			
+			this.doc = new Document(new User(ownerKeySet), "test", MediaType.APPLICATION_OCTET_STREAM_TYPE);
+		}
+		
+		@After
+		public void teardown() throws Exception {
+			BlobStores.uninstall();
+			delete(root);
+		}
+		
+		private void delete(File file) throws IOException {
+			final File[] children = file.listFiles();
+			if (children != null) {
+				for (File child : children) {
+					delete(child);
+				}
+			}
+			Files.deleteIfExists(file.toPath());
+		}
+		
+		@Test
+		public void itStreamsTheEncryptedBodyIntoTheBlobStore() throws Exception {
+			final byte[] originalBody = "I am a secret document".getBytes();
+			
+			doc.encryptAndSetBody(ownerKeySet.unlock("test".toCharArray()), new SecureRandom(), new ByteArrayInputStream(originalBody));
+			
+			verify(blobStore).create();
+			verify(blobStore, never()).put(any(byte[].class));
+			assertThat(doc.getBody().getBlobKey()).isNotNull();
+			assertThat(doc.decryptBody(ownerKeySet.unlock("test".toCharArray()))).isEqualTo(originalBody);
+		}
+	}
+	
 	public static class Decrypting_A_Document_Body {
 		private KeySet ownerKeySet, recipientKeySet;
 		private User owner;
@@ -162,7 +234,7 @@ public class DocumentTest {
 			
 			final Field bodyField = doc.getClass().getDeclaredField("body");
 			bodyField.setAccessible(true);
-			bodyField.set(doc, encryptedBody);
+			bodyField.set(doc, new DocumentBody(encryptedBody));
 			
 			final byte[] decryptedBody = doc.decryptBody(recipientKeySet.unlock("test2".toCharArray()));
 			assertThat(decryptedBody).isEqualTo(originalBody);
@@ -0,0 +1,152 @@
+package com.wesabe.grendel.entities.tests;
+
+import static org.fest.assertions.Assertions.*;
+
+import org.hibernate.cache.ReadWriteCache;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.experimental.runners.Enclosed;
+import org.junit.runner.RunWith;
+
+import com.wesabe.grendel.entities.EntityCache;
+
+@RunWith(Enclosed.class)
+public class EntityCacheTest {
+	private static abstract class Context {
+		protected EntityCache cache;
+		
+		public void setup() throws Exception {
+			this.cache = new EntityCache("com.wesabe.grendel.entities.User", 2);
+		}
+	}
+	
+	public static class A_New_Cache extends Context {
+		@Before
+		@Override
+		public void setup() throws Exception {
+			super.setup();
+		}
+		
+		@Test
+		public void itHasARegionName() throws Exception {
+			assertThat(cache.getRegionName()).isEqualTo("com.wesabe.grendel.entities.User");
+		}
+		
+		@Test
+		public void itHasACapacity() throws Exception {
+			assertThat(cache.getCapacity()).isEqualTo(2);
+		}
+		
+		@Test
+		public void itIsEmpty() throws Exception {
+			assertThat(cache.getSize()).isEqualTo(0);
+			assertThat(cache.getHitRatio()).isEqualTo(0.0);
+		}
+	}
+	
+	public static class Caching_Entries extends Context {
+		@Before
+		@Override
+		public void setup() throws Exception {
+			super.setup();
+			
+			cache.put("one", 1);
+		}
+		
+		@Test
+		public void itReturnsCachedEntries() throws Exception {
+			assertThat(cache.get("one")).isEqualTo(1);
+			assertThat(cache.read("one")).isEqualTo(1);
+		}
+		
+		@Test
+		public void itReturnsNullForMissingEntries() throws Exception {
+			assertThat(cache.get("two")).isNull();
+		}
+		
+		@Test
+		public void itCountsHitsAndMisses() throws Exception {
+			cache.get("one");
+			cache.get("one");
+			cache.get("one");
+			cache.get("two");
+			
+			assertThat(cache.getHitCount()).isEqualTo(3);
+			assertThat(cache.getMissCount()).isEqualTo(1);
+			assertThat(cache.getHitRatio()).isEqualTo(0.75);
+		}
+		
+		@Test
+		public void itUpdatesEntries() throws Exception {
+			cache.update("one", 11);
+			
+			assertThat(cache.get("one")).isEqualTo(11);
+		}
+		
+		@Test
+		public void itRemovesEntries() throws Exception {
+			cache.remove("one");
+			
+			assertThat(cache.get("one")).isNull();
+		}
+		
+		@Test
+		public void itCanBeCleared() throws Exception {
+			cache.clear();
+			
+			assertThat(cache.getSize()).isEqualTo(0);
+			assertThat(cache.toMap()).isEmpty();
+		}
+	}
+	
+	public static class Caching_More_Entries_Than_Capacity extends Context {
+		@Before
+		@Override
+		public void setup() throws Exception {
+			super.setup();
+			
+			cache.put("one", 1);
+			cache.put("two", 2);
+			cache.get("one");
+			cache.put("three", 3);
+		}
+		
+		@Test
+		public void itEvictsTheLeastRecentlyUsedEntry() throws Exception {
+			assertThat(cache.getSize()).isEqualTo(2);
+			assertThat(cache.get("two")).isNull();
+			assertThat(cache.get("one")).isEqualTo(1);
+			assertThat(cache.get("three")).isEqualTo(3);
+		}
+		
+		@Test
+		public void itCountsEvictions() throws Exception {
+			assertThat(cache.getEvictionCount()).isEqualTo(1);
+		}
+	}
+	
+	public static class Evicting_A_Soft_Lock extends Context {
+		@Before
+		@Override
+		public void setup() throws Exception {
+			super.setup();
+			
+			cache.put("one", new ReadWriteCache.Lock(cache.nextTimestamp() + cache.getTimeout(), 1, null));
+			cache.put("two", 2);
+			cache.put("three", 3);
+		}
+		
+		@Test
+		public void itKeepsTheLock() throws Exception {
+			assertThat(cache.get("one")).isInstanceOf(ReadWriteCache.Lock.class);
+		}
+		
+		@Test
+		public void itEvictsTheLeastRecentlyUsedEntryWhichIsNotALock() throws Exception {
+			assertThat(cache.getSize()).isEqualTo(2);
+			assertThat(cache.get("two")).isNull();
+			assertThat(cache.get("three")).isEqualTo(3);
+			assertThat(cache.getEvictionCount()).isEqualTo(1);
+		}
+	}
+}
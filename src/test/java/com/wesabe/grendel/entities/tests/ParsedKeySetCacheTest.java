@@ -0,0 +1,122 @@
+package com.wesabe.grendel.entities.tests;
+
+import static org.fest.assertions.Assertions.*;
+
+import java.io.ByteArrayOutputStream;
+import java.io.FileInputStream;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.experimental.runners.Enclosed;
+import org.junit.runner.RunWith;
+
+import com.wesabe.grendel.entities.ParsedKeySetCache;
+import com.wesabe.grendel.openpgp.KeySet;
+
+@RunWith(Enclosed.class)
+public class ParsedKeySetCacheTest {
+	private static abstract class Context {
+		protected byte[] encoded, otherEncoded;
+		protected ParsedKeySetCache cache;
+		
+		public void setup() throws Exception {
+			this.encoded = read("src/test/resources/secret-keyring.gpg");
+			this.otherEncoded = read("src/test/resources/another-secret-keyring.gpg");
+			this.cache = new ParsedKeySetCache(capacity());
+		}
+		
+		protected int capacity() {
+			return 32;
+		}
+		
+		private byte[] read(String filename) throws Exception {
+			final FileInputStream input = new FileInputStream(filename);
+			final ByteArrayOutputStream output = new ByteArrayOutputStream();
+			final byte[] b = new byte[4096];
+			int r = 0;
+			while ((r = input.read(b)) >= 0) {
+				output.write(b, 0, r);
+			}
+			input.close();
+			return output.toByteArray();
+		}
+	}
+	
+	public static class Loading_A_Key_Set extends Context {
+		@Before
+		@Override
+		public void setup() throws Exception {
+			super.setup();
+		}
+		
+		@Test
+		public void itParsesTheKeySet() throws Exception {
+			final KeySet keySet = cache.get("bob", 1, encoded);
+			
+			assertThat(keySet.getMasterKey().getKeyID()).isEqualTo(0x8C7035EF8838238CL);
+			assertThat(cache.getMissCount()).isEqualTo(1);
+		}
+		
+		@Test
+		public void itReturnsTheSameKeySetForTheSameVersion() throws Exception {
+			final KeySet keySet = cache.get("bob", 1, encoded);
+			
+			assertThat(cache.get("bob", 1, encoded)).isSameAs(keySet);
+			assertThat(cache.getHitCount()).isEqualTo(1);
+			assertThat(cache.getSize()).isEqualTo(1);
+		}
+		
+		@Test
+		public void itParsesANewVersion() throws Exception {
+			final KeySet keySet = cache.get("bob", 1, encoded);
+			
+			assertThat(cache.get("bob", 2, encoded)).isNotSameAs(keySet);
+		}
+		
+		@Test
+		public void itParsesADifferentKeySetWithTheSameVersion() throws Exception {
+			cache.get("bob", 0, encoded);
+			
+			final KeySet keySet = cache.get("bob", 0, otherEncoded);
+			
+			assertThat(keySet.getMasterKey().getKeyID()).isNotEqualTo(0x8C7035EF8838238CL);
+			assertThat(cache.getHitCount()).isEqualTo(0);
+		}
+	}
+	
+	public static class A_Full_Cache extends Context {
+		@Before
+		@Override
+		public void setup() throws Exception {
+			super.setup();
+			
+			for (int i = 0; i < 100; i++) {
+				cache.get("user" + i, 0, encoded);
+			}
+		}
+		
+		@Test
+		public void itIsBounded() throws Exception {
+			assertThat(cache.getSize()).isLessThanOrEqualTo(32);
+		}
+	}
+	
+	public static class A_Disabled_Cache extends Context {
+		@Before
+		@Override
+		public void setup() throws Exception {
+			super.setup();
+		}
+		
+		@Override
+		protected int capacity() {
+			return 0;
+		}
+		
+		@Test
+		public void itAlwaysParsesTheKeySet() throws Exception {
+			assertThat(cache.get("bob", 1, encoded)).isNotSameAs(cache.get("bob", 1, encoded));
+			assertThat(cache.getSize()).isEqualTo(0);
+		}
+	}
+}
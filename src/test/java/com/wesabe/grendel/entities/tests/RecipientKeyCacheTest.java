@@ -0,0 +1,147 @@
+package com.wesabe.grendel.entities.tests;
+
+import static org.fest.assertions.Assertions.*;
+import static org.mockito.Mockito.*;
+
+import java.io.FileInputStream;
+import java.util.List;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.experimental.runners.Enclosed;
+import org.junit.runner.RunWith;
+
+import com.google.common.collect.ImmutableList;
+import com.wesabe.grendel.entities.RecipientKeyCache;
+import com.wesabe.grendel.entities.User;
+import com.wesabe.grendel.openpgp.KeySet;
+import com.wesabe.grendel.openpgp.RecipientKey;
+
+@RunWith(Enclosed.class)
+public class RecipientKeyCacheTest {
+	private static abstract class Context {
+		protected KeySet keySet, otherKeySet;
+		protected User user, otherUser;
+		protected RecipientKeyCache cache;
+		
+		public void setup() throws Exception {
+			this.keySet = load("src/test/resources/secret-keyring.gpg");
+			this.otherKeySet = load("src/test/resources/another-secret-keyring.gpg");
+			this.user = new User(keySet);
+			this.otherUser = new User(otherKeySet);
+			this.cache = new RecipientKeyCache(capacity());
+		}
+		
+		protected int capacity() {
+			return 32;
+		}
+		
+		private KeySet load(String filename) throws Exception {
+			final FileInputStream input = new FileInputStream(filename);
+			final KeySet keySet = KeySet.load(input);
+			input.close();
+			return keySet;
+		}
+	}
+	
+	public static class Looking_Up_Recipient_Keys extends Context {
+		@Before
+		@Override
+		public void setup() throws Exception {
+			super.setup();
+		}
+		
+		@Test
+		public void itReturnsTheRecipientKeysInOrder() throws Exception {
+			final List<RecipientKey> keys = cache.get(ImmutableList.of(otherUser, user));
+			
+			assertThat(keys).containsExactly(otherKeySet.getRecipientKey(), keySet.getRecipientKey());
+			assertThat(cache.getMissCount()).isEqualTo(2);
+			assertThat(cache.getSize()).isEqualTo(2);
+		}
+		
+		@Test
+		public void itReturnsTheSameKeysForTheSameUsers() throws Exception {
+			final RecipientKey key = cache.get(ImmutableList.of(user)).get(0);
+			
+			assertThat(cache.get(ImmutableList.of(user, otherUser)).get(0)).isSameAs(key);
+			assertThat(cache.getHitCount()).isEqualTo(1);
+			assertThat(cache.getMissCount()).isEqualTo(2);
+			assertThat(cache.getHitRatio()).isEqualTo(1 / 3.0);
+		}
+		
+		@Test
+		public void itDecodesTheNewKeyAfterTheKeySetChanges() throws Exception {
+			final RecipientKey key = cache.get(ImmutableList.of(user)).get(0);
+			
+			user.setKeySet(otherKeySet);
+			
+			final RecipientKey newKey = cache.get(ImmutableList.of(user)).get(0);
+			assertThat(newKey).isNotSameAs(key);
+			assertThat(newKey).isEqualTo(otherKeySet.getRecipientKey());
+		}
+		
+		@Test
+		public void itFallsBackToTheKeySetForUsersWithoutStoredRecipientKeys() throws Exception {
+			final User legacyUser = mock(User.class);
+			when(legacyUser.getId()).thenReturn("legacy");
+			when(legacyUser.getKeySet()).thenReturn(keySet);
+			
+			assertThat(cache.get(ImmutableList.of(legacyUser))).containsExactly(keySet.getRecipientKey());
+			assertThat(cache.getSize()).isEqualTo(0);
+		}
+		
+		@Test
+		public void itCanBeCleared() throws Exception {
+			cache.get(ImmutableList.of(user, otherUser));
+			cache.clear();
+			
+			assertThat(cache.getSize()).isEqualTo(0);
+		}
+	}
+	
+	public static class A_Full_Cache extends Context {
+		@Before
+		@Override
+		public void setup() throws Exception {
+			super.setup();
+		}
+		
+		@Override
+		protected int capacity() {
+			return 1;
+		}
+		
+		@Test
+		public void itEvictsTheLeastRecentlyUsedKey() throws Exception {
+			cache.get(ImmutableList.of(user));
+			cache.get(ImmutableList.of(otherUser));
+			
+			assertThat(cache.getSize()).isEqualTo(1);
+			cache.get(ImmutableList.of(otherUser));
+			assertThat(cache.getHitCount()).isEqualTo(1);
+		}
+	}
+	
+	public static class A_Disabled_Cache extends Context {
+		@Before
+		@Override
+		public void setup() throws Exception {
+			super.setup();
+		}
+		
+		@Override
+		protected int capacity() {
+			return 0;
+		}
+		
+		@Test
+		public void itAlwaysDecodes() throws Exception {
+			cache.get(ImmutableList.of(user));
+			cache.get(ImmutableList.of(user));
+			
+			assertThat(cache.getSize()).isEqualTo(0);
+			assertThat(cache.getMissCount()).isEqualTo(2);
+		}
+	}
+}
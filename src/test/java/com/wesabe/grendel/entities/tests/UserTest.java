@@ -15,13 +15,16 @@ import org.junit.Test;
 import org.junit.experimental.runners.Enclosed;
 import org.junit.runner.RunWith;
 
+import com.google.common.collect.ImmutableList;
 import com.wesabe.grendel.entities.User;
 import com.wesabe.grendel.openpgp.KeySet;
+import com.wesabe.grendel.openpgp.RecipientKey;
 
 @RunWith(Enclosed.class)
 public class UserTest {
 	public static class A_Fresh_User {
 		private KeySet keySet;
+		private RecipientKey recipientKey;
 		private DateTime now;
 		
 		@Before
@@ -31,6 +34,11 @@ public class UserTest {
 			
 			this.keySet = mock(KeySet.class);
 			when(keySet.getUserID()).thenReturn("user");
+			
+			final FileInputStream keyRingFile = new FileInputStream("src/test/resources/secret-keyring.gpg");
+			this.recipientKey = KeySet.load(keyRingFile).getRecipientKey();
+			keyRingFile.close();
+			when(keySet.getRecipientKey()).thenReturn(recipientKey);
 		}
 		
 		@After
@@ -80,6 +88,14 @@ public class UserTest {
 			
 			assertThat(user.getEtag()).isEqualTo("user-user-0");
 		}
+		
+		@Test
+		public void itHasARecipientKey() throws Exception {
+			final User user = new User(keySet);
+			
+			assertThat(User.getRecipientKeys(ImmutableList.of(user))).containsOnly(recipientKey);
+			verify(keySet, never()).getSubKey();
+		}
 	}
 	
 	public static class A_User_Loaded_From_The_Database {
@@ -0,0 +1,192 @@
+package com.wesabe.grendel.openpgp;
+
+import static org.fest.assertions.Assertions.*;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.FileInputStream;
+import java.io.OutputStream;
+import java.security.SecureRandom;
+import java.util.Random;
+
+import org.bouncycastle.bcpg.BCPGInputStream;
+import org.bouncycastle.bcpg.PacketTags;
+import org.bouncycastle.bcpg.PublicKeyEncSessionPacket;
+import org.bouncycastle.bcpg.SymmetricEncIntegrityPacket;
+import org.bouncycastle.openpgp.PGPEncryptedDataGenerator;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.experimental.runners.Enclosed;
+import org.junit.runner.RunWith;
+
+/*
+ * IntegrityProtectedInputStream and SessionKey are package-private, so this
+ * lives in their package rather than in openpgp.tests.
+ */
+@RunWith(Enclosed.class)
+public class IntegrityProtectedInputStreamTest {
+	private static final int CHUNK_SIZE = 1 << 16;
+	private static final int OVERHEAD = 1 + 18 + 22;
+
+	private static abstract class Context {
+		protected UnlockedKeySet recipient;
+		protected SecureRandom random;
+
+		public void setup() throws Exception {
+			final FileInputStream keyRingFile = new FileInputStream("src/test/resources/another-secret-keyring.gpg");
+			this.recipient = KeySet.load(keyRingFile).unlock("test2".toCharArray());
+			keyRingFile.close();
+
+			this.random = new SecureRandom();
+		}
+
+		protected byte[] body(int length) {
+			final byte[] body = new byte[length];
+			new Random(length).nextBytes(body);
+			return body;
+		}
+
+		protected byte[] encryptWithBouncyCastle(byte[] body) throws Exception {
+			final ByteArrayOutputStream output = new ByteArrayOutputStream();
+			final PGPEncryptedDataGenerator generator = new PGPEncryptedDataGenerator(
+					SymmetricAlgorithm.DEFAULT.toInteger(), true, random, CryptoProviders.getName());
+			generator.addMethod(recipient.getSubKey().getPublicKey());
+
+			final OutputStream data = generator.open(output, new byte[CHUNK_SIZE]);
+			data.write(body);
+			data.close();
+			return output.toByteArray();
+		}
+
+		protected IntegrityProtectedInputStream open(byte[] message) throws Exception {
+			final BCPGInputStream packets = new BCPGInputStream(new ByteArrayInputStream(message));
+			PublicKeyEncSessionPacket recipientPacket = null;
+			while (packets.nextPacketTag() == PacketTags.PUBLIC_KEY_ENC_SESSION) {
+				recipientPacket = (PublicKeyEncSessionPacket) packets.readPacket();
+			}
+
+			final SymmetricEncIntegrityPacket dataPacket = (SymmetricEncIntegrityPacket) packets.readPacket();
+			final SessionKey sessionKey = SessionKey.decrypt(recipientPacket, recipient.getUnlockedSubKey());
+			try {
+				return new IntegrityProtectedInputStream(dataPacket.getInputStream(), sessionKey);
+			} finally {
+				sessionKey.destroy();
+			}
+		}
+
+		protected byte[] readFully(IntegrityProtectedInputStream input) throws Exception {
+			final ByteArrayOutputStream output = new ByteArrayOutputStream();
+			final byte[] b = new byte[4096];
+			int r = 0;
+			while ((r = input.read(b)) >= 0) {
+				output.write(b, 0, r);
+			}
+			return output.toByteArray();
+		}
+
+		protected void assertReadable(int length) throws Exception {
+			final byte[] body = body(length);
+			final IntegrityProtectedInputStream input = open(encryptWithBouncyCastle(body));
+			try {
+				assertThat(readFully(input)).isEqualTo(body);
+				assertThat(input.verify()).isTrue();
+			} finally {
+				input.close();
+			}
+		}
+	}
+
+	public static class Reading_A_Message_Written_By_Bouncy_Castle extends Context {
+		@Before
+		@Override
+		public void setup() throws Exception {
+			super.setup();
+		}
+
+		@Test
+		public void itReadsAnEmptyBody() throws Exception {
+			assertReadable(0);
+		}
+
+		@Test
+		public void itReadsAOneByteBody() throws Exception {
+			assertReadable(1);
+		}
+
+		@Test
+		public void itReadsAPowerOfTwoBody() throws Exception {
+			assertReadable(512);
+			assertReadable(CHUNK_SIZE);
+		}
+
+		@Test
+		public void itReadsAPacketOfExactlyOneChunk() throws Exception {
+			assertReadable(CHUNK_SIZE - OVERHEAD);
+		}
+
+		@Test
+		public void itReadsAPacketOfExactlyTwoChunks() throws Exception {
+			assertReadable((CHUNK_SIZE * 2) - OVERHEAD);
+		}
+
+		@Test
+		public void itReadsALargeBody() throws Exception {
+			assertReadable(300007);
+		}
+	}
+
+	public static class Reading_A_Tampered_Message extends Context {
+		private static final int LENGTH = 1000;
+		private byte[] message;
+
+		/*
+		 * The body is smaller than a chunk, so the packet has a definite length
+		 * and the ciphertext -- prefix, data, and MDC -- is the end of the
+		 * message.
+		 */
+		@Before
+		@Override
+		public void setup() throws Exception {
+			super.setup();
+			this.message = encryptWithBouncyCastle(body(LENGTH));
+		}
+
+		private boolean verifyAfterFlipping(int index) throws Exception {
+			message[index] ^= 0x01;
+
+			final IntegrityProtectedInputStream input = open(message);
+			try {
+				readFully(input);
+				return input.verify();
+			} finally {
+				input.close();
+			}
+		}
+
+		@Test
+		public void itVerifiesTheUntamperedMessage() throws Exception {
+			final IntegrityProtectedInputStream input = open(message);
+			try {
+				assertThat(readFully(input)).isEqualTo(body(LENGTH));
+				assertThat(input.verify()).isTrue();
+			} finally {
+				input.close();
+			}
+		}
+
+		@Test
+		public void itDoesNotVerifyATamperedPrefix() throws Exception {
+			assertThat(verifyAfterFlipping(message.length - (OVERHEAD - 1) - LENGTH + 5)).isFalse();
+		}
+
+		@Test
+		public void itDoesNotVerifyATamperedBody() throws Exception {
+			assertThat(verifyAfterFlipping(message.length - 22 - (LENGTH / 2))).isFalse();
+		}
+
+		@Test
+		public void itDoesNotVerifyATamperedModificationDetectionCode() throws Exception {
+			assertThat(verifyAfterFlipping(message.length - 3)).isFalse();
+		}
+	}
+}
@@ -0,0 +1,161 @@
+package com.wesabe.grendel.openpgp;
+
+import static org.fest.assertions.Assertions.*;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.FileInputStream;
+import java.io.InputStream;
+import java.security.SecureRandom;
+import java.util.Random;
+
+import org.bouncycastle.bcpg.BCPGOutputStream;
+import org.bouncycastle.bcpg.PublicKeyEncSessionPacket;
+import org.bouncycastle.openpgp.PGPEncryptedDataList;
+import org.bouncycastle.openpgp.PGPObjectFactory;
+import org.bouncycastle.openpgp.PGPPublicKeyEncryptedData;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.experimental.runners.Enclosed;
+import org.junit.runner.RunWith;
+
+import com.google.common.collect.ImmutableList;
+
+/*
+ * IntegrityProtectedOutputStream and SessionKey are package-private, so this
+ * lives in their package rather than in openpgp.tests.
+ */
+@RunWith(Enclosed.class)
+public class IntegrityProtectedOutputStreamTest {
+	private static final int CHUNK_SIZE = 1 << 16;
+
+	/*
+	 * The version number, the 18-byte random prefix, and the 22-byte MDC
+	 * packet, all of which are in the packet body along with the data.
+	 */
+	private static final int OVERHEAD = 1 + 18 + 22;
+
+	private static abstract class Context {
+		protected UnlockedKeySet recipient;
+		protected SecureRandom random;
+
+		public void setup() throws Exception {
+			final FileInputStream keyRingFile = new FileInputStream("src/test/resources/another-secret-keyring.gpg");
+			this.recipient = KeySet.load(keyRingFile).unlock("test2".toCharArray());
+			keyRingFile.close();
+
+			this.random = new SecureRandom();
+		}
+
+		protected byte[] body(int length) {
+			final byte[] body = new byte[length];
+			new Random(length).nextBytes(body);
+			return body;
+		}
+
+		protected byte[] encrypt(byte[] body) throws Exception {
+			final ByteArrayOutputStream output = new ByteArrayOutputStream();
+			final SessionKey sessionKey = SessionKey.generate(SymmetricAlgorithm.DEFAULT, random);
+			try {
+				final BCPGOutputStream packetOutput = new BCPGOutputStream(output);
+				for (PublicKeyEncSessionPacket packet : sessionKey.encrypt(ImmutableList.of(recipient.getRecipientKey()), random)) {
+					packetOutput.writePacket(packet);
+				}
+
+				final IntegrityProtectedOutputStream data = new IntegrityProtectedOutputStream(output, sessionKey, random, new byte[CHUNK_SIZE]);
+				data.write(body);
+				data.close();
+			} finally {
+				sessionKey.destroy();
+			}
+			return output.toByteArray();
+		}
+
+		protected PGPPublicKeyEncryptedData decryptWithBouncyCastle(byte[] message, ByteArrayOutputStream output) throws Exception {
+			final PGPObjectFactory factory = new PGPObjectFactory(new ByteArrayInputStream(message));
+			final PGPEncryptedDataList list = (PGPEncryptedDataList) factory.nextObject();
+			final PGPPublicKeyEncryptedData data = (PGPPublicKeyEncryptedData) list.get(0);
+
+			final InputStream input = data.getDataStream(recipient.getUnlockedSubKey().getPrivateKey(), CryptoProviders.getName());
+			final byte[] b = new byte[4096];
+			int r = 0;
+			while ((r = input.read(b)) >= 0) {
+				output.write(b, 0, r);
+			}
+			return data;
+		}
+
+		protected void assertReadableByBouncyCastle(int length) throws Exception {
+			final byte[] body = body(length);
+			final ByteArrayOutputStream output = new ByteArrayOutputStream();
+			final PGPPublicKeyEncryptedData data = decryptWithBouncyCastle(encrypt(body), output);
+
+			assertThat(output.toByteArray()).isEqualTo(body);
+			assertThat(data.isIntegrityProtected()).isTrue();
+			assertThat(data.verify()).isTrue();
+		}
+	}
+
+	public static class Writing_A_Message_Read_By_Bouncy_Castle extends Context {
+		@Before
+		@Override
+		public void setup() throws Exception {
+			super.setup();
+		}
+
+		@Test
+		public void itWritesAnEmptyBody() throws Exception {
+			assertReadableByBouncyCastle(0);
+		}
+
+		@Test
+		public void itWritesAOneByteBody() throws Exception {
+			assertReadableByBouncyCastle(1);
+		}
+
+		@Test
+		public void itWritesAPowerOfTwoBody() throws Exception {
+			assertReadableByBouncyCastle(512);
+			assertReadableByBouncyCastle(CHUNK_SIZE);
+		}
+
+		@Test
+		public void itWritesAPacketOfExactlyOneChunk() throws Exception {
+			assertReadableByBouncyCastle(CHUNK_SIZE - OVERHEAD);
+		}
+
+		@Test
+		public void itWritesAPacketOfExactlyTwoChunks() throws Exception {
+			assertReadableByBouncyCastle((CHUNK_SIZE * 2) - OVERHEAD);
+		}
+
+		@Test
+		public void itWritesAPacketStraddlingAChunkBoundary() throws Exception {
+			assertReadableByBouncyCastle(CHUNK_SIZE - OVERHEAD - 1);
+			assertReadableByBouncyCastle(CHUNK_SIZE - OVERHEAD + 1);
+		}
+
+		@Test
+		public void itWritesALargeBody() throws Exception {
+			assertReadableByBouncyCastle(300007);
+		}
+	}
+
+	public static class Writing_A_Message_Tampered_With_After_Being_Written extends Context {
+		@Before
+		@Override
+		public void setup() throws Exception {
+			super.setup();
+		}
+
+		@Test
+		public void itsModificationDetectionCodeDoesNotVerify() throws Exception {
+			final byte[] message = encrypt(body(1000));
+			message[message.length - 3] ^= 0x01;
+
+			final PGPPublicKeyEncryptedData data = decryptWithBouncyCastle(message, new ByteArrayOutputStream());
+
+			assertThat(data.verify()).isFalse();
+		}
+	}
+}
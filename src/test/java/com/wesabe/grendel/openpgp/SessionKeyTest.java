@@ -0,0 +1,108 @@
+package com.wesabe.grendel.openpgp;
+
+import static org.fest.assertions.Assertions.*;
+import static org.junit.Assert.*;
+
+import java.io.FileInputStream;
+import java.math.BigInteger;
+import java.security.SecureRandom;
+
+import javax.crypto.Cipher;
+
+import org.bouncycastle.bcpg.PublicKeyEncSessionPacket;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.experimental.runners.Enclosed;
+import org.junit.runner.RunWith;
+
+/*
+ * SessionKey is package-private, so this lives in its package rather than in
+ * openpgp.tests.
+ */
+@RunWith(Enclosed.class)
+public class SessionKeyTest {
+	private static abstract class Context {
+		protected UnlockedKeySet recipient;
+		protected SecureRandom random;
+
+		public void setup() throws Exception {
+			final FileInputStream keyRingFile = new FileInputStream("src/test/resources/another-secret-keyring.gpg");
+			this.recipient = KeySet.load(keyRingFile).unlock("test2".toCharArray());
+			keyRingFile.close();
+
+			this.random = new SecureRandom();
+		}
+
+		/*
+		 * Encrypts an arbitrary algorithm ID and key, with a valid checksum,
+		 * to the recipient.
+		 */
+		protected PublicKeyEncSessionPacket packet(int algorithm, int keyLength) throws Exception {
+			final byte[] plaintext = new byte[keyLength + 3];
+			plaintext[0] = (byte) algorithm;
+			int checksum = 0;
+			for (int i = 1; i <= keyLength; i++) {
+				plaintext[i] = (byte) random.nextInt();
+				checksum += plaintext[i] & 0xff;
+			}
+			plaintext[plaintext.length - 2] = (byte) (checksum >> 8);
+			plaintext[plaintext.length - 1] = (byte) checksum;
+
+			final RecipientKey key = recipient.getRecipientKey();
+			final Cipher cipher = Cipher.getInstance("RSA/ECB/PKCS1Padding", CryptoProviders.getName());
+			cipher.init(Cipher.ENCRYPT_MODE, key.getPublicKey(), random);
+			return new PublicKeyEncSessionPacket(
+				key.getKeyID(),
+				key.getAlgorithm(),
+				new BigInteger[] { new BigInteger(1, cipher.doFinal(plaintext)) }
+			);
+		}
+
+		protected void assertRejected(PublicKeyEncSessionPacket packet) throws Exception {
+			try {
+				SessionKey.decrypt(packet, recipient.getUnlockedSubKey());
+				fail("should have thrown a CryptographicException but didn't");
+			} catch (CryptographicException e) {
+				assertThat(e).isNotNull();
+			}
+		}
+	}
+
+	public static class Decrypting_A_Session_Key extends Context {
+		@Before
+		@Override
+		public void setup() throws Exception {
+			super.setup();
+		}
+
+		@Test
+		public void itAcceptsEachAESKeySize() throws Exception {
+			assertThat(SessionKey.decrypt(packet(SymmetricAlgorithm.AES_128.toInteger(), 16), recipient.getUnlockedSubKey()).getAlgorithm())
+					.isEqualTo(SymmetricAlgorithm.AES_128);
+			assertThat(SessionKey.decrypt(packet(SymmetricAlgorithm.AES_192.toInteger(), 24), recipient.getUnlockedSubKey()).getAlgorithm())
+					.isEqualTo(SymmetricAlgorithm.AES_192);
+			assertThat(SessionKey.decrypt(packet(SymmetricAlgorithm.AES_256.toInteger(), 32), recipient.getUnlockedSubKey()).getAlgorithm())
+					.isEqualTo(SymmetricAlgorithm.AES_256);
+		}
+
+		@Test
+		public void itRejectsAnUnsupportedAlgorithm() throws Exception {
+			assertRejected(packet(SymmetricAlgorithm.CAST_128.toInteger(), 16));
+		}
+
+		@Test
+		public void itRejectsAnUnknownAlgorithm() throws Exception {
+			assertRejected(packet(99, 16));
+		}
+
+		@Test
+		public void itRejectsAKeyWhichIsTooShortForItsAlgorithm() throws Exception {
+			assertRejected(packet(SymmetricAlgorithm.AES_256.toInteger(), 16));
+		}
+
+		@Test
+		public void itRejectsAKeyWhichIsTooLongForItsAlgorithm() throws Exception {
+			assertRejected(packet(SymmetricAlgorithm.AES_128.toInteger(), 32));
+		}
+	}
+}
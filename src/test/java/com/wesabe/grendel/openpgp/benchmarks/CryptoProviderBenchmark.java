@@ -0,0 +1,134 @@
+package com.wesabe.grendel.openpgp.benchmarks;
+
+import java.security.KeyPair;
+import java.security.KeyPairGenerator;
+import java.security.MessageDigest;
+import java.security.SecureRandom;
+import java.security.Signature;
+import java.security.spec.RSAKeyGenParameterSpec;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import javax.crypto.Cipher;
+import javax.crypto.spec.IvParameterSpec;
+import javax.crypto.spec.SecretKeySpec;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+import com.wesabe.grendel.openpgp.CryptoProviders;
+import com.wesabe.grendel.openpgp.RoutingProvider;
+
+/**
+ * Compares each primitive Grendel uses on Bouncy Castle and on the
+ * {@link RoutingProvider}.
+ * <p>
+ * Run with {@code mvn test-compile exec:java -Dexec.classpathScope=test
+ * -Dexec.mainClass=com.wesabe.grendel.openpgp.benchmarks.CryptoProviderBenchmark}.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3)
+@Measurement(iterations = 5)
+@Fork(1)
+public class CryptoProviderBenchmark {
+	@Param({ "BC", "routed" })
+	public String provider;
+	
+	private byte[] data, iv;
+	private SecretKeySpec aesKey;
+	private KeyPair rsaKeyPair;
+	private byte[] encryptedSessionKey;
+	private SecureRandom random;
+	
+	@Setup
+	public void setup() throws Exception {
+		if ("routed".equals(provider)) {
+			CryptoProviders.installRouting(RoutingProvider.DEFAULT_PREFERRED_PROVIDERS);
+		} else {
+			CryptoProviders.uninstallRouting();
+		}
+		
+		this.random = new SecureRandom();
+		this.data = new byte[1024 * 1024];
+		new Random(0).nextBytes(data);
+		this.iv = new byte[16];
+		this.aesKey = new SecretKeySpec(new byte[32], "AES");
+		
+		final KeyPairGenerator generator = KeyPairGenerator.getInstance("RSA", CryptoProviders.getName());
+		generator.initialize(new RSAKeyGenParameterSpec(2048, RSAKeyGenParameterSpec.F4), random);
+		this.rsaKeyPair = generator.generateKeyPair();
+		
+		final Cipher rsa = Cipher.getInstance("RSA/ECB/PKCS1Padding", CryptoProviders.getName());
+		rsa.init(Cipher.ENCRYPT_MODE, rsaKeyPair.getPublic(), random);
+		this.encryptedSessionKey = rsa.doFinal(new byte[35]);
+	}
+	
+	@TearDown
+	public void teardown() {
+		CryptoProviders.uninstallRouting();
+	}
+	
+	@Benchmark
+	public byte[] aes256CfbEncrypt1MB() throws Exception {
+		final Cipher cipher = Cipher.getInstance("AES/CFB/NoPadding", CryptoProviders.getName());
+		cipher.init(Cipher.ENCRYPT_MODE, aesKey, new IvParameterSpec(iv));
+		return cipher.doFinal(data);
+	}
+	
+	@Benchmark
+	public byte[] sha1Digest1MB() throws Exception {
+		return MessageDigest.getInstance("SHA-1", CryptoProviders.getName()).digest(data);
+	}
+	
+	@Benchmark
+	public byte[] sha256Digest1MB() throws Exception {
+		return MessageDigest.getInstance("SHA-256", CryptoProviders.getName()).digest(data);
+	}
+	
+	@Benchmark
+	public byte[] rsa2048Decrypt() throws Exception {
+		final Cipher cipher = Cipher.getInstance("RSA/ECB/PKCS1Padding", CryptoProviders.getName());
+		cipher.init(Cipher.DECRYPT_MODE, rsaKeyPair.getPrivate());
+		return cipher.doFinal(encryptedSessionKey);
+	}
+	
+	@Benchmark
+	public byte[] rsa2048Sign() throws Exception {
+		final Signature signature = Signature.getInstance("SHA256withRSA", CryptoProviders.getName());
+		signature.initSign(rsaKeyPair.getPrivate());
+		signature.update(data, 0, 1024);
+		return signature.sign();
+	}
+	
+	@Benchmark
+	@BenchmarkMode(Mode.SingleShotTime)
+	@OutputTimeUnit(TimeUnit.MILLISECONDS)
+	@Measurement(iterations = 20)
+	public KeyPair rsa2048Generate() throws Exception {
+		final KeyPairGenerator generator = KeyPairGenerator.getInstance("RSA", CryptoProviders.getName());
+		generator.initialize(new RSAKeyGenParameterSpec(2048, RSAKeyGenParameterSpec.F4), random);
+		return generator.generateKeyPair();
+	}
+	
+	public static void main(String[] args) throws Exception {
+		new Runner(
+			new OptionsBuilder()
+				.include(CryptoProviderBenchmark.class.getSimpleName())
+				.build()
+		).run();
+	}
+}
@@ -0,0 +1,97 @@
+package com.wesabe.grendel.openpgp.benchmarks;
+
+import java.io.ByteArrayInputStream;
+import java.io.FileInputStream;
+import java.io.OutputStream;
+import java.security.SecureRandom;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+import com.google.common.collect.ImmutableList;
+import com.wesabe.grendel.openpgp.KeySet;
+import com.wesabe.grendel.openpgp.MessageWriter;
+import com.wesabe.grendel.openpgp.UnlockedKeySet;
+
+/**
+ * Compares the sequential and pipelined modes of {@link MessageWriter}.
+ * <p>
+ * Run with {@code mvn test-compile exec:java -Dexec.classpathScope=test
+ * -Dexec.mainClass=com.wesabe.grendel.openpgp.benchmarks.MessageWriterBenchmark}.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3)
+@Measurement(iterations = 5)
+@Fork(1)
+public class MessageWriterBenchmark {
+	private static final OutputStream NULL_OUTPUT = new OutputStream() {
+		@Override
+		public void write(int b) {
+			// discard
+		}
+		
+		@Override
+		public void write(byte[] b, int off, int len) {
+			// discard
+		}
+	};
+	
+	@Param({ "1048576", "16777216", "67108864" })
+	public int size;
+	
+	private UnlockedKeySet owner;
+	private byte[] body;
+	
+	@Setup
+	public void setup() throws Exception {
+		final FileInputStream keyRingFile = new FileInputStream("src/test/resources/secret-keyring.gpg");
+		this.owner = KeySet.load(keyRingFile).unlock("test".toCharArray());
+		
+		// moderately compressible data, so that no stage dominates
+		final Random random = new Random(0);
+		this.body = new byte[size];
+		for (int i = 0; i < body.length; i++) {
+			body[i] = (byte) ('a' + random.nextInt(26));
+		}
+	}
+	
+	@Benchmark
+	public void sequential() throws Exception {
+		write(Long.MAX_VALUE);
+	}
+	
+	@Benchmark
+	public void pipelined() throws Exception {
+		write(0);
+	}
+	
+	private void write(long pipelineThreshold) throws Exception {
+		final MessageWriter writer = new MessageWriter(
+			owner, ImmutableList.<KeySet>of(owner), new SecureRandom(), pipelineThreshold
+		);
+		writer.write(new ByteArrayInputStream(body), NULL_OUTPUT, "text/plain");
+	}
+	
+	public static void main(String[] args) throws Exception {
+		new Runner(
+			new OptionsBuilder()
+				.include(MessageWriterBenchmark.class.getSimpleName())
+				.build()
+		).run();
+	}
+}
@@ -11,6 +11,7 @@ import org.junit.experimental.runners.Enclosed;
 import org.junit.runner.RunWith;
 
 import com.wesabe.grendel.openpgp.AsymmetricAlgorithm;
+import com.wesabe.grendel.openpgp.ParallelRSAKeyGenParameterSpec;
 import com.wesabe.grendel.openpgp.PregeneratedDHParameterSpec;
 import com.wesabe.grendel.openpgp.PregeneratedDSAParameterSpec;
 
@@ -28,6 +29,12 @@ public class AsymmetricAlgorithmTest {
 			assertThat(spec.getKeysize()).isEqualTo(2048);
 		}
 
+		@Test
+		public void itSearchesForPrimesOnASingleThreadByDefault() throws Exception {
+			final ParallelRSAKeyGenParameterSpec spec = (ParallelRSAKeyGenParameterSpec) AsymmetricAlgorithm.RSA.getAlgorithmParameterSpec();
+			assertThat(spec.getParallelism()).isEqualTo(1);
+		}
+
 		@Test
 		public void itIsNamedRSA() throws Exception {
 			assertThat(AsymmetricAlgorithm.RSA.getName()).isEqualTo("RSA");
@@ -0,0 +1,107 @@
+package com.wesabe.grendel.openpgp.tests;
+
+import static org.fest.assertions.Assertions.*;
+import static org.fest.assertions.Delta.*;
+
+import java.util.Arrays;
+import java.util.Random;
+import java.util.zip.Deflater;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.experimental.runners.Enclosed;
+import org.junit.runner.RunWith;
+
+import com.wesabe.grendel.openpgp.CompressionLevels;
+
+@RunWith(Enclosed.class)
+public class CompressionLevelsTest {
+	private static abstract class Context {
+		protected byte[] random, text;
+		
+		public void setup() throws Exception {
+			this.random = new byte[CompressionLevels.SAMPLE_SIZE];
+			new Random().nextBytes(random);
+			
+			this.text = new byte[CompressionLevels.SAMPLE_SIZE];
+			Arrays.fill(text, (byte) 'a');
+		}
+	}
+	
+	public static class Choosing_A_Level_For_A_Compressed_Type extends Context {
+		@Before
+		@Override
+		public void setup() throws Exception {
+			super.setup();
+		}
+		
+		@Test
+		public void itDoesNotCompress() throws Exception {
+			assertThat(CompressionLevels.forContent("image/jpeg", text, text.length)).isEqualTo(Deflater.NO_COMPRESSION);
+			assertThat(CompressionLevels.forContent("Application/ZIP", text, text.length)).isEqualTo(Deflater.NO_COMPRESSION);
+			assertThat(CompressionLevels.forContent("video/mp4", text, text.length)).isEqualTo(Deflater.NO_COMPRESSION);
+		}
+	}
+	
+	public static class Choosing_A_Level_For_A_Textual_Type extends Context {
+		@Before
+		@Override
+		public void setup() throws Exception {
+			super.setup();
+		}
+		
+		@Test
+		public void itUsesTheDefaultLevel() throws Exception {
+			assertThat(CompressionLevels.forContent("text/plain; charset=utf-8", random, random.length)).isEqualTo(Deflater.DEFAULT_COMPRESSION);
+			assertThat(CompressionLevels.forContent("application/atom+xml", random, random.length)).isEqualTo(Deflater.DEFAULT_COMPRESSION);
+		}
+	}
+	
+	public static class Choosing_A_Level_For_An_Unknown_Type extends Context {
+		@Before
+		@Override
+		public void setup() throws Exception {
+			super.setup();
+		}
+		
+		@Test
+		public void itDoesNotCompressHighEntropyData() throws Exception {
+			assertThat(CompressionLevels.forContent("application/octet-stream", random, random.length)).isEqualTo(Deflater.NO_COMPRESSION);
+			assertThat(CompressionLevels.forContent(null, random, random.length)).isEqualTo(Deflater.NO_COMPRESSION);
+		}
+		
+		@Test
+		public void itUsesTheDefaultLevelForLowEntropyData() throws Exception {
+			assertThat(CompressionLevels.forContent("application/octet-stream", text, text.length)).isEqualTo(Deflater.DEFAULT_COMPRESSION);
+		}
+		
+		@Test
+		public void itUsesTheFastestLevelForModerateEntropyData() throws Exception {
+			// 128 distinct, evenly-distributed values is exactly 7 bits/byte
+			final byte[] sample = new byte[1024];
+			for (int i = 0; i < sample.length; i++) {
+				sample[i] = (byte) (i % 128);
+			}
+			
+			assertThat(CompressionLevels.forContent(null, sample, sample.length)).isEqualTo(Deflater.BEST_SPEED);
+		}
+		
+		@Test
+		public void itUsesTheDefaultLevelForEmptyBodies() throws Exception {
+			assertThat(CompressionLevels.forContent(null, new byte[0], 0)).isEqualTo(Deflater.DEFAULT_COMPRESSION);
+		}
+	}
+	
+	public static class Measuring_Entropy {
+		@Test
+		public void itReturnsBitsPerByte() throws Exception {
+			final byte[] sample = new byte[256];
+			for (int i = 0; i < sample.length; i++) {
+				sample[i] = (byte) i;
+			}
+			
+			assertThat(CompressionLevels.entropy(sample, sample.length)).isEqualTo(8.0, delta(0.0001));
+			assertThat(CompressionLevels.entropy(new byte[10], 10)).isEqualTo(0.0);
+		}
+	}
+}
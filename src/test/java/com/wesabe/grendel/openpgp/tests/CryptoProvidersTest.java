@@ -0,0 +1,69 @@
+package com.wesabe.grendel.openpgp.tests;
+
+import static org.fest.assertions.Assertions.*;
+
+import java.io.FileInputStream;
+import java.security.SecureRandom;
+import java.util.Random;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.experimental.runners.Enclosed;
+import org.junit.runner.RunWith;
+
+import com.google.common.collect.ImmutableList;
+import com.wesabe.grendel.openpgp.CryptoProviders;
+import com.wesabe.grendel.openpgp.KeySet;
+import com.wesabe.grendel.openpgp.MessageReader;
+import com.wesabe.grendel.openpgp.MessageWriter;
+import com.wesabe.grendel.openpgp.RoutingProvider;
+import com.wesabe.grendel.openpgp.UnlockedKeySet;
+
+@RunWith(Enclosed.class)
+public class CryptoProvidersTest {
+	public static class By_Default {
+		@Test
+		public void itUsesBouncyCastle() throws Exception {
+			assertThat(CryptoProviders.getName()).isEqualTo("BC");
+		}
+	}
+	
+	public static class With_Routing_Installed {
+		@Before
+		public void setup() throws Exception {
+			assertThat(CryptoProviders.installRouting(RoutingProvider.DEFAULT_PREFERRED_PROVIDERS)).isTrue();
+		}
+		
+		@After
+		public void teardown() throws Exception {
+			CryptoProviders.uninstallRouting();
+		}
+		
+		@Test
+		public void itUsesTheRoutingProvider() throws Exception {
+			assertThat(CryptoProviders.getName()).isEqualTo(RoutingProvider.NAME);
+		}
+		
+		@Test
+		public void itReadsAndWritesMessages() throws Exception {
+			final UnlockedKeySet owner = KeySet.load(new FileInputStream("src/test/resources/secret-keyring.gpg")).unlock("test".toCharArray());
+			final UnlockedKeySet recipient = KeySet.load(new FileInputStream("src/test/resources/another-secret-keyring.gpg")).unlock("test2".toCharArray());
+			final byte[] original = new byte[1024 * 100];
+			new Random().nextBytes(original);
+			
+			final MessageWriter writer = new MessageWriter(owner, ImmutableList.<KeySet>of(recipient), new SecureRandom());
+			final byte[] encrypted = writer.write(original);
+			
+			final MessageReader reader = new MessageReader(owner, recipient);
+			assertThat(reader.read(encrypted)).isEqualTo(original);
+		}
+		
+		@Test
+		public void itCanBeUninstalled() throws Exception {
+			CryptoProviders.uninstallRouting();
+			
+			assertThat(CryptoProviders.getName()).isEqualTo("BC");
+		}
+	}
+}
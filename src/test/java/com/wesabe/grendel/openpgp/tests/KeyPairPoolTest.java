@@ -0,0 +1,139 @@
+package com.wesabe.grendel.openpgp.tests;
+
+import static org.fest.assertions.Assertions.*;
+import static org.junit.Assert.*;
+
+import java.security.KeyPair;
+import java.security.SecureRandom;
+import java.security.interfaces.RSAPublicKey;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.experimental.runners.Enclosed;
+import org.junit.runner.RunWith;
+
+import com.wesabe.grendel.openpgp.AsymmetricAlgorithm;
+import com.wesabe.grendel.openpgp.KeyPairPool;
+
+@RunWith(Enclosed.class)
+public class KeyPairPoolTest {
+	private static abstract class Context {
+		protected KeyPairPool pool;
+		
+		public void setup() throws Exception {
+			this.pool = new KeyPairPool(AsymmetricAlgorithm.RSA, new SecureRandom(), lowWatermark(), highWatermark());
+		}
+		
+		@After
+		public void teardown() throws Exception {
+			pool.shutdown();
+		}
+		
+		protected abstract int lowWatermark();
+		
+		protected abstract int highWatermark();
+		
+		protected void waitForDepth(int depth) throws Exception {
+			final long deadline = System.currentTimeMillis() + 60000;
+			while ((pool.getDepth() < depth) && (System.currentTimeMillis() < deadline)) {
+				Thread.sleep(10);
+			}
+		}
+	}
+	
+	public static class An_Empty_Pool extends Context {
+		@Before
+		@Override
+		public void setup() throws Exception {
+			super.setup();
+		}
+		
+		@Override
+		protected int lowWatermark() {
+			return 0;
+		}
+		
+		@Override
+		protected int highWatermark() {
+			return 0;
+		}
+		
+		@Test
+		public void itReturnsNothing() throws Exception {
+			assertThat(pool.poll()).isNull();
+			assertThat(pool.getMissCount()).isEqualTo(1);
+			assertThat(pool.getHitRatio()).isEqualTo(0.0);
+		}
+		
+		@Test
+		public void itNeverFillsUp() throws Exception {
+			pool.poll();
+			Thread.sleep(100);
+			
+			assertThat(pool.getDepth()).isEqualTo(0);
+			assertThat(pool.getGeneratedCount()).isEqualTo(0);
+		}
+		
+		@Test
+		public void itGeneratesKeyPairsOnDemand() throws Exception {
+			final KeyPair keyPair = pool.generate();
+			
+			assertThat(((RSAPublicKey) keyPair.getPublic()).getModulus().bitLength()).isEqualTo(2048);
+		}
+	}
+	
+	public static class A_Filled_Pool extends Context {
+		@Before
+		@Override
+		public void setup() throws Exception {
+			super.setup();
+			waitForDepth(1);
+		}
+		
+		@Override
+		protected int lowWatermark() {
+			return 0;
+		}
+		
+		@Override
+		protected int highWatermark() {
+			return 1;
+		}
+		
+		@Test
+		public void itFillsUpToTheHighWatermark() throws Exception {
+			assertThat(pool.getDepth()).isEqualTo(1);
+			assertThat(pool.getGeneratedCount()).isEqualTo(1);
+		}
+		
+		@Test
+		public void itReturnsAPregeneratedKeyPair() throws Exception {
+			assertThat(pool.poll()).isNotNull();
+			assertThat(pool.getHitCount()).isEqualTo(1);
+			assertThat(pool.getMissCount()).isEqualTo(0);
+		}
+		
+		@Test
+		public void itRefillsWhenDrainedToTheLowWatermark() throws Exception {
+			final KeyPair keyPair = pool.poll();
+			waitForDepth(1);
+			
+			assertThat(pool.getDepth()).isEqualTo(1);
+			assertThat(pool.poll()).isNotSameAs(keyPair);
+			assertThat(pool.getGeneratedCount()).isGreaterThanOrEqualTo(2);
+		}
+	}
+	
+	public static class Creating_A_Pool_With_Invalid_Watermarks {
+		@Test
+		public void itThrowsAnException() throws Exception {
+			try {
+				new KeyPairPool(AsymmetricAlgorithm.RSA, new SecureRandom(), 4, 2);
+				fail("should have thrown an IllegalArgumentException but didn't");
+			} catch (IllegalArgumentException e) {
+				assertThat(e.getMessage()).isEqualTo("invalid watermarks: 4/2");
+			}
+		}
+	}
+}
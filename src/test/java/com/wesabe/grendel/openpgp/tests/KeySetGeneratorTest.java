@@ -1,9 +1,14 @@
 package com.wesabe.grendel.openpgp.tests;
 
 import static org.fest.assertions.Assertions.*;
+import static org.junit.Assert.*;
 
 import java.security.SecureRandom;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.RejectedExecutionException;
 
+import org.junit.After;
+import org.junit.Before;
 import org.junit.BeforeClass;
 import org.junit.Test;
 import org.junit.experimental.runners.Enclosed;
@@ -95,4 +100,66 @@ public class KeySetGeneratorTest {
 			assertThat(keySet.getSubKey().getKeyFlags()).isEqualTo(ImmutableSet.of(KeyFlag.ENCRYPTION, KeyFlag.SPLIT));
 		}
 	}
+	
+	public static class Generating_A_KeySet_With_An_Empty_Pool {
+		private KeySetGenerator generator;
+		
+		@Before
+		public void setup() throws Exception {
+			this.generator = new KeySetGenerator(new SecureRandom(), 0, 0, 2, 2);
+		}
+		
+		@After
+		public void teardown() throws Exception {
+			generator.getMasterKeyPairPool().shutdown();
+			generator.getExecutor().shutdown();
+		}
+		
+		@Test
+		public void itGeneratesBothKeyPairsOnDemand() throws Exception {
+			final KeySet keySet = generator.generate("Sample User <sample@example.com", "hello there".toCharArray());
+			
+			assertThat(keySet.getMasterKey().getKeyID()).isNotEqualTo(keySet.getSubKey().getKeyID());
+			assertThat(generator.getMasterKeyPairPool()).isSameAs(generator.getSubKeyPairPool());
+			assertThat(generator.getMasterKeyPairPool().getMissCount()).isEqualTo(2);
+		}
+	}
+	
+	public static class Generating_A_KeySet_While_Overloaded {
+		private KeySetGenerator generator;
+		private CountDownLatch latch;
+		
+		@Before
+		public void setup() throws Exception {
+			this.generator = new KeySetGenerator(new SecureRandom(), 0, 0, 1, 0);
+			this.latch = new CountDownLatch(1);
+			generator.getExecutor().execute(new Runnable() {
+				@Override
+				public void run() {
+					try {
+						latch.await();
+					} catch (InterruptedException e) {
+						Thread.currentThread().interrupt();
+					}
+				}
+			});
+		}
+		
+		@After
+		public void teardown() throws Exception {
+			latch.countDown();
+			generator.getMasterKeyPairPool().shutdown();
+			generator.getExecutor().shutdown();
+		}
+		
+		@Test
+		public void itRejectsTheRequest() throws Exception {
+			try {
+				generator.generate("Sample User <sample@example.com", "hello there".toCharArray());
+				fail("should have thrown a RejectedExecutionException but didn't");
+			} catch (RejectedExecutionException e) {
+				assertThat(generator.getExecutor().getRejectedCount()).isEqualTo(1);
+			}
+		}
+	}
 }
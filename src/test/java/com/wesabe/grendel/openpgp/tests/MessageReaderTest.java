@@ -1,17 +1,24 @@
 package com.wesabe.grendel.openpgp.tests;
 
 import static org.fest.assertions.Assertions.*;
+import static org.junit.Assert.*;
 
 import java.io.ByteArrayOutputStream;
 import java.io.FileInputStream;
+import java.security.SecureRandom;
+import java.util.Arrays;
+import java.util.Random;
 
 import org.junit.Before;
 import org.junit.Test;
 import org.junit.experimental.runners.Enclosed;
 import org.junit.runner.RunWith;
 
+import com.google.common.collect.ImmutableList;
+import com.wesabe.grendel.openpgp.CryptographicException;
 import com.wesabe.grendel.openpgp.KeySet;
 import com.wesabe.grendel.openpgp.MessageReader;
+import com.wesabe.grendel.openpgp.MessageWriter;
 import com.wesabe.grendel.openpgp.UnlockedKeySet;
 
 @RunWith(Enclosed.class)
@@ -52,9 +59,63 @@ public class MessageReaderTest {
 			final byte[] body = reader.read(output.toByteArray());
 			assertThat(body).isEqualTo(original);
 		}
+		
+		@Test
+		public void itStreamsAnEncryptedMessage() throws Exception {
+			final FileInputStream input = new FileInputStream("src/test/resources/encrypted-and-signed.txt.gpg");
+			final ByteArrayOutputStream output = new ByteArrayOutputStream();
+			final MessageReader reader = new MessageReader(owner, recipient);
+			reader.read(input, output);
+			input.close();
+			assertThat(output.toByteArray()).isEqualTo(original);
+		}
+	}
+	
+	public static class Reading_A_Tampered_Message {
+		private UnlockedKeySet owner;
+		private UnlockedKeySet recipient;
+		private byte[] encrypted;
+		
+		@Before
+		public void setup() throws Exception {
+			final FileInputStream keyRingFile = new FileInputStream("src/test/resources/secret-keyring.gpg");
+			this.owner = KeySet.load(keyRingFile).unlock("test".toCharArray());
+			
+			final FileInputStream anotherKeyRingFile = new FileInputStream("src/test/resources/another-secret-keyring.gpg");
+			this.recipient = KeySet.load(anotherKeyRingFile).unlock("test2".toCharArray());
+			
+			final byte[] original = new byte[64 * 1024];
+			new Random().nextBytes(original);
+			
+			final MessageWriter writer = new MessageWriter(owner, ImmutableList.<KeySet>of(recipient), new SecureRandom());
+			this.encrypted = writer.write(original);
+		}
+		
+		@Test
+		public void itThrowsAnExceptionIfTheCiphertextHasBeenModified() throws Exception {
+			encrypted[encrypted.length - 100] ^= 0x01;
+			
+			final MessageReader reader = new MessageReader(owner, recipient);
+			try {
+				reader.read(encrypted);
+				fail("should have thrown a CryptographicException but didn't");
+			} catch (CryptographicException e) {
+				assertThat(e).isNotNull();
+			}
+		}
+		
+		@Test
+		public void itThrowsAnExceptionIfTheCiphertextHasBeenTruncated() throws Exception {
+			final MessageReader reader = new MessageReader(owner, recipient);
+			try {
+				reader.read(Arrays.copyOf(encrypted, encrypted.length - 10));
+				fail("should have thrown a CryptographicException but didn't");
+			} catch (CryptographicException e) {
+				assertThat(e).isNotNull();
+			}
+		}
 	}
 	
-	// TODO coda@wesabe.com -- Dec 23, 2009: check for integrity check failure
 	// TODO coda@wesabe.com -- Dec 23, 2009: check for bad signature
 	// TODO coda@wesabe.com -- Dec 23, 2009: check for missing signature
 	// TODO coda@wesabe.com -- Dec 23, 2009: check for missing one-pass signature
@@ -0,0 +1,164 @@
+package com.wesabe.grendel.openpgp.tests;
+
+import static org.fest.assertions.Assertions.*;
+import static org.junit.Assert.*;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.FileInputStream;
+import java.security.SecureRandom;
+import java.util.Arrays;
+import java.util.Random;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.experimental.runners.Enclosed;
+import org.junit.runner.RunWith;
+
+import com.google.common.collect.ImmutableList;
+import com.wesabe.grendel.openpgp.CryptographicException;
+import com.wesabe.grendel.openpgp.KeySet;
+import com.wesabe.grendel.openpgp.MessageReader;
+import com.wesabe.grendel.openpgp.MessageRewrapper;
+import com.wesabe.grendel.openpgp.MessageWriter;
+import com.wesabe.grendel.openpgp.UnlockedKeySet;
+
+@RunWith(Enclosed.class)
+public class MessageRewrapperTest {
+	private static abstract class Context {
+		protected UnlockedKeySet owner;
+		protected UnlockedKeySet recipient;
+		protected byte[] original;
+		
+		public void setup() throws Exception {
+			final FileInputStream keyRingFile = new FileInputStream("src/test/resources/secret-keyring.gpg");
+			this.owner = KeySet.load(keyRingFile).unlock("test".toCharArray());
+			
+			final FileInputStream anotherKeyRingFile = new FileInputStream("src/test/resources/another-secret-keyring.gpg");
+			this.recipient = KeySet.load(anotherKeyRingFile).unlock("test2".toCharArray());
+			
+			this.original = new byte[1 << 16];
+			new Random().nextBytes(original);
+		}
+	}
+	
+	public static class Adding_A_Recipient extends Context {
+		private byte[] rewrapped;
+		
+		@Before
+		@Override
+		public void setup() throws Exception {
+			super.setup();
+			
+			final MessageWriter writer = new MessageWriter(owner, ImmutableList.<KeySet>of(), new SecureRandom());
+			final byte[] encrypted = writer.write(original);
+			
+			final MessageRewrapper rewrapper = new MessageRewrapper(owner, ImmutableList.<KeySet>of(recipient), new SecureRandom());
+			this.rewrapped = rewrapper.rewrap(encrypted);
+		}
+		
+		@Test
+		public void itIsDecryptableByTheNewRecipient() throws Exception {
+			final MessageReader reader = new MessageReader(owner, recipient);
+			
+			assertThat(reader.read(rewrapped)).isEqualTo(original);
+		}
+		
+		@Test
+		public void itIsDecryptableByTheOwner() throws Exception {
+			final MessageReader reader = new MessageReader(owner, owner);
+			
+			assertThat(reader.read(rewrapped)).isEqualTo(original);
+		}
+	}
+	
+	public static class Rewrapping_A_Stream extends Context {
+		private byte[] encrypted, rewrapped;
+		
+		@Before
+		@Override
+		public void setup() throws Exception {
+			super.setup();
+			
+			final MessageWriter writer = new MessageWriter(owner, ImmutableList.<KeySet>of(), new SecureRandom());
+			this.encrypted = writer.write(original);
+			
+			final MessageRewrapper rewrapper = new MessageRewrapper(owner, ImmutableList.<KeySet>of(recipient), new SecureRandom());
+			final ByteArrayOutputStream output = new ByteArrayOutputStream();
+			rewrapper.rewrap(new ByteArrayInputStream(encrypted), output);
+			this.rewrapped = output.toByteArray();
+		}
+		
+		@Test
+		public void itIsDecryptableByTheNewRecipient() throws Exception {
+			final MessageReader reader = new MessageReader(owner, recipient);
+			
+			assertThat(reader.read(rewrapped)).isEqualTo(original);
+		}
+		
+		@Test
+		public void itCopiesTheEncryptedDataAsIs() throws Exception {
+			final byte[] tail = Arrays.copyOfRange(rewrapped, rewrapped.length - original.length, rewrapped.length);
+			final byte[] originalTail = Arrays.copyOfRange(encrypted, encrypted.length - original.length, encrypted.length);
+			
+			assertThat(tail).isEqualTo(originalTail);
+		}
+	}
+	
+	public static class Removing_A_Recipient extends Context {
+		private byte[] rewrapped;
+		
+		@Before
+		@Override
+		public void setup() throws Exception {
+			super.setup();
+			
+			final MessageWriter writer = new MessageWriter(owner, ImmutableList.<KeySet>of(recipient), new SecureRandom());
+			final byte[] encrypted = writer.write(original);
+			
+			final MessageRewrapper rewrapper = new MessageRewrapper(owner, ImmutableList.<KeySet>of(), new SecureRandom());
+			this.rewrapped = rewrapper.rewrap(encrypted);
+		}
+		
+		@Test
+		public void itIsNotDecryptableByTheOldRecipient() throws Exception {
+			final MessageReader reader = new MessageReader(owner, recipient);
+			
+			try {
+				reader.read(rewrapped);
+				fail("should have thrown a CryptographicException but didn't");
+			} catch (CryptographicException e) {
+				assertThat(e.getMessage()).contains("no encrypted data");
+			}
+		}
+		
+		@Test
+		public void itIsDecryptableByTheOwner() throws Exception {
+			final MessageReader reader = new MessageReader(owner, owner);
+			
+			assertThat(reader.read(rewrapped)).isEqualTo(original);
+		}
+	}
+	
+	public static class Rewrapping_Without_The_Owners_Key extends Context {
+		@Before
+		@Override
+		public void setup() throws Exception {
+			super.setup();
+		}
+		
+		@Test
+		public void itThrowsACryptographicException() throws Exception {
+			final MessageWriter writer = new MessageWriter(owner, ImmutableList.<KeySet>of(), new SecureRandom());
+			final byte[] encrypted = writer.write(original);
+			
+			final MessageRewrapper rewrapper = new MessageRewrapper(recipient, ImmutableList.<KeySet>of(owner), new SecureRandom());
+			try {
+				rewrapper.rewrap(encrypted);
+				fail("should have thrown a CryptographicException but didn't");
+			} catch (CryptographicException e) {
+				assertThat(e.getMessage()).contains("no encrypted data");
+			}
+		}
+	}
+}
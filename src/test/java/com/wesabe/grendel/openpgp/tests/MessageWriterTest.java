@@ -2,8 +2,11 @@ package com.wesabe.grendel.openpgp.tests;
 
 import static org.fest.assertions.Assertions.*;
 
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
 import java.io.FileInputStream;
 import java.security.SecureRandom;
+import java.util.Arrays;
 import java.util.Random;
 
 import org.junit.Before;
@@ -15,6 +18,7 @@ import com.google.common.collect.ImmutableList;
 import com.wesabe.grendel.openpgp.KeySet;
 import com.wesabe.grendel.openpgp.MessageReader;
 import com.wesabe.grendel.openpgp.MessageWriter;
+import com.wesabe.grendel.openpgp.RecipientKey;
 import com.wesabe.grendel.openpgp.UnlockedKeySet;
 
 @RunWith(Enclosed.class)
@@ -49,6 +53,82 @@ public class MessageWriterTest {
 			
 			assertThat(decrypted).isEqualTo(original);
 		}
+		
+		@Test
+		public void itIsDecryptableByMessageReaderWhenStreamed() throws Exception {
+			final MessageWriter writer = new MessageWriter(owner, ImmutableList.<KeySet>of(recipient), new SecureRandom());
+			
+			final ByteArrayOutputStream encrypted = new ByteArrayOutputStream();
+			writer.write(new ByteArrayInputStream(original), encrypted);
+			
+			final MessageReader reader = new MessageReader(owner, recipient);
+			final byte[] decrypted = reader.read(encrypted.toByteArray());
+			
+			assertThat(decrypted).isEqualTo(original);
+		}
+		
+		@Test
+		public void itIsDecryptableByEveryRecipientWhenWidelyShared() throws Exception {
+			final MessageWriter writer = new MessageWriter(owner,
+				ImmutableList.<KeySet>of(recipient, recipient, recipient, recipient, recipient),
+				new SecureRandom());
+			
+			final byte[] encrypted = writer.write(original);
+			
+			assertThat(new MessageReader(owner, recipient).read(encrypted)).isEqualTo(original);
+			assertThat(new MessageReader(owner, owner).read(encrypted)).isEqualTo(original);
+		}
+		
+		@Test
+		public void itIsDecryptableByMessageReaderWhenEncryptedForARecipientKey() throws Exception {
+			final RecipientKey recipientKey = RecipientKey.decode(recipient.getRecipientKey().getEncoded());
+			final MessageWriter writer = new MessageWriter(owner, ImmutableList.of(recipientKey), new SecureRandom());
+			
+			final byte[] encrypted = writer.write(original);
+			
+			assertThat(new MessageReader(owner, recipient).read(encrypted)).isEqualTo(original);
+			assertThat(new MessageReader(owner, owner).read(encrypted)).isEqualTo(original);
+		}
+		
+		@Test
+		public void itIsDecryptableByMessageReaderWhenPipelined() throws Exception {
+			final MessageWriter writer = new MessageWriter(owner, ImmutableList.<KeySet>of(recipient), new SecureRandom(), 0);
+			
+			final ByteArrayOutputStream encrypted = new ByteArrayOutputStream();
+			writer.write(new ByteArrayInputStream(original), encrypted);
+			
+			final MessageReader reader = new MessageReader(owner, recipient);
+			final byte[] decrypted = reader.read(encrypted.toByteArray());
+			
+			assertThat(decrypted).isEqualTo(original);
+		}
+		
+		@Test
+		public void itIsDecryptableByMessageReaderWhenStoredUncompressed() throws Exception {
+			final MessageWriter writer = new MessageWriter(owner, ImmutableList.<KeySet>of(recipient), new SecureRandom());
+			
+			final byte[] encrypted = writer.write(original, "image/jpeg");
+			
+			final MessageReader reader = new MessageReader(owner, recipient);
+			final byte[] decrypted = reader.read(encrypted);
+			
+			assertThat(decrypted).isEqualTo(original);
+		}
+		
+		@Test
+		public void itIsDecryptableByMessageReaderWhenHighlyCompressed() throws Exception {
+			final MessageWriter writer = new MessageWriter(owner, ImmutableList.<KeySet>of(recipient), new SecureRandom());
+			final byte[] text = new byte[1 << 20];
+			Arrays.fill(text, (byte) 'a');
+			
+			final byte[] encrypted = writer.write(text, "text/plain; charset=utf-8");
+			
+			final MessageReader reader = new MessageReader(owner, recipient);
+			final byte[] decrypted = reader.read(encrypted);
+			
+			assertThat(decrypted).isEqualTo(text);
+			assertThat(encrypted.length).isLessThan(text.length / 100);
+		}
 	}
 }
 
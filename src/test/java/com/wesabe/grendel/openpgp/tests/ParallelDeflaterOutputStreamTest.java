@@ -0,0 +1,142 @@
+package com.wesabe.grendel.openpgp.tests;
+
+import static org.fest.assertions.Assertions.*;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.zip.Deflater;
+import java.util.zip.InflaterInputStream;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.experimental.runners.Enclosed;
+import org.junit.runner.RunWith;
+
+import com.google.common.collect.Lists;
+import com.wesabe.grendel.openpgp.ParallelDeflaterOutputStream;
+
+@RunWith(Enclosed.class)
+public class ParallelDeflaterOutputStreamTest {
+	private static abstract class Context {
+		protected byte[] original;
+		
+		public void setup() throws Exception {
+			// 1MB of compressible data
+			final Random random = new Random();
+			this.original = new byte[1 << 20];
+			for (int i = 0; i < original.length; i++) {
+				original[i] = (byte) ('a' + random.nextInt(8));
+			}
+		}
+		
+		protected byte[] compress(int level, int parallelThreshold) throws Exception {
+			final ByteArrayOutputStream output = new ByteArrayOutputStream();
+			final ParallelDeflaterOutputStream deflater = new ParallelDeflaterOutputStream(output, level, parallelThreshold);
+			
+			// write in uneven chunks to exercise block boundaries
+			int offset = 0;
+			while (offset < original.length) {
+				final int length = Math.min(original.length - offset, 10000);
+				deflater.write(original, offset, length);
+				offset += length;
+			}
+			deflater.close();
+			
+			return output.toByteArray();
+		}
+		
+		protected byte[] inflate(byte[] compressed) throws Exception {
+			final InflaterInputStream input = new InflaterInputStream(new ByteArrayInputStream(compressed));
+			final ByteArrayOutputStream output = new ByteArrayOutputStream();
+			final byte[] b = new byte[1024 * 16];
+			int r = 0;
+			while ((r = input.read(b)) >= 0) {
+				output.write(b, 0, r);
+			}
+			return output.toByteArray();
+		}
+	}
+	
+	public static class Compressing_A_Small_Body extends Context {
+		@Before
+		@Override
+		public void setup() throws Exception {
+			super.setup();
+		}
+		
+		@Test
+		public void itProducesAZlibStream() throws Exception {
+			final byte[] compressed = compress(Deflater.DEFAULT_COMPRESSION, ParallelDeflaterOutputStream.DEFAULT_PARALLEL_THRESHOLD);
+			
+			assertThat(compressed.length).isLessThan(original.length / 2);
+			assertThat(inflate(compressed)).isEqualTo(original);
+		}
+		
+		@Test
+		public void itProducesAZlibStreamOfStoredBlocks() throws Exception {
+			final byte[] compressed = compress(Deflater.NO_COMPRESSION, 0);
+			
+			assertThat(compressed.length).isGreaterThan(original.length);
+			assertThat(inflate(compressed)).isEqualTo(original);
+		}
+	}
+	
+	public static class Compressing_A_Large_Body extends Context {
+		@Before
+		@Override
+		public void setup() throws Exception {
+			super.setup();
+		}
+		
+		@Test
+		public void itProducesASingleZlibStream() throws Exception {
+			final byte[] compressed = compress(Deflater.DEFAULT_COMPRESSION, 1024 * 64);
+			
+			assertThat(compressed.length).isLessThan(original.length / 2);
+			assertThat(inflate(compressed)).isEqualTo(original);
+		}
+		
+		@Test
+		public void itProducesASingleZlibStreamAtAnyLevel() throws Exception {
+			assertThat(inflate(compress(Deflater.BEST_SPEED, 0))).isEqualTo(original);
+			assertThat(inflate(compress(Deflater.BEST_COMPRESSION, 0))).isEqualTo(original);
+		}
+	}
+	
+	public static class Compressing_Many_Large_Bodies_At_Once extends Context {
+		@Before
+		@Override
+		public void setup() throws Exception {
+			super.setup();
+		}
+		
+		@Test
+		public void itProducesZlibStreamsWhenTheWorkersAreSaturated() throws Exception {
+			final int streams = Runtime.getRuntime().availableProcessors() * 4;
+			final ExecutorService writers = Executors.newFixedThreadPool(streams);
+			try {
+				final List<Future<byte[]>> results = Lists.newArrayList();
+				for (int i = 0; i < streams; i++) {
+					results.add(writers.submit(new Callable<byte[]>() {
+						@Override
+						public byte[] call() throws Exception {
+							return compress(Deflater.DEFAULT_COMPRESSION, 0);
+						}
+					}));
+				}
+				
+				for (Future<byte[]> result : results) {
+					assertThat(inflate(result.get())).isEqualTo(original);
+				}
+			} finally {
+				writers.shutdown();
+			}
+		}
+	}
+}
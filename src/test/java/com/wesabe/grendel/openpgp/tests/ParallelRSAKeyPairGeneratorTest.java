@@ -0,0 +1,79 @@
+package com.wesabe.grendel.openpgp.tests;
+
+import static org.fest.assertions.Assertions.*;
+
+import java.math.BigInteger;
+import java.security.KeyPair;
+import java.security.SecureRandom;
+import java.security.Signature;
+import java.security.interfaces.RSAPrivateCrtKey;
+import java.security.interfaces.RSAPublicKey;
+import java.security.spec.RSAKeyGenParameterSpec;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.experimental.runners.Enclosed;
+import org.junit.runner.RunWith;
+
+import com.wesabe.grendel.openpgp.ParallelRSAKeyGenParameterSpec;
+import com.wesabe.grendel.openpgp.ParallelRSAKeyPairGenerator;
+
+@RunWith(Enclosed.class)
+public class ParallelRSAKeyPairGeneratorTest {
+	public static class Generating_A_Key_Pair {
+		private KeyPair keyPair;
+		private RSAPublicKey publicKey;
+		private RSAPrivateCrtKey privateKey;
+		
+		@Before
+		public void setup() throws Exception {
+			this.keyPair = ParallelRSAKeyPairGenerator.generate(
+				new ParallelRSAKeyGenParameterSpec(1024, RSAKeyGenParameterSpec.F4, 3),
+				new SecureRandom()
+			);
+			this.publicKey = (RSAPublicKey) keyPair.getPublic();
+			this.privateKey = (RSAPrivateCrtKey) keyPair.getPrivate();
+		}
+		
+		@Test
+		public void itHasAModulusOfTheRequestedSize() throws Exception {
+			assertThat(publicKey.getModulus().bitLength()).isEqualTo(1024);
+		}
+		
+		@Test
+		public void itHasTheRequestedPublicExponent() throws Exception {
+			assertThat(publicKey.getPublicExponent()).isEqualTo(RSAKeyGenParameterSpec.F4);
+		}
+		
+		@Test
+		public void itHasTwoDistinctPrimeFactors() throws Exception {
+			final BigInteger p = privateKey.getPrimeP();
+			final BigInteger q = privateKey.getPrimeQ();
+			
+			assertThat(p.isProbablePrime(100)).isTrue();
+			assertThat(q.isProbablePrime(100)).isTrue();
+			assertThat(p.multiply(q)).isEqualTo(publicKey.getModulus());
+			assertThat(p.subtract(q).abs().bitLength()).isGreaterThan(512 - 100);
+		}
+		
+		@Test
+		public void itHasAPrivateExponentLargerThanHalfTheModulus() throws Exception {
+			assertThat(privateKey.getPrivateExponent().bitLength()).isGreaterThan(512);
+		}
+		
+		@Test
+		public void itCanBeUsedToSignAndVerify() throws Exception {
+			final byte[] message = "hello".getBytes();
+			
+			final Signature signer = Signature.getInstance("SHA1withRSA");
+			signer.initSign(keyPair.getPrivate());
+			signer.update(message);
+			final byte[] signature = signer.sign();
+			
+			final Signature verifier = Signature.getInstance("SHA1withRSA");
+			verifier.initVerify(keyPair.getPublic());
+			verifier.update(message);
+			assertThat(verifier.verify(signature)).isTrue();
+		}
+	}
+}
@@ -0,0 +1,157 @@
+package com.wesabe.grendel.openpgp.tests;
+
+import static org.fest.assertions.Assertions.*;
+import static org.junit.Assert.*;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.List;
+import java.util.Random;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.experimental.runners.Enclosed;
+import org.junit.runner.RunWith;
+
+import com.google.common.collect.Lists;
+import com.wesabe.grendel.openpgp.PipelinedOutputStream;
+
+@RunWith(Enclosed.class)
+public class PipelinedOutputStreamTest {
+	private static abstract class Context {
+		protected byte[] original;
+		protected ByteArrayOutputStream output;
+		
+		public void setup() throws Exception {
+			this.original = new byte[1 << 20];
+			new Random().nextBytes(original);
+			this.output = new ByteArrayOutputStream();
+		}
+		
+		protected void writeInChunks(OutputStream stream) throws IOException {
+			int offset = 0;
+			while (offset < original.length) {
+				final int length = Math.min(original.length - offset, 10000);
+				stream.write(original, offset, length);
+				offset += length;
+			}
+		}
+	}
+	
+	public static class Writing_Less_Than_The_Threshold extends Context {
+		@Before
+		@Override
+		public void setup() throws Exception {
+			super.setup();
+		}
+		
+		@Test
+		public void itWritesOnTheCallingThread() throws Exception {
+			final PipelinedOutputStream stream = new PipelinedOutputStream(output, Long.MAX_VALUE);
+			writeInChunks(stream);
+			
+			assertThat(stream.isPipelined()).isFalse();
+			assertThat(output.toByteArray()).isEqualTo(original);
+			
+			stream.close();
+		}
+	}
+	
+	public static class Writing_More_Than_The_Threshold extends Context {
+		@Before
+		@Override
+		public void setup() throws Exception {
+			super.setup();
+		}
+		
+		@Test
+		public void itWritesEverythingInOrderByTheTimeItIsClosed() throws Exception {
+			final PipelinedOutputStream stream = new PipelinedOutputStream(output, 1024 * 100);
+			writeInChunks(stream);
+			stream.close();
+			
+			assertThat(stream.isPipelined()).isTrue();
+			assertThat(output.toByteArray()).isEqualTo(original);
+		}
+		
+		@Test
+		public void itPropagatesErrorsFromTheUnderlyingStream() throws Exception {
+			final PipelinedOutputStream stream = new PipelinedOutputStream(new OutputStream() {
+				@Override
+				public void write(int b) throws IOException {
+					throw new IOException("no space left on device");
+				}
+				
+				@Override
+				public void write(byte[] b, int off, int len) throws IOException {
+					throw new IOException("no space left on device");
+				}
+			}, 0);
+			
+			try {
+				writeInChunks(stream);
+				stream.close();
+				fail("should have thrown an IOException but didn't");
+			} catch (IOException e) {
+				assertThat(e.getMessage()).isEqualTo("no space left on device");
+			}
+		}
+		
+		@Test
+		public void itCanBeAborted() throws Exception {
+			final PipelinedOutputStream stream = new PipelinedOutputStream(output, 0);
+			writeInChunks(stream);
+			stream.abort();
+			
+			try {
+				stream.write(1);
+				fail("should have thrown an IOException but didn't");
+			} catch (IOException e) {
+				assertThat(e.getMessage()).isEqualTo("stream is closed");
+			}
+		}
+	}
+	
+	public static class Writing_When_Every_Worker_Is_Busy extends Context {
+		private final List<PipelinedOutputStream> busy = Lists.newArrayList();
+		
+		@Before
+		@Override
+		public void setup() throws Exception {
+			super.setup();
+		}
+		
+		@After
+		public void teardown() throws Exception {
+			for (PipelinedOutputStream stream : busy) {
+				stream.close();
+			}
+		}
+		
+		@Test
+		public void itWritesOnTheCallingThread() throws Exception {
+			PipelinedOutputStream stream;
+			while (true) {
+				this.output = new ByteArrayOutputStream();
+				stream = new PipelinedOutputStream(output, 0);
+				stream.write(original, 0, 1);
+				if (!stream.isPipelined()) {
+					break;
+				}
+				
+				busy.add(stream);
+				if (busy.size() > 10000) {
+					fail("should have run out of pipeline workers but didn't");
+				}
+			}
+			
+			stream.write(original, 1, original.length - 1);
+			
+			assertThat(output.toByteArray()).isEqualTo(original);
+			
+			stream.close();
+		}
+	}
+}
@@ -0,0 +1,101 @@
+package com.wesabe.grendel.openpgp.tests;
+
+import static org.fest.assertions.Assertions.*;
+import static org.junit.Assert.*;
+
+import java.io.FileInputStream;
+import java.util.Arrays;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.experimental.runners.Enclosed;
+import org.junit.runner.RunWith;
+
+import com.wesabe.grendel.openpgp.CryptographicException;
+import com.wesabe.grendel.openpgp.KeySet;
+import com.wesabe.grendel.openpgp.RecipientKey;
+
+@RunWith(Enclosed.class)
+public class RecipientKeyTest {
+	private static abstract class Context {
+		protected KeySet keySet;
+		protected RecipientKey key;
+		
+		public void setup() throws Exception {
+			final FileInputStream keyRingFile = new FileInputStream("src/test/resources/secret-keyring.gpg");
+			this.keySet = KeySet.load(keyRingFile);
+			keyRingFile.close();
+			
+			this.key = RecipientKey.of(keySet.getSubKey());
+		}
+	}
+	
+	public static class A_Recipient_Key extends Context {
+		@Before
+		@Override
+		public void setup() throws Exception {
+			super.setup();
+		}
+		
+		@Test
+		public void itHasTheSubKeysKeyID() throws Exception {
+			assertThat(key.getKeyID()).isEqualTo(keySet.getSubKey().getKeyID());
+		}
+		
+		@Test
+		public void itIsItsOwnRecipientKey() throws Exception {
+			assertThat(key.getRecipientKey()).isSameAs(key);
+		}
+		
+		@Test
+		public void itIsTheKeySetsRecipientKey() throws Exception {
+			assertThat(keySet.getRecipientKey()).isEqualTo(key);
+			assertThat(keySet.getRecipientKey()).isSameAs(keySet.getRecipientKey());
+		}
+		
+		@Test
+		public void itIsHumanReadable() throws Exception {
+			assertThat(key.toString()).isEqualTo(keySet.getSubKey().getHumanKeyID());
+		}
+	}
+	
+	public static class Decoding_A_Recipient_Key extends Context {
+		@Before
+		@Override
+		public void setup() throws Exception {
+			super.setup();
+		}
+		
+		@Test
+		public void itRoundTrips() throws Exception {
+			final RecipientKey decoded = RecipientKey.decode(key.getEncoded());
+			
+			assertThat(decoded).isEqualTo(key);
+			assertThat(decoded.getKeyID()).isEqualTo(key.getKeyID());
+			assertThat(decoded.getEncoded()).isEqualTo(key.getEncoded());
+		}
+		
+		@Test
+		public void itThrowsAnExceptionIfTheKeyIsTruncated() throws Exception {
+			final byte[] encoded = key.getEncoded();
+			try {
+				RecipientKey.decode(Arrays.copyOf(encoded, encoded.length - 1));
+				fail("should have thrown a CryptographicException but didn't");
+			} catch (CryptographicException e) {
+				assertThat(e).isNotNull();
+			}
+		}
+		
+		@Test
+		public void itThrowsAnExceptionIfTheAlgorithmIsUnsupported() throws Exception {
+			final byte[] encoded = key.getEncoded();
+			encoded[8] = 17; // DSA
+			try {
+				RecipientKey.decode(encoded);
+				fail("should have thrown a CryptographicException but didn't");
+			} catch (CryptographicException e) {
+				assertThat(e.getMessage()).isEqualTo("unsupported recipient key algorithm: 17");
+			}
+		}
+	}
+}
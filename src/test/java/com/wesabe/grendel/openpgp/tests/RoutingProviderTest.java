@@ -0,0 +1,54 @@
+package com.wesabe.grendel.openpgp.tests;
+
+import static org.fest.assertions.Assertions.*;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.experimental.runners.Enclosed;
+import org.junit.runner.RunWith;
+
+import com.google.common.collect.ImmutableList;
+import com.wesabe.grendel.openpgp.CryptoProviders;
+import com.wesabe.grendel.openpgp.RoutingProvider;
+
+@RunWith(Enclosed.class)
+public class RoutingProviderTest {
+	public static class Routing_Services {
+		private RoutingProvider provider;
+		
+		@Before
+		public void setup() throws Exception {
+			this.provider = new RoutingProvider(RoutingProvider.DEFAULT_PREFERRED_PROVIDERS, CryptoProviders.BOUNCY_CASTLE);
+		}
+		
+		@Test
+		public void itRoutesPrimitivesToThePreferredProviders() throws Exception {
+			assertThat(provider.getRoute("Cipher", "AES")).isEqualTo("SunJCE");
+			assertThat(provider.getRoute("Cipher", "RSA")).isEqualTo("SunJCE");
+			assertThat(provider.getRoute("MessageDigest", "SHA-256")).isEqualTo("SUN");
+			assertThat(provider.getRoute("Signature", "SHA256withRSA")).isEqualTo("SunRsaSign");
+			assertThat(provider.getRoute("KeyPairGenerator", "RSA")).isEqualTo("SunRsaSign");
+		}
+		
+		@Test
+		public void itRoutesEverythingElseToTheFallbackProvider() throws Exception {
+			assertThat(provider.getRoute("Cipher", "AES/OpenPGPCFB/NoPadding")).isEqualTo("BC");
+			assertThat(provider.getRoute("Cipher", "ElGamal")).isEqualTo("BC");
+		}
+		
+		@Test
+		public void itReturnsNullForUnknownAlgorithms() throws Exception {
+			assertThat(provider.getService("Cipher", "Dingo")).isNull();
+		}
+		
+		@Test
+		public void itSkipsMissingProviders() throws Exception {
+			final RoutingProvider routing = new RoutingProvider(
+				ImmutableList.of("NotAProvider", "SunJCE"),
+				CryptoProviders.BOUNCY_CASTLE
+			);
+			
+			assertThat(routing.getRoute("Cipher", "AES")).isEqualTo("SunJCE");
+		}
+	}
+}
@@ -0,0 +1,161 @@
+package com.wesabe.grendel.openpgp.tests;
+
+import static org.fest.assertions.Assertions.*;
+import static org.junit.Assert.*;
+
+import java.io.FileInputStream;
+import java.security.SecureRandom;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.experimental.runners.Enclosed;
+import org.junit.runner.RunWith;
+
+import com.wesabe.grendel.openpgp.KeySet;
+import com.wesabe.grendel.openpgp.S2KCalibration;
+import com.wesabe.grendel.openpgp.UnlockedKeySet;
+
+@RunWith(Enclosed.class)
+public class S2KCalibrationTest {
+	private static abstract class Context {
+		public void setup() throws Exception {
+			S2KCalibration.setIterationCount(S2KCalibration.DEFAULT_ITERATION_COUNT);
+		}
+		
+		@After
+		public void teardown() throws Exception {
+			S2KCalibration.setIterationCount(S2KCalibration.DEFAULT_ITERATION_COUNT);
+		}
+	}
+	
+	public static class Decoding_Iteration_Counts extends Context {
+		@Before
+		@Override
+		public void setup() throws Exception {
+			super.setup();
+		}
+		
+		@Test
+		public void itDecodesTheDefaultCount() throws Exception {
+			assertThat(S2KCalibration.decode(0x60)).isEqualTo(65536L);
+		}
+		
+		@Test
+		public void itDecodesTheMaximumCount() throws Exception {
+			assertThat(S2KCalibration.decode(0xFF)).isEqualTo(65011712L);
+		}
+	}
+	
+	public static class Setting_The_Iteration_Count extends Context {
+		@Before
+		@Override
+		public void setup() throws Exception {
+			super.setup();
+		}
+		
+		@Test
+		public void itDefaultsToBouncyCastlesCount() throws Exception {
+			assertThat(S2KCalibration.getIterationCount()).isEqualTo(0x60);
+		}
+		
+		@Test
+		public void itDoesNotAcceptCountsBelowTheDefault() throws Exception {
+			try {
+				S2KCalibration.setIterationCount(0x5F);
+				fail("should have thrown an IllegalArgumentException but didn't");
+			} catch (IllegalArgumentException e) {
+				assertThat(e.getMessage()).isEqualTo("invalid S2K iteration count: 95");
+			}
+		}
+		
+		@Test
+		public void itDoesNotAcceptCountsAboveTheMaximum() throws Exception {
+			try {
+				S2KCalibration.setIterationCount(0x100);
+				fail("should have thrown an IllegalArgumentException but didn't");
+			} catch (IllegalArgumentException e) {
+				assertThat(e.getMessage()).isEqualTo("invalid S2K iteration count: 256");
+			}
+		}
+	}
+	
+	public static class Calibrating extends Context {
+		@Before
+		@Override
+		public void setup() throws Exception {
+			super.setup();
+		}
+		
+		@Test
+		public void itSetsTheIterationCount() throws Exception {
+			final int count = S2KCalibration.calibrate(10);
+			
+			assertThat(count).isGreaterThanOrEqualTo(0x60);
+			assertThat(S2KCalibration.getIterationCount()).isEqualTo(count);
+		}
+		
+		@Test
+		public void itPicksHigherCountsForLongerTargets() throws Exception {
+			final int shortCount = S2KCalibration.calibrate(1);
+			final int longCount = S2KCalibration.calibrate(100);
+			
+			assertThat(longCount).isGreaterThan(shortCount);
+		}
+	}
+	
+	public static class Relocking_An_Outdated_Key_Set extends Context {
+		private KeySet keySet;
+		
+		@Before
+		@Override
+		public void setup() throws Exception {
+			super.setup();
+			
+			final FileInputStream keyRingFile = new FileInputStream("src/test/resources/secret-keyring.gpg");
+			this.keySet = KeySet.load(keyRingFile);
+			
+			S2KCalibration.setIterationCount(0x90);
+		}
+		
+		@Test
+		public void itIsOutdated() throws Exception {
+			assertThat(keySet.isLockOutdated()).isTrue();
+		}
+		
+		@Test
+		public void itIsNotOutdatedWithinAFactorOfFour() throws Exception {
+			S2KCalibration.setIterationCount(0x80);
+			
+			assertThat(keySet.isLockOutdated()).isFalse();
+		}
+		
+		@Test
+		public void itIsNotOutdatedWithTheDefaultCount() throws Exception {
+			S2KCalibration.setIterationCount(S2KCalibration.DEFAULT_ITERATION_COUNT);
+			
+			assertThat(keySet.isLockOutdated()).isFalse();
+		}
+		
+		@Test
+		public void itIsUpToDateOnceRelocked() throws Exception {
+			final UnlockedKeySet unlockedKeySet = keySet.unlock("test".toCharArray());
+			final KeySet relocked = unlockedKeySet.relock("test".toCharArray(), "test".toCharArray(), new SecureRandom());
+			
+			assertThat(relocked.isLockOutdated()).isFalse();
+		}
+		
+		@Test
+		public void itKeepsTheSameKeysAndPassphrase() throws Exception {
+			final UnlockedKeySet unlockedKeySet = keySet.unlock("test".toCharArray());
+			final KeySet relocked = unlockedKeySet.relock("test".toCharArray(), "test".toCharArray(), new SecureRandom());
+			
+			assertThat(relocked.getMasterKey().getKeyID()).isEqualTo(keySet.getMasterKey().getKeyID());
+			assertThat(relocked.getSubKey().getKeyID()).isEqualTo(keySet.getSubKey().getKeyID());
+			assertThat(relocked.getUserID()).isEqualTo(keySet.getUserID());
+			
+			final UnlockedKeySet unlockedRelocked = relocked.unlock("test".toCharArray());
+			assertThat(unlockedRelocked.getUnlockedMasterKey().getKeyID()).isEqualTo(keySet.getMasterKey().getKeyID());
+		}
+	}
+}
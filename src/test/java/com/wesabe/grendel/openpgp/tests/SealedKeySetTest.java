@@ -0,0 +1,114 @@
+package com.wesabe.grendel.openpgp.tests;
+
+import static org.fest.assertions.Assertions.*;
+import static org.junit.Assert.*;
+
+import java.io.FileInputStream;
+import java.security.SecureRandom;
+
+import javax.crypto.SecretKey;
+import javax.crypto.spec.SecretKeySpec;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.experimental.runners.Enclosed;
+import org.junit.runner.RunWith;
+
+import com.google.common.collect.ImmutableList;
+import com.wesabe.grendel.openpgp.CryptographicException;
+import com.wesabe.grendel.openpgp.KeySet;
+import com.wesabe.grendel.openpgp.MessageReader;
+import com.wesabe.grendel.openpgp.MessageWriter;
+import com.wesabe.grendel.openpgp.SealedKeySet;
+import com.wesabe.grendel.openpgp.UnlockedKeySet;
+
+@RunWith(Enclosed.class)
+public class SealedKeySetTest {
+	public static class Sealing_A_Key_Set {
+		private UnlockedKeySet keySet;
+		private SecretKey key;
+		private SealedKeySet sealed;
+		
+		@Before
+		public void setup() throws Exception {
+			final FileInputStream keyRingFile = new FileInputStream("src/test/resources/secret-keyring.gpg");
+			this.keySet = KeySet.load(keyRingFile).unlock("test".toCharArray());
+			
+			keySet.getUnlockedMasterKey();
+			
+			this.key = new SecretKeySpec(new byte[16], "AES");
+			this.sealed = SealedKeySet.seal(keySet, key, new SecureRandom());
+		}
+		
+		@Test
+		public void itUnsealsToAnEquivalentKeySet() throws Exception {
+			final UnlockedKeySet unsealed = sealed.unseal(key);
+			
+			assertThat(unsealed.isMasterKeyUnlocked()).isTrue();
+			assertThat(unsealed.getMasterKey().getKeyID()).isEqualTo(keySet.getMasterKey().getKeyID());
+			assertThat(unsealed.getSubKey().getKeyID()).isEqualTo(keySet.getSubKey().getKeyID());
+			assertThat(unsealed.getUserID()).isEqualTo(keySet.getUserID());
+		}
+		
+		@Test
+		public void itUnsealsToAUsableKeySet() throws Exception {
+			final UnlockedKeySet unsealed = sealed.unseal(key);
+			final byte[] body = "hello".getBytes();
+			
+			final byte[] encrypted = new MessageWriter(unsealed, ImmutableList.<KeySet>of(), new SecureRandom()).write(body);
+			
+			assertThat(new MessageReader(keySet, keySet).read(encrypted)).isEqualTo(body);
+		}
+		
+		@Test
+		public void itCannotBeUnsealedWithTheWrongKey() throws Exception {
+			final byte[] wrong = new byte[16];
+			wrong[0] = 1;
+			
+			try {
+				sealed.unseal(new SecretKeySpec(wrong, "AES"));
+				fail("should have thrown a CryptographicException but didn't");
+			} catch (CryptographicException e) {
+				assertThat(e.getMessage()).isEqualTo("incorrect key");
+			}
+		}
+	}
+	
+	public static class Sealing_A_Key_Set_With_A_Locked_Master_Key {
+		private UnlockedKeySet keySet;
+		private SecretKey key;
+		private SealedKeySet sealed;
+		
+		@Before
+		public void setup() throws Exception {
+			final FileInputStream keyRingFile = new FileInputStream("src/test/resources/secret-keyring.gpg");
+			this.keySet = KeySet.load(keyRingFile).unlock("test".toCharArray());
+			
+			this.key = new SecretKeySpec(new byte[16], "AES");
+			this.sealed = SealedKeySet.seal(keySet, key, new SecureRandom());
+		}
+		
+		@Test
+		public void itDoesNotUnlockTheMasterKey() throws Exception {
+			assertThat(keySet.isMasterKeyUnlocked()).isFalse();
+		}
+		
+		@Test
+		public void itUnsealsWithAPassphrase() throws Exception {
+			final UnlockedKeySet unsealed = sealed.unseal(key, "test".toCharArray());
+			
+			assertThat(unsealed.isMasterKeyUnlocked()).isFalse();
+			assertThat(unsealed.getUnlockedMasterKey().getKeyID()).isEqualTo(keySet.getMasterKey().getKeyID());
+		}
+		
+		@Test
+		public void itCannotBeUnsealedWithoutAPassphrase() throws Exception {
+			try {
+				sealed.unseal(key);
+				fail("should have thrown a CryptographicException but didn't");
+			} catch (CryptographicException e) {
+				assertThat(e.getMessage()).isEqualTo("master key was not sealed");
+			}
+		}
+	}
+}
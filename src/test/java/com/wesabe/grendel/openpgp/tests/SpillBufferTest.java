@@ -0,0 +1,88 @@
+package com.wesabe.grendel.openpgp.tests;
+
+import static org.fest.assertions.Assertions.*;
+
+import java.io.ByteArrayOutputStream;
+import java.security.SecureRandom;
+import java.util.Random;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.experimental.runners.Enclosed;
+import org.junit.runner.RunWith;
+
+import com.wesabe.grendel.openpgp.SpillBuffer;
+
+@RunWith(Enclosed.class)
+public class SpillBufferTest {
+	private static abstract class Context {
+		protected SpillBuffer buffer;
+		protected byte[] data;
+		
+		public void setup(int size) throws Exception {
+			this.data = new byte[size];
+			new Random().nextBytes(data);
+			
+			this.buffer = new SpillBuffer(1024, new SecureRandom());
+			for (int i = 0; i < data.length; i += 100) {
+				buffer.write(data, i, Math.min(100, data.length - i));
+			}
+		}
+		
+		@After
+		public void teardown() {
+			buffer.close();
+		}
+	}
+	
+	public static class A_Small_Buffer extends Context {
+		@Before
+		public void setup() throws Exception {
+			setup(1000);
+		}
+		
+		@Test
+		public void itStaysInMemory() throws Exception {
+			assertThat(buffer.isSpilled()).isFalse();
+		}
+		
+		@Test
+		public void itHasASize() throws Exception {
+			assertThat(buffer.size()).isEqualTo(1000L);
+		}
+		
+		@Test
+		public void itWritesItsContents() throws Exception {
+			final ByteArrayOutputStream output = new ByteArrayOutputStream();
+			buffer.writeTo(output);
+			
+			assertThat(output.toByteArray()).isEqualTo(data);
+		}
+	}
+	
+	public static class A_Large_Buffer extends Context {
+		@Before
+		public void setup() throws Exception {
+			setup(100000);
+		}
+		
+		@Test
+		public void itSpillsToDisk() throws Exception {
+			assertThat(buffer.isSpilled()).isTrue();
+		}
+		
+		@Test
+		public void itHasASize() throws Exception {
+			assertThat(buffer.size()).isEqualTo(100000L);
+		}
+		
+		@Test
+		public void itWritesItsContents() throws Exception {
+			final ByteArrayOutputStream output = new ByteArrayOutputStream();
+			buffer.writeTo(output);
+			
+			assertThat(output.toByteArray()).isEqualTo(data);
+		}
+	}
+}
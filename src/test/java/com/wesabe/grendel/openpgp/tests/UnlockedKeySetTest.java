@@ -32,6 +32,35 @@ public class UnlockedKeySetTest {
 			this.unlockedKeySet = keySet.unlock("test".toCharArray());
 		}
 		
+		@Test
+		public void itDoesNotUnlockTheMasterKeyUntilItIsUsed() throws Exception {
+			assertThat(unlockedKeySet.isMasterKeyUnlocked()).isFalse();
+			
+			unlockedKeySet.getUnlockedMasterKey();
+			
+			assertThat(unlockedKeySet.isMasterKeyUnlocked()).isTrue();
+		}
+		
+		@Test
+		public void itCannotUnlockTheMasterKeyOnceThePassphraseIsForgotten() throws Exception {
+			unlockedKeySet.forgetPassphrase();
+			
+			try {
+				unlockedKeySet.getUnlockedMasterKey();
+				fail("should have thrown a CryptographicException but didn't");
+			} catch (CryptographicException e) {
+				assertThat(unlockedKeySet.isMasterKeyUnlocked()).isFalse();
+			}
+		}
+		
+		@Test
+		public void itKeepsAnUnlockedMasterKeyOnceThePassphraseIsForgotten() throws Exception {
+			unlockedKeySet.getUnlockedMasterKey();
+			unlockedKeySet.forgetPassphrase();
+			
+			assertThat(unlockedKeySet.getUnlockedMasterKey().getKeyID()).isEqualTo(0x8C7035EF8838238CL);
+		}
+		
 		@Test
 		public void itHasAnUnlockedMasterKey() throws Exception {
 			assertThat(unlockedKeySet.getUnlockedMasterKey().getKeyID()).isEqualTo(0x8C7035EF8838238CL);
@@ -62,4 +91,24 @@ public class UnlockedKeySetTest {
 			
 		}
 	}
+	
+	public static class Unlocking_A_Key_Set_With_The_Wrong_Passphrase {
+		private KeySet keySet;
+		
+		@Before
+		public void setup() throws Exception {
+			final FileInputStream keyRingFile = new FileInputStream("src/test/resources/secret-keyring.gpg");
+			this.keySet = KeySet.load(keyRingFile);
+		}
+		
+		@Test
+		public void itThrowsAnException() throws Exception {
+			try {
+				keySet.unlock("wonk".toCharArray());
+				fail("should have thrown a CryptographicException but didn't");
+			} catch (CryptographicException e) {
+				assertThat(e.getMessage()).isEqualTo("incorrect passphrase");
+			}
+		}
+	}
 }
@@ -0,0 +1,81 @@
+package com.wesabe.grendel.representations.tests;
+
+import static org.fest.assertions.Assertions.*;
+import static org.junit.Assert.*;
+import static org.mockito.Matchers.*;
+import static org.mockito.Mockito.*;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+
+import javax.ws.rs.WebApplicationException;
+import javax.ws.rs.core.Response.Status;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.experimental.runners.Enclosed;
+import org.junit.runner.RunWith;
+
+import com.wesabe.grendel.entities.Document;
+import com.wesabe.grendel.openpgp.CryptographicException;
+import com.wesabe.grendel.openpgp.UnlockedKeySet;
+import com.wesabe.grendel.representations.DocumentBodyRepresentation;
+
+@RunWith(Enclosed.class)
+public class DocumentBodyRepresentationTest {
+	public static class Writing_A_Document_Body {
+		private Document document;
+		private UnlockedKeySet keySet;
+		private InputStream body;
+		private DocumentBodyRepresentation rep;
+		
+		@Before
+		public void setup() throws Exception {
+			this.body = new ByteArrayInputStream("encrypted".getBytes());
+			this.document = mock(Document.class);
+			when(document.openBody()).thenReturn(body);
+			this.keySet = mock(UnlockedKeySet.class);
+			this.rep = DocumentBodyRepresentation.open(document, keySet);
+		}
+		
+		@Test
+		public void itOpensTheBodyWhenCreated() throws Exception {
+			verify(document).openBody();
+		}
+		
+		@Test
+		public void itDecryptsTheOpenedBodyIntoTheOutput() throws Exception {
+			final ByteArrayOutputStream output = new ByteArrayOutputStream();
+			rep.write(output);
+			
+			verify(document).decryptBody(keySet, body, output);
+		}
+		
+		@Test
+		public void itThrowsAServerErrorIfTheBodyCantBeOpened() throws Exception {
+			when(document.openBody()).thenThrow(new IOException("blob not found"));
+			
+			try {
+				DocumentBodyRepresentation.open(document, keySet);
+				fail("should have thrown a 500 but didn't");
+			} catch (WebApplicationException e) {
+				assertThat(e.getResponse().getStatus()).isEqualTo(Status.INTERNAL_SERVER_ERROR.getStatusCode());
+			}
+		}
+		
+		@Test
+		public void itThrowsAServerErrorIfTheDocumentCantBeDecrypted() throws Exception {
+			doThrow(new CryptographicException("bad")).when(document).decryptBody(eq(keySet), any(InputStream.class), any(OutputStream.class));
+			
+			try {
+				rep.write(new ByteArrayOutputStream());
+				fail("should have thrown a 500 but didn't");
+			} catch (WebApplicationException e) {
+				assertThat(e.getResponse().getStatus()).isEqualTo(Status.INTERNAL_SERVER_ERROR.getStatusCode());
+			}
+		}
+	}
+}
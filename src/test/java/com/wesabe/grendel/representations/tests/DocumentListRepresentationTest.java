@@ -19,8 +19,6 @@ import org.mockito.invocation.InvocationOnMock;
 import org.mockito.stubbing.Answer;
 
 import com.google.common.collect.ImmutableList;
-import com.google.common.collect.ImmutableSet;
-import com.wesabe.grendel.entities.Document;
 import com.wesabe.grendel.entities.User;
 import com.wesabe.grendel.representations.DocumentListRepresentation;
 
@@ -29,7 +27,6 @@ public class DocumentListRepresentationTest {
 	public static class Serializing_A_Document_List {
 		private UriInfo uriInfo;
 		private DocumentListRepresentation rep;
-		private Document doc;
 		private User owner;
 		
 		@Before
@@ -46,12 +43,7 @@ public class DocumentListRepresentationTest {
 			when(owner.getId()).thenReturn("mrpeepers");
 			when(owner.toString()).thenReturn("mrpeepers");
 			
-			this.doc = mock(Document.class);
-			when(doc.getName()).thenReturn("document1.txt");
-			when(doc.toString()).thenReturn("document1.txt");
-			when(doc.getOwner()).thenReturn(owner);
-			
-			this.rep = new DocumentListRepresentation(uriInfo, ImmutableSet.of(doc));
+			this.rep = new DocumentListRepresentation(uriInfo, owner, ImmutableList.of("document1.txt"), 100, null);
 		}
 		
 		@Test
@@ -68,5 +60,46 @@ public class DocumentListRepresentationTest {
 			assertThat(document.get("name").getTextValue()).isEqualTo("document1.txt");
 			assertThat(document.get("uri").getTextValue()).isEqualTo("http://example.com/users/mrpeepers/documents/document1.txt");
 		}
+		
+		@Test
+		public void itDoesNotIncludeANextPageIfThereIsNone() throws Exception {
+			final ObjectMapper mapper = new ObjectMapper();
+			final String json = mapper.writeValueAsString(rep);
+			
+			final ObjectNode entity = mapper.readValue(json, ObjectNode.class);
+			assertThat(entity.get("next")).isNull();
+		}
+	}
+	
+	public static class Serializing_A_Page_Of_A_Document_List {
+		private UriInfo uriInfo;
+		private DocumentListRepresentation rep;
+		private User owner;
+		
+		@Before
+		public void setup() throws Exception {
+			this.uriInfo = mock(UriInfo.class);
+			when(uriInfo.getBaseUriBuilder()).thenAnswer(new Answer<UriBuilder>() {
+				@Override
+				public UriBuilder answer(InvocationOnMock invocation) throws Throwable {
+					return UriBuilder.fromUri("http://example.com");
+				}
+			});
+			
+			this.owner = mock(User.class);
+			when(owner.getId()).thenReturn("mrpeepers");
+			when(owner.toString()).thenReturn("mrpeepers");
+			
+			this.rep = new DocumentListRepresentation(uriInfo, owner, ImmutableList.of("document1.txt"), 1, "abcdef");
+		}
+		
+		@Test
+		public void itIncludesTheURIOfTheNextPage() throws Exception {
+			final ObjectMapper mapper = new ObjectMapper();
+			final String json = mapper.writeValueAsString(rep);
+			
+			final ObjectNode entity = mapper.readValue(json, ObjectNode.class);
+			assertThat(entity.get("next").getTextValue()).isEqualTo("http://example.com/users/mrpeepers/documents?limit=1&after=abcdef");
+		}
 	}
 }
@@ -19,7 +19,6 @@ import org.mockito.invocation.InvocationOnMock;
 import org.mockito.stubbing.Answer;
 
 import com.google.common.collect.ImmutableList;
-import com.wesabe.grendel.entities.User;
 import com.wesabe.grendel.representations.UserListRepresentation;
 
 @RunWith(Enclosed.class)
@@ -27,7 +26,6 @@ public class UserListRepresentationTest {
 	public static class Serializing_A_User_List {
 		private UriInfo uriInfo;
 		private UserListRepresentation rep;
-		private User user;
 		
 		@Before
 		public void setup() throws Exception {
@@ -39,11 +37,7 @@ public class UserListRepresentationTest {
 				}
 			});
 			
-			this.user = mock(User.class);
-			when(user.getId()).thenReturn("mrpeepers");
-			when(user.toString()).thenReturn("mrpeepers");
-			
-			this.rep = new UserListRepresentation(uriInfo, ImmutableList.of(user));
+			this.rep = new UserListRepresentation(uriInfo, ImmutableList.of("mrpeepers"), 100, null);
 		}
 		
 		@Test
@@ -59,6 +53,34 @@ public class UserListRepresentationTest {
 			final JsonNode user = users.get(0);
 			assertThat(user.get("id").getTextValue()).isEqualTo("mrpeepers");
 			assertThat(user.get("uri").getTextValue()).isEqualTo("http://example.com/users/mrpeepers");
+			assertThat(entity.get("next")).isNull();
+		}
+	}
+	
+	public static class Serializing_A_Page_Of_A_User_List {
+		private UriInfo uriInfo;
+		private UserListRepresentation rep;
+		
+		@Before
+		public void setup() throws Exception {
+			this.uriInfo = mock(UriInfo.class);
+			when(uriInfo.getBaseUriBuilder()).thenAnswer(new Answer<UriBuilder>() {
+				@Override
+				public UriBuilder answer(InvocationOnMock invocation) throws Throwable {
+					return UriBuilder.fromUri("http://example.com");
+				}
+			});
+			
+			this.rep = new UserListRepresentation(uriInfo, ImmutableList.of("mrpeepers"), 1, "abcdef");
+		}
+		
+		@Test
+		public void itIncludesTheURIOfTheNextPage() throws Exception {
+			final ObjectMapper mapper = new ObjectMapper();
+			final String json = mapper.writeValueAsString(rep);
+			
+			final ObjectNode entity = mapper.readValue(json, ObjectNode.class);
+			assertThat(entity.get("next").getTextValue()).isEqualTo("http://example.com/users/?limit=1&after=abcdef");
 		}
 	}
 }
@@ -5,6 +5,10 @@ import static org.junit.Assert.*;
 import static org.mockito.Matchers.*;
 import static org.mockito.Mockito.*;
 
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.InputStream;
+import java.io.OutputStream;
 import java.security.SecureRandom;
 import java.text.DateFormat;
 import java.text.SimpleDateFormat;
@@ -17,6 +21,7 @@ import javax.ws.rs.core.HttpHeaders;
 import javax.ws.rs.core.MediaType;
 import javax.ws.rs.core.Request;
 import javax.ws.rs.core.Response;
+import javax.ws.rs.core.StreamingOutput;
 import javax.ws.rs.core.Response.Status;
 
 import org.joda.time.DateTime;
@@ -28,6 +33,8 @@ import org.junit.Test;
 import org.junit.experimental.runners.Enclosed;
 import org.junit.runner.RunWith;
 import org.mockito.InOrder;
+import org.mockito.invocation.InvocationOnMock;
+import org.mockito.stubbing.Answer;
 
 import com.google.inject.Provider;
 import com.wesabe.grendel.auth.Credentials;
@@ -82,7 +89,14 @@ public class DocumentResourceTest {
 			when(document.getName()).thenReturn("document1.txt");
 			when(document.getContentType()).thenReturn(MediaType.TEXT_PLAIN_TYPE);
 			when(document.getModifiedAt()).thenReturn(modifiedAt);
-			when(document.decryptBody(keySet)).thenReturn("yay for everyone".getBytes());
+			doAnswer(new Answer<Void>() {
+				@Override
+				public Void answer(InvocationOnMock invocation) throws Throwable {
+					((OutputStream) invocation.getArguments()[2]).write("yay for everyone".getBytes());
+					return null;
+				}
+			}).when(document).decryptBody(eq(keySet), any(InputStream.class), any(OutputStream.class));
+			when(document.openBody()).thenReturn(new ByteArrayInputStream("encrypted".getBytes()));
 			when(document.getEtag()).thenReturn("doc-document1.txt-50");
 			
 			this.documentDAO = mock(DocumentDAO.class);
@@ -145,7 +159,17 @@ public class DocumentResourceTest {
 			assertThat(response.getMetadata().getFirst("Content-Type")).isEqualTo(MediaType.valueOf("text/plain"));
 			assertThat(response.getMetadata().getFirst("Cache-Control").toString()).isEqualTo("private, no-cache, no-store, no-transform");
 			assertThat(formatter.format(response.getMetadata().getFirst("Last-Modified"))).isEqualTo("Tue Dec 29 08:42:32 UTC 2009");
-			assertThat((byte[]) response.getEntity()).isEqualTo("yay for everyone".getBytes());
+			
+			final ByteArrayOutputStream entity = new ByteArrayOutputStream();
+			((StreamingOutput) response.getEntity()).write(entity);
+			assertThat(entity.toByteArray()).isEqualTo("yay for everyone".getBytes());
+		}
+		
+		@Test
+		public void itOpensTheBodyBeforeReturning() throws Exception {
+			resource.show(request, credentials, "bob", "document1.txt");
+			
+			verify(document).openBody();
 		}
 
 	}
@@ -198,7 +222,7 @@ public class DocumentResourceTest {
 	}
 
 	public static class Updating_A_Document extends Context {
-		private byte[] body;
+		private InputStream body;
 		private HttpHeaders headers;
 
 		@Before
@@ -208,7 +232,7 @@ public class DocumentResourceTest {
 			
 			DateTimeUtils.setCurrentMillisFixed(now.getMillis());
 
-			this.body = "hey, it's something new".getBytes();
+			this.body = new ByteArrayInputStream("hey, it's something new".getBytes());
 
 			this.headers = mock(HttpHeaders.class);
 			when(headers.getMediaType()).thenReturn(MediaType.TEXT_PLAIN_TYPE);
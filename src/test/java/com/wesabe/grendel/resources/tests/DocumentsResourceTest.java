@@ -1,8 +1,10 @@
 package com.wesabe.grendel.resources.tests;
 
 import static org.fest.assertions.Assertions.*;
+import static org.junit.Assert.*;
 import static org.mockito.Mockito.*;
 
+import javax.ws.rs.WebApplicationException;
 import javax.ws.rs.core.UriInfo;
 
 import org.junit.Before;
@@ -10,52 +12,138 @@ import org.junit.Test;
 import org.junit.experimental.runners.Enclosed;
 import org.junit.runner.RunWith;
 
-import com.google.common.collect.ImmutableSet;
+import com.google.common.collect.ImmutableList;
 import com.wesabe.grendel.auth.Credentials;
 import com.wesabe.grendel.auth.Session;
-import com.wesabe.grendel.entities.Document;
 import com.wesabe.grendel.entities.User;
+import com.wesabe.grendel.entities.dao.DocumentDAO;
 import com.wesabe.grendel.entities.dao.UserDAO;
 import com.wesabe.grendel.representations.DocumentListRepresentation;
 import com.wesabe.grendel.resources.DocumentsResource;
+import com.wesabe.grendel.util.Cursors;
 
 @RunWith(Enclosed.class)
 public class DocumentsResourceTest {
-	public static class Listing_A_Users_Documents {
-		protected Document document;
+	private static abstract class Context {
 		protected Credentials credentials;
 		protected User user;
 		protected Session session;
 		protected UserDAO userDAO;
+		protected DocumentDAO documentDAO;
 		protected UriInfo uriInfo;
 		protected DocumentsResource resource;
 		
-		@Before
 		public void setup() throws Exception {
-			this.document = mock(Document.class);
-			
 			this.user = mock(User.class);
-			when(user.getDocuments()).thenReturn(ImmutableSet.of(document));
+			when(user.getId()).thenReturn("bob");
 			
 			this.session = mock(Session.class);
 			when(session.getUser()).thenReturn(user);
 			
 			this.userDAO = mock(UserDAO.class);
+			this.documentDAO = mock(DocumentDAO.class);
 			
-			this.resource = new DocumentsResource(userDAO);
+			this.resource = new DocumentsResource(userDAO, documentDAO);
 			
 			this.credentials = mock(Credentials.class);
 			when(credentials.buildSession(userDAO, "bob")).thenReturn(session);
 			
 			this.uriInfo = mock(UriInfo.class);
 		}
+	}
+	
+	public static class Listing_A_Users_Documents extends Context {
+		@Before
+		@Override
+		public void setup() throws Exception {
+			super.setup();
+			
+			when(documentDAO.findNamesByOwner(user, null, 3)).thenReturn(ImmutableList.of("document1.txt"));
+		}
 		
 		@Test
 		public void itReturnsADocumentListIfValid() throws Exception {
-			final DocumentListRepresentation docs = resource.listDocuments(uriInfo, credentials, "bob");
+			final DocumentListRepresentation docs = resource.listDocuments(uriInfo, credentials, "bob", 2, null);
 			
-			assertThat(docs.getDocuments()).isEqualTo(ImmutableSet.of(document));
+			assertThat(docs.getNames()).isEqualTo(ImmutableList.of("document1.txt"));
 			assertThat(docs.getUriInfo()).isEqualTo(uriInfo);
 		}
+		
+		@Test
+		public void itDoesNotReturnACursorForTheLastPage() throws Exception {
+			final DocumentListRepresentation docs = resource.listDocuments(uriInfo, credentials, "bob", 2, null);
+			
+			assertThat(docs.getNextCursor()).isNull();
+		}
+	}
+	
+	public static class Listing_A_Page_Of_A_Users_Documents extends Context {
+		@Before
+		@Override
+		public void setup() throws Exception {
+			super.setup();
+			
+			when(documentDAO.findNamesByOwner(user, null, 3)).thenReturn(ImmutableList.of("a.txt", "b.txt", "c.txt"));
+			when(documentDAO.findNamesByOwner(user, "b.txt", 3)).thenReturn(ImmutableList.of("c.txt"));
+		}
+		
+		@Test
+		public void itReturnsAtMostLimitDocuments() throws Exception {
+			final DocumentListRepresentation docs = resource.listDocuments(uriInfo, credentials, "bob", 2, null);
+			
+			assertThat(docs.getNames()).isEqualTo(ImmutableList.of("a.txt", "b.txt"));
+		}
+		
+		@Test
+		public void itReturnsACursorForTheNextPage() throws Exception {
+			final DocumentListRepresentation docs = resource.listDocuments(uriInfo, credentials, "bob", 2, null);
+			
+			assertThat(docs.getNextCursor()).isEqualTo(Cursors.encode("bob", "b.txt"));
+		}
+		
+		@Test
+		public void itReturnsTheNextPageForACursor() throws Exception {
+			final DocumentListRepresentation docs = resource.listDocuments(uriInfo, credentials, "bob", 2, Cursors.encode("bob", "b.txt"));
+			
+			assertThat(docs.getNames()).isEqualTo(ImmutableList.of("c.txt"));
+			assertThat(docs.getNextCursor()).isNull();
+		}
+	}
+	
+	public static class Listing_A_Users_Documents_With_A_Bad_Request extends Context {
+		@Before
+		@Override
+		public void setup() throws Exception {
+			super.setup();
+		}
+		
+		@Test
+		public void itThrowsA400IfTheLimitIsTooSmall() throws Exception {
+			assertBadRequest(0, null);
+		}
+		
+		@Test
+		public void itThrowsA400IfTheLimitIsTooLarge() throws Exception {
+			assertBadRequest(1001, null);
+		}
+		
+		@Test
+		public void itThrowsA400IfTheCursorIsMalformed() throws Exception {
+			assertBadRequest(100, "not-a-cursor");
+		}
+		
+		@Test
+		public void itThrowsA400IfTheCursorIsForAnotherUser() throws Exception {
+			assertBadRequest(100, Cursors.encode("alice", "a.txt"));
+		}
+		
+		private void assertBadRequest(int limit, String after) {
+			try {
+				resource.listDocuments(uriInfo, credentials, "bob", limit, after);
+				fail("should have thrown a 400 but didn't");
+			} catch (WebApplicationException e) {
+				assertThat(e.getResponse().getStatus()).isEqualTo(400);
+			}
+		}
 	}
 }
@@ -36,12 +36,9 @@ public class LinkResourceTest {
 		protected User user, reader;
 		protected UnlockedKeySet keySet;
 		protected Document document;
-		protected byte[] body;
 		protected LinkResource resource;
 		
 		public void setup() throws Exception {
-			this.body = "one two three four five".getBytes();
-			
 			this.user = mock(User.class);
 			
 			this.reader = mock(User.class);
@@ -49,7 +46,6 @@ public class LinkResourceTest {
 			this.keySet = mock(UnlockedKeySet.class);
 			
 			this.document = mock(Document.class);
-			when(document.decryptBody(keySet)).thenReturn(body);
 			
 			this.session = mock(Session.class);
 			when(session.getUser()).thenReturn(user);
@@ -106,12 +102,12 @@ public class LinkResourceTest {
 		}
 		
 		@Test
-		public void itLinksTheUserReEncryptsTheDocumentAndSavesIt() throws Exception {
+		public void itLinksTheUserRewrapsTheDocumentAndSavesIt() throws Exception {
 			resource.createLink(credentials, "bob", "document1.txt", "frank");
 			
 			final InOrder inOrder = inOrder(document, documentDAO);
 			inOrder.verify(document).linkUser(reader);
-			inOrder.verify(document).encryptAndSetBody(keySet, random, body);
+			inOrder.verify(document).rewrapBody(keySet, random);
 			inOrder.verify(documentDAO).saveOrUpdate(document);
 		}
 		
@@ -153,12 +149,12 @@ public class LinkResourceTest {
 		}
 		
 		@Test
-		public void itUnlinksTheUserReEncryptsTheDocumentAndSavesIt() throws Exception {
+		public void itUnlinksTheUserRewrapsTheDocumentAndSavesIt() throws Exception {
 			resource.deleteLink(credentials, "bob", "document1.txt", "frank");
 			
 			final InOrder inOrder = inOrder(document, documentDAO);
 			inOrder.verify(document).unlinkUser(reader);
-			inOrder.verify(document).encryptAndSetBody(keySet, random, body);
+			inOrder.verify(document).rewrapBody(keySet, random);
 			inOrder.verify(documentDAO).saveOrUpdate(document);
 		}
 		
@@ -4,6 +4,10 @@ import static org.fest.assertions.Assertions.*;
 import static org.junit.Assert.*;
 import static org.mockito.Mockito.*;
 
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.InputStream;
+import java.io.OutputStream;
 import java.text.DateFormat;
 import java.text.SimpleDateFormat;
 import java.util.Date;
@@ -12,6 +16,7 @@ import java.util.TimeZone;
 import javax.ws.rs.WebApplicationException;
 import javax.ws.rs.core.MediaType;
 import javax.ws.rs.core.Response;
+import javax.ws.rs.core.StreamingOutput;
 import javax.ws.rs.core.Response.Status;
 
 import org.joda.time.DateTime;
@@ -21,6 +26,8 @@ import org.junit.Test;
 import org.junit.experimental.runners.Enclosed;
 import org.junit.runner.RunWith;
 import org.mockito.InOrder;
+import org.mockito.invocation.InvocationOnMock;
+import org.mockito.stubbing.Answer;
 
 import com.wesabe.grendel.auth.Credentials;
 import com.wesabe.grendel.auth.Session;
@@ -56,7 +63,14 @@ public class LinkedDocumentResourceTest {
 			when(document.getName()).thenReturn("document1.txt");
 			when(document.getContentType()).thenReturn(MediaType.TEXT_PLAIN_TYPE);
 			when(document.getModifiedAt()).thenReturn(new DateTime(2009, 12, 29, 8, 42, 32, 00, DateTimeZone.UTC));
-			when(document.decryptBody(keySet)).thenReturn("yay for everyone".getBytes());
+			doAnswer(new Answer<Void>() {
+				@Override
+				public Void answer(InvocationOnMock invocation) throws Throwable {
+					((OutputStream) invocation.getArguments()[2]).write("yay for everyone".getBytes());
+					return null;
+				}
+			}).when(document).decryptBody(eq(keySet), any(InputStream.class), any(OutputStream.class));
+			when(document.openBody()).thenReturn(new ByteArrayInputStream("encrypted".getBytes()));
 			when(document.isLinked(user)).thenReturn(true);
 			
 			this.documentDAO = mock(DocumentDAO.class);
@@ -126,7 +140,17 @@ public class LinkedDocumentResourceTest {
 			assertThat(r.getMetadata().getFirst("Content-Type")).isEqualTo(MediaType.valueOf("text/plain"));
 			assertThat(r.getMetadata().getFirst("Cache-Control").toString()).isEqualTo("private, no-cache, no-store, no-transform");
 			assertThat(formatter.format(r.getMetadata().getFirst("Last-Modified"))).isEqualTo("Tue Dec 29 08:42:32 UTC 2009");
-			assertThat((byte[]) r.getEntity()).isEqualTo("yay for everyone".getBytes());
+			
+			final ByteArrayOutputStream entity = new ByteArrayOutputStream();
+			((StreamingOutput) r.getEntity()).write(entity);
+			assertThat(entity.toByteArray()).isEqualTo("yay for everyone".getBytes());
+		}
+		
+		@Test
+		public void itOpensTheBodyBeforeReturning() throws Exception {
+			resource.show(credentials, "bob", "frank", "document1.txt");
+			
+			verify(document).openBody();
 		}
 	}
 	
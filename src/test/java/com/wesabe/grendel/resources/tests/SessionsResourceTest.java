@@ -0,0 +1,214 @@
+package com.wesabe.grendel.resources.tests;
+
+import static org.fest.assertions.Assertions.*;
+import static org.junit.Assert.*;
+import static org.mockito.Mockito.*;
+
+import java.io.FileInputStream;
+import java.security.SecureRandom;
+import java.util.concurrent.TimeUnit;
+
+import javax.ws.rs.WebApplicationException;
+import javax.ws.rs.core.Response;
+import javax.ws.rs.core.UriInfo;
+import javax.ws.rs.core.Response.Status;
+
+import org.joda.time.DateTime;
+import org.joda.time.DateTimeZone;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.experimental.runners.Enclosed;
+import org.junit.runner.RunWith;
+import org.mockito.invocation.InvocationOnMock;
+import org.mockito.stubbing.Answer;
+
+import com.google.inject.Provider;
+
+import com.wesabe.grendel.auth.Credentials;
+import com.wesabe.grendel.auth.Session;
+import com.wesabe.grendel.auth.SessionStore;
+import com.wesabe.grendel.auth.SessionToken;
+import com.wesabe.grendel.auth.TokenCredentials;
+import com.wesabe.grendel.entities.User;
+import com.wesabe.grendel.entities.dao.UserDAO;
+import com.wesabe.grendel.openpgp.KeySet;
+import com.wesabe.grendel.openpgp.S2KCalibration;
+import com.wesabe.grendel.openpgp.UnlockedKeySet;
+import com.wesabe.grendel.representations.SessionRepresentation;
+import com.wesabe.grendel.resources.SessionsResource;
+
+@RunWith(Enclosed.class)
+public class SessionsResourceTest {
+	private static abstract class Context {
+		protected UserDAO userDAO;
+		protected SessionStore sessionStore;
+		protected User user;
+		protected KeySet keySet;
+		protected UnlockedKeySet unlockedKeySet;
+		protected UriInfo uriInfo;
+		protected Credentials credentials;
+		protected Session session;
+		protected SessionToken token;
+		protected SessionsResource resource;
+		
+		public void setup() throws Exception {
+			this.userDAO = mock(UserDAO.class);
+			this.uriInfo = mock(UriInfo.class);
+			
+			this.keySet = mock(KeySet.class);
+			this.user = mock(User.class);
+			when(user.getKeySet()).thenReturn(keySet);
+			
+			this.unlockedKeySet = mock(UnlockedKeySet.class);
+			this.session = mock(Session.class);
+			when(session.getUser()).thenReturn(user);
+			when(session.getKeySet()).thenReturn(unlockedKeySet);
+			
+			this.credentials = mock(Credentials.class);
+			when(credentials.buildSession(userDAO)).thenReturn(session);
+			
+			this.token = new SessionToken("abcdef", "bob", new DateTime(2010, 1, 3, 9, 51, 32, 0, DateTimeZone.UTC));
+			
+			this.sessionStore = mock(SessionStore.class);
+			when(sessionStore.create(session)).thenReturn(token);
+			
+			this.resource = new SessionsResource(userDAO, sessionStore);
+		}
+	}
+	
+	public static class Creating_A_Session extends Context {
+		@Before
+		@Override
+		public void setup() throws Exception {
+			super.setup();
+		}
+		
+		@Test
+		public void itReturnsANewToken() throws Exception {
+			final Response response = resource.create(uriInfo, credentials);
+			
+			assertThat(response.getStatus()).isEqualTo(Status.OK.getStatusCode());
+			
+			final SessionRepresentation entity = (SessionRepresentation) response.getEntity();
+			assertThat(entity.getToken()).isEqualTo("abcdef");
+			assertThat(entity.getExpiresAt()).isEqualTo("20100103T095132Z");
+		}
+		
+		@Test
+		public void itIsNotCacheable() throws Exception {
+			final Response response = resource.create(uriInfo, credentials);
+			
+			assertThat(response.getMetadata().getFirst("Cache-Control").toString()).contains("no-store");
+		}
+		
+		@Test
+		public void itRequiresBasicCredentials() throws Exception {
+			final TokenCredentials tokenCredentials = mock(TokenCredentials.class);
+			
+			try {
+				resource.create(uriInfo, tokenCredentials);
+				fail("should have thrown a WebApplicationException but didn't");
+			} catch (WebApplicationException e) {
+				assertThat(e.getResponse()).isEqualTo(Credentials.CHALLENGE);
+			}
+			
+			verify(sessionStore, never()).create(any(Session.class));
+		}
+	}
+	
+	public static class Creating_A_Session_With_An_Outdated_Key_Set {
+		private User user;
+		private UserDAO userDAO;
+		private SessionStore sessionStore;
+		private Credentials credentials;
+		private SessionsResource resource;
+		
+		@Before
+		public void setup() throws Exception {
+			final FileInputStream keyRingFile = new FileInputStream("src/test/resources/secret-keyring.gpg");
+			final KeySet keySet = KeySet.load(keyRingFile);
+			S2KCalibration.setIterationCount(0x90);
+			
+			this.user = mock(User.class);
+			when(user.getId()).thenReturn("bob");
+			when(user.getKeySet()).thenReturn(keySet);
+			when(user.getEtag()).thenReturn("user-bob-1");
+			
+			this.userDAO = mock(UserDAO.class);
+			when(userDAO.findById("bob")).thenReturn(user);
+			when(userDAO.replaceKeySet(eq(user), any(KeySet.class))).thenAnswer(new Answer<Boolean>() {
+				@Override
+				public Boolean answer(InvocationOnMock invocation) throws Throwable {
+					when(user.getEtag()).thenReturn("user-bob-2");
+					return true;
+				}
+			});
+			
+			final Provider<SecureRandom> randomProvider = new Provider<SecureRandom>() {
+				private final SecureRandom random = new SecureRandom();
+				
+				@Override
+				public SecureRandom get() {
+					return random;
+				}
+			};
+			
+			this.sessionStore = new SessionStore(randomProvider, 10, 60, TimeUnit.SECONDS);
+			this.credentials = new Credentials("bob", "test", null, randomProvider);
+			this.resource = new SessionsResource(userDAO, sessionStore);
+		}
+		
+		@After
+		public void teardown() throws Exception {
+			S2KCalibration.setIterationCount(S2KCalibration.DEFAULT_ITERATION_COUNT);
+		}
+		
+		@Test
+		public void itRelocksTheKeySet() throws Exception {
+			resource.create(mock(UriInfo.class), credentials);
+			
+			verify(userDAO).replaceKeySet(eq(user), any(KeySet.class));
+		}
+		
+		@Test
+		public void itReturnsATokenWhichResolves() throws Exception {
+			final Response response = resource.create(mock(UriInfo.class), credentials);
+			final SessionRepresentation entity = (SessionRepresentation) response.getEntity();
+			
+			final Session session = sessionStore.resolve(entity.getToken(), userDAO);
+			
+			assertThat(session).isNotNull();
+			assertThat(session.getUser()).isEqualTo(user);
+		}
+	}
+	
+	public static class Deleting_A_Session extends Context {
+		@Before
+		@Override
+		public void setup() throws Exception {
+			super.setup();
+		}
+		
+		@Test
+		public void itRevokesTheToken() throws Exception {
+			final TokenCredentials tokenCredentials = mock(TokenCredentials.class);
+			when(tokenCredentials.getToken()).thenReturn("abcdef");
+			
+			final Response response = resource.delete(tokenCredentials);
+			
+			assertThat(response.getStatus()).isEqualTo(Status.NO_CONTENT.getStatusCode());
+			verify(sessionStore).revoke("abcdef");
+		}
+		
+		@Test
+		public void itRequiresAToken() throws Exception {
+			try {
+				resource.delete(credentials);
+				fail("should have thrown a WebApplicationException but didn't");
+			} catch (WebApplicationException e) {
+				assertThat(e.getResponse().getStatus()).isEqualTo(Status.BAD_REQUEST.getStatusCode());
+			}
+		}
+	}
+}
@@ -29,6 +29,9 @@ import org.mockito.stubbing.Answer;
 
 import com.google.inject.Provider;
 import com.wesabe.grendel.auth.Credentials;
+import com.wesabe.grendel.auth.KeySetCache;
+import com.wesabe.grendel.auth.SessionStore;
+import com.wesabe.grendel.auth.TokenCredentials;
 import com.wesabe.grendel.auth.Session;
 import com.wesabe.grendel.entities.User;
 import com.wesabe.grendel.entities.dao.UserDAO;
@@ -43,6 +46,8 @@ public class UserResourceTest {
 	private static abstract class Context {
 		protected UserResource resource;
 		protected UserDAO dao;
+		protected KeySetCache keySetCache;
+		protected SessionStore sessionStore;
 		protected SecureRandom random;
 		protected Credentials credentials;
 		protected UnlockedKeySet keySet;
@@ -58,6 +63,7 @@ public class UserResourceTest {
 			this.modifiedAt = new DateTime(2010, 1, 3, 9, 51, 32, 0, DateTimeZone.UTC);
 			when(user.getModifiedAt()).thenReturn(modifiedAt);
 			when(user.getEtag()).thenReturn("user-bob-4");
+			when(user.getId()).thenReturn("bob");
 			
 			this.session = new Session(user, keySet);
 			
@@ -79,12 +85,15 @@ public class UserResourceTest {
 			when(credentials.getPassword()).thenReturn("secret");
 			when(credentials.buildSession(dao, "bob")).thenReturn(session);
 			
+			this.keySetCache = mock(KeySetCache.class);
+			this.sessionStore = mock(SessionStore.class);
+			
 			this.resource = new UserResource(dao, new Provider<SecureRandom>() {
 				@Override
 				public SecureRandom get() {
 					return random;
 				}
-			});
+			}, keySetCache, sessionStore);
 		}
 	}
 	
@@ -172,6 +181,16 @@ public class UserResourceTest {
 
 			verify(dao).delete(user);
 		}
+		
+		@Test
+		public void itInvalidatesTheUsersCachedKeySetsAndSessions() throws Exception {
+			resource.delete(request, uriInfo, "bob");
+			
+			final InOrder inOrder = inOrder(dao, keySetCache, sessionStore);
+			inOrder.verify(dao).delete(user);
+			inOrder.verify(keySetCache).invalidate("bob");
+			inOrder.verify(sessionStore).invalidate("bob");
+		}
 	}
 
 	public static class Changing_A_Users_Password extends Context {
@@ -226,5 +245,29 @@ public class UserResourceTest {
 			inOrder.verify(user).setKeySet(newKeySet);
 			inOrder.verify(dao).saveOrUpdate(user);
 		}
+		
+		@Test
+		public void itInvalidatesTheUsersCachedKeySetsAndSessions() throws Exception {
+			resource.update(request, credentials, "bob", entity);
+			
+			final InOrder inOrder = inOrder(dao, keySetCache, sessionStore);
+			inOrder.verify(dao).saveOrUpdate(user);
+			inOrder.verify(keySetCache).invalidate("bob");
+			inOrder.verify(sessionStore).invalidate("bob");
+		}
+		
+		@Test
+		public void itRequiresAPassword() throws Exception {
+			final TokenCredentials token = mock(TokenCredentials.class);
+			
+			try {
+				resource.update(request, token, "bob", entity);
+				fail("should have thrown a WebApplicationException but didn't");
+			} catch (WebApplicationException e) {
+				assertThat(e.getResponse()).isEqualTo(Credentials.CHALLENGE);
+			}
+			
+			verify(dao, never()).saveOrUpdate(user);
+		}
 	}
 }
@@ -1,11 +1,15 @@
 package com.wesabe.grendel.resources.tests;
 
 import static org.fest.assertions.Assertions.*;
+import static org.junit.Assert.*;
 import static org.mockito.Mockito.*;
 
+import java.io.FileInputStream;
 import java.net.URI;
 import java.util.List;
+import java.util.concurrent.RejectedExecutionException;
 
+import javax.ws.rs.WebApplicationException;
 import javax.ws.rs.core.Response;
 import javax.ws.rs.core.UriBuilder;
 import javax.ws.rs.core.UriInfo;
@@ -28,6 +32,7 @@ import com.wesabe.grendel.representations.CreateUserRepresentation;
 import com.wesabe.grendel.representations.ValidationException;
 import com.wesabe.grendel.representations.UserListRepresentation.UserListItem;
 import com.wesabe.grendel.resources.UsersResource;
+import com.wesabe.grendel.util.Cursors;
 
 @RunWith(Enclosed.class)
 public class UsersResourceTest {
@@ -45,7 +50,6 @@ public class UsersResourceTest {
 	}
 	
 	public static class Listing_All_Users extends Context {
-		private User user;
 		private UriInfo uriInfo;
 		
 		@Before
@@ -61,29 +65,98 @@ public class UsersResourceTest {
 				}
 			});
 			
-			this.user = mock(User.class);
-			when(user.getId()).thenReturn("mrpeeper");
-			when(user.toString()).thenReturn("mrpeeper");
-			
-			when(userDAO.findAll()).thenReturn(ImmutableList.of(user));
+			when(userDAO.findIds(null, 101)).thenReturn(ImmutableList.of("mrpeeper"));
 		}
 		
 		@Test
-		public void itFindsAllUsers() throws Exception {
-			resource.list(uriInfo);
+		public void itFindsTheFirstPageOfUserIds() throws Exception {
+			resource.list(uriInfo, 100, null);
 			
-			verify(userDAO).findAll();
+			verify(userDAO).findIds(null, 101);
 		}
 		
 		@Test
 		public void itReturnsAListOfAllUsers() throws Exception {
-			final List<UserListItem> list = resource.list(uriInfo).getUsers();
+			final List<UserListItem> list = resource.list(uriInfo, 100, null).getUsers();
 			
 			assertThat(list).hasSize(1);
 			
 			assertThat(list.get(0).getId()).isEqualTo("mrpeeper");
 			assertThat(list.get(0).getUri()).isEqualTo("http://example.com/users/mrpeeper");
 		}
+		
+		@Test
+		public void itDoesNotReturnACursorForTheLastPage() throws Exception {
+			assertThat(resource.list(uriInfo, 100, null).getNextCursor()).isNull();
+		}
+	}
+	
+	public static class Listing_A_Page_Of_Users extends Context {
+		private UriInfo uriInfo;
+		
+		@Before
+		@Override
+		public void setup() throws Exception {
+			super.setup();
+			
+			this.uriInfo = mock(UriInfo.class);
+			
+			when(userDAO.findIds(null, 3)).thenReturn(ImmutableList.of("alice", "bob", "carol"));
+			when(userDAO.findIds("bob", 3)).thenReturn(ImmutableList.of("carol"));
+		}
+		
+		@Test
+		public void itReturnsAtMostLimitUsers() throws Exception {
+			final List<UserListItem> list = resource.list(uriInfo, 2, null).getUsers();
+			
+			assertThat(list).hasSize(2);
+			assertThat(list.get(1).getId()).isEqualTo("bob");
+		}
+		
+		@Test
+		public void itReturnsACursorForTheNextPage() throws Exception {
+			assertThat(resource.list(uriInfo, 2, null).getNextCursor()).isEqualTo(Cursors.encode("bob"));
+		}
+		
+		@Test
+		public void itReturnsTheNextPageForACursor() throws Exception {
+			final List<UserListItem> list = resource.list(uriInfo, 2, Cursors.encode("bob")).getUsers();
+			
+			assertThat(list).hasSize(1);
+			assertThat(list.get(0).getId()).isEqualTo("carol");
+		}
+	}
+	
+	public static class Listing_Users_With_A_Bad_Request extends Context {
+		private UriInfo uriInfo;
+		
+		@Before
+		@Override
+		public void setup() throws Exception {
+			super.setup();
+			
+			this.uriInfo = mock(UriInfo.class);
+		}
+		
+		@Test
+		public void itThrowsA400IfTheLimitIsOutOfRange() throws Exception {
+			assertBadRequest(0, null);
+			assertBadRequest(1001, null);
+		}
+		
+		@Test
+		public void itThrowsA400IfTheCursorIsMalformed() throws Exception {
+			assertBadRequest(100, "not-a-cursor");
+		}
+		
+		private void assertBadRequest(int limit, String after) {
+			try {
+				resource.list(uriInfo, limit, after);
+				fail("should have thrown a 400 but didn't");
+			} catch (WebApplicationException e) {
+				assertThat(e.getResponse().getStatus()).isEqualTo(400);
+			}
+		}
 	}
 	
 	public static class Creating_A_New_User extends Context {
@@ -107,6 +180,10 @@ public class UsersResourceTest {
 			this.keySet = mock(KeySet.class);
 			when(keySet.getEncoded()).thenReturn(new byte[] { 1, 2, 3 });
 			when(keySet.getUserID()).thenReturn("username");
+			
+			final FileInputStream keyRingFile = new FileInputStream("src/test/resources/secret-keyring.gpg");
+			when(keySet.getRecipientKey()).thenReturn(KeySet.load(keyRingFile).getRecipientKey());
+			keyRingFile.close();
 
 			this.user = mock(User.class);
 			
@@ -203,4 +280,54 @@ public class UsersResourceTest {
 			}
 		}
 	}
+	
+	public static class Creating_A_New_User_While_Overloaded extends Context {
+		private UriInfo uriInfo;
+		private CreateUserRepresentation request;
+		
+		@Before
+		@Override
+		public void setup() throws Exception {
+			super.setup();
+			
+			this.uriInfo = mock(UriInfo.class);
+			
+			this.request = mock(CreateUserRepresentation.class);
+			when(request.getId()).thenReturn("username");
+			when(request.getPassword()).thenReturn("password".toCharArray());
+			
+			when(userDAO.contains(Mockito.anyString())).thenReturn(false);
+			when(generator.generate(Mockito.anyString(), Mockito.any(char[].class)))
+				.thenThrow(new RejectedExecutionException());
+		}
+		
+		@Test
+		public void itReturnsA503ServiceUnavailableWithARetryAfterHeader() throws Exception {
+			try {
+				resource.create(uriInfo, request);
+				fail("should have thrown a WebApplicationException but didn't");
+			} catch (WebApplicationException e) {
+				assertThat(e.getResponse().getStatus()).isEqualTo(503);
+				assertThat(e.getResponse().getMetadata().getFirst("Retry-After")).isEqualTo("5");
+			}
+		}
+		
+		@Test
+		public void itSanitizesTheRequest() throws Exception {
+			try {
+				resource.create(uriInfo, request);
+			} catch (WebApplicationException e) {
+				verify(request).sanitize();
+			}
+		}
+		
+		@Test
+		public void itDoesNotCreateAUser() throws Exception {
+			try {
+				resource.create(uriInfo, request);
+			} catch (WebApplicationException e) {
+				verify(userDAO, never()).saveOrUpdate(Mockito.any(User.class));
+			}
+		}
+	}
 }
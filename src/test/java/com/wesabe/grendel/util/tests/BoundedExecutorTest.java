@@ -0,0 +1,122 @@
+package com.wesabe.grendel.util.tests;
+
+import static org.fest.assertions.Assertions.*;
+import static org.junit.Assert.*;
+
+import java.util.concurrent.Callable;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Future;
+import java.util.concurrent.RejectedExecutionException;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.experimental.runners.Enclosed;
+import org.junit.runner.RunWith;
+
+import com.wesabe.grendel.util.BoundedExecutor;
+
+@RunWith(Enclosed.class)
+public class BoundedExecutorTest {
+	private static abstract class Context {
+		protected BoundedExecutor executor;
+		protected CountDownLatch latch;
+		
+		public void setup() throws Exception {
+			this.executor = new BoundedExecutor("test", 1, 1);
+			this.latch = new CountDownLatch(1);
+		}
+		
+		@After
+		public void teardown() throws Exception {
+			latch.countDown();
+			executor.shutdown();
+		}
+		
+		protected Future<String> submit(final String value) {
+			return executor.submit(new Callable<String>() {
+				@Override
+				public String call() throws Exception {
+					latch.await();
+					return value;
+				}
+			});
+		}
+	}
+	
+	public static class An_Idle_Executor extends Context {
+		@Before
+		@Override
+		public void setup() throws Exception {
+			super.setup();
+		}
+		
+		@Test
+		public void itRunsTasks() throws Exception {
+			final Future<String> future = submit("woo");
+			latch.countDown();
+			
+			assertThat(future.get()).isEqualTo("woo");
+		}
+		
+		@Test
+		public void itRecordsTaskLatency() throws Exception {
+			final Future<String> future = submit("woo");
+			Thread.sleep(20);
+			latch.countDown();
+			future.get();
+			
+			while (executor.getCompletedCount() == 0) {
+				Thread.sleep(1);
+			}
+			
+			assertThat(executor.getMeanLatency()).isGreaterThanOrEqualTo(20.0);
+			assertThat(executor.getMaxLatency()).isEqualTo(executor.getMeanLatency());
+		}
+		
+		@Test
+		public void itHasAFixedNumberOfThreads() throws Exception {
+			assertThat(executor.getThreadCount()).isEqualTo(1);
+			assertThat(executor.getQueueCapacity()).isEqualTo(1);
+		}
+	}
+	
+	public static class A_Saturated_Executor extends Context {
+		private Future<String> running, queued;
+		
+		@Before
+		@Override
+		public void setup() throws Exception {
+			super.setup();
+			this.running = submit("one");
+			this.queued = submit("two");
+			while (executor.getActiveCount() == 0) {
+				Thread.sleep(1);
+			}
+		}
+		
+		@Test
+		public void itHasAnActiveThreadAndAFullQueue() throws Exception {
+			assertThat(executor.getActiveCount()).isEqualTo(1);
+			assertThat(executor.getQueueDepth()).isEqualTo(1);
+		}
+		
+		@Test
+		public void itRejectsNewTasks() throws Exception {
+			try {
+				submit("three");
+				fail("should have thrown a RejectedExecutionException but didn't");
+			} catch (RejectedExecutionException e) {
+				assertThat(executor.getRejectedCount()).isEqualTo(1);
+			}
+		}
+		
+		@Test
+		public void itRunsQueuedTasksOnceAThreadIsFree() throws Exception {
+			latch.countDown();
+			
+			assertThat(running.get()).isEqualTo("one");
+			assertThat(queued.get()).isEqualTo("two");
+		}
+	}
+}
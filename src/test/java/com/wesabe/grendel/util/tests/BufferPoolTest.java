@@ -0,0 +1,38 @@
+package com.wesabe.grendel.util.tests;
+
+import static org.fest.assertions.Assertions.*;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.experimental.runners.Enclosed;
+import org.junit.runner.RunWith;
+
+import com.wesabe.grendel.util.BufferPool;
+
+@RunWith(Enclosed.class)
+public class BufferPoolTest {
+	public static class Borrowing_A_Buffer {
+		private BufferPool pool;
+		
+		@Before
+		public void setup() throws Exception {
+			this.pool = new BufferPool(32, 4);
+		}
+		
+		@Test
+		public void itReturnsABufferOfTheGivenSize() throws Exception {
+			assertThat(pool.getBufferSize()).isEqualTo(32);
+			assertThat(pool.borrow().length).isEqualTo(32);
+		}
+		
+		@Test
+		public void itZeroesReleasedBuffers() throws Exception {
+			final byte[] buffer = pool.borrow();
+			buffer[0] = 1;
+			buffer[31] = 2;
+			pool.release(buffer);
+			
+			assertThat(pool.borrow()).isEqualTo(new byte[32]);
+		}
+	}
+}
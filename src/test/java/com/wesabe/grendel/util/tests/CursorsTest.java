@@ -0,0 +1,59 @@
+package com.wesabe.grendel.util.tests;
+
+import static org.fest.assertions.Assertions.*;
+import static org.junit.Assert.*;
+
+import org.junit.Test;
+import org.junit.experimental.runners.Enclosed;
+import org.junit.runner.RunWith;
+
+import com.google.common.collect.ImmutableList;
+import com.wesabe.grendel.util.Cursors;
+
+@RunWith(Enclosed.class)
+public class CursorsTest {
+	public static class Encoding_A_Cursor {
+		@Test
+		public void itIsHexEncoded() throws Exception {
+			assertThat(Cursors.encode("bob", "a.txt")).isEqualTo("626f6200612e747874");
+		}
+		
+		@Test
+		public void itRoundTrips() throws Exception {
+			final String cursor = Cursors.encode("bob", "r\u00e9sum\u00e9.txt");
+			
+			assertThat(Cursors.decode(cursor, 2)).isEqualTo(ImmutableList.of("bob", "r\u00e9sum\u00e9.txt"));
+		}
+		
+		@Test
+		public void itKeepsEmptyParts() throws Exception {
+			assertThat(Cursors.decode(Cursors.encode("bob", ""), 2)).isEqualTo(ImmutableList.of("bob", ""));
+		}
+	}
+	
+	public static class Decoding_A_Malformed_Cursor {
+		@Test
+		public void itThrowsAnExceptionIfTheCursorIsNotHex() throws Exception {
+			assertMalformed("zz", 1);
+		}
+		
+		@Test
+		public void itThrowsAnExceptionIfTheCursorIsTruncated() throws Exception {
+			assertMalformed("626", 1);
+		}
+		
+		@Test
+		public void itThrowsAnExceptionIfTheCursorHasTheWrongNumberOfParts() throws Exception {
+			assertMalformed(Cursors.encode("bob"), 2);
+		}
+		
+		private void assertMalformed(String cursor, int parts) {
+			try {
+				Cursors.decode(cursor, parts);
+				fail("should have thrown an IllegalArgumentException but didn't");
+			} catch (IllegalArgumentException e) {
+				assertThat(e.getMessage()).isEqualTo("malformed cursor");
+			}
+		}
+	}
+}
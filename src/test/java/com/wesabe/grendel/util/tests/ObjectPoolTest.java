@@ -0,0 +1,132 @@
+package com.wesabe.grendel.util.tests;
+
+import static org.fest.assertions.Assertions.*;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.experimental.runners.Enclosed;
+import org.junit.runner.RunWith;
+
+import com.wesabe.grendel.util.ObjectPool;
+
+@RunWith(Enclosed.class)
+public class ObjectPoolTest {
+	private static class StringBuilderPool extends ObjectPool<StringBuilder> {
+		private final List<StringBuilder> destroyed = new ArrayList<StringBuilder>();
+		
+		public StringBuilderPool(int capacity) {
+			super(capacity);
+		}
+		
+		@Override
+		protected StringBuilder create() {
+			return new StringBuilder();
+		}
+		
+		@Override
+		protected void reset(StringBuilder object) {
+			object.setLength(0);
+		}
+		
+		@Override
+		protected void destroy(StringBuilder object) {
+			destroyed.add(object);
+		}
+	}
+	
+	public static class An_Empty_Pool {
+		private StringBuilderPool pool;
+		
+		@Before
+		public void setup() throws Exception {
+			this.pool = new StringBuilderPool(2);
+		}
+		
+		@Test
+		public void itHasACapacity() throws Exception {
+			assertThat(pool.getCapacity()).isEqualTo(2);
+		}
+		
+		@Test
+		public void itHasNoIdleObjects() throws Exception {
+			assertThat(pool.getIdleCount()).isEqualTo(0);
+		}
+		
+		@Test
+		public void itHasAZeroHitRatio() throws Exception {
+			assertThat(pool.getHitRatio()).isEqualTo(0.0);
+		}
+		
+		@Test
+		public void itCreatesNewObjectsAndCountsAMiss() throws Exception {
+			assertThat(pool.borrow()).isNotNull();
+			
+			assertThat(pool.getMissCount()).isEqualTo(1);
+			assertThat(pool.getHitCount()).isEqualTo(0);
+		}
+	}
+	
+	public static class Borrowing_A_Released_Object {
+		private StringBuilderPool pool;
+		private StringBuilder object;
+		
+		@Before
+		public void setup() throws Exception {
+			this.pool = new StringBuilderPool(2);
+			this.object = pool.borrow();
+			object.append("dingo");
+			pool.release(object);
+		}
+		
+		@Test
+		public void itReturnsTheSameObject() throws Exception {
+			assertThat(pool.borrow()).isSameAs(object);
+		}
+		
+		@Test
+		public void itResetsTheObject() throws Exception {
+			assertThat(pool.borrow().toString()).isEmpty();
+		}
+		
+		@Test
+		public void itCountsAHit() throws Exception {
+			pool.borrow();
+			
+			assertThat(pool.getHitCount()).isEqualTo(1);
+			assertThat(pool.getMissCount()).isEqualTo(1);
+			assertThat(pool.getHitRatio()).isEqualTo(0.5);
+		}
+	}
+	
+	public static class Releasing_Into_A_Full_Pool {
+		private StringBuilderPool pool;
+		
+		@Before
+		public void setup() throws Exception {
+			this.pool = new StringBuilderPool(1);
+		}
+		
+		@Test
+		public void itDestroysTheObjectAndCountsADiscard() throws Exception {
+			final StringBuilder one = pool.borrow();
+			final StringBuilder two = pool.borrow();
+			
+			pool.release(one);
+			pool.release(two);
+			
+			assertThat(pool.getIdleCount()).isEqualTo(1);
+			assertThat(pool.getDiscardCount()).isEqualTo(1);
+			assertThat(pool.destroyed).containsOnly(two);
+		}
+		
+		@Test
+		public void itIgnoresNulls() throws Exception {
+			pool.release(null);
+			
+			assertThat(pool.getIdleCount()).isEqualTo(0);
+		}
+	}
+}